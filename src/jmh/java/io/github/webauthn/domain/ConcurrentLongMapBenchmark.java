@@ -0,0 +1,128 @@
+package io.github.webauthn.domain;
+
+import io.github.webauthn.config.InMemoryOperation;
+import io.github.webauthn.config.WebAuthnOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the lookups of the in-memory repositories by id, {@link ConcurrentLongMap} against the boxed
+ * {@link InMemoryOperation} they used before, and the memory both maps take for the same users.
+ * <p>Run it with {@code mvn -Pjmh test-compile exec:java}. The {@code fill} benchmarks build a map of every user once
+ * per iteration and are meant for the gc profiler ({@code -prof gc}): their {@code gc.alloc.rate.norm} is the bytes
+ * allocated by the map, the presized ones are its footprint and the others add the arrays dropped while it grew.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ConcurrentLongMapBenchmark {
+
+    @Param({"100000", "3000000"})
+    int users;
+
+    DefaultWebAuthnUser[] all;
+    ConcurrentLongMap<DefaultWebAuthnUser> longMap;
+    WebAuthnOperation<DefaultWebAuthnUser, Long> inMemoryOperation;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        all = new DefaultWebAuthnUser[users];
+        longMap = new ConcurrentLongMap<>();
+        inMemoryOperation = new InMemoryOperation<>();
+        for (long id = 1; id <= users; id++) {
+            DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+            user.setId(id);
+            all[(int) id - 1] = user;
+            longMap.put(id, user);
+            inMemoryOperation.put(id, user);
+        }
+    }
+
+    @Benchmark
+    public DefaultWebAuthnUser getLongMap() {
+        return longMap.get(ThreadLocalRandom.current().nextLong(1, users + 1));
+    }
+
+    @Benchmark
+    public DefaultWebAuthnUser getInMemoryOperation() {
+        return inMemoryOperation.get(ThreadLocalRandom.current().nextLong(1, users + 1));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public ConcurrentLongMap<DefaultWebAuthnUser> fillLongMap() {
+        ConcurrentLongMap<DefaultWebAuthnUser> map = new ConcurrentLongMap<>();
+        for (DefaultWebAuthnUser user : all) {
+            map.put(user.getId(), user);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public ConcurrentLongMap<DefaultWebAuthnUser> fillLongMapPresized() {
+        ConcurrentLongMap<DefaultWebAuthnUser> map = new ConcurrentLongMap<>();
+        map.ensureCapacity(users);
+        for (DefaultWebAuthnUser user : all) {
+            map.put(user.getId(), user);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public Map<Long, DefaultWebAuthnUser> fillConcurrentHashMap() {
+        Map<Long, DefaultWebAuthnUser> map = new ConcurrentHashMap<>();
+        for (DefaultWebAuthnUser user : all) {
+            map.put(user.getId(), user);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    public Map<Long, DefaultWebAuthnUser> fillConcurrentHashMapPresized() {
+        Map<Long, DefaultWebAuthnUser> map = new ConcurrentHashMap<>(users);
+        for (DefaultWebAuthnUser user : all) {
+            map.put(user.getId(), user);
+        }
+        return map;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConcurrentLongMapBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.webauthn;
+
+import io.github.webauthn.domain.WebAuthnCredentialsRepository;
+import io.github.webauthn.domain.WebAuthnExport;
+import io.github.webauthn.domain.WebAuthnUserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Imports and exports the users and credentials on startup, in the {@link WebAuthnExport} format.
+ * <p>The files are set with the {@code webauthn.bulk} properties, for instance on the command line:
+ * {@code --webauthn.bulk.enabled=true --webauthn.bulk.import-users=users.bin}. The imports run before the exports.</p>
+ */
+public class WebAuthnBulkRunner implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(WebAuthnBulkRunner.class);
+
+    private final WebAuthnProperties.Bulk bulk;
+    private final WebAuthnUserRepository userRepository;
+    private final WebAuthnCredentialsRepository credentialsRepository;
+
+    public WebAuthnBulkRunner(WebAuthnProperties.Bulk bulk, WebAuthnUserRepository userRepository,
+                              WebAuthnCredentialsRepository credentialsRepository) {
+        this.bulk = bulk;
+        this.userRepository = userRepository;
+        this.credentialsRepository = credentialsRepository;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run(ApplicationArguments args) throws IOException {
+        if (bulk.getImportUsers() != null) {
+            long start = System.nanoTime();
+            AtomicLong count = new AtomicLong();
+            try (InputStream in = Files.newInputStream(bulk.getImportUsers());
+                 Stream<?> users = WebAuthnExport.readUsers(in)) {
+                userRepository.saveAll(users.peek(u -> count.incrementAndGet()));
+            }
+            log.info("run - imported {} users from {} in {} ms", count, bulk.getImportUsers(), elapsedMillis(start));
+        }
+        if (bulk.getImportCredentials() != null) {
+            long start = System.nanoTime();
+            AtomicLong count = new AtomicLong();
+            try (InputStream in = Files.newInputStream(bulk.getImportCredentials());
+                 Stream<?> credentials = WebAuthnExport.readCredentials(in)) {
+                credentialsRepository.saveAll(credentials.peek(c -> count.incrementAndGet()));
+            }
+            log.info("run - imported {} credentials from {} in {} ms", count, bulk.getImportCredentials(), elapsedMillis(start));
+        }
+        if (bulk.getExportUsers() != null) {
+            long start = System.nanoTime();
+            try (OutputStream out = newOutputStream(bulk.getExportUsers())) {
+                userRepository.exportAll(out);
+            }
+            log.info("run - exported the users to {} in {} ms", bulk.getExportUsers(), elapsedMillis(start));
+        }
+        if (bulk.getExportCredentials() != null) {
+            long start = System.nanoTime();
+            try (OutputStream out = newOutputStream(bulk.getExportCredentials())) {
+                credentialsRepository.exportAll(out);
+            }
+            log.info("run - exported the credentials to {} in {} ms", bulk.getExportCredentials(), elapsedMillis(start));
+        }
+    }
+
+    private static OutputStream newOutputStream(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        return Files.newOutputStream(file);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -4,17 +4,36 @@ package io.github.webauthn;
 import com.yubico.webauthn.CredentialRepository;
 import com.yubico.webauthn.RelyingParty;
 import com.yubico.webauthn.data.RelyingPartyIdentity;
-import io.github.webauthn.config.InMemoryOperation;
+import io.github.webauthn.config.BoundedInMemoryOperation;
+import io.github.webauthn.config.CeremonyCodec;
+import io.github.webauthn.config.CeremonyMeterBinder;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
+import io.github.webauthn.config.CeremonyTable;
+import io.github.webauthn.config.CeremonyWeigher;
+import io.github.webauthn.config.EncodedCeremonyOperation;
+import io.github.webauthn.config.ExpiringInMemoryOperation;
+import io.github.webauthn.config.InstrumentedWebAuthnOperation;
+import io.github.webauthn.config.JdbcCeremonyOperation;
+import io.github.webauthn.config.MappedCeremonyOperation;
+import io.github.webauthn.config.OffHeapCeremonyOperation;
 import io.github.webauthn.config.WebAuthnConfigurer;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
+import io.github.webauthn.domain.WebAuthnUserReaper;
 import io.github.webauthn.domain.WebAuthnUserRepository;
 import io.github.webauthn.dto.AssertionStartResponse;
 import io.github.webauthn.dto.RegistrationStartResponse;
 import io.github.webauthn.events.WebAuthnEventPublisher;
 import io.github.webauthn.service.DefaultCredentialService;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
@@ -23,24 +42,64 @@ import org.springframework.context.annotation.Import;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.logout.HttpStatusReturningLogoutSuccessHandler;
+import org.springframework.util.unit.DataSize;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 
 @Configuration
 @Import(WebAuthnInMemoryAutoConfiguration.class)
 @AutoConfigureAfter(WebAuthnInMemoryAutoConfiguration.class)
 @EnableConfigurationProperties(WebAuthnProperties.class)
 public class WebAuthnConfig {
+    private static final Logger log = LoggerFactory.getLogger(WebAuthnConfig.class);
+
+    public static final String REGISTRATION_CACHE = "webAuthnRegistrationCache";
+    public static final String ASSERTION_CACHE = "webAuthnAssertionCache";
+
+    /**
+     * The caches are told apart by name, their types only differ by their generic arguments
+     */
+    @Bean(REGISTRATION_CACHE)
+    @ConditionalOnMissingBean(name = REGISTRATION_CACHE)
+    public WebAuthnOperation<RegistrationStartResponse, String> webAuthnRegistrationCache(WebAuthnProperties properties, RelyingParty relyingParty,
+                                                                             ObjectProvider<DataSource> dataSource) {
+        return ceremonyCache(properties, relyingParty, dataSource.getIfAvailable(), "registration");
+    }
+
+    @Bean(ASSERTION_CACHE)
+    @ConditionalOnMissingBean(name = ASSERTION_CACHE)
+    public WebAuthnOperation<AssertionStartResponse, String> webAuthnAssertionCache(WebAuthnProperties properties, RelyingParty relyingParty,
+                                                                             ObjectProvider<DataSource> dataSource) {
+        return ceremonyCache(properties, relyingParty, dataSource.getIfAvailable(), "assertion");
+    }
 
     @Bean
     @ConditionalOnMissingBean
-    public WebAuthnOperation<RegistrationStartResponse, String> webAuthnRegistrationCache() {
-        return new InMemoryOperation<>();
+    @ConditionalOnProperty(prefix = "webauthn.ceremony.quota", name = "enabled", havingValue = "true")
+    public CeremonyQuota ceremonyQuota(WebAuthnProperties properties) {
+        return new CeremonyQuota(properties.getCeremony().getQuota().getMaxPerClient(), properties.getCeremony().getTimeout());
     }
 
     @Bean
     @ConditionalOnMissingBean
-    public WebAuthnOperation<AssertionStartResponse, String> webAuthnAssertionCache() {
-        return new InMemoryOperation();
+    @ConditionalOnProperty(prefix = "webauthn.ceremony.stateless", name = "enabled", havingValue = "true")
+    public CeremonySealer ceremonySealer(RelyingParty relyingParty, WebAuthnProperties properties) {
+        List<byte[]> keys = properties.getCeremony().getStateless().getKeys()
+                .stream()
+                .map(key -> Base64.getDecoder().decode(key))
+                .toList();
+        if (keys.isEmpty()) {
+            log.warn("ceremonySealer - no keys configured, the ceremonies can only be finished by this node");
+            keys = List.of(CeremonySealer.generateKey());
+        }
+        return new CeremonySealer(new CeremonyCodec(relyingParty), keys, properties.getCeremony().getTimeout());
     }
+
     @Bean
     @ConditionalOnMissingBean
     public WebAuthnEventPublisher webAuthnEventPublisher(ApplicationEventPublisher publisher) {
@@ -53,6 +112,26 @@ public class WebAuthnConfig {
         return new DefaultCredentialService(credentialsRepository, userRepository);
     }
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "webauthn.reaper", name = "enabled", havingValue = "true")
+    public WebAuthnUserReaper webAuthnUserReaper(WebAuthnProperties properties, WebAuthnUserRepository userRepository,
+                                                 WebAuthnCredentialsRepository credentialsRepository) {
+        WebAuthnProperties.Reaper reaper = properties.getReaper();
+        if (reaper.getGracePeriod().compareTo(properties.getCeremony().getTimeout()) <= 0) {
+            throw new IllegalStateException("webauthn.reaper.grace-period should be longer than webauthn.ceremony.timeout");
+        }
+        return new WebAuthnUserReaper(userRepository, credentialsRepository, reaper.getGracePeriod(), reaper.getInterval(),
+                reaper.getBatchSize(), Clock.systemDefaultZone());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "webauthn.bulk", name = "enabled", havingValue = "true")
+    public WebAuthnBulkRunner webAuthnBulkRunner(WebAuthnProperties properties, WebAuthnUserRepository userRepository,
+                                                 WebAuthnCredentialsRepository credentialsRepository) {
+        return new WebAuthnBulkRunner(properties.getBulk(), userRepository, credentialsRepository);
+    }
+
     @Bean
     @ConditionalOnMissingBean(RelyingParty.class)
     public RelyingParty relyingParty(CredentialRepository credentialRepository,
@@ -73,4 +152,102 @@ public class WebAuthnConfig {
         return builder
                 .build();
     }
+
+    /**
+     * Only loaded when Micrometer is on the classpath, it is an optional dependency of the starter
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterBinder.class)
+    @ConditionalOnProperty(prefix = "webauthn.ceremony", name = "metrics", havingValue = "true")
+    static class CeremonyMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public CeremonyMeterBinder webAuthnCeremonyMeterBinder(Map<String, WebAuthnOperation<?, ?>> ceremonyStores) {
+            return new CeremonyMeterBinder(ceremonyStores);
+        }
+    }
+
+    /**
+     * @param kind registration or assertion, the stores kept outside of the heap are not shared between the caches
+     */
+    private static <T> WebAuthnOperation<T, String> ceremonyCache(WebAuthnProperties properties, RelyingParty relyingParty,
+                                                                  DataSource dataSource, String kind) {
+        WebAuthnOperation<T, String> cache = ceremonyStore(properties.getCeremony(), relyingParty, dataSource, kind);
+        return properties.getCeremony().isMetrics() ? new InstrumentedWebAuthnOperation<>(cache) : cache;
+    }
+
+    private static <T> WebAuthnOperation<T, String> ceremonyStore(WebAuthnProperties.Ceremony ceremony, RelyingParty relyingParty,
+                                                                  DataSource dataSource, String kind) {
+        if (dataSource != null && ceremony.getJdbc().isEnabled()) {
+            return new EncodedCeremonyOperation<>(new CeremonyCodec(relyingParty), jdbcCeremonyOperation(dataSource, ceremony, kind));
+        }
+        if (ceremony.getStore() == WebAuthnProperties.Ceremony.Store.OFF_HEAP) {
+            return new EncodedCeremonyOperation<>(new CeremonyCodec(relyingParty), offHeapCeremonyOperation(ceremony));
+        }
+        if (ceremony.getStore() == WebAuthnProperties.Ceremony.Store.MAPPED) {
+            return new EncodedCeremonyOperation<>(new CeremonyCodec(relyingParty), mappedCeremonyOperation(ceremony, kind));
+        }
+        if (ceremony.isCompact()) {
+            return new EncodedCeremonyOperation<>(new CeremonyCodec(relyingParty), ceremonyOperation(ceremony));
+        }
+        return ceremonyOperation(ceremony);
+    }
+
+    /**
+     * The max size is reserved by each cache, like the max entries are kept by each one
+     */
+    private static OffHeapCeremonyOperation offHeapCeremonyOperation(WebAuthnProperties.Ceremony ceremony) {
+        long maxSize = ceremony.getMaxSize() != null ? ceremony.getMaxSize().toBytes() : DataSize.ofMegabytes(64).toBytes();
+        int slabSize = (int) ceremony.getSlabSize().toBytes();
+        return new OffHeapCeremonyOperation(ceremony.getTimeout(), slabSize, (int) Math.max(1, maxSize / slabSize));
+    }
+
+    /**
+     * Each cache has its own table, counted and purged on its own, a flood of registrations does not block assertions
+     */
+    private static JdbcCeremonyOperation jdbcCeremonyOperation(DataSource dataSource, WebAuthnProperties.Ceremony ceremony, String kind) {
+        WebAuthnProperties.Jdbc jdbc = ceremony.getJdbc();
+        return new JdbcCeremonyOperation(dataSource, jdbc.getTableName() + "_" + kind, ceremony.getTimeout(), jdbc.getPurgeInterval(),
+                jdbc.getPurgeBatchSize(), jdbc.isInitializeSchema(), Math.max(0, ceremony.getMaxEntries()), Clock.systemUTC());
+    }
+
+    private static MappedCeremonyOperation mappedCeremonyOperation(WebAuthnProperties.Ceremony ceremony, String kind) {
+        WebAuthnProperties.Mapped mapped = ceremony.getMapped();
+        return new MappedCeremonyOperation(suffixed(mapped.getPath(), kind), ceremony.getTimeout(), (int) mapped.getRecordSize().toBytes(),
+                ceremony.getMaxEntries() > 0 ? ceremony.getMaxEntries() : 100_000);
+    }
+
+    /**
+     * A file is only mapped by one store, webauthn/ceremonies.dat becomes webauthn/ceremonies-registration.dat
+     */
+    private static Path suffixed(Path path, String kind) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return path.resolveSibling(dot > 0
+                ? name.substring(0, dot) + "-" + kind + name.substring(dot)
+                : name + "-" + kind);
+    }
+
+    /**
+     * The table only counts its entries and rejects the next ones, the limits it would silently ignore fail the startup
+     */
+    private static <T> WebAuthnOperation<T, String> ceremonyOperation(WebAuthnProperties.Ceremony ceremony) {
+        if (ceremony.getStore() == WebAuthnProperties.Ceremony.Store.TABLE) {
+            if (ceremony.getMaxSize() != null || ceremony.getOverflowPolicy() != BoundedInMemoryOperation.OverflowPolicy.REJECT) {
+                throw new IllegalStateException("webauthn.ceremony.store=TABLE only supports max-entries with the REJECT " +
+                        "overflow-policy, unset max-size and overflow-policy or use the MEMORY store");
+            }
+            return new CeremonyTable<>(ceremony.getTimeout(),
+                    ceremony.getMaxEntries() > 0 ? ceremony.getMaxEntries() : Integer.MAX_VALUE);
+        }
+        if (ceremony.getMaxEntries() <= 0 && ceremony.getMaxSize() == null) {
+            return new ExpiringInMemoryOperation<>(ceremony.getTimeout());
+        }
+        return new BoundedInMemoryOperation<>(ceremony.getTimeout(),
+                ceremony.getMaxEntries() > 0 ? ceremony.getMaxEntries() : Integer.MAX_VALUE,
+                ceremony.getMaxSize() != null ? ceremony.getMaxSize().toBytes() : Long.MAX_VALUE,
+                CeremonyWeigher::weigh,
+                ceremony.getOverflowPolicy());
+    }
 }
@@ -3,6 +3,8 @@ package io.github.webauthn;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.RelyingParty;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.WebAuthnCredentials;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
@@ -16,6 +18,7 @@ import io.github.webauthn.dto.RegistrationStartRequest;
 import io.github.webauthn.dto.RegistrationStartResponse;
 import io.github.webauthn.events.WebAuthnEventPublisher;
 import io.github.webauthn.flows.InvalidTokenException;
+import io.github.webauthn.flows.TooManyCeremoniesException;
 import io.github.webauthn.flows.UserCreationDisabledException;
 import io.github.webauthn.flows.UsernameAlreadyExistsException;
 import io.github.webauthn.flows.WebAuthnAssertionFinishStrategy;
@@ -32,10 +35,12 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.util.StringUtils;
 import org.springframework.web.filter.GenericFilterBean;
 
 import java.io.IOException;
@@ -66,17 +71,43 @@ public class WebAuthnFilter extends GenericFilterBean {
     private BiConsumer<? extends WebAuthnUser, WebAuthnCredentials> updateSecurityContextHandler;
     private Function<WebAuthnAssertionFinishStrategy.AssertionSuccessResponse, Object> authenticationSuccessHandler;
     private Supplier<? extends WebAuthnUser> userSupplier;
+    private Function<HttpServletRequest, String> clientKeyResolver;
+    private WebAuthnProperties.Quota.ClientKey clientKey;
     private ObjectMapper mapper;
 
     public WebAuthnFilter() {
 
     }
 
+    /**
+     * Keeps the ceremonies in the operations, without a quota
+     */
     public void registerDefaults(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
                                  WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
                                  WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
                                  WebAuthnOperation<AssertionStartResponse, String> assertionOperation,
                                  WebAuthnEventPublisher publisher) {
+        registerDefaults(properties, appUserRepository, credentialRepository, relyingParty, mapper, registrationOperation,
+                assertionOperation, publisher, null, null);
+    }
+
+    /**
+     * @param sealer null to keep the ceremonies in the operations
+     */
+    public void registerDefaults(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
+                                 WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
+                                 WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
+                                 WebAuthnOperation<AssertionStartResponse, String> assertionOperation,
+                                 WebAuthnEventPublisher publisher, CeremonySealer sealer) {
+        registerDefaults(properties, appUserRepository, credentialRepository, relyingParty, mapper, registrationOperation,
+                assertionOperation, publisher, sealer, null);
+    }
+
+    public void registerDefaults(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
+                                 WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
+                                 WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
+                                 WebAuthnOperation<AssertionStartResponse, String> assertionOperation,
+                                 WebAuthnEventPublisher publisher, CeremonySealer sealer, CeremonyQuota quota) {
         this.registrationStartPath = properties.getEndpoints().getRegistrationStartPath();
         this.registrationAddPath = properties.getEndpoints().getRegistrationAddPath();
         this.registrationFinishPath = properties.getEndpoints().getRegistrationFinishPath();
@@ -84,17 +115,18 @@ public class WebAuthnFilter extends GenericFilterBean {
         this.assertionFinishPath = properties.getEndpoints().getAssertionFinishPath();
         this.mapper = mapper;
         this.eventPublisher = publisher;
+        this.clientKey = properties.getCeremony().getQuota().getKey();
 
 
         this.startStrategy = new WebAuthnRegistrationStartStrategy(appUserRepository,
-                credentialRepository, relyingParty, registrationOperation, properties);
+                credentialRepository, relyingParty, registrationOperation, properties, sealer, quota);
         this.addStrategy = new WebAuthnRegistrationAddStrategy(appUserRepository, eventPublisher);
         this.finishStrategy = new WebAuthnRegistrationFinishStrategy(appUserRepository,
-                credentialRepository, relyingParty, registrationOperation, publisher);
+                credentialRepository, relyingParty, registrationOperation, publisher, sealer, quota);
 
-        this.assertionStartStrategy = new WebAuthnAssertionStartStrategy(relyingParty, assertionOperation);
+        this.assertionStartStrategy = new WebAuthnAssertionStartStrategy(relyingParty, assertionOperation, properties, sealer, quota);
         this.assertionFinishStrategy = new WebAuthnAssertionFinishStrategy(appUserRepository,
-                credentialRepository, relyingParty, assertionOperation);
+                credentialRepository, relyingParty, assertionOperation, sealer, quota);
     }
 
     public BiConsumer<? extends WebAuthnUser, WebAuthnCredentials> getUpdateSecurityContextHandler() {
@@ -113,6 +145,13 @@ public class WebAuthnFilter extends GenericFilterBean {
         this.userSupplier = userSupplier;
     }
 
+    /**
+     * Overrides the {@link WebAuthnProperties.Quota#getKey()} used to count the pending ceremonies of a client
+     */
+    public void setClientKeyResolver(Function<HttpServletRequest, String> clientKeyResolver) {
+        this.clientKeyResolver = clientKeyResolver;
+    }
+
 
     @Override
     public void doFilter(
@@ -127,7 +166,8 @@ public class WebAuthnFilter extends GenericFilterBean {
                 RegistrationStartRequest body = parseRequest(request, RegistrationStartRequest.class);
                 try {
                     Optional<WebAuthnUser> currentUser = userSupplier != null ? ofNullable(userSupplier.get()) : empty();
-                    RegistrationStartResponse registrationStartResponse = startStrategy.registrationStart(body, currentUser);
+                    RegistrationStartResponse registrationStartResponse = startStrategy.registrationStart(body, currentUser,
+                            clientKey(req, body.getUsername()));
                     String json = mapper.writeValueAsString(registrationStartResponse);
 
                     writeToResponse(response, json);
@@ -137,6 +177,8 @@ public class WebAuthnFilter extends GenericFilterBean {
                     writeBadRequestToResponse(response, new RegistrationStartResponse(RegistrationStartResponse.Status.TOKEN_INVALID));
                 } catch (UserCreationDisabledException e) {
                     writeBadRequestToResponse(response, new RegistrationStartResponse(RegistrationStartResponse.Status.USER_REGISTRATION_DISABLED));
+                } catch (TooManyCeremoniesException e) {
+                    writeTooManyRequestsToResponse(response, e);
                 }
 
             } else if (this.registrationFinishPath.matches(req)) {
@@ -153,11 +195,13 @@ public class WebAuthnFilter extends GenericFilterBean {
             } else if (assertionStartPath.matches(req)) {
                 AssertionStartRequest startRequest = parseRequest(request, AssertionStartRequest.class);
                 try {
-                    AssertionStartResponse start = assertionStartStrategy.start(startRequest);
+                    AssertionStartResponse start = assertionStartStrategy.start(startRequest, clientKey(req, startRequest.getUsername()));
                     String json = mapper.writeValueAsString(start);
                     writeToResponse(response, json);
                 } catch (UsernameNotFoundException e) {
                     writeBadRequestToResponse(response, Map.of("message", e.getMessage()));
+                } catch (TooManyCeremoniesException e) {
+                    writeTooManyRequestsToResponse(response, e);
                 }
 
             } else if (assertionFinishPath.matches(req)) {
@@ -176,6 +220,16 @@ public class WebAuthnFilter extends GenericFilterBean {
         }
     }
 
+    private String clientKey(HttpServletRequest request, String username) {
+        if (clientKeyResolver != null) {
+            return clientKeyResolver.apply(request);
+        }
+        if (clientKey == WebAuthnProperties.Quota.ClientKey.USERNAME && StringUtils.hasText(username)) {
+            return username;
+        }
+        return request.getRemoteAddr();
+    }
+
     private <T> T parseRequest(ServletRequest request, Class<T> clasz) throws IOException {
         return mapper.readValue(request.getReader(), clasz);
     }
@@ -193,6 +247,10 @@ public class WebAuthnFilter extends GenericFilterBean {
         writeToResponse(HttpServletResponse.SC_BAD_REQUEST, response, mapper.writeValueAsString(body));
     }
 
+    private void writeTooManyRequestsToResponse(ServletResponse response, TooManyCeremoniesException e) throws IOException {
+        writeToResponse(HttpStatus.TOO_MANY_REQUESTS.value(), response, mapper.writeValueAsString(Map.of("message", e.getMessage())));
+    }
+
     private void writeToResponse(int status, ServletResponse response, String body) throws IOException {
         log.debug("writeToResponse - status: {}, body: {}", status, body);
         HttpServletResponse res = (HttpServletResponse) response;
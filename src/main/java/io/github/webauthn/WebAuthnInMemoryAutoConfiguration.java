@@ -1,26 +1,122 @@
 package io.github.webauthn;
 
 
+import io.github.webauthn.domain.FilteredWebAuthnUserRepository;
+import io.github.webauthn.domain.UsernameFilter;
+import io.github.webauthn.domain.WebAuthnCredentialsColumnarRepository;
 import io.github.webauthn.domain.WebAuthnCredentialsInMemoryRepository;
+import io.github.webauthn.domain.WebAuthnCredentialsMappedRepository;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
+import io.github.webauthn.domain.WebAuthnJournal;
+import io.github.webauthn.domain.WebAuthnUser;
 import io.github.webauthn.domain.WebAuthnUserInMemoryRepository;
 import io.github.webauthn.domain.WebAuthnUserRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class WebAuthnInMemoryAutoConfiguration {
 
+    /**
+     * Wraps the user repository, the default one or the one declared by the application, so the unknown usernames
+     * never reach it. Static, the post processor is created before the other beans.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "webauthn.username-filter", name = "enabled", havingValue = "true")
+    public static BeanPostProcessor webAuthnUsernameFilterPostProcessor(ObjectProvider<WebAuthnProperties> properties) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof WebAuthnUserRepository<?> repository && !(bean instanceof FilteredWebAuthnUserRepository)) {
+                    return filtered(repository, properties.getObject().getUsernameFilter());
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Fills the filter once every bean, the journal included, has loaded its users
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "webauthn.username-filter", name = "enabled", havingValue = "true")
+    public SmartInitializingSingleton webAuthnUsernameFilterLoader(WebAuthnUserRepository<?> userRepository) {
+        return () -> {
+            if (userRepository instanceof FilteredWebAuthnUserRepository<?> filtered) {
+                filtered.load();
+            }
+        };
+    }
+
     @Bean
     @ConditionalOnMissingBean(WebAuthnUserRepository.class)
     public WebAuthnUserRepository webAuthnUserRepository() {
         return new WebAuthnUserInMemoryRepository();
     }
 
+    // declared before the default one, which is then skipped
+    @Bean
+    @ConditionalOnMissingBean(WebAuthnCredentialsRepository.class)
+    @ConditionalOnProperty(prefix = "webauthn.credentials", name = "store", havingValue = "columnar")
+    public WebAuthnCredentialsRepository webAuthnColumnarCredentialsRepository() {
+        return new WebAuthnCredentialsColumnarRepository();
+    }
+
+    /**
+     * The credentials outlive a restart, their users have to as well: the in-memory users are only accepted with
+     * webauthn.persistence, otherwise the new users would get the ids, and the passkeys, of the lost ones
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean(WebAuthnCredentialsRepository.class)
+    @ConditionalOnProperty(prefix = "webauthn.credentials", name = "store", havingValue = "mapped")
+    public WebAuthnCredentialsRepository webAuthnMappedCredentialsRepository(WebAuthnProperties properties,
+                                                                             WebAuthnUserRepository userRepository) {
+        if (unwrap(userRepository) instanceof WebAuthnUserInMemoryRepository && !properties.getPersistence().isEnabled()) {
+            throw new IllegalStateException("webauthn.credentials.store=MAPPED keeps the credentials of users that the " +
+                    "in-memory user repository loses on restart, enable webauthn.persistence or declare a persistent WebAuthnUserRepository");
+        }
+        WebAuthnProperties.Credentials credentials = properties.getCredentials();
+        return new WebAuthnCredentialsMappedRepository(credentials.getDirectory(), Math.toIntExact(credentials.getSegmentSize().toBytes()));
+    }
+
     @Bean
     @ConditionalOnMissingBean(WebAuthnCredentialsRepository.class)
     public WebAuthnCredentialsRepository webAuthnCredentialsRepository() {
         return new WebAuthnCredentialsInMemoryRepository();
     }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "webauthn.persistence", name = "enabled", havingValue = "true")
+    public WebAuthnJournal webAuthnJournal(WebAuthnProperties properties, WebAuthnUserRepository userRepository,
+                                           WebAuthnCredentialsRepository credentialsRepository) {
+        if (!(unwrap(userRepository) instanceof WebAuthnUserInMemoryRepository users)) {
+            throw new IllegalStateException("webauthn.persistence only applies to the in-memory user repository");
+        }
+        WebAuthnProperties.Persistence persistence = properties.getPersistence();
+        if (credentialsRepository instanceof WebAuthnCredentialsInMemoryRepository credentials) {
+            return new WebAuthnJournal(persistence.getDirectory(), persistence.getSnapshotInterval(), users, credentials);
+        }
+        if (credentialsRepository instanceof WebAuthnCredentialsMappedRepository mapped) {
+            // the mapped credentials persist themselves, the ids of their deleted owners are not handed out again
+            WebAuthnJournal journal = new WebAuthnJournal(persistence.getDirectory(), persistence.getSnapshotInterval(), users, null);
+            users.reserveIdsUpTo(mapped.lastAppUserId());
+            return journal;
+        }
+        throw new IllegalStateException("webauthn.persistence only applies to the in-memory and mapped credentials repositories");
+    }
+
+    private static WebAuthnUserRepository<?> unwrap(WebAuthnUserRepository<?> userRepository) {
+        return userRepository instanceof FilteredWebAuthnUserRepository<?> filtered ? filtered.getDelegate() : userRepository;
+    }
+
+    private static <T extends WebAuthnUser> FilteredWebAuthnUserRepository<T> filtered(WebAuthnUserRepository<T> repository,
+                                                                                     WebAuthnProperties.UsernameFilter filter) {
+        return new FilteredWebAuthnUserRepository<>(repository,
+                new UsernameFilter(filter.getExpectedUsernames(), filter.getFalsePositiveRate()));
+    }
 }
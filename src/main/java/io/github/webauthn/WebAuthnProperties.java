@@ -4,14 +4,19 @@ import com.yubico.webauthn.RelyingParty;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import com.yubico.webauthn.data.PublicKeyCredentialParameters;
 import com.yubico.webauthn.data.PublicKeyCredentialType;
+import io.github.webauthn.config.BoundedInMemoryOperation;
 import jakarta.validation.constraints.NotEmpty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
 import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.util.unit.DataSize;
 
 import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -45,6 +50,18 @@ public class WebAuthnProperties {
 
     private FilterPaths endpoints = new FilterPaths();
 
+    private Ceremony ceremony = new Ceremony();
+
+    private Credentials credentials = new Credentials();
+
+    private Persistence persistence = new Persistence();
+
+    private Bulk bulk = new Bulk();
+
+    private Reaper reaper = new Reaper();
+
+    private UsernameFilter usernameFilter = new UsernameFilter();
+
     public String getRelyingPartyId() {
         return this.relyingPartyId;
     }
@@ -77,6 +94,46 @@ public class WebAuthnProperties {
         this.relyingPartyOrigins = relyingPartyOrigins;
     }
 
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    public void setCredentials(Credentials credentials) {
+        this.credentials = credentials;
+    }
+
+    public Persistence getPersistence() {
+        return persistence;
+    }
+
+    public void setPersistence(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public void setBulk(Bulk bulk) {
+        this.bulk = bulk;
+    }
+
+    public Reaper getReaper() {
+        return reaper;
+    }
+
+    public void setReaper(Reaper reaper) {
+        this.reaper = reaper;
+    }
+
+    public UsernameFilter getUsernameFilter() {
+        return usernameFilter;
+    }
+
+    public void setUsernameFilter(UsernameFilter usernameFilter) {
+        this.usernameFilter = usernameFilter;
+    }
+
     public FilterPaths getEndpoints() {
         return endpoints;
     }
@@ -85,6 +142,14 @@ public class WebAuthnProperties {
         this.endpoints = endpoints;
     }
 
+    public Ceremony getCeremony() {
+        return ceremony;
+    }
+
+    public void setCeremony(Ceremony ceremony) {
+        this.ceremony = ceremony;
+    }
+
     public List<PublicKeyCredentialParameters> getPreferredPubkeyParams() {
         if (preferredPubkeyParams == null)
             return null;
@@ -204,6 +269,636 @@ public class WebAuthnProperties {
         }
     }
 
+    public static class Ceremony {
+
+        public enum Store {
+            /**
+             * Hash map with a timing wheel, see {@link io.github.webauthn.config.ExpiringInMemoryOperation}
+             */
+            MEMORY,
+            /**
+             * Primitive open addressing table keyed by the 16 bytes of the id, see {@link io.github.webauthn.config.CeremonyTable}.
+             * Only {@link #maxEntries} with the REJECT {@link #overflowPolicy} is supported, the startup fails when
+             * {@link #maxSize} or EVICT_OLDEST is set
+             */
+            TABLE,
+            /**
+             * Encoded ceremonies in direct memory slabs, see {@link io.github.webauthn.config.OffHeapCeremonyOperation}
+             */
+            OFF_HEAP,
+            /**
+             * Encoded ceremonies in a memory mapped file surviving restarts, see {@link io.github.webauthn.config.MappedCeremonyOperation}
+             */
+            MAPPED
+        }
+
+        /**
+         * Where the started ceremonies are kept when no {@link javax.sql.DataSource} is used
+         */
+        private Store store = Store.MEMORY;
+
+        /**
+         * How long a registration or assertion ceremony can take. It is sent to the client as the ceremony timeout
+         * and the started ceremonies are dropped from the {@link io.github.webauthn.config.WebAuthnOperation} afterwards.
+         */
+        private Duration timeout = Duration.ofMinutes(5);
+
+        /**
+         * Maximum number of started ceremonies kept at the same time by each cache, registrations and assertions are
+         * counted apart, 0 for no limit
+         */
+        private int maxEntries = 100_000;
+
+        /**
+         * Maximum estimated heap used by the started ceremonies of each cache, no limit if not set.
+         * With the {@link Store#OFF_HEAP} store it is the direct memory reserved for the slabs of each cache, 64MB if not
+         * set, the registration and the assertion caches together reserve twice this size.
+         */
+        private DataSize maxSize;
+
+        /**
+         * Size of the direct memory slabs used by the {@link Store#OFF_HEAP} store
+         */
+        private DataSize slabSize = DataSize.ofMegabytes(1);
+
+        /**
+         * What happens when a new ceremony is started while the maximum number of entries or size is reached,
+         * the {@link Store#TABLE} store only rejects them
+         */
+        private BoundedInMemoryOperation.OverflowPolicy overflowPolicy = BoundedInMemoryOperation.OverflowPolicy.REJECT;
+
+        /**
+         * Keep the started ceremonies as small byte arrays holding only what the finish endpoints need
+         */
+        private boolean compact;
+
+        /**
+         * Count the puts, takes and expirations of the started ceremonies, see {@link io.github.webauthn.config.InstrumentedWebAuthnOperation}
+         */
+        private boolean metrics = true;
+
+        /**
+         * File used by the {@link Store#MAPPED} store
+         */
+        private Mapped mapped = new Mapped();
+
+        /**
+         * Database table used for the started ceremonies when a {@link javax.sql.DataSource} is available
+         */
+        private Jdbc jdbc = new Jdbc();
+
+        /**
+         * Seal the ceremony state in the assertionId and registrationId instead of keeping it in the {@link io.github.webauthn.config.WebAuthnOperation}
+         */
+        private Stateless stateless = new Stateless();
+
+        /**
+         * Cap on the ceremonies a single client can have pending, see {@link io.github.webauthn.config.CeremonyQuota}
+         */
+        private Quota quota = new Quota();
+
+        public Store getStore() {
+            return store;
+        }
+
+        public void setStore(Store store) {
+            this.store = store;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getSlabSize() {
+            return slabSize;
+        }
+
+        public void setSlabSize(DataSize slabSize) {
+            this.slabSize = slabSize;
+        }
+
+        public BoundedInMemoryOperation.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(BoundedInMemoryOperation.OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public boolean isCompact() {
+            return compact;
+        }
+
+        public void setCompact(boolean compact) {
+            this.compact = compact;
+        }
+
+        public boolean isMetrics() {
+            return metrics;
+        }
+
+        public void setMetrics(boolean metrics) {
+            this.metrics = metrics;
+        }
+
+        public Mapped getMapped() {
+            return mapped;
+        }
+
+        public void setMapped(Mapped mapped) {
+            this.mapped = mapped;
+        }
+
+        public Jdbc getJdbc() {
+            return jdbc;
+        }
+
+        public void setJdbc(Jdbc jdbc) {
+            this.jdbc = jdbc;
+        }
+
+        public Stateless getStateless() {
+            return stateless;
+        }
+
+        public void setStateless(Stateless stateless) {
+            this.stateless = stateless;
+        }
+
+        public Quota getQuota() {
+            return quota;
+        }
+
+        public void setQuota(Quota quota) {
+            this.quota = quota;
+        }
+    }
+
+    public static class Credentials {
+
+        public enum Store {
+            /**
+             * One object per credential, see {@link io.github.webauthn.domain.WebAuthnCredentialsInMemoryRepository}
+             */
+            MEMORY,
+            /**
+             * Credentials packed in primitive columns and shared byte pages,
+             * see {@link io.github.webauthn.domain.WebAuthnCredentialsColumnarRepository}
+             */
+            COLUMNAR,
+            /**
+             * Credentials in memory mapped segment files surviving restarts,
+             * see {@link io.github.webauthn.domain.WebAuthnCredentialsMappedRepository}.
+             * The in-memory users then need {@link Persistence}, the startup fails otherwise
+             */
+            MAPPED
+        }
+
+        /**
+         * Store used when the application does not declare its own credentials repository
+         */
+        private Store store = Store.MEMORY;
+
+        /**
+         * Directory of the {@link Store#MAPPED} segments and indexes, it should be on a volume kept between restarts
+         */
+        private Path directory = Path.of("webauthn", "credentials");
+
+        /**
+         * Size of the {@link Store#MAPPED} segment files
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        public Store getStore() {
+            return store;
+        }
+
+        public void setStore(Store store) {
+            this.store = store;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(DataSize segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+    }
+
+    public static class Persistence {
+
+        /**
+         * Keep the in-memory users and credentials in a journal and snapshots, see {@link io.github.webauthn.domain.WebAuthnJournal}.
+         * With the {@link Credentials.Store#MAPPED} credentials only the users are journaled
+         */
+        private boolean enabled;
+
+        /**
+         * Directory of the journal and snapshots, it should be on a volume kept between restarts
+         */
+        private Path directory = Path.of("webauthn", "data");
+
+        /**
+         * How often a snapshot is written, the journals it replaces are deleted afterwards
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public Duration getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(Duration snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+    }
+
+    public static class Reaper {
+
+        /**
+         * Delete the users of abandoned registrations, see {@link io.github.webauthn.domain.WebAuthnUserReaper}.
+         * Off by default, it would also delete the users provisioned or imported without credentials
+         */
+        private boolean enabled = false;
+
+        /**
+         * How long a user can stay not enabled, it should be longer than the ceremony timeout
+         */
+        private Duration gracePeriod = Duration.ofHours(1);
+
+        /**
+         * Delay between two runs of the reaper
+         */
+        private Duration interval = Duration.ofMinutes(5);
+
+        /**
+         * Users examined per batch
+         */
+        private int batchSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getGracePeriod() {
+            return gracePeriod;
+        }
+
+        public void setGracePeriod(Duration gracePeriod) {
+            this.gracePeriod = gracePeriod;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class UsernameFilter {
+
+        /**
+         * Reject the assertions of unknown usernames before looking them up, the user repository is wrapped in a
+         * {@link io.github.webauthn.domain.FilteredWebAuthnUserRepository}
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of usernames the filter is sized for
+         */
+        private long expectedUsernames = 1_000_000;
+
+        /**
+         * Share of the unknown usernames that are still looked up
+         */
+        private double falsePositiveRate = 0.01;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getExpectedUsernames() {
+            return expectedUsernames;
+        }
+
+        public void setExpectedUsernames(long expectedUsernames) {
+            this.expectedUsernames = expectedUsernames;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+    }
+
+    public static class Bulk {
+
+        /**
+         * Run the imports and exports on startup, see {@link WebAuthnBulkRunner}
+         */
+        private boolean enabled;
+
+        /**
+         * Users to import, written by an export
+         */
+        private Path importUsers;
+
+        /**
+         * Credentials to import, written by an export
+         */
+        private Path importCredentials;
+
+        /**
+         * File the users are exported to
+         */
+        private Path exportUsers;
+
+        /**
+         * File the credentials are exported to
+         */
+        private Path exportCredentials;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getImportUsers() {
+            return importUsers;
+        }
+
+        public void setImportUsers(Path importUsers) {
+            this.importUsers = importUsers;
+        }
+
+        public Path getImportCredentials() {
+            return importCredentials;
+        }
+
+        public void setImportCredentials(Path importCredentials) {
+            this.importCredentials = importCredentials;
+        }
+
+        public Path getExportUsers() {
+            return exportUsers;
+        }
+
+        public void setExportUsers(Path exportUsers) {
+            this.exportUsers = exportUsers;
+        }
+
+        public Path getExportCredentials() {
+            return exportCredentials;
+        }
+
+        public void setExportCredentials(Path exportCredentials) {
+            this.exportCredentials = exportCredentials;
+        }
+    }
+
+    public static class Mapped {
+
+        /**
+         * Ceremony file, it should be on a volume kept between restarts. Each cache maps its own file, named after this
+         * one with a suffix, like ceremonies-registration.dat and ceremonies-assertion.dat
+         */
+        private Path path = Path.of("webauthn", "ceremonies.dat");
+
+        /**
+         * Size of a record, the encoded ceremonies larger than this are rejected
+         */
+        private DataSize recordSize = DataSize.ofKilobytes(1);
+
+        public Path getPath() {
+            return path;
+        }
+
+        public void setPath(Path path) {
+            this.path = path;
+        }
+
+        public DataSize getRecordSize() {
+            return recordSize;
+        }
+
+        public void setRecordSize(DataSize recordSize) {
+            this.recordSize = recordSize;
+        }
+    }
+
+    public static class Jdbc {
+
+        /**
+         * Keep the started ceremonies in the application's DataSource instead of the configured store
+         */
+        private boolean enabled = false;
+
+        /**
+         * Prefix of the tables, each cache has its own, like webauthn_ceremony_registration and
+         * webauthn_ceremony_assertion
+         */
+        private String tableName = "webauthn_ceremony";
+
+        /**
+         * Create the table if it does not exist
+         */
+        private boolean initializeSchema = false;
+
+        /**
+         * How often the expired ceremonies are deleted
+         */
+        private Duration purgeInterval = Duration.ofMinutes(1);
+
+        /**
+         * Maximum number of rows deleted by one statement when purging
+         */
+        private int purgeBatchSize = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public void setTableName(String tableName) {
+            this.tableName = tableName;
+        }
+
+        public boolean isInitializeSchema() {
+            return initializeSchema;
+        }
+
+        public void setInitializeSchema(boolean initializeSchema) {
+            this.initializeSchema = initializeSchema;
+        }
+
+        public Duration getPurgeInterval() {
+            return purgeInterval;
+        }
+
+        public void setPurgeInterval(Duration purgeInterval) {
+            this.purgeInterval = purgeInterval;
+        }
+
+        public int getPurgeBatchSize() {
+            return purgeBatchSize;
+        }
+
+        public void setPurgeBatchSize(int purgeBatchSize) {
+            this.purgeBatchSize = purgeBatchSize;
+        }
+    }
+
+    public static class Quota {
+
+        public enum ClientKey {
+            /**
+             * The remote address of the request
+             */
+            REMOTE_ADDRESS,
+            /**
+             * The username sent to the start endpoints, the remote address when there is none
+             */
+            USERNAME
+        }
+
+        private boolean enabled;
+
+        /**
+         * Pending ceremonies kept per client, the oldest one is removed when a client starts one more
+         */
+        private int maxPerClient = 10;
+
+        /**
+         * How the clients are told apart when no custom resolver is set on the filter
+         */
+        private ClientKey key = ClientKey.REMOTE_ADDRESS;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxPerClient() {
+            return maxPerClient;
+        }
+
+        public void setMaxPerClient(int maxPerClient) {
+            this.maxPerClient = maxPerClient;
+        }
+
+        public ClientKey getKey() {
+            return key;
+        }
+
+        public void setKey(ClientKey key) {
+            this.key = key;
+        }
+    }
+
+    public static class Stateless {
+        private boolean enabled;
+
+        /**
+         * Base64 encoded AES keys shared by all the nodes. The first one seals the new ceremonies, the others are only used
+         * to open the ceremonies sealed before a key rotation. A random key is generated if none is set.
+         */
+        private List<String> keys = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        public void setKeys(List<String> keys) {
+            this.keys = keys;
+        }
+    }
+
     public static class FeatureToggle {
         boolean enabled;
 
@@ -0,0 +1,78 @@
+package io.github.webauthn.config;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Set;
+
+/**
+ * Exposes a blocking {@link WebAuthnOperation} as a {@link ReactiveWebAuthnOperation}.
+ * <p>Every call runs on the given scheduler: {@link Schedulers#immediate()} for the in process stores of this starter,
+ * which never wait, and {@link Schedulers#boundedElastic()} for any other store, like {@link JdbcCeremonyOperation}
+ * or the ones supplied by the application, see {@link #of(WebAuthnOperation)}.</p>
+ */
+public class BlockingReactiveWebAuthnOperation<T, K> implements ReactiveWebAuthnOperation<T, K> {
+
+    /**
+     * Stores known to answer from memory without waiting, their subclasses are not trusted since they may override the
+     * hooks with blocking code. The memory mapped store is left out, a page fault can wait on the disk.
+     */
+    private static final Set<Class<?>> IN_PROCESS = Set.of(InMemoryOperation.class, ExpiringInMemoryOperation.class,
+            BoundedInMemoryOperation.class, CeremonyTable.class, OffHeapCeremonyOperation.class);
+
+    private final WebAuthnOperation<T, K> delegate;
+    private final Scheduler scheduler;
+
+    public BlockingReactiveWebAuthnOperation(WebAuthnOperation<T, K> delegate, Scheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adapts the store on the scheduler it needs, the boundedElastic one unless it is known not to block
+     */
+    public static <T, K> BlockingReactiveWebAuthnOperation<T, K> of(WebAuthnOperation<T, K> delegate) {
+        return new BlockingReactiveWebAuthnOperation<>(delegate,
+                isBlocking(delegate) ? Schedulers.boundedElastic() : Schedulers.immediate());
+    }
+
+    static boolean isBlocking(WebAuthnOperation<?, ?> operation) {
+        if (operation instanceof InstrumentedWebAuthnOperation<?, ?> instrumented) {
+            return isBlocking(instrumented.getDelegate());
+        }
+        if (operation instanceof EncodedCeremonyOperation<?> encoded) {
+            return isBlocking(encoded.getDelegate());
+        }
+        return !IN_PROCESS.contains(operation.getClass());
+    }
+
+    @Override
+    public Mono<Void> put(K id, T data) {
+        return Mono.<Void>fromRunnable(() -> delegate.put(id, data)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<T> get(K id) {
+        return Mono.fromCallable(() -> delegate.get(id)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Void> remove(K id) {
+        return Mono.<Void>fromRunnable(() -> delegate.remove(id)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<T> take(K id) {
+        return Mono.fromCallable(() -> delegate.take(id)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Boolean> isFull() {
+        return Mono.fromCallable(delegate::isFull).subscribeOn(scheduler);
+    }
+
+    public WebAuthnOperation<T, K> getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,177 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.flows.TooManyCeremoniesException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link ExpiringInMemoryOperation} holding at most {@code maxEntries} entries and {@code maxBytes} bytes,
+ * as estimated by the given weigher.
+ * <p>When it is full the {@link OverflowPolicy} decides if the new entry is rejected
+ * with a {@link TooManyCeremoniesException} or if the oldest entries are evicted to make room for it.</p>
+ * <p>The room of each entry is reserved with compare and set on the counters before it is added, and the weigher is
+ * called again to give it back, so it should weigh a value the same way every time.</p>
+ */
+public class BoundedInMemoryOperation<T, K> extends ExpiringInMemoryOperation<T, K> {
+    private static final Logger log = LoggerFactory.getLogger(BoundedInMemoryOperation.class);
+
+    public enum OverflowPolicy {
+        /**
+         * New entries are rejected until the old ones are removed or expired
+         */
+        REJECT,
+        /**
+         * The oldest entries are dropped to make room for the new ones
+         */
+        EVICT_OLDEST
+    }
+
+    // keys in the order they were added, only kept to evict the oldest, the removed ones are skipped
+    private final Queue<K> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger entries = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ToLongFunction<? super T> weigher;
+    private final OverflowPolicy policy;
+
+    public BoundedInMemoryOperation(Duration ttl, int maxEntries, long maxBytes,
+                                    ToLongFunction<? super T> weigher, OverflowPolicy policy) {
+        this(ttl, maxEntries, maxBytes, weigher, policy, Clock.systemUTC());
+    }
+
+    public BoundedInMemoryOperation(Duration ttl, int maxEntries, long maxBytes,
+                                    ToLongFunction<? super T> weigher, OverflowPolicy policy, Clock clock) {
+        super(ttl, clock);
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxBytes should be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.policy = policy;
+    }
+
+    /**
+     * Two reads while there is room. At the limit the expired entries are dropped before answering, unless another
+     * caller is already doing it: the start strategies check this before any put, so a store filled by abandoned
+     * ceremonies would otherwise stay full.
+     */
+    @Override
+    public boolean isFull() {
+        if (policy != OverflowPolicy.REJECT || !atLimit()) {
+            return false;
+        }
+        tryExpire();
+        return atLimit();
+    }
+
+    /**
+     * @return the number of entries turned down because the operation was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of entries dropped to make room for newer ones
+     */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private boolean atLimit() {
+        return entries.get() >= maxEntries || bytes.get() >= maxBytes;
+    }
+
+    @Override
+    protected void beforeAdd(K id, T data) {
+        long weight = weigher.applyAsLong(data);
+        if (weight > maxBytes) {
+            rejected.increment();
+            throw new TooManyCeremoniesException("Entry larger than the maximum size");
+        }
+        boolean expired = false;
+        while (!reserve(weight)) {
+            if (!expired) {
+                expired = true;
+                tryExpire();
+                continue;
+            }
+            K oldestId = policy == OverflowPolicy.EVICT_OLDEST ? order.poll() : null;
+            if (oldestId == null) {
+                rejected.increment();
+                throw new TooManyCeremoniesException("Too many ceremonies in progress");
+            }
+            if (evict(oldestId)) {
+                log.debug("beforeAdd - evicting {}", oldestId);
+                evicted.increment();
+            }
+        }
+    }
+
+    @Override
+    protected void onAdded(K id, T data) {
+        if (policy == OverflowPolicy.EVICT_OLDEST) {
+            order.offer(id);
+        }
+    }
+
+    @Override
+    protected void onRemoved(K id, T data) {
+        entries.decrementAndGet();
+        bytes.addAndGet(-weigher.applyAsLong(data));
+    }
+
+    /**
+     * The oldest keys are the first to expire, the ones no longer held are dropped so the order stays as large as
+     * the entries of one time to live
+     */
+    @Override
+    protected void onAdvanced() {
+        K oldestId;
+        while ((oldestId = order.peek()) != null && !contains(oldestId)) {
+            order.poll();
+        }
+    }
+
+    /**
+     * @return true if the room of one more entry of this weight was taken
+     */
+    private boolean reserve(long weight) {
+        while (true) {
+            int current = entries.get();
+            if (current >= maxEntries) {
+                return false;
+            }
+            if (entries.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        while (true) {
+            long current = bytes.get();
+            if (current + weight > maxBytes) {
+                entries.decrementAndGet();
+                return false;
+            }
+            if (bytes.compareAndSet(current, current + weight)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.data.AssertionExtensionInputs;
+import com.yubico.webauthn.data.AuthenticatorAttachment;
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import com.yubico.webauthn.data.RegistrationExtensionInputs;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.ResidentKeyRequirement;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubico.webauthn.data.UserVerificationRequirement;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Compact binary form of a started ceremony, holding only what the finish strategies need:
+ * the challenge, the user, the allowed credential ids, the mode, the relying party id and the time the ceremony started.
+ * <p>The Yubico request objects are rebuilt from the {@link RelyingParty} configuration when the ceremony is decoded.
+ * The extensions, public key parameters and attestation preference are not encoded, they are taken from the relying party
+ * the same way {@link RelyingParty#startAssertion} and {@link RelyingParty#startRegistration} do.</p>
+ * <p>The enums are written by name, so reordered or new constants in a later library version still decode stored ceremonies
+ * to the right values. The version byte changes with the format, payloads of another version are rejected.</p>
+ * <p>Decoding a malformed payload throws an {@link IllegalArgumentException}.</p>
+ */
+public final class CeremonyCodec {
+
+    private static final byte VERSION = 2;
+    private static final byte ASSERTION = 1;
+    private static final byte REGISTRATION = 2;
+    private static final int ABSENT = 0xFFFF;
+
+    private final RelyingParty relyingParty;
+
+    public CeremonyCodec(RelyingParty relyingParty) {
+        this.relyingParty = relyingParty;
+    }
+
+    public byte[] encodeAssertion(AssertionRequest request, long timestamp) {
+        PublicKeyCredentialRequestOptions options = request.getPublicKeyCredentialRequestOptions();
+        Writer writer = new Writer(128);
+        writer.putByte(VERSION);
+        writer.putByte(ASSERTION);
+        writer.putLong(timestamp);
+        writer.putString(options.getRpId());
+        writer.putBytes(options.getChallenge().getBytes());
+        writer.putString(request.getUsername().orElse(null));
+        writer.putBytes(request.getUserHandle().map(ByteArray::getBytes).orElse(null));
+        writer.putEnum(options.getUserVerification().orElse(null));
+        List<PublicKeyCredentialDescriptor> allowCredentials = options.getAllowCredentials().orElse(null);
+        if (allowCredentials == null) {
+            writer.putShort(ABSENT);
+        } else {
+            writer.putShort(allowCredentials.size());
+            for (PublicKeyCredentialDescriptor descriptor : allowCredentials) {
+                writer.putBytes(descriptor.getId().getBytes());
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    public byte[] encodeAssertion(AssertionStartResponse response, long timestamp) {
+        return encodeAssertion(response.getAssertionRequest(), timestamp);
+    }
+
+    public byte[] encodeRegistration(RegistrationStartResponse.Mode mode, PublicKeyCredentialCreationOptions options, long timestamp) {
+        Optional<AuthenticatorSelectionCriteria> selection = options.getAuthenticatorSelection();
+        Writer writer = new Writer(128);
+        writer.putByte(VERSION);
+        writer.putByte(REGISTRATION);
+        writer.putLong(timestamp);
+        writer.putString(options.getRp().getId());
+        writer.putBytes(options.getChallenge().getBytes());
+        writer.putEnum(mode);
+        writer.putBytes(options.getUser().getId().getBytes());
+        writer.putString(options.getUser().getName());
+        writer.putString(options.getUser().getDisplayName());
+        writer.putByte(selection.isPresent() ? 1 : 0);
+        if (selection.isPresent()) {
+            writer.putEnum(selection.get().getUserVerification().orElse(null));
+            writer.putEnum(selection.get().getResidentKey().orElse(null));
+            writer.putEnum(selection.get().getAuthenticatorAttachment().orElse(null));
+        }
+        return writer.toByteArray();
+    }
+
+    public byte[] encodeRegistration(RegistrationStartResponse response, long timestamp) {
+        return encodeRegistration(response.getMode(), response.getPublicKeyCredentialCreationOptions(), timestamp);
+    }
+
+    /**
+     * @param ceremony an {@link AssertionStartResponse} or a {@link RegistrationStartResponse}
+     */
+    public byte[] encode(Object ceremony, long timestamp) {
+        if (ceremony instanceof AssertionStartResponse assertion) {
+            return encodeAssertion(assertion, timestamp);
+        } else if (ceremony instanceof RegistrationStartResponse registration) {
+            return encodeRegistration(registration, timestamp);
+        }
+        throw new IllegalArgumentException("Unsupported ceremony " + ceremony);
+    }
+
+    /**
+     * @return an {@link AssertionStartResponse} or a {@link RegistrationStartResponse} depending on what was encoded
+     */
+    public Object decode(String id, byte[] data) {
+        if (data.length < 2) {
+            throw new IllegalArgumentException("Ceremony too short");
+        }
+        return data[1] == REGISTRATION ? decodeRegistration(id, data) : decodeAssertion(id, data);
+    }
+
+    public AssertionStartResponse decodeAssertion(String assertionId, byte[] data) {
+        Reader reader = new Reader(data, ASSERTION);
+        String rpId = reader.getString();
+        ByteArray challenge = new ByteArray(reader.getBytes());
+        Optional<String> username = Optional.ofNullable(reader.getString());
+        Optional<ByteArray> userHandle = Optional.ofNullable(reader.getBytes()).map(ByteArray::new);
+        UserVerificationRequirement userVerification = reader.getEnum(UserVerificationRequirement.class);
+        List<PublicKeyCredentialDescriptor> allowCredentials = null;
+        int count = reader.getShort();
+        if (count != ABSENT) {
+            allowCredentials = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                allowCredentials.add(PublicKeyCredentialDescriptor.builder()
+                        .id(new ByteArray(reader.getBytes()))
+                        .build());
+            }
+        }
+
+        PublicKeyCredentialRequestOptions.PublicKeyCredentialRequestOptionsBuilder options = PublicKeyCredentialRequestOptions.builder()
+                .challenge(challenge)
+                .rpId(rpId)
+                .allowCredentials(Optional.ofNullable(allowCredentials))
+                .extensions(AssertionExtensionInputs.builder()
+                        .appid(relyingParty.getAppId())
+                        .build());
+        if (userVerification != null) {
+            options.userVerification(userVerification);
+        }
+        AssertionRequest request = AssertionRequest.builder()
+                .publicKeyCredentialRequestOptions(options.build())
+                .username(username)
+                .userHandle(userHandle)
+                .build();
+        return new AssertionStartResponse(assertionId, request, timestamp(data));
+    }
+
+    public RegistrationStartResponse decodeRegistration(String registrationId, byte[] data) {
+        Reader reader = new Reader(data, REGISTRATION);
+        String rpId = reader.getString();
+        ByteArray challenge = new ByteArray(reader.getBytes());
+        RegistrationStartResponse.Mode mode = reader.getEnum(RegistrationStartResponse.Mode.class);
+        ByteArray userId = new ByteArray(reader.getBytes());
+        UserIdentity user = UserIdentity.builder()
+                .name(reader.getString())
+                .displayName(reader.getString())
+                .id(userId)
+                .build();
+        AuthenticatorSelectionCriteria selection = reader.getBoolean() ? getSelection(reader) : null;
+
+        PublicKeyCredentialCreationOptions.PublicKeyCredentialCreationOptionsBuilder options = PublicKeyCredentialCreationOptions.builder()
+                .rp(RelyingPartyIdentity.builder()
+                        .id(rpId)
+                        .name(relyingParty.getIdentity().getName())
+                        .build())
+                .user(user)
+                .challenge(challenge)
+                .pubKeyCredParams(relyingParty.getPreferredPubkeyParams())
+                .authenticatorSelection(Optional.ofNullable(selection))
+                .extensions(RegistrationExtensionInputs.builder()
+                        .appidExclude(relyingParty.getAppId())
+                        .credProps()
+                        .build());
+        relyingParty.getAttestationConveyancePreference().ifPresent(options::attestation);
+        return new RegistrationStartResponse(mode, registrationId, options.build(), timestamp(data));
+    }
+
+    private static AuthenticatorSelectionCriteria getSelection(Reader reader) {
+        UserVerificationRequirement userVerification = reader.getEnum(UserVerificationRequirement.class);
+        ResidentKeyRequirement residentKey = reader.getEnum(ResidentKeyRequirement.class);
+        AuthenticatorAttachment attachment = reader.getEnum(AuthenticatorAttachment.class);
+        AuthenticatorSelectionCriteria.AuthenticatorSelectionCriteriaBuilder selection = AuthenticatorSelectionCriteria.builder();
+        if (userVerification != null) {
+            selection.userVerification(userVerification);
+        }
+        if (residentKey != null) {
+            selection.residentKey(residentKey);
+        }
+        if (attachment != null) {
+            selection.authenticatorAttachment(attachment);
+        }
+        return selection.build();
+    }
+
+    /**
+     * @return the timestamp given when the ceremony was encoded
+     */
+    public static long timestamp(byte[] data) {
+        if (data.length < 10) {
+            throw new IllegalArgumentException("Ceremony too short");
+        }
+        return ByteBuffer.wrap(data, 2, 8).getLong();
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        private Writer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void putByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        private void putShort(int value) {
+            ensureCapacity(2);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+        }
+
+        private void putLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void putBytes(byte[] value) {
+            if (value == null) {
+                putShort(ABSENT);
+                return;
+            }
+            if (value.length >= ABSENT) {
+                throw new IllegalArgumentException("Field too long: " + value.length);
+            }
+            putShort(value.length);
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, buffer, position, value.length);
+            position += value.length;
+        }
+
+        private void putString(String value) {
+            putBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void putEnum(Enum<?> value) {
+            putString(value == null ? null : value.name());
+        }
+
+        private void ensureCapacity(int length) {
+            if (position + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buffer;
+
+        private Reader(byte[] data, byte type) {
+            this.buffer = ByteBuffer.wrap(data);
+            try {
+                if (buffer.get() != VERSION || buffer.get() != type) {
+                    throw new IllegalArgumentException("Unsupported ceremony");
+                }
+                buffer.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Ceremony too short", e);
+            }
+        }
+
+        private int getShort() {
+            try {
+                return buffer.getShort() & 0xFFFF;
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Ceremony too short", e);
+            }
+        }
+
+        private byte[] getBytes() {
+            int length = getShort();
+            if (length == ABSENT) {
+                return null;
+            }
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Ceremony too short");
+            }
+            byte[] value = new byte[length];
+            buffer.get(value);
+            return value;
+        }
+
+        private String getString() {
+            byte[] value = getBytes();
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        private boolean getBoolean() {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Ceremony too short");
+            }
+            return buffer.get() != 0;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the enum has no constant with the stored name
+         */
+        private <E extends Enum<E>> E getEnum(Class<E> type) {
+            String name = getString();
+            return name == null ? null : Enum.valueOf(type, name);
+        }
+    }
+}
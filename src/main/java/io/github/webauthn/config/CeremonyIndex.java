@@ -0,0 +1,61 @@
+package io.github.webauthn.config;
+
+/**
+ * {@link CeremonySlots} from a ceremony id to a long value and a deadline.
+ * <p>Everything is kept in primitive arrays, the stores use it to find records kept outside the heap.
+ * The index is not thread safe, callers are expected to guard it with their own lock.</p>
+ */
+final class CeremonyIndex extends CeremonySlots {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] values = new long[INITIAL_CAPACITY];
+
+    CeremonyIndex() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds or replaces the id, the previous slot should be looked up with {@link #find(long, long)} first when it matters
+     */
+    void put(long high, long low, long value, long deadline) {
+        int slot = find(high, low);
+        if (slot >= 0) {
+            setDeadline(slot, deadline);
+        } else {
+            slot = insert(high, low, deadline);
+        }
+        values[slot] = value;
+    }
+
+    long valueAt(int slot) {
+        return values[slot];
+    }
+
+    @Override
+    void clear() {
+        super.clear();
+        values = new long[INITIAL_CAPACITY];
+    }
+
+    @Override
+    void move(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void release(int slot) {
+        // nothing to let go of in a primitive value
+    }
+
+    @Override
+    void relocate(int capacity, int[] targets) {
+        long[] oldValues = values;
+        values = new long[capacity];
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] >= 0) {
+                values[targets[i]] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.webauthn.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds the counters of the {@link InstrumentedWebAuthnOperation} ceremony stores to Micrometer, tagged with the name
+ * of the store. The stores that are not instrumented are skipped, and so is the expired counter of the stores that do
+ * not count their expirations.
+ */
+public class CeremonyMeterBinder implements MeterBinder {
+
+    private final Map<String, WebAuthnOperation<?, ?>> stores;
+
+    /**
+     * @param stores the stores by the value of their {@code store} tag, like their bean names
+     */
+    public CeremonyMeterBinder(Map<String, ? extends WebAuthnOperation<?, ?>> stores) {
+        this.stores = Map.copyOf(stores);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        stores.forEach((name, operation) -> {
+            if (operation instanceof InstrumentedWebAuthnOperation<?, ?> store) {
+                bind(registry, name, store);
+            }
+        });
+    }
+
+    private static void bind(MeterRegistry registry, String name, InstrumentedWebAuthnOperation<?, ?> store) {
+        Gauge.builder("webauthn.ceremonies.live", store, InstrumentedWebAuthnOperation::size)
+                .tag("store", name)
+                .register(registry);
+        FunctionCounter.builder("webauthn.ceremonies.started", store, InstrumentedWebAuthnOperation::getPuts)
+                .tag("store", name)
+                .register(registry);
+        FunctionCounter.builder("webauthn.ceremonies.rejected", store, InstrumentedWebAuthnOperation::getRejected)
+                .tag("store", name)
+                .register(registry);
+        FunctionCounter.builder("webauthn.ceremonies.finished", store, InstrumentedWebAuthnOperation::getTakeHits)
+                .tag("store", name)
+                .register(registry);
+        FunctionCounter.builder("webauthn.ceremonies.missed", store, InstrumentedWebAuthnOperation::getTakeMisses)
+                .tag("store", name)
+                .register(registry);
+        if (store.getExpiredCount() >= 0) {
+            FunctionCounter.builder("webauthn.ceremonies.expired", store, InstrumentedWebAuthnOperation::getExpiredCount)
+                    .tag("store", name)
+                    .register(registry);
+        }
+        FunctionTimer.builder("webauthn.ceremonies.age", store, InstrumentedWebAuthnOperation::getTakeHits,
+                        InstrumentedWebAuthnOperation::getTakeAgeTotalMillis, TimeUnit.MILLISECONDS)
+                .tag("store", name)
+                .register(registry);
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.webauthn.config;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the ceremonies a single client can have pending, a client being a remote address, a username or any other key.
+ * <p>Each client gets {@code maxPerClient} slots of ceremony ids updated with compare and set, no lock is taken and the
+ * ceremony store is never asked. A slot is freed by {@link #release(String)} when its ceremony is finished, or once it
+ * is older than the ceremony timeout. When all of them are still pending a new ceremony replaces the oldest one,
+ * which the caller should remove from its {@link WebAuthnOperation}.</p>
+ * <p>Clients are forgotten once they have not started a ceremony for the ceremony timeout,
+ * the check runs at most once per timeout.</p>
+ */
+public class CeremonyQuota {
+
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    // client of each pending ceremony, so a finish can free its slot without knowing who started it
+    private final Map<String, Client> owners = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurge = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final int maxPerClient;
+    private final long timeoutMillis;
+    private final Clock clock;
+
+    public CeremonyQuota(int maxPerClient, Duration timeout) {
+        this(maxPerClient, timeout, Clock.systemUTC());
+    }
+
+    public CeremonyQuota(int maxPerClient, Duration timeout, Clock clock) {
+        if (maxPerClient <= 0) {
+            throw new IllegalArgumentException("maxPerClient should be positive");
+        }
+        this.maxPerClient = maxPerClient;
+        this.timeoutMillis = timeout.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Counts a new ceremony for the client
+     *
+     * @return the id of the client's oldest ceremony if it has to make room for the new one, null otherwise
+     */
+    public String acquire(String clientKey, String ceremonyId) {
+        long now = clock.millis();
+        purge(now);
+        Client client = clients.computeIfAbsent(clientKey, key -> new Client(maxPerClient));
+        client.lastSeen = now;
+        owners.put(ceremonyId, client);
+        Pending pending = new Pending(ceremonyId, client.next.getAndIncrement(), now);
+        while (true) {
+            int oldest = -1;
+            Pending oldestPending = null;
+            for (int i = 0; i < maxPerClient; i++) {
+                int slot = (int) ((pending.sequence() + i) % maxPerClient);
+                Pending previous = client.slots.get(slot);
+                if (previous == null || previous.acquiredAt() <= now - timeoutMillis) {
+                    if (client.slots.compareAndSet(slot, previous, pending)) {
+                        if (previous != null) {
+                            // timed out, the store expires it on its own
+                            owners.remove(previous.id(), client);
+                        }
+                        return null;
+                    }
+                } else if (oldestPending == null || previous.sequence() < oldestPending.sequence()) {
+                    oldest = slot;
+                    oldestPending = previous;
+                }
+            }
+            if (oldestPending == null) {
+                // every free slot was taken by a concurrent acquire, look at them again
+                continue;
+            }
+            if (client.slots.compareAndSet(oldest, oldestPending, pending)) {
+                owners.remove(oldestPending.id(), client);
+                evictions.increment();
+                return oldestPending.id();
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a ceremony taken from the store to be finished, an unknown id is ignored
+     */
+    public void release(String ceremonyId) {
+        Client client = owners.remove(ceremonyId);
+        if (client == null) {
+            return;
+        }
+        for (int slot = 0; slot < maxPerClient; slot++) {
+            Pending pending = client.slots.get(slot);
+            if (pending != null && pending.id().equals(ceremonyId) && client.slots.compareAndSet(slot, pending, null)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the ceremonies removed to respect the quota since this quota was created
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the clients that started a ceremony recently
+     */
+    public int getClients() {
+        return clients.size();
+    }
+
+    private void purge(long now) {
+        long purgeAt = nextPurge.get();
+        if (now >= purgeAt && nextPurge.compareAndSet(purgeAt, now + timeoutMillis)) {
+            clients.values().removeIf(client -> client.lastSeen <= now - timeoutMillis);
+            // the ceremonies of a forgotten client were all started before the timeout
+            owners.values().removeIf(client -> client.lastSeen <= now - timeoutMillis);
+        }
+    }
+
+    /**
+     * @param sequence order in which the client acquired its ceremonies, the lowest one is evicted first
+     */
+    private record Pending(String id, long sequence, long acquiredAt) {
+    }
+
+    private static final class Client {
+        private final AtomicReferenceArray<Pending> slots;
+        private final AtomicLong next = new AtomicLong();
+        private volatile long lastSeen;
+
+        private Client(int maxPerClient) {
+            this.slots = new AtomicReferenceArray<>(maxPerClient);
+        }
+    }
+}
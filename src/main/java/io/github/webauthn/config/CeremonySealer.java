@@ -0,0 +1,225 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Seals the state of a started ceremony inside its id, so any node can finish it without looking it up in a
+ * {@link WebAuthnOperation}.
+ * <p>The state is encoded with a {@link CeremonyCodec} and encrypted with AES-GCM. The first key is used to seal new ceremonies,
+ * all the keys are accepted when opening them: a new key is rotated in by adding it first and the old one is dropped once
+ * the ceremony timeout has passed.</p>
+ * <p>Each id can be opened once per node. The replay filter is local, it only remembers the ids opened by this node
+ * until they expire.</p>
+ */
+public class CeremonySealer {
+    private static final Logger log = LoggerFactory.getLogger(CeremonySealer.class);
+    private static final byte VERSION = 1;
+    private static final int KEY_ID_LENGTH = 4;
+    private static final int NONCE_LENGTH = 12;
+    private static final int HEADER_LENGTH = 1 + KEY_ID_LENGTH + NONCE_LENGTH;
+    private static final int TAG_BITS = 128;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(CeremonySealer::newCipher);
+    private final Map<ByteArray, Long> opened = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurge = new AtomicLong();
+    private final CeremonyCodec codec;
+    private final SealingKey sealingKey;
+    private final Map<Integer, SealingKey> keys = new HashMap<>();
+    private final long timeoutMillis;
+    private final Clock clock;
+
+    /**
+     * @param keys AES keys of 16, 24 or 32 bytes, the first one seals the new ceremonies
+     */
+    public CeremonySealer(CeremonyCodec codec, List<byte[]> keys, Duration timeout) {
+        this(codec, keys, timeout, Clock.systemUTC());
+    }
+
+    public CeremonySealer(CeremonyCodec codec, List<byte[]> keys, Duration timeout, Clock clock) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one key is needed");
+        }
+        this.codec = codec;
+        for (byte[] key : keys) {
+            SealingKey sealingKey = new SealingKey(key);
+            if (this.keys.putIfAbsent(sealingKey.id, sealingKey) != null) {
+                throw new IllegalArgumentException("Duplicate key");
+            }
+        }
+        this.sealingKey = this.keys.get(keyId(keys.get(0)));
+        this.timeoutMillis = timeout.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * @return a random key, only usable by a single node since the other nodes cannot open what it seals
+     */
+    public static byte[] generateKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    public String sealAssertion(AssertionRequest request) {
+        return seal(codec.encodeAssertion(request, clock.millis()));
+    }
+
+    public String sealRegistration(RegistrationStartResponse.Mode mode, PublicKeyCredentialCreationOptions options) {
+        return seal(codec.encodeRegistration(mode, options, clock.millis()));
+    }
+
+    /**
+     * @return the ceremony sealed in the id or null if the id is invalid, expired or was already opened
+     */
+    public AssertionStartResponse openAssertion(String assertionId) {
+        return open(assertionId, state -> codec.decodeAssertion(assertionId, state));
+    }
+
+    /**
+     * @return the ceremony sealed in the id or null if the id is invalid, expired or was already opened
+     */
+    public RegistrationStartResponse openRegistration(String registrationId) {
+        return open(registrationId, state -> codec.decodeRegistration(registrationId, state));
+    }
+
+    private String seal(byte[] state) {
+        byte[] sealed = new byte[HEADER_LENGTH + state.length + TAG_BITS / 8];
+        ByteBuffer.wrap(sealed)
+                .put(VERSION)
+                .putInt(sealingKey.id);
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        System.arraycopy(nonce, 0, sealed, 1 + KEY_ID_LENGTH, NONCE_LENGTH);
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, sealingKey.spec, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(sealed, 0, HEADER_LENGTH);
+            cipher.doFinal(state, 0, state.length, sealed, HEADER_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not seal the ceremony", e);
+        }
+        return Base64.getEncoder().encodeToString(sealed);
+    }
+
+    /**
+     * The id is only marked as opened once its state was decoded as the expected kind of ceremony, so presenting it
+     * to the wrong endpoint does not burn it
+     *
+     * @param decode throws an {@link IllegalArgumentException} if the state is not the expected kind of ceremony
+     */
+    private <T> T open(String id, Function<byte[], T> decode) {
+        byte[] sealed;
+        try {
+            sealed = Base64.getDecoder().decode(id);
+        } catch (IllegalArgumentException e) {
+            log.debug("open - invalid id {}", id);
+            return null;
+        }
+        if (sealed.length <= HEADER_LENGTH + TAG_BITS / 8 || sealed[0] != VERSION) {
+            log.debug("open - invalid id {}", id);
+            return null;
+        }
+        SealingKey key = keys.get(ByteBuffer.wrap(sealed, 1, KEY_ID_LENGTH).getInt());
+        if (key == null) {
+            log.debug("open - unknown key for {}", id);
+            return null;
+        }
+
+        byte[] state;
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key.spec, new GCMParameterSpec(TAG_BITS, sealed, 1 + KEY_ID_LENGTH, NONCE_LENGTH));
+            cipher.updateAAD(sealed, 0, HEADER_LENGTH);
+            state = cipher.doFinal(sealed, HEADER_LENGTH, sealed.length - HEADER_LENGTH);
+        } catch (GeneralSecurityException e) {
+            log.debug("open - could not open {}", id);
+            return null;
+        }
+
+        long now = clock.millis();
+        long expiresAt = CeremonyCodec.timestamp(state) + timeoutMillis;
+        if (now >= expiresAt) {
+            log.debug("open - {} expired", id);
+            return null;
+        }
+        T ceremony;
+        try {
+            ceremony = decode.apply(state);
+        } catch (IllegalArgumentException e) {
+            log.debug("open - {} is not the expected ceremony: {}", id, e.getMessage());
+            return null;
+        }
+        ByteArray nonce = new ByteArray(Arrays.copyOfRange(sealed, 1 + KEY_ID_LENGTH, HEADER_LENGTH));
+        purgeOpened(now);
+        if (opened.putIfAbsent(nonce, expiresAt) != null) {
+            log.warn("open - {} was already used", id);
+            return null;
+        }
+        return ceremony;
+    }
+
+    /**
+     * Forgets the ids that would be rejected as expired anyway, at most once every timeout
+     */
+    private void purgeOpened(long now) {
+        long purgeAt = nextPurge.get();
+        if (now >= purgeAt && nextPurge.compareAndSet(purgeAt, now + timeoutMillis)) {
+            opened.values().removeIf(expiresAt -> expiresAt <= now);
+        }
+    }
+
+    private static int keyId(byte[] key) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(key)).getInt();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    }
+
+    private static final class SealingKey {
+        private final int id;
+        private final SecretKeySpec spec;
+
+        private SealingKey(byte[] key) {
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalArgumentException("Keys should have 16, 24 or 32 bytes");
+            }
+            this.id = keyId(key);
+            this.spec = new SecretKeySpec(key, "AES");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.github.webauthn.config;
+
+/**
+ * Open addressing table of 16 bytes ceremony ids, read as two longs, each with a deadline.
+ * <p>The ids and deadlines are kept in primitive arrays and probed linearly, deletions shift the next entries back so
+ * lookups never need tombstones. Subclasses keep their values in arrays parallel to the slots and follow the entries
+ * through {@link #move(int, int)} and {@link #relocate(int, int[])}. The slots are not thread safe, callers are expected
+ * to guard them with their own lock.</p>
+ */
+abstract class CeremonySlots {
+
+    private final int initialCapacity;
+    private long[] keys;
+    // 0 marks a free slot, the deadlines are always positive
+    private long[] deadlines;
+    private int size;
+
+    CeremonySlots(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.keys = new long[initialCapacity * 2];
+        this.deadlines = new long[initialCapacity];
+    }
+
+    /**
+     * Mixes the two halves of an id, the ids are random, the mix only protects against callers putting their own ids
+     */
+    static long hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return the slot of the id or -1 if it is not in the table
+     */
+    final int find(long high, long low) {
+        int mask = deadlines.length - 1;
+        int index = (int) hash(high, low) & mask;
+        while (deadlines[index] != 0) {
+            if (keys[index * 2] == high && keys[index * 2 + 1] == low) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds an id that is not in the table yet, growing it first when needed
+     *
+     * @return the slot of the id, where the caller stores its value
+     */
+    final int insert(long high, long low, long deadline) {
+        if (isCrowded()) {
+            resize(deadlines.length * 2);
+        }
+        int mask = deadlines.length - 1;
+        int index = (int) hash(high, low) & mask;
+        while (deadlines[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        keys[index * 2] = high;
+        keys[index * 2 + 1] = low;
+        deadlines[index] = deadline;
+        size++;
+        return index;
+    }
+
+    /**
+     * @return true if the next {@link #insert(long, long, long)} grows the table
+     */
+    final boolean isCrowded() {
+        return (size + 1) * 4 > deadlines.length * 3;
+    }
+
+    final long deadlineAt(int slot) {
+        return deadlines[slot];
+    }
+
+    final void setDeadline(int slot, long deadline) {
+        deadlines[slot] = deadline;
+    }
+
+    final boolean isUsed(int slot) {
+        return deadlines[slot] != 0;
+    }
+
+    /**
+     * Backward shift deletion.
+     * The entries after the slot can move, a caller iterating the slots should check the same slot again.
+     */
+    final void removeAt(int slot) {
+        int mask = deadlines.length - 1;
+        int hole = slot;
+        int index = (hole + 1) & mask;
+        while (deadlines[index] != 0) {
+            int home = (int) hash(keys[index * 2], keys[index * 2 + 1]) & mask;
+            // move the entry back if the hole lies between its home slot and its current slot
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                keys[hole * 2] = keys[index * 2];
+                keys[hole * 2 + 1] = keys[index * 2 + 1];
+                deadlines[hole] = deadlines[index];
+                move(index, hole);
+                hole = index;
+            }
+            index = (index + 1) & mask;
+        }
+        deadlines[hole] = 0;
+        release(hole);
+        size--;
+    }
+
+    /**
+     * Removes the entries whose deadline has passed
+     *
+     * @return the number of removed entries
+     */
+    final int removeExpired(long now) {
+        int removed = 0;
+        int i = 0;
+        while (i < deadlines.length) {
+            if (deadlines[i] != 0 && deadlines[i] <= now) {
+                removeAt(i);
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        keys = new long[initialCapacity * 2];
+        deadlines = new long[initialCapacity];
+        size = 0;
+    }
+
+    final int capacity() {
+        return deadlines.length;
+    }
+
+    final int size() {
+        return size;
+    }
+
+    /**
+     * Moves the value of a slot to another one while an entry is removed
+     */
+    abstract void move(int from, int to);
+
+    /**
+     * Lets go of the value of a slot that was freed
+     */
+    abstract void release(int slot);
+
+    /**
+     * Replaces the values by new arrays of the given capacity while the table grows
+     *
+     * @param targets the new slot of each old slot, -1 for the free ones
+     */
+    abstract void relocate(int capacity, int[] targets);
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldDeadlines = deadlines;
+        int[] targets = new int[oldDeadlines.length];
+        keys = new long[capacity * 2];
+        deadlines = new long[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldDeadlines.length; i++) {
+            if (oldDeadlines[i] == 0) {
+                targets[i] = -1;
+                continue;
+            }
+            int index = (int) hash(oldKeys[i * 2], oldKeys[i * 2 + 1]) & mask;
+            while (deadlines[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            keys[index * 2] = oldKeys[i * 2];
+            keys[index * 2 + 1] = oldKeys[i * 2 + 1];
+            deadlines[index] = oldDeadlines[i];
+            targets[i] = index;
+        }
+        relocate(capacity, targets);
+    }
+}
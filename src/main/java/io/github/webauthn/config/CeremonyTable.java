@@ -0,0 +1,293 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.flows.TooManyCeremoniesException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * In memory {@link WebAuthnOperation} for the ids created by the start strategies: 16 random bytes encoded in Base64.
+ * <p>The id is read as two longs without decoding it to a byte array, and the entries are kept in open addressing tables
+ * made of primitive arrays, see {@link CeremonySlots}: no map node, boxed key or string comparison per entry. The table
+ * is split in segments, each guarded by its own monitor.</p>
+ * <p>Entries are dropped once their time to live has passed. The expired ones are swept out of a segment before it grows,
+ * and about {@code maxEntries} entries are kept, the next ones are rejected with a {@link TooManyCeremoniesException}.
+ * The limit is checked without a global lock, concurrent puts can go slightly over it. Once it is reached the segments
+ * are swept at most once per {@link #SWEEP_INTERVAL_MILLIS}, in between a flood of starts is answered from the size
+ * counter.</p>
+ */
+public class CeremonyTable<T> implements WebAuthnOperation<T, String> {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int ID_LENGTH = 24;
+    private static final byte[] SEXTETS = new byte[128];
+    static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    static {
+        Arrays.fill(SEXTETS, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            SEXTETS[alphabet.charAt(i)] = (byte) i;
+        }
+        SEXTETS['+'] = SEXTETS['-'] = 62;
+        SEXTETS['/'] = SEXTETS['_'] = 63;
+    }
+
+    private final Segment<T>[] segments;
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder expired = new LongAdder();
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Clock clock;
+    private volatile long sweptAt = Long.MIN_VALUE;
+
+    public CeremonyTable(Duration ttl, int maxEntries) {
+        this(ttl, maxEntries, Clock.systemUTC());
+    }
+
+    @SuppressWarnings("unchecked")
+    public CeremonyTable(Duration ttl, int maxEntries, Clock clock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl should be positive");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries should be positive");
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    /**
+     * @return true if the id is 16 bytes encoded in Base64, the only ids this table can hold
+     */
+    public static boolean isValidId(String id) {
+        if (id == null || id.length() != ID_LENGTH || id.charAt(22) != '=' || id.charAt(23) != '=') {
+            return false;
+        }
+        for (int i = 0; i < 22; i++) {
+            if (sextet(id, i) < 0) {
+                return false;
+            }
+        }
+        // the last character only carries 2 bits
+        return (sextet(id, 21) & 0xF) == 0;
+    }
+
+    /**
+     * @return the first 8 bytes of a valid id
+     */
+    static long high(String id) {
+        long high = 0;
+        for (int i = 0; i < 10; i++) {
+            high = (high << 6) | sextet(id, i);
+        }
+        return (high << 4) | (sextet(id, 10) >>> 2);
+    }
+
+    /**
+     * @return the last 8 bytes of a valid id
+     */
+    static long low(String id) {
+        long low = sextet(id, 10) & 0x3;
+        for (int i = 11; i < 21; i++) {
+            low = (low << 6) | sextet(id, i);
+        }
+        return (low << 2) | (sextet(id, 21) >>> 4);
+    }
+
+    @Override
+    public void put(String id, T data) {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("Not a 16 bytes Base64 id: " + id);
+        }
+        put(high(id), low(id), data);
+    }
+
+    public void put(long high, long low, T data) {
+        long now = clock.millis();
+        if (isFull(now)) {
+            throw new TooManyCeremoniesException("Too many ceremonies in progress");
+        }
+        segmentFor(high, low).put(high, low, data, now, now + ttlMillis, this);
+    }
+
+    @Override
+    public T get(String id) {
+        if (!isValidId(id)) {
+            return null;
+        }
+        return get(high(id), low(id));
+    }
+
+    public T get(long high, long low) {
+        return segmentFor(high, low).get(high, low, clock.millis());
+    }
+
+    @Override
+    public T take(String id) {
+        if (!isValidId(id)) {
+            return null;
+        }
+        return take(high(id), low(id));
+    }
+
+    public T take(long high, long low) {
+        return segmentFor(high, low).take(high, low, clock.millis(), this);
+    }
+
+    @Override
+    public void remove(String id) {
+        take(id);
+    }
+
+    @Override
+    public Stream<T> list() {
+        long now = clock.millis();
+        List<T> result = new ArrayList<>();
+        for (Segment<T> segment : segments) {
+            segment.collect(result, now);
+        }
+        return result.stream();
+    }
+
+    /**
+     * The expired entries are swept out before answering, the start strategies check this before any put would sweep them
+     */
+    @Override
+    public boolean isFull() {
+        return isFull(clock.millis());
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return the entries swept out or taken after their time to live had passed
+     */
+    @Override
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    private boolean isFull(long now) {
+        if (size.get() < maxEntries) {
+            return false;
+        }
+        if (now < sweptAt + SWEEP_INTERVAL_MILLIS) {
+            return true;
+        }
+        sweptAt = now;
+        for (Segment<T> segment : segments) {
+            segment.sweepExpired(now, this);
+        }
+        return size.get() >= maxEntries;
+    }
+
+    private Segment<T> segmentFor(long high, long low) {
+        // the segments are picked by the high bits of the hash, the slots within a segment by the low ones
+        return segments[(int) (CeremonySlots.hash(high, low) >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static int sextet(String id, int index) {
+        char c = id.charAt(index);
+        return c < 128 ? SEXTETS[c] : -1;
+    }
+
+    private static final class Segment<T> extends CeremonySlots {
+        private Object[] values = new Object[INITIAL_CAPACITY];
+
+        Segment() {
+            super(INITIAL_CAPACITY);
+        }
+
+        synchronized void put(long high, long low, T data, long now, long deadline, CeremonyTable<T> table) {
+            int slot = find(high, low);
+            if (slot >= 0) {
+                values[slot] = data;
+                setDeadline(slot, deadline);
+                return;
+            }
+            if (isCrowded()) {
+                sweepExpired(now, table);
+            }
+            // insert can replace the values array, read it afterwards
+            slot = insert(high, low, deadline);
+            values[slot] = data;
+            table.size.incrementAndGet();
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized T get(long high, long low, long now) {
+            int slot = find(high, low);
+            return slot < 0 || deadlineAt(slot) <= now ? null : (T) values[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized T take(long high, long low, long now, CeremonyTable<T> table) {
+            int slot = find(high, low);
+            if (slot < 0) {
+                return null;
+            }
+            T value = (T) values[slot];
+            boolean expired = deadlineAt(slot) <= now;
+            removeAt(slot);
+            table.size.decrementAndGet();
+            if (expired) {
+                table.expired.increment();
+                return null;
+            }
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void collect(List<T> result, long now) {
+            for (int i = 0; i < capacity(); i++) {
+                if (deadlineAt(i) > now) {
+                    result.add((T) values[i]);
+                }
+            }
+        }
+
+        synchronized void sweepExpired(long now, CeremonyTable<T> table) {
+            int removed = removeExpired(now);
+            table.size.addAndGet(-removed);
+            table.expired.add(removed);
+        }
+
+        @Override
+        void move(int from, int to) {
+            values[to] = values[from];
+        }
+
+        @Override
+        void release(int slot) {
+            values[slot] = null;
+        }
+
+        @Override
+        void relocate(int capacity, int[] targets) {
+            Object[] oldValues = values;
+            values = new Object[capacity];
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] >= 0) {
+                    values[targets[i]] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Rough estimation of the heap used by a started ceremony, used by {@link BoundedInMemoryOperation} to enforce its byte budget.
+ * The fixed part covers the object headers and the Yubico option objects, the variable part the byte arrays and strings.
+ */
+public final class CeremonyWeigher {
+
+    private static final long ASSERTION_OVERHEAD = 640;
+    private static final long REGISTRATION_OVERHEAD = 1280;
+    private static final long DESCRIPTOR_OVERHEAD = 96;
+    private static final long ARRAY_OVERHEAD = 16;
+
+    private CeremonyWeigher() {
+    }
+
+    public static long weigh(Object ceremony) {
+        if (ceremony instanceof AssertionStartResponse assertion) {
+            return weigh(assertion);
+        } else if (ceremony instanceof RegistrationStartResponse registration) {
+            return weigh(registration);
+        } else if (ceremony instanceof byte[] encoded) {
+            return ARRAY_OVERHEAD + encoded.length;
+        }
+        return ASSERTION_OVERHEAD;
+    }
+
+    public static long weigh(AssertionStartResponse assertion) {
+        PublicKeyCredentialRequestOptions options = assertion.getPublicKeyCredentialRequestOptions();
+        return ASSERTION_OVERHEAD
+                + length(assertion.getAssertionId())
+                + options.getChallenge().size()
+                + length(options.getRpId())
+                + length(assertion.getAssertionRequest().getUsername().orElse(null))
+                + assertion.getAssertionRequest().getUserHandle().map(h -> (long) h.size()).orElse(0L)
+                + weigh(options.getAllowCredentials().orElse(Collections.emptyList()));
+    }
+
+    public static long weigh(RegistrationStartResponse registration) {
+        PublicKeyCredentialCreationOptions options = registration.getPublicKeyCredentialCreationOptions();
+        return REGISTRATION_OVERHEAD
+                + length(registration.getRegistrationId())
+                + options.getChallenge().size()
+                + options.getUser().getId().size()
+                + length(options.getUser().getName())
+                + length(options.getUser().getDisplayName())
+                + weigh(options.getExcludeCredentials().orElse(Collections.emptySet()));
+    }
+
+    private static long weigh(Collection<PublicKeyCredentialDescriptor> descriptors) {
+        long size = 0;
+        for (PublicKeyCredentialDescriptor descriptor : descriptors) {
+            size += DESCRIPTOR_OVERHEAD + descriptor.getId().size();
+        }
+        return size;
+    }
+
+    private static long length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
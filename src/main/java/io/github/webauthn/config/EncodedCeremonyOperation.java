@@ -0,0 +1,109 @@
+package io.github.webauthn.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * {@link WebAuthnOperation} keeping the started ceremonies as {@link CeremonyCodec} bytes in another operation.
+ * <p>A pending ceremony then costs a small byte array instead of the Yubico option objects, and stores living outside the heap
+ * only have to deal with bytes. The request objects are rebuilt when a ceremony is read back, usually once at finish time.</p>
+ * <p>The ids are not part of the encoded state, the ceremonies returned by {@link #list()} have no id.</p>
+ * <p>Ceremonies that can not be decoded, like the ones stored by an older format before an upgrade, are treated as absent.</p>
+ *
+ * @param <T> {@link io.github.webauthn.dto.AssertionStartResponse} or {@link io.github.webauthn.dto.RegistrationStartResponse}
+ */
+public class EncodedCeremonyOperation<T> implements WebAuthnOperation<T, String>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(EncodedCeremonyOperation.class);
+
+    private final CeremonyCodec codec;
+    private final WebAuthnOperation<byte[], String> delegate;
+    private final Clock clock;
+
+    public EncodedCeremonyOperation(CeremonyCodec codec, WebAuthnOperation<byte[], String> delegate) {
+        this(codec, delegate, Clock.systemUTC());
+    }
+
+    public EncodedCeremonyOperation(CeremonyCodec codec, WebAuthnOperation<byte[], String> delegate, Clock clock) {
+        this.codec = codec;
+        this.delegate = delegate;
+        this.clock = clock;
+    }
+
+    @Override
+    public void put(String id, T data) {
+        delegate.put(id, codec.encode(data, clock.millis()));
+    }
+
+    @Override
+    public T get(String id) {
+        return decode(id, delegate.get(id));
+    }
+
+    @Override
+    public T take(String id) {
+        return decode(id, delegate.take(id));
+    }
+
+    /**
+     * Asks the delegate, the ceremony is not decoded
+     */
+    @Override
+    public boolean contains(String id) {
+        return delegate.contains(id);
+    }
+
+    @Override
+    public void remove(String id) {
+        delegate.remove(id);
+    }
+
+    @Override
+    public Stream<T> list() {
+        return delegate.list()
+                .map(data -> decode(null, data))
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean isFull() {
+        return delegate.isFull();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return delegate.getExpiredCount();
+    }
+
+    public WebAuthnOperation<byte[], String> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(String id, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return (T) codec.decode(id, data);
+        } catch (IllegalArgumentException e) {
+            log.warn("decode - dropping the undecodable ceremony {}: {}", id, e.getMessage());
+            return null;
+        }
+    }
+}
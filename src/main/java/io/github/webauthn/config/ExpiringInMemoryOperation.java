@@ -0,0 +1,256 @@
+package io.github.webauthn.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * In memory {@link WebAuthnOperation} dropping the entries older than the configured time to live.
+ * <p>Each entry is scheduled on a {@link TimingWheel}, so expiring it costs O(1) and the map is never scanned.
+ * The map is read and written without locking. The added and removed entries are queued and applied to the wheel by
+ * the caller that moves it forward, the callers of {@link #put(Object, Object)}, {@link #get(Object)},
+ * {@link #take(Object)} and {@link #remove(Object)} only do so when no one else is, so they never wait for each other
+ * and no background thread is needed.</p>
+ */
+public class ExpiringInMemoryOperation<T, K> implements WebAuthnOperation<T, K> {
+    private static final Logger log = LoggerFactory.getLogger(ExpiringInMemoryOperation.class);
+    private static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private final Map<K, Entry<K, T>> cache = new ConcurrentHashMap<>();
+    // entries added or removed since the wheel was last moved, an entry is scheduled or cancelled depending on its mapping
+    private final Queue<Entry<K, T>> changes = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder expired = new LongAdder();
+    private final Consumer<Entry<K, T>> expireEntry = this::expireEntry;
+    private final TimingWheel<Entry<K, T>> wheel;
+    private final long ttlMillis;
+    private final Clock clock;
+    private int expiredByAdvance;
+
+    public ExpiringInMemoryOperation(Duration ttl) {
+        this(ttl, Clock.systemUTC());
+    }
+
+    public ExpiringInMemoryOperation(Duration ttl, Clock clock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl should be positive");
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(Math.min(DEFAULT_TICK_MILLIS, ttlMillis), clock.millis());
+    }
+
+    @Override
+    public void put(K id, T data) {
+        long now = clock.millis();
+        tryAdvance(now);
+        beforeAdd(id, data);
+        Entry<K, T> entry = new Entry<>(id, data, now + ttlMillis);
+        Entry<K, T> previous = cache.put(id, entry);
+        if (previous != null) {
+            removed(previous);
+        }
+        changes.offer(entry);
+        onAdded(id, data);
+    }
+
+    @Override
+    public T get(K id) {
+        long now = clock.millis();
+        tryAdvance(now);
+        Entry<K, T> entry = cache.get(id);
+        return entry == null || entry.isExpired(now) ? null : entry.value;
+    }
+
+    @Override
+    public boolean contains(K id) {
+        Entry<K, T> entry = cache.get(id);
+        return entry != null && !entry.isExpired(clock.millis());
+    }
+
+    @Override
+    public void remove(K id) {
+        long now = clock.millis();
+        tryAdvance(now);
+        discard(id, now);
+    }
+
+    @Override
+    public T take(K id) {
+        long now = clock.millis();
+        tryAdvance(now);
+        Entry<K, T> entry = discard(id, now);
+        return entry == null || entry.isExpired(now) ? null : entry.value;
+    }
+
+    @Override
+    public Stream<T> list() {
+        long now = clock.millis();
+        return cache.values().stream()
+                .filter(entry -> !entry.isExpired(now))
+                .map(entry -> entry.value);
+    }
+
+    /**
+     * Drops all the entries whose time to live has passed, waiting for a concurrent caller moving the wheel
+     *
+     * @return the number of entries expired by this call
+     */
+    public int expire() {
+        lock.lock();
+        try {
+            return advance(clock.millis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries expired since this operation was created
+     */
+    @Override
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Drops the expired entries unless another caller is already doing it
+     */
+    protected void tryExpire() {
+        tryAdvance(clock.millis());
+    }
+
+    /**
+     * Removes the entry, counted as evicted by the caller
+     *
+     * @return true if there was one
+     */
+    protected boolean evict(K id) {
+        return discard(id, clock.millis()) != null;
+    }
+
+    private void tryAdvance(long now) {
+        if (lock.tryLock()) {
+            try {
+                advance(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private int advance(long now) {
+        expiredByAdvance = 0;
+        Entry<K, T> change;
+        while ((change = changes.poll()) != null) {
+            apply(change, now);
+        }
+        wheel.advance(now, expireEntry);
+        onAdvanced();
+        int count = expiredByAdvance;
+        if (count > 0) {
+            expired.add(count);
+            log.debug("advance - expired {} entries", count);
+        }
+        return count;
+    }
+
+    /**
+     * Schedules the entries still in the map and cancels the ones that were removed, an entry removed before it was
+     * scheduled is left alone
+     */
+    private void apply(Entry<K, T> entry, long now) {
+        boolean mapped = cache.get(entry.key) == entry;
+        if (entry.timeout != null) {
+            if (!mapped) {
+                wheel.cancel(entry.timeout);
+            }
+        } else if (mapped) {
+            if (entry.isExpired(now)) {
+                expireEntry(entry);
+            } else {
+                entry.timeout = wheel.schedule(entry, entry.expiresAt);
+            }
+        }
+    }
+
+    private Entry<K, T> discard(K id, long now) {
+        Entry<K, T> entry = cache.remove(id);
+        if (entry != null) {
+            if (entry.isExpired(now)) {
+                expired.increment();
+            }
+            removed(entry);
+        }
+        return entry;
+    }
+
+    private void removed(Entry<K, T> entry) {
+        changes.offer(entry);
+        onRemoved(entry.key, entry.value);
+    }
+
+    private void expireEntry(Entry<K, T> entry) {
+        if (cache.remove(entry.key, entry)) {
+            expiredByAdvance++;
+            onRemoved(entry.key, entry.value);
+        }
+    }
+
+    /**
+     * Called before a new entry is added, may throw to turn it down
+     */
+    protected void beforeAdd(K id, T data) {
+    }
+
+    /**
+     * Called after an entry was added, possibly after it was already removed by another caller
+     */
+    protected void onAdded(K id, T data) {
+    }
+
+    /**
+     * Called once for each entry removed, replaced or expired, concurrently with the other callers
+     */
+    protected void onRemoved(K id, T data) {
+    }
+
+    /**
+     * Called while holding the lock, each time the wheel was moved forward
+     */
+    protected void onAdvanced() {
+    }
+
+    private static final class Entry<K, T> {
+        private final K key;
+        private final T value;
+        private final long expiresAt;
+        // only read and written while holding the lock
+        private TimingWheel.Node<Entry<K, T>> timeout;
+
+        private Entry(K key, T value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -18,14 +18,29 @@ public class InMemoryOperation<T, K> implements WebAuthnOperation<T, K> {
         return cache.get(id);
     }
 
+    @Override
+    public boolean contains(K id) {
+        return cache.containsKey(id);
+    }
+
     @Override
     public void remove(K id) {
         cache.remove(id);
     }
 
+    @Override
+    public T take(K id) {
+        return cache.remove(id);
+    }
+
     @Override
     public Stream<T> list() {
         return cache.entrySet().stream()
                 .map(entry -> entry.getValue());
     }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
 }
@@ -0,0 +1,185 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
+import io.github.webauthn.flows.TooManyCeremoniesException;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+/**
+ * {@link WebAuthnOperation} counting what happens to the started ceremonies in another operation.
+ * <p>The counters are {@link LongAdder}s, a put or a take only adds a few uncontended increments. The live size and
+ * the expired ceremonies are read from the store when asked for, see {@link WebAuthnOperation#getExpiredCount()}.</p>
+ * <p>The counters are plain getters, so they can be bound to any metrics library, {@link CeremonyMeterBinder} binds
+ * them to Micrometer.</p>
+ */
+public class InstrumentedWebAuthnOperation<T, K> implements WebAuthnOperation<T, K>, AutoCloseable {
+
+    private final WebAuthnOperation<T, K> delegate;
+    private final ToLongFunction<? super T> startedAt;
+    private final Clock clock;
+
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder takeHits = new LongAdder();
+    private final LongAdder takeMisses = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder ageTotal = new LongAdder();
+    private final LongAccumulator ageMax = new LongAccumulator(Math::max, 0);
+
+    public InstrumentedWebAuthnOperation(WebAuthnOperation<T, K> delegate) {
+        this(delegate, InstrumentedWebAuthnOperation::startedAt, Clock.systemUTC());
+    }
+
+    /**
+     * @param startedAt epoch millis when a ceremony was started, or a negative value if it is not known
+     */
+    public InstrumentedWebAuthnOperation(WebAuthnOperation<T, K> delegate, ToLongFunction<? super T> startedAt, Clock clock) {
+        this.delegate = delegate;
+        this.startedAt = startedAt;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the start time of a {@link AssertionStartResponse} or {@link RegistrationStartResponse}, -1 for anything else
+     */
+    public static long startedAt(Object ceremony) {
+        if (ceremony instanceof AssertionStartResponse assertion) {
+            return assertion.getStartedAt();
+        }
+        if (ceremony instanceof RegistrationStartResponse registration) {
+            return registration.getStartedAt();
+        }
+        return -1;
+    }
+
+    @Override
+    public void put(K id, T data) {
+        try {
+            delegate.put(id, data);
+        } catch (TooManyCeremoniesException e) {
+            rejected.increment();
+            throw e;
+        }
+        puts.increment();
+    }
+
+    @Override
+    public T get(K id) {
+        return delegate.get(id);
+    }
+
+    @Override
+    public T take(K id) {
+        T data = delegate.take(id);
+        if (data == null) {
+            takeMisses.increment();
+            return null;
+        }
+        takeHits.increment();
+        long start = startedAt.applyAsLong(data);
+        if (start >= 0) {
+            long age = Math.max(0, clock.millis() - start);
+            ageTotal.add(age);
+            ageMax.accumulate(age);
+        }
+        return data;
+    }
+
+    @Override
+    public boolean contains(K id) {
+        return delegate.contains(id);
+    }
+
+    @Override
+    public void remove(K id) {
+        delegate.remove(id);
+        removes.increment();
+    }
+
+    @Override
+    public Stream<T> list() {
+        return delegate.list();
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    /**
+     * The start strategies ask before they put, a full store is counted as a rejected start
+     */
+    @Override
+    public boolean isFull() {
+        boolean full = delegate.isFull();
+        if (full) {
+            rejected.increment();
+        }
+        return full;
+    }
+
+    public WebAuthnOperation<T, K> getDelegate() {
+        return delegate;
+    }
+
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    /**
+     * @return the starts turned down because the store was full, by {@link #isFull()} or by a put
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the finish requests that found their started ceremony
+     */
+    public long getTakeHits() {
+        return takeHits.sum();
+    }
+
+    /**
+     * @return the finish requests that did not find their started ceremony: unknown, expired or already finished
+     */
+    public long getTakeMisses() {
+        return takeMisses.sum();
+    }
+
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    /**
+     * @return the ceremonies the store dropped once their time to live had passed, or -1 if it does not count them
+     */
+    @Override
+    public long getExpiredCount() {
+        return delegate.getExpiredCount();
+    }
+
+    /**
+     * @return the sum of the ages of the taken ceremonies, divided by {@link #getTakeHits()} it gives the average time
+     * users need to finish a ceremony
+     */
+    public long getTakeAgeTotalMillis() {
+        return ageTotal.sum();
+    }
+
+    public long getTakeAgeMaxMillis() {
+        return ageMax.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
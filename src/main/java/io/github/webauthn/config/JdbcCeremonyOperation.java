@@ -0,0 +1,364 @@
+package io.github.webauthn.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * {@link WebAuthnOperation} keeping the encoded ceremonies in a database table, so any node can finish a ceremony
+ * started by another one.
+ * <p>{@link #take(String)} is a single delete returning the row on the databases supporting it (PostgreSQL, MariaDB, H2),
+ * the other ones get a select followed by a delete whose update count decides who consumed the row.
+ * Expired rows are ignored when read and deleted in batches by a background thread.</p>
+ * <p>With a maximum number of entries, {@link #isFull()} compares it to a count of the live rows refreshed at most once per
+ * {@link #COUNT_REFRESH_MILLIS}, so a flood of started ceremonies costs one count query per second instead of one per start.</p>
+ */
+public class JdbcCeremonyOperation implements WebAuthnOperation<byte[], String>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(JdbcCeremonyOperation.class);
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+    static final long COUNT_REFRESH_MILLIS = 1000;
+
+    enum Dialect {
+        POSTGRESQL, MARIADB, MYSQL, H2, GENERIC;
+
+        static Dialect of(String productName) {
+            String name = productName.toLowerCase(Locale.ROOT);
+            if (name.contains("postgres")) {
+                return POSTGRESQL;
+            } else if (name.contains("mariadb")) {
+                return MARIADB;
+            } else if (name.contains("mysql")) {
+                return MYSQL;
+            } else if (name.equals("h2")) {
+                return H2;
+            }
+            return GENERIC;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final long ttlMillis;
+    private final int purgeBatchSize;
+    private final int maxEntries;
+    private final Clock clock;
+    private final Dialect dialect;
+    private final ScheduledExecutorService purger;
+    private final String createTableSql;
+    private final String createIndexSql;
+    private final String insertSql;
+    private final String selectSql;
+    private final String containsSql;
+    private final String takeSql;
+    private final String deleteSql;
+    private final String listSql;
+    private final String countSql;
+    private final String purgeSql;
+    private final LongAdder expired = new LongAdder();
+    private volatile long count;
+    private volatile long countedAt = Long.MIN_VALUE;
+
+    public JdbcCeremonyOperation(DataSource dataSource, String tableName, Duration ttl, Duration purgeInterval, int purgeBatchSize) {
+        this(dataSource, tableName, ttl, purgeInterval, purgeBatchSize, true, Clock.systemUTC());
+    }
+
+    public JdbcCeremonyOperation(DataSource dataSource, String tableName, Duration ttl, Duration purgeInterval, int purgeBatchSize,
+                                 boolean initializeSchema, Clock clock) {
+        this(dataSource, tableName, ttl, purgeInterval, purgeBatchSize, initializeSchema, 0, clock);
+    }
+
+    /**
+     * @param purgeInterval how often the expired rows are deleted, null to never delete them in the background
+     * @param maxEntries    live ceremonies above which {@link #isFull()} turns new ones down, 0 for no limit
+     */
+    public JdbcCeremonyOperation(DataSource dataSource, String tableName, Duration ttl, Duration purgeInterval, int purgeBatchSize,
+                                 boolean initializeSchema, int maxEntries, Clock clock) {
+        if (!TABLE_NAME.matcher(tableName).matches()) {
+            throw new IllegalArgumentException("Invalid table name " + tableName);
+        }
+        if (purgeBatchSize <= 0) {
+            throw new IllegalArgumentException("purgeBatchSize should be positive");
+        }
+        this.dataSource = dataSource;
+        this.ttlMillis = ttl.toMillis();
+        this.purgeBatchSize = purgeBatchSize;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.dialect = detectDialect(dataSource);
+
+        String binaryType = dialect == Dialect.POSTGRESQL ? "BYTEA" : "VARBINARY(8192)";
+        String indexName = tableName.replace('.', '_') + "_expires_at_idx";
+        this.createTableSql = "CREATE TABLE IF NOT EXISTS " + tableName + " (id VARCHAR(255) NOT NULL PRIMARY KEY, data " + binaryType
+                + " NOT NULL, expires_at BIGINT NOT NULL"
+                + (dialect == Dialect.MYSQL || dialect == Dialect.MARIADB ? ", INDEX " + indexName + " (expires_at))" : ")");
+        this.createIndexSql = dialect == Dialect.MYSQL || dialect == Dialect.MARIADB ? null
+                : "CREATE INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " (expires_at)";
+        this.insertSql = switch (dialect) {
+            case POSTGRESQL -> "INSERT INTO " + tableName + " (id, data, expires_at) VALUES (?, ?, ?)"
+                    + " ON CONFLICT (id) DO UPDATE SET data = EXCLUDED.data, expires_at = EXCLUDED.expires_at";
+            case MARIADB, MYSQL -> "INSERT INTO " + tableName + " (id, data, expires_at) VALUES (?, ?, ?)"
+                    + " ON DUPLICATE KEY UPDATE data = VALUES(data), expires_at = VALUES(expires_at)";
+            case H2 -> "MERGE INTO " + tableName + " (id, data, expires_at) KEY (id) VALUES (?, ?, ?)";
+            case GENERIC -> "INSERT INTO " + tableName + " (id, data, expires_at) VALUES (?, ?, ?)";
+        };
+        this.selectSql = "SELECT data, expires_at FROM " + tableName + " WHERE id = ?";
+        this.containsSql = "SELECT 1 FROM " + tableName + " WHERE id = ? AND expires_at > ?";
+        this.deleteSql = "DELETE FROM " + tableName + " WHERE id = ?";
+        this.takeSql = switch (dialect) {
+            case POSTGRESQL, MARIADB -> deleteSql + " RETURNING data, expires_at";
+            case H2 -> "SELECT data, expires_at FROM OLD TABLE (" + deleteSql + ")";
+            default -> null;
+        };
+        this.listSql = "SELECT data FROM " + tableName + " WHERE expires_at > ?";
+        this.countSql = "SELECT COUNT(*) FROM " + tableName + " WHERE expires_at > ?";
+        this.purgeSql = switch (dialect) {
+            case POSTGRESQL, H2 -> "DELETE FROM " + tableName + " WHERE id IN (SELECT id FROM " + tableName
+                    + " WHERE expires_at <= ? LIMIT " + purgeBatchSize + ")";
+            case MARIADB, MYSQL -> "DELETE FROM " + tableName + " WHERE expires_at <= ? LIMIT " + purgeBatchSize;
+            case GENERIC -> "DELETE FROM " + tableName + " WHERE expires_at <= ?";
+        };
+
+        if (initializeSchema) {
+            initializeSchema();
+        }
+        if (purgeInterval != null) {
+            this.purger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "webauthn-ceremony-purge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = purgeInterval.toMillis();
+            this.purger.scheduleWithFixedDelay(this::purgeQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.purger = null;
+        }
+    }
+
+    @Override
+    public void put(String id, byte[] data) {
+        try (Connection connection = dataSource.getConnection()) {
+            if (dialect == Dialect.GENERIC) {
+                delete(connection, id);
+            }
+            try (PreparedStatement statement = connection.prepareStatement(insertSql)) {
+                statement.setString(1, id);
+                statement.setBytes(2, data);
+                statement.setLong(3, clock.millis() + ttlMillis);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not save the ceremony " + id, e);
+        }
+    }
+
+    @Override
+    public byte[] get(String id) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(selectSql)) {
+            statement.setString(1, id);
+            return readLive(statement);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the ceremony " + id, e);
+        }
+    }
+
+    @Override
+    public byte[] take(String id) {
+        try (Connection connection = dataSource.getConnection()) {
+            if (takeSql != null) {
+                try (PreparedStatement statement = connection.prepareStatement(takeSql)) {
+                    statement.setString(1, id);
+                    return readLive(statement);
+                }
+            }
+            byte[] data;
+            try (PreparedStatement statement = connection.prepareStatement(selectSql)) {
+                statement.setString(1, id);
+                data = readLive(statement);
+            }
+            // only the caller whose delete removed the row gets the ceremony
+            return delete(connection, id) == 1 ? data : null;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not take the ceremony " + id, e);
+        }
+    }
+
+    /**
+     * Still a query, but the data column is not read
+     */
+    @Override
+    public boolean contains(String id) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(containsSql)) {
+            statement.setString(1, id);
+            statement.setLong(2, clock.millis());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the ceremony " + id, e);
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        try (Connection connection = dataSource.getConnection()) {
+            delete(connection, id);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not remove the ceremony " + id, e);
+        }
+    }
+
+    @Override
+    public Stream<byte[]> list() {
+        List<byte[]> result = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(listSql)) {
+            statement.setLong(1, clock.millis());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(resultSet.getBytes(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not list the ceremonies", e);
+        }
+        return result.stream();
+    }
+
+    @Override
+    public long size() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(countSql)) {
+            statement.setLong(1, clock.millis());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not count the ceremonies", e);
+        }
+    }
+
+    /**
+     * Only counts the live rows, the expired ones waiting for the purge never keep the table full
+     */
+    @Override
+    public boolean isFull() {
+        if (maxEntries <= 0) {
+            return false;
+        }
+        long now = clock.millis();
+        if (now >= countedAt + COUNT_REFRESH_MILLIS) {
+            count = size();
+            countedAt = now;
+        }
+        return count >= maxEntries;
+    }
+
+    /**
+     * Deletes the expired rows in batches
+     *
+     * @return the number of rows deleted
+     */
+    public int purge() {
+        int total = 0;
+        long now = clock.millis();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(purgeSql)) {
+            int deleted;
+            do {
+                statement.setLong(1, now);
+                deleted = statement.executeUpdate();
+                total += deleted;
+            } while (deleted >= purgeBatchSize && dialect != Dialect.GENERIC);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not purge the expired ceremonies", e);
+        }
+        if (total > 0) {
+            expired.add(total);
+            log.debug("purge - deleted {} expired ceremonies", total);
+        }
+        return total;
+    }
+
+    /**
+     * @return the expired rows deleted by the purges of this node, the other nodes sharing the table count their own
+     */
+    @Override
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    @Override
+    public void close() {
+        if (purger != null) {
+            purger.shutdownNow();
+        }
+    }
+
+    Dialect getDialect() {
+        return dialect;
+    }
+
+    private void purgeQuietly() {
+        try {
+            purge();
+        } catch (RuntimeException e) {
+            log.warn("purgeQuietly - failed: {}", e.getMessage());
+        }
+    }
+
+    private byte[] readLive(PreparedStatement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                return null;
+            }
+            byte[] data = resultSet.getBytes(1);
+            return resultSet.getLong(2) > clock.millis() ? data : null;
+        }
+    }
+
+    private int delete(Connection connection, String id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(deleteSql)) {
+            statement.setString(1, id);
+            return statement.executeUpdate();
+        }
+    }
+
+    private void initializeSchema() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(createTableSql);
+            if (createIndexSql != null) {
+                statement.execute(createIndexSql);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create the ceremony table", e);
+        }
+    }
+
+    private static Dialect detectDialect(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return Dialect.of(connection.getMetaData().getDatabaseProductName());
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not connect to the ceremony database", e);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.flows.TooManyCeremoniesException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * {@link WebAuthnOperation} keeping the encoded ceremonies in a memory mapped file, so they survive a restart.
+ * <p>The file is a ring of fixed size records. A ceremony is appended at the cursor and a take only marks its record
+ * as a tombstone: every write touches a single record and nothing has to be replayed. When the file is opened again
+ * the live records still within their deadline are indexed in a {@link CeremonyIndex} and the ceremonies started
+ * before the restart can be finished.</p>
+ * <p>The record at the cursor is the oldest one. If it is still pending the file is full and the next ceremonies are
+ * rejected with a {@link TooManyCeremoniesException}. The file is locked while it is mapped, a second process or
+ * operation opening it fails instead of overwriting the records of the first one.
+ * Only the 16 bytes Base64 ids created by the start strategies are accepted, see {@link CeremonyTable#isValidId(String)}.</p>
+ */
+public class MappedCeremonyOperation implements WebAuthnOperation<byte[], String>, AutoCloseable {
+
+    private static final int MAGIC = 0x57414353;
+    private static final int VERSION = 1;
+    // magic, version, record size, capacity, cursor
+    private static final int FILE_HEADER = 64;
+    private static final int CURSOR = 16;
+
+    private static final byte FREE = 0;
+    private static final byte LIVE = 1;
+    private static final byte TOMBSTONE = 2;
+    // state, padding, high, low, deadline, length
+    static final int RECORD_HEADER = 8 + 8 + 8 + 8 + 4;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CeremonyIndex index = new CeremonyIndex();
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long ttlMillis;
+    private final int recordSize;
+    private final int capacity;
+    private final Clock clock;
+    private int cursor;
+    private long expired;
+
+    public MappedCeremonyOperation(Path file, Duration ttl, int recordSize, int capacity) {
+        this(file, ttl, recordSize, capacity, Clock.systemUTC());
+    }
+
+    public MappedCeremonyOperation(Path file, Duration ttl, int recordSize, int capacity, Clock clock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl should be positive");
+        }
+        if (recordSize <= RECORD_HEADER || recordSize % 8 != 0) {
+            throw new IllegalArgumentException("recordSize should be a multiple of 8 larger than " + RECORD_HEADER + " bytes");
+        }
+        if (capacity <= 0 || (long) recordSize * capacity + FILE_HEADER > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity should be positive and the file smaller than 2GB");
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.recordSize = recordSize;
+        this.capacity = capacity;
+        this.clock = clock;
+        FileChannel channel = null;
+        boolean created;
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // released when the channel is closed
+            if (!tryLock(channel)) {
+                throw new IllegalStateException(file + " is already mapped by another process, each one needs its own file");
+            }
+            created = channel.size() == 0;
+            if (!created) {
+                checkHeader(file, channel);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + (long) recordSize * capacity);
+            this.channel = channel;
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(channel);
+            if (e instanceof IOException ioException) {
+                throw new UncheckedIOException("Could not map " + file, ioException);
+            }
+            throw (RuntimeException) e;
+        }
+        if (created) {
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, recordSize);
+            buffer.putInt(12, capacity);
+            buffer.putInt(CURSOR, 0);
+            buffer.putInt(0, MAGIC);
+        } else {
+            load();
+        }
+    }
+
+    @Override
+    public void put(String id, byte[] data) {
+        if (!CeremonyTable.isValidId(id)) {
+            throw new IllegalArgumentException("Not a 16 bytes Base64 id: " + id);
+        }
+        if (RECORD_HEADER + data.length > recordSize) {
+            throw new IllegalArgumentException("Ceremony of " + data.length + " bytes does not fit in a record");
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            long now = clock.millis();
+            int offset = offset(cursor);
+            if (buffer.get(offset) == LIVE) {
+                int oldest = index.find(buffer.getLong(offset + 8), buffer.getLong(offset + 16));
+                if (oldest >= 0 && index.valueAt(oldest) == cursor) {
+                    if (index.deadlineAt(oldest) > now) {
+                        throw new TooManyCeremoniesException("Too many ceremonies in progress");
+                    }
+                    index.removeAt(oldest);
+                    expired++;
+                }
+            }
+            int slot = index.find(high, low);
+            if (slot >= 0) {
+                buffer.put(offset((int) index.valueAt(slot)), TOMBSTONE);
+            }
+            long deadline = now + ttlMillis;
+            // the state is written last, a record cut by a crash is never read back as live
+            buffer.put(offset, FREE);
+            buffer.putLong(offset + 8, high);
+            buffer.putLong(offset + 16, low);
+            buffer.putLong(offset + 24, deadline);
+            buffer.putInt(offset + 32, data.length);
+            buffer.put(offset + RECORD_HEADER, data);
+            buffer.put(offset, LIVE);
+            index.put(high, low, cursor, deadline);
+            cursor = (cursor + 1) % capacity;
+            buffer.putInt(CURSOR, cursor);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] get(String id) {
+        if (!CeremonyTable.isValidId(id)) {
+            return null;
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            int slot = index.find(high, low);
+            if (slot < 0 || index.deadlineAt(slot) <= clock.millis()) {
+                return null;
+            }
+            return read((int) index.valueAt(slot));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] take(String id) {
+        if (!CeremonyTable.isValidId(id)) {
+            return null;
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            int slot = index.find(high, low);
+            if (slot < 0) {
+                return null;
+            }
+            int record = (int) index.valueAt(slot);
+            byte[] data = null;
+            if (index.deadlineAt(slot) <= clock.millis()) {
+                expired++;
+            } else {
+                data = read(record);
+            }
+            buffer.put(offset(record), TOMBSTONE);
+            index.removeAt(slot);
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks the id up in the index, the record is not copied
+     */
+    @Override
+    public boolean contains(String id) {
+        if (!CeremonyTable.isValidId(id)) {
+            return false;
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            int slot = index.find(high, low);
+            return slot >= 0 && index.deadlineAt(slot) > clock.millis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        take(id);
+    }
+
+    @Override
+    public Stream<byte[]> list() {
+        List<byte[]> result = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = clock.millis();
+            for (int slot = 0; slot < index.capacity(); slot++) {
+                if (index.isUsed(slot) && index.deadlineAt(slot) > now) {
+                    result.add(read((int) index.valueAt(slot)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result.stream();
+    }
+
+    /**
+     * @return true if the oldest record is still pending
+     */
+    @Override
+    public boolean isFull() {
+        lock.lock();
+        try {
+            int offset = offset(cursor);
+            if (buffer.get(offset) != LIVE) {
+                return false;
+            }
+            int oldest = index.find(buffer.getLong(offset + 8), buffer.getLong(offset + 16));
+            return oldest >= 0 && index.valueAt(oldest) == cursor && index.deadlineAt(oldest) > clock.millis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the records overwritten or taken after their time to live had passed, since the file was opened
+     */
+    @Override
+    public long getExpiredCount() {
+        lock.lock();
+        try {
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the records to the file, the mapping itself is released when the buffer is collected
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (channel.isOpen()) {
+                buffer.force();
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close the ceremony file", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkHeader(Path file, FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IllegalStateException(file + " is not a ceremony file");
+        }
+        if (header.getInt(8) != recordSize || header.getInt(12) != capacity) {
+            throw new IllegalStateException(file + " was created with records of " + header.getInt(8) + " bytes and a capacity of "
+                    + header.getInt(12) + ", delete it to change them");
+        }
+    }
+
+    /**
+     * Indexes the records still pending, the expired ones are turned into tombstones
+     */
+    private void load() {
+        cursor = buffer.getInt(CURSOR);
+        long now = clock.millis();
+        for (int record = 0; record < capacity; record++) {
+            int offset = offset(record);
+            if (buffer.get(offset) == LIVE) {
+                long deadline = buffer.getLong(offset + 24);
+                if (deadline > now) {
+                    index.put(buffer.getLong(offset + 8), buffer.getLong(offset + 16), record, deadline);
+                } else {
+                    buffer.put(offset, TOMBSTONE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false when the file is locked by another process, or by another channel of this one
+     */
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // the original failure is more useful
+            }
+        }
+    }
+
+    private byte[] read(int record) {
+        int offset = offset(record);
+        byte[] data = new byte[buffer.getInt(offset + 32)];
+        buffer.get(offset + RECORD_HEADER, data);
+        return data;
+    }
+
+    private int offset(int record) {
+        return FILE_HEADER + record * recordSize;
+    }
+}
@@ -0,0 +1,344 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.flows.TooManyCeremoniesException;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * {@link WebAuthnOperation} keeping the encoded ceremonies in direct {@link ByteBuffer} slabs, outside the heap.
+ * <p>Records are appended to the current slab, the heap only holds a {@link CeremonyIndex} from the id to the slab and
+ * offset of the record. All the ceremonies share the same time to live, so slabs empty out in the order they were filled:
+ * a full slab is recycled as a whole once all its records were taken or expired, and a login storm leaves no garbage
+ * behind but the byte arrays handed to the callers.</p>
+ * <p>At most {@code maxSlabs} slabs are allocated, the next ceremonies are rejected with a {@link TooManyCeremoniesException}.
+ * Only the 16 bytes Base64 ids created by the start strategies are accepted, see {@link CeremonyTable#isValidId(String)}.</p>
+ */
+public class OffHeapCeremonyOperation implements WebAuthnOperation<byte[], String>, AutoCloseable {
+
+    // high, low, deadline, length
+    static final int HEADER = 8 + 8 + 8 + 4;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CeremonyIndex index = new CeremonyIndex();
+    private final long ttlMillis;
+    private final int slabSize;
+    private final Clock clock;
+
+    private final ByteBuffer[] slabs;
+    private final int[] writePositions;
+    private final int[] liveRecords;
+    private final long[] lastDeadlines;
+    // full slabs in the order they were filled
+    private final int[] filled;
+    private int filledHead;
+    private int filledCount;
+    private final int[] free;
+    private int freeCount;
+    private int allocated;
+    private long expired;
+    private int current = -1;
+
+    public OffHeapCeremonyOperation(Duration ttl, int slabSize, int maxSlabs) {
+        this(ttl, slabSize, maxSlabs, Clock.systemUTC());
+    }
+
+    public OffHeapCeremonyOperation(Duration ttl, int slabSize, int maxSlabs, Clock clock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl should be positive");
+        }
+        if (slabSize <= HEADER) {
+            throw new IllegalArgumentException("slabSize should be larger than " + HEADER + " bytes");
+        }
+        if (maxSlabs <= 0) {
+            throw new IllegalArgumentException("maxSlabs should be positive");
+        }
+        this.ttlMillis = ttl.toMillis();
+        this.slabSize = slabSize;
+        this.clock = clock;
+        this.slabs = new ByteBuffer[maxSlabs];
+        this.writePositions = new int[maxSlabs];
+        this.liveRecords = new int[maxSlabs];
+        this.lastDeadlines = new long[maxSlabs];
+        this.filled = new int[maxSlabs];
+        this.free = new int[maxSlabs];
+    }
+
+    @Override
+    public void put(String id, byte[] data) {
+        if (!CeremonyTable.isValidId(id)) {
+            throw new IllegalArgumentException("Not a 16 bytes Base64 id: " + id);
+        }
+        int length = HEADER + data.length;
+        if (length > slabSize) {
+            throw new IllegalArgumentException("Ceremony of " + data.length + " bytes does not fit in a slab");
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            long now = clock.millis();
+            int slot = index.find(high, low);
+            if (slot >= 0) {
+                release(index.valueAt(slot));
+                index.removeAt(slot);
+            }
+            if (current < 0 || writePositions[current] + length > slabSize) {
+                nextSlab(now);
+            }
+            long deadline = now + ttlMillis;
+            ByteBuffer slab = slabs[current];
+            int offset = writePositions[current];
+            slab.putLong(offset, high);
+            slab.putLong(offset + 8, low);
+            slab.putLong(offset + 16, deadline);
+            slab.putInt(offset + 24, data.length);
+            slab.put(offset + HEADER, data);
+            writePositions[current] = offset + length;
+            liveRecords[current]++;
+            lastDeadlines[current] = deadline;
+            index.put(high, low, address(current, offset), deadline);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] get(String id) {
+        if (!CeremonyTable.isValidId(id)) {
+            return null;
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            int slot = index.find(high, low);
+            if (slot < 0 || index.deadlineAt(slot) <= clock.millis()) {
+                return null;
+            }
+            return read(index.valueAt(slot));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] take(String id) {
+        if (!CeremonyTable.isValidId(id)) {
+            return null;
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            int slot = index.find(high, low);
+            if (slot < 0) {
+                return null;
+            }
+            long address = index.valueAt(slot);
+            byte[] data = null;
+            if (index.deadlineAt(slot) <= clock.millis()) {
+                expired++;
+            } else {
+                data = read(address);
+            }
+            release(address);
+            index.removeAt(slot);
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks the id up in the index, the record is not copied
+     */
+    @Override
+    public boolean contains(String id) {
+        if (!CeremonyTable.isValidId(id)) {
+            return false;
+        }
+        long high = CeremonyTable.high(id);
+        long low = CeremonyTable.low(id);
+        lock.lock();
+        try {
+            int slot = index.find(high, low);
+            return slot >= 0 && index.deadlineAt(slot) > clock.millis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        take(id);
+    }
+
+    @Override
+    public Stream<byte[]> list() {
+        List<byte[]> result = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = clock.millis();
+            for (int slot = 0; slot < index.capacity(); slot++) {
+                if (index.isUsed(slot) && index.deadlineAt(slot) > now) {
+                    result.add(read(index.valueAt(slot)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result.stream();
+    }
+
+    /**
+     * The slabs whose records were all taken or expired are recycled before answering, the start strategies check this
+     * before any put would recycle them. A ceremony that does not fit in what is left of the current slab can still be
+     * rejected by {@link #put(String, byte[])}.
+     *
+     * @return true if every slab is allocated and none of them has room left
+     */
+    @Override
+    public boolean isFull() {
+        lock.lock();
+        try {
+            reclaim(clock.millis());
+            return allocated == slabs.length && freeCount == 0
+                    && (current < 0 || writePositions[current] + HEADER > slabSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the records dropped when their slab was recycled or taken after their time to live had passed
+     */
+    @Override
+    public long getExpiredCount() {
+        lock.lock();
+        try {
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of slabs allocated so far, they are never given back until the operation is closed
+     */
+    public int getAllocatedSlabs() {
+        lock.lock();
+        try {
+            return allocated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the slabs, the direct memory is released when the buffers are collected
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (int i = 0; i < slabs.length; i++) {
+                slabs[i] = null;
+            }
+            index.clear();
+            allocated = freeCount = filledCount = 0;
+            current = -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void nextSlab(long now) {
+        if (current >= 0) {
+            filled[(filledHead + filledCount) % filled.length] = current;
+            filledCount++;
+            current = -1;
+        }
+        reclaim(now);
+        if (freeCount > 0) {
+            current = free[--freeCount];
+        } else if (allocated < slabs.length) {
+            current = allocated++;
+            slabs[current] = ByteBuffer.allocateDirect(slabSize);
+        } else {
+            throw new TooManyCeremoniesException("Too many ceremonies in progress");
+        }
+        writePositions[current] = 0;
+        liveRecords[current] = 0;
+        lastDeadlines[current] = 0;
+    }
+
+    /**
+     * Recycles the oldest full slabs once they hold no live record, then the current slab if it holds none either
+     */
+    private void reclaim(long now) {
+        while (filledCount > 0 && isRecyclable(filled[filledHead], now)) {
+            int slab = filled[filledHead];
+            filledHead = (filledHead + 1) % filled.length;
+            filledCount--;
+            recycle(slab);
+        }
+        if (current >= 0 && writePositions[current] > 0 && isRecyclable(current, now)) {
+            recycle(current);
+            current = -1;
+        }
+    }
+
+    private boolean isRecyclable(int slab, long now) {
+        return liveRecords[slab] == 0 || lastDeadlines[slab] <= now;
+    }
+
+    /**
+     * Drops the expired records still indexed in the slab and puts it back in the free list
+     */
+    private void recycle(int slab) {
+        ByteBuffer buffer = slabs[slab];
+        int offset = 0;
+        while (liveRecords[slab] > 0 && offset < writePositions[slab]) {
+            int slot = index.find(buffer.getLong(offset), buffer.getLong(offset + 8));
+            if (slot >= 0 && index.valueAt(slot) == address(slab, offset)) {
+                index.removeAt(slot);
+                liveRecords[slab]--;
+                expired++;
+            }
+            offset += HEADER + buffer.getInt(offset + 24);
+        }
+        free[freeCount++] = slab;
+    }
+
+    private void release(long address) {
+        liveRecords[(int) (address >>> 32)]--;
+    }
+
+    private byte[] read(long address) {
+        ByteBuffer slab = slabs[(int) (address >>> 32)];
+        int offset = (int) address;
+        byte[] data = new byte[slab.getInt(offset + 24)];
+        slab.get(offset + HEADER, data);
+        return data;
+    }
+
+    private static long address(int slab, int offset) {
+        return ((long) slab << 32) | offset;
+    }
+}
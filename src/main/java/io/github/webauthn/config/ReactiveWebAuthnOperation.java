@@ -0,0 +1,38 @@
+package io.github.webauthn.config;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Non blocking counterpart of {@link WebAuthnOperation}, for ceremony stores reached over the network
+ * (Redis, R2DBC, ...) so the WebFlux endpoints never hold a thread while waiting for them.
+ * <p>A blocking {@link WebAuthnOperation} can be used through {@link BlockingReactiveWebAuthnOperation}.</p>
+ */
+public interface ReactiveWebAuthnOperation<T, K> {
+
+    Mono<Void> put(K id, T data);
+
+    /**
+     * @return the entry or an empty mono if there is none
+     */
+    Mono<T> get(K id);
+
+    Mono<Void> remove(K id);
+
+    /**
+     * Removes the entry and emits it in a single step, so two concurrent subscribers can never both get it.
+     * <p>The default implementation is not atomic, stores should override it.</p>
+     *
+     * @return the removed entry or an empty mono if there was none
+     */
+    default Mono<T> take(K id) {
+        return get(id).flatMap(data -> remove(id).thenReturn(data));
+    }
+
+    /**
+     * @return true if the next {@link #put(Object, Object)} would be rejected
+     * @see WebAuthnOperation#isFull()
+     */
+    default Mono<Boolean> isFull() {
+        return Mono.just(false);
+    }
+}
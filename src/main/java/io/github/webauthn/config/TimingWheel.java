@@ -0,0 +1,166 @@
+package io.github.webauthn.config;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel with four levels of 64 slots each.
+ * <p>Scheduling and cancelling a timeout are O(1). Advancing the wheel only visits the slots whose tick has passed,
+ * timeouts scheduled far in the future are cascaded to the lower levels as their deadline gets closer.</p>
+ * <p>The wheel is not thread safe, callers are expected to guard it with their own lock.</p>
+ *
+ * @param <E> the element attached to each timeout
+ */
+class TimingWheel<E> {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickMillis;
+    private final Node<E>[][] wheels;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis should be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+        this.wheels = new Node[LEVELS][WHEEL_SIZE];
+        for (Node<E>[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new Node<>(null, 0);
+            }
+        }
+    }
+
+    Node<E> schedule(E element, long deadlineMillis) {
+        Node<E> node = new Node<>(element, Math.ceilDiv(deadlineMillis, tickMillis));
+        insert(node, 1);
+        size++;
+        return node;
+    }
+
+    void cancel(Node<E> node) {
+        if (node != null && node.unlink()) {
+            size--;
+        }
+    }
+
+    /**
+     * Moves the wheel up to the given time
+     *
+     * @param nowMillis current time
+     * @param expired   called for each element whose deadline has passed
+     * @return the number of expired elements
+     */
+    int advance(long nowMillis, Consumer<E> expired) {
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return 0;
+        }
+        int count = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            int index = (int) (currentTick & WHEEL_MASK);
+            if (index == 0) {
+                cascade(1);
+            }
+            count += expire(wheels[0][index], expired);
+        }
+        return count;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int expire(Node<E> head, Consumer<E> expired) {
+        int count = 0;
+        Node<E> node = head.next;
+        while (node != head) {
+            Node<E> next = node.next;
+            node.unlink();
+            if (node.deadlineTick > currentTick) {
+                // the deadline was too far away for the top level, give it another round
+                insert(node, 1);
+            } else {
+                size--;
+                count++;
+                expired.accept(node.element);
+            }
+            node = next;
+        }
+        return count;
+    }
+
+    private void cascade(int level) {
+        if (level >= LEVELS) {
+            return;
+        }
+        int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        Node<E> head = wheels[level][index];
+        Node<E> node = head.next;
+        head.next = head;
+        head.prev = head;
+        while (node != head) {
+            Node<E> next = node.next;
+            node.prev = null;
+            node.next = null;
+            // the current level 0 slot is expired right after cascading, so it can still receive nodes
+            insert(node, 0);
+            node = next;
+        }
+    }
+
+    private void insert(Node<E> node, long minDelta) {
+        long delta = Math.min(Math.max(node.deadlineTick - currentTick, minDelta), MAX_DELTA);
+        long slotTick = currentTick + delta;
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int index = (int) ((slotTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        wheels[level][index].append(node);
+    }
+
+    static final class Node<E> {
+        private final E element;
+        private final long deadlineTick;
+        private Node<E> prev;
+        private Node<E> next;
+
+        private Node(E element, long deadlineTick) {
+            this.element = element;
+            this.deadlineTick = deadlineTick;
+            this.prev = this;
+            this.next = this;
+        }
+
+        private void append(Node<E> node) {
+            node.prev = prev;
+            node.next = this;
+            prev.next = node;
+            prev = node;
+        }
+
+        private boolean unlink() {
+            if (prev == null) {
+                return false;
+            }
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+            return true;
+        }
+    }
+}
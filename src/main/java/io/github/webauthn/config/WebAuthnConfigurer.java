@@ -3,6 +3,7 @@ package io.github.webauthn.config;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.RelyingParty;
 import io.github.webauthn.WebAuthnFilter;
+import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnProperties;
 import io.github.webauthn.domain.WebAuthnCredentials;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
@@ -12,6 +13,7 @@ import io.github.webauthn.events.WebAuthnEventPublisher;
 import io.github.webauthn.flows.WebAuthnAssertionFinishStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -100,6 +102,8 @@ public class WebAuthnConfigurer extends AbstractHttpConfigurer<WebAuthnConfigure
         return null;
     };
 
+    private Function<HttpServletRequest, String> clientKeyResolver;
+
     private WebAuthnFilter filter;
 
     public WebAuthnConfigurer() {
@@ -173,6 +177,22 @@ public class WebAuthnConfigurer extends AbstractHttpConfigurer<WebAuthnConfigure
         return this;
     }
 
+    /**
+     * Tells the clients apart when {@link CeremonyQuota} is enabled, instead of the
+     * {@link WebAuthnProperties.Quota#getKey()} property. For instance an API key header:
+     * <pre>
+     *     request -> request.getHeader("X-Api-Key")
+     * </pre>
+     *
+     * @param clientKeyResolver
+     * @return WebAuthnConfigurer
+     */
+    public WebAuthnConfigurer clientKeyResolver(Function<HttpServletRequest, String> clientKeyResolver) {
+        Assert.notNull(clientKeyResolver, "clientKeyResolver cannot be null");
+        this.clientKeyResolver = clientKeyResolver;
+        return this;
+    }
+
     @Override
     public void configure(HttpSecurity http) {
 
@@ -184,14 +204,17 @@ public class WebAuthnConfigurer extends AbstractHttpConfigurer<WebAuthnConfigure
                 getBean(http, WebAuthnCredentialsRepository.class),
                 getBean(http, RelyingParty.class),
                 getBean(http, ObjectMapper.class),
-                getBean(http, WebAuthnOperation.class),
-                getBean(http, WebAuthnOperation.class),
-                getBean(http, WebAuthnEventPublisher.class)
+                getBean(http, WebAuthnConfig.REGISTRATION_CACHE, WebAuthnOperation.class),
+                getBean(http, WebAuthnConfig.ASSERTION_CACHE, WebAuthnOperation.class),
+                getBean(http, WebAuthnEventPublisher.class),
+                http.getSharedObject(ApplicationContext.class).getBeanProvider(CeremonySealer.class).getIfAvailable(),
+                http.getSharedObject(ApplicationContext.class).getBeanProvider(CeremonyQuota.class).getIfAvailable()
         );
 
         this.filter.setUpdateSecurityContextHandler(updateSecurityContextHandler);
         this.filter.setAuthenticationSuccessHandler(authenticationSuccessResponseMapper);
         this.filter.setUserSupplier(userSupplier);
+        this.filter.setClientKeyResolver(clientKeyResolver);
 
         http.addFilterBefore(filter, BasicAuthenticationFilter.class);
     }
@@ -200,4 +223,8 @@ public class WebAuthnConfigurer extends AbstractHttpConfigurer<WebAuthnConfigure
         return http.getSharedObject(ApplicationContext.class).getBean(clasz);
     }
 
+    private <T> T getBean(HttpSecurity http, String name, Class<T> clasz) {
+        return http.getSharedObject(ApplicationContext.class).getBean(name, clasz);
+    }
+
 }
@@ -10,5 +10,56 @@ public interface WebAuthnOperation<T, K> {
 
     void remove(K id);
 
+    /**
+     * Removes the entry and returns it in a single step, so two concurrent callers can never both get it.
+     * <p>The default implementation is not atomic, stores should override it.</p>
+     *
+     * @return the removed entry or null if there was none
+     */
+    default T take(K id) {
+        T data = get(id);
+        if (data != null) {
+            remove(id);
+        }
+        return data;
+    }
+
+    /**
+     * Tells if an entry is still pending without reading it, stores should override it when they can answer without
+     * copying or decoding the entry.
+     *
+     * @return true if {@link #get(Object)} would return the entry
+     */
+    default boolean contains(K id) {
+        return get(id) != null;
+    }
+
     Stream<T> list();
+
+    /**
+     * @return the number of entries, stores should override it when they can count them without listing them
+     */
+    default long size() {
+        return list().count();
+    }
+
+    /**
+     * Checked before a new ceremony is started, so a full store can turn requests down
+     * before any work is done for them.
+     *
+     * @return true if the next {@link #put(Object, Object)} would be rejected
+     */
+    default boolean isFull() {
+        return false;
+    }
+
+    /**
+     * Counted by the store itself when it drops an entry whose time to live has passed, so the evicted, rejected or
+     * replaced entries are never mistaken for expired ones.
+     *
+     * @return the number of entries expired so far, or -1 if the store does not count them
+     */
+    default long getExpiredCount() {
+        return -1;
+    }
 }
@@ -0,0 +1,340 @@
+package io.github.webauthn.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Concurrent open addressing map keyed by primitive longs, used by the in-memory repositories for their ids.
+ * <p>The keys are split over segments, each one a pair of arrays guarded by a {@link StampedLock}: writes take the
+ * segment's write lock while reads are optimistic and only lock when a write ran meanwhile.
+ * An entry costs a long and a reference instead of a boxed key and a hash map node.</p>
+ * <p>Values can not be null, a null value marks a free slot.</p>
+ */
+final class ConcurrentLongMap<V> {
+
+    private static final int SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    ConcurrentLongMap() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    V get(long key) {
+        long hash = hash(key);
+        return segment(hash).get(key, hash);
+    }
+
+    /**
+     * @return the previous value or null if there was none
+     */
+    V put(long key, V value) {
+        Objects.requireNonNull(value);
+        long hash = hash(key);
+        return segment(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * @return the current value, the new one when there was none
+     */
+    V computeIfAbsent(long key, LongFunction<? extends V> function) {
+        long hash = hash(key);
+        Segment<V> segment = segment(hash);
+        V value = segment.get(key, hash);
+        if (value != null) {
+            return value;
+        }
+        V created = Objects.requireNonNull(function.apply(key));
+        V previous = segment.put(key, hash, created, true);
+        return previous != null ? previous : created;
+    }
+
+    /**
+     * Runs the function under the write lock of the segment, the updates of the same key never interleave with it
+     *
+     * @param function receives the current value or null, returns the new value or null to remove the key
+     * @return the new value
+     */
+    V compute(long key, UnaryOperator<V> function) {
+        long hash = hash(key);
+        return segment(hash).compute(key, hash, function);
+    }
+
+    /**
+     * @return the removed value or null if there was none
+     */
+    V remove(long key) {
+        long hash = hash(key);
+        return segment(hash).remove(key, hash, null);
+    }
+
+    /**
+     * Removes the key only while it is mapped to this value
+     */
+    boolean remove(long key, V value) {
+        long hash = hash(key);
+        return segment(hash).remove(key, hash, value) != null;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Sizes the segments for the expected number of entries at once, instead of doubling them on the way
+     */
+    void ensureCapacity(long entries) {
+        long perSegment = entries / SEGMENTS + 1;
+        for (Segment<V> segment : segments) {
+            segment.ensureCapacity(perSegment);
+        }
+    }
+
+    /**
+     * @return a snapshot of the values, later changes are not reflected
+     */
+    List<V> values() {
+        List<V> values = new ArrayList<>(size());
+        for (Segment<V> segment : segments) {
+            segment.collect(values);
+        }
+        return values;
+    }
+
+    private Segment<V> segment(long hash) {
+        return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    }
+
+    private static long hash(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        private Table(int capacity) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+        }
+    }
+
+    private static final class Segment<V> {
+        private final StampedLock lock = new StampedLock();
+        // replaced as a whole on resize, so a reader always sees arrays of the same length
+        private volatile Table table = new Table(INITIAL_CAPACITY);
+        private volatile int size;
+
+        V get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            V value = find(table, key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = find(table, key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        V put(long key, long hash, V value, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                Table current = table;
+                int mask = current.values.length - 1;
+                int index = (int) hash & mask;
+                while (current.values[index] != null) {
+                    if (current.keys[index] == key) {
+                        @SuppressWarnings("unchecked")
+                        V previous = (V) current.values[index];
+                        if (!onlyIfAbsent) {
+                            current.values[index] = value;
+                        }
+                        return previous;
+                    }
+                    index = (index + 1) & mask;
+                }
+                if ((size + 1) * 4 > current.values.length * 3) {
+                    current = resize(current, current.values.length * 2);
+                    mask = current.values.length - 1;
+                    index = (int) hash & mask;
+                    while (current.values[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                }
+                current.keys[index] = key;
+                current.values[index] = value;
+                size++;
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        V compute(long key, long hash, UnaryOperator<V> function) {
+            long stamp = lock.writeLock();
+            try {
+                Table current = table;
+                int mask = current.values.length - 1;
+                int index = (int) hash & mask;
+                while (current.values[index] != null && current.keys[index] != key) {
+                    index = (index + 1) & mask;
+                }
+                @SuppressWarnings("unchecked")
+                V previous = (V) current.values[index];
+                V value = function.apply(previous);
+                if (previous != null) {
+                    if (value == null) {
+                        removeAt(current, index);
+                        size--;
+                    } else {
+                        current.values[index] = value;
+                    }
+                } else if (value != null) {
+                    if ((size + 1) * 4 > current.values.length * 3) {
+                        current = resize(current, current.values.length * 2);
+                        mask = current.values.length - 1;
+                        index = (int) hash & mask;
+                        while (current.values[index] != null) {
+                            index = (index + 1) & mask;
+                        }
+                    }
+                    current.keys[index] = key;
+                    current.values[index] = value;
+                    size++;
+                }
+                return value;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @param expected the value the key should be mapped to, null for any value
+         */
+        V remove(long key, long hash, V expected) {
+            long stamp = lock.writeLock();
+            try {
+                Table current = table;
+                int mask = current.values.length - 1;
+                int index = (int) hash & mask;
+                while (current.values[index] != null) {
+                    if (current.keys[index] == key) {
+                        @SuppressWarnings("unchecked")
+                        V previous = (V) current.values[index];
+                        if (expected != null && !expected.equals(previous)) {
+                            return null;
+                        }
+                        removeAt(current, index);
+                        size--;
+                        return previous;
+                    }
+                    index = (index + 1) & mask;
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void ensureCapacity(long entries) {
+            long stamp = lock.writeLock();
+            try {
+                int capacity = table.values.length;
+                while (capacity < 1 << 30 && entries * 4 > (long) capacity * 3) {
+                    capacity <<= 1;
+                }
+                if (capacity > table.values.length) {
+                    resize(table, capacity);
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void collect(List<V> values) {
+            long stamp = lock.readLock();
+            try {
+                for (Object value : table.values) {
+                    if (value != null) {
+                        values.add((V) value);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> V find(Table table, long key, long hash) {
+            int mask = table.values.length - 1;
+            int index = (int) hash & mask;
+            // the table is never more than three quarters full, the probe always reaches a free slot
+            for (int probes = 0; probes <= mask; probes++) {
+                Object value = table.values[index];
+                if (value == null) {
+                    return null;
+                }
+                if (table.keys[index] == key) {
+                    return (V) value;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        /**
+         * Backward shift deletion, so lookups never need tombstones
+         */
+        private static void removeAt(Table table, int slot) {
+            int mask = table.values.length - 1;
+            int hole = slot;
+            int index = (hole + 1) & mask;
+            while (table.values[index] != null) {
+                int home = (int) hash(table.keys[index]) & mask;
+                // move the entry back if the hole lies between its home slot and its current slot
+                if (((index - home) & mask) >= ((index - hole) & mask)) {
+                    table.keys[hole] = table.keys[index];
+                    table.values[hole] = table.values[index];
+                    hole = index;
+                }
+                index = (index + 1) & mask;
+            }
+            table.values[hole] = null;
+        }
+
+        private Table resize(Table current, int capacity) {
+            Table resized = new Table(capacity);
+            int mask = resized.values.length - 1;
+            for (int i = 0; i < current.values.length; i++) {
+                if (current.values[i] != null) {
+                    int index = (int) hash(current.keys[i]) & mask;
+                    while (resized.values[index] != null) {
+                        index = (index + 1) & mask;
+                    }
+                    resized.keys[index] = current.keys[i];
+                    resized.values[index] = current.values[i];
+                }
+            }
+            table = resized;
+            return resized;
+        }
+    }
+}
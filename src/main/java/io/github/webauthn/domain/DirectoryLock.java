@@ -0,0 +1,62 @@
+package io.github.webauthn.domain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exclusive lock on a file of a directory, held by the repository using the directory until it is closed.
+ * A second process opening the directory fails at once instead of writing over the first one's files.
+ * The lock file itself is left in place, only the lock is released.
+ */
+final class DirectoryLock implements AutoCloseable {
+
+    private final FileChannel channel;
+
+    /**
+     * @param name of the lock file, distinct for each kind of files so they may share a directory
+     * @throws IllegalStateException when another process, or another repository of this one, holds the lock
+     */
+    DirectoryLock(Path directory, String name) {
+        Path file = directory.resolve(name);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IllegalStateException(directory + " is already used by another process, " + file + " is locked");
+            }
+            this.channel = channel;
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // the original failure is more useful
+                }
+            }
+            if (e instanceof IOException io) {
+                throw new UncheckedIOException("Could not lock " + file, io);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not release the lock of the directory", e);
+        }
+    }
+}
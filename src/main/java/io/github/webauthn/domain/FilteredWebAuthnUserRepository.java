@@ -0,0 +1,157 @@
+package io.github.webauthn.domain;
+
+import io.github.webauthn.dto.RegistrationStartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a {@link UsernameFilter} in front of another repository, so the usernames it surely does not have are
+ * rejected without reaching it, see {@link #mightContainUsername}.
+ * <p>The usernames are added before each save and removed after each delete, the deleted user is looked up first.
+ * A user saved several times, or renamed, is counted more often than removed: the filter only errs on the side of
+ * false positives. The users written to the repository without this decorator are only seen by {@link #load()}.</p>
+ */
+public class FilteredWebAuthnUserRepository<T extends WebAuthnUser> implements WebAuthnUserRepository<T> {
+    private static final Logger log = LoggerFactory.getLogger(FilteredWebAuthnUserRepository.class);
+
+    private final WebAuthnUserRepository<T> delegate;
+    private final UsernameFilter filter;
+
+    /**
+     * @param filter empty filter, filled from the repository with {@link #load()}
+     */
+    public FilteredWebAuthnUserRepository(WebAuthnUserRepository<T> delegate, UsernameFilter filter) {
+        this.delegate = delegate;
+        this.filter = filter;
+    }
+
+    /**
+     * Adds the usernames already in the repository, before the first lookup. The users saved meanwhile are added twice,
+     * which is harmless.
+     */
+    public void load() {
+        long[] loaded = new long[1];
+        try (Stream<String> usernames = delegate.findAllUsernames()) {
+            usernames.filter(Objects::nonNull).forEach(username -> {
+                filter.add(username);
+                loaded[0]++;
+            });
+        }
+        log.debug("load - {} usernames", loaded[0]);
+    }
+
+    public WebAuthnUserRepository<T> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean mightContainUsername(String username) {
+        return username != null && filter.mightContain(username) && delegate.mightContainUsername(username);
+    }
+
+    @Override
+    public T save(T user) {
+        add(user);
+        return delegate.save(user);
+    }
+
+    @Override
+    public T saveIfAbsent(T user) {
+        add(user);
+        return delegate.saveIfAbsent(user);
+    }
+
+    @Override
+    public T saveNewUser(T user) {
+        add(user);
+        return delegate.saveNewUser(user);
+    }
+
+    @Override
+    public void saveAll(Stream<T> users) {
+        delegate.saveAll(users.peek(this::add));
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        Optional<String> username = id == null ? Optional.empty() : delegate.findById(id).map(WebAuthnUser::getUsername);
+        delegate.deleteById(id);
+        username.ifPresent(filter::remove);
+    }
+
+    /**
+     * The usernames of the candidates {@code abandoned} accepts are looked up, the deleted ones are then removed
+     */
+    @Override
+    public List<Long> deleteNeverEnabledCreatedBefore(LocalDateTime before, int limit, LongPredicate abandoned) {
+        Map<Long, String> usernames = new ConcurrentHashMap<>();
+        List<Long> deleted = delegate.deleteNeverEnabledCreatedBefore(before, limit, id -> {
+            if (!abandoned.test(id)) {
+                return false;
+            }
+            delegate.findById(id)
+                    .map(WebAuthnUser::getUsername)
+                    .ifPresent(username -> usernames.put(id, username));
+            return true;
+        });
+        for (Long id : deleted) {
+            String username = usernames.get(id);
+            if (username != null) {
+                filter.remove(username);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public Optional<T> findById(Long id) {
+        return delegate.findById(id);
+    }
+
+    @Override
+    public Optional<T> findByUsername(String username) {
+        return delegate.findByUsername(username);
+    }
+
+    @Override
+    public Optional<T> findByAddTokenAndRegistrationAddStartAfter(byte[] token, LocalDateTime after) {
+        return delegate.findByAddTokenAndRegistrationAddStartAfter(token, after);
+    }
+
+    @Override
+    public Optional<T> findByRecoveryToken(byte[] token) {
+        return delegate.findByRecoveryToken(token);
+    }
+
+    @Override
+    public Stream<String> findAllUsernames() {
+        return delegate.findAllUsernames();
+    }
+
+    @Override
+    public T newUser(RegistrationStartRequest startRequest) {
+        return delegate.newUser(startRequest);
+    }
+
+    @Override
+    public void exportAll(OutputStream out) throws IOException {
+        delegate.exportAll(out);
+    }
+
+    private void add(T user) {
+        if (user.getUsername() != null) {
+            filter.add(user.getUsername());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.webauthn.domain;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from a long to a non negative int, kept in two primitive arrays.
+ * <p>The map is not thread safe, callers are expected to guard it with their own lock.</p>
+ */
+final class LongIntMap {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    // -1 marks a free slot
+    private int[] values = newValues(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * @return the value or -1 if the key is not in the map
+     */
+    int get(long key) {
+        int mask = values.length - 1;
+        int index = home(key, mask);
+        while (values[index] >= 0) {
+            if (keys[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    void put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value should not be negative");
+        }
+        if ((size + 1) * 4 > values.length * 3) {
+            resize(values.length * 2);
+        }
+        int mask = values.length - 1;
+        int index = home(key, mask);
+        while (values[index] >= 0) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    /**
+     * Backward shift deletion, so lookups never need tombstones
+     *
+     * @return the removed value or -1 if the key was not in the map
+     */
+    int remove(long key) {
+        int mask = values.length - 1;
+        int index = home(key, mask);
+        while (values[index] >= 0) {
+            if (keys[index] == key) {
+                int removed = values[index];
+                int hole = index;
+                int next = (hole + 1) & mask;
+                while (values[next] >= 0) {
+                    int home = home(keys[next], mask);
+                    // move the entry back if the hole lies between its home slot and its current slot
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        keys[hole] = keys[next];
+                        values[hole] = values[next];
+                        hole = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                values[hole] = -1;
+                size--;
+                return removed;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Sizes the arrays for the expected number of entries at once, instead of doubling them on the way
+     */
+    void ensureCapacity(int entries) {
+        int capacity = values.length;
+        while (capacity < 1 << 30 && (long) entries * 4 > (long) capacity * 3) {
+            capacity <<= 1;
+        }
+        if (capacity > values.length) {
+            resize(capacity);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, -1);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = newValues(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] >= 0) {
+                int index = home(oldKeys[i], mask);
+                while (values[index] >= 0) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int[] newValues(int capacity) {
+        int[] values = new int[capacity];
+        Arrays.fill(values, -1);
+        return values;
+    }
+
+    private static int home(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,251 @@
+package io.github.webauthn.domain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+
+/**
+ * Open addressing multimap from a long to non zero longs, kept in a memory mapped file.
+ * <p>A key can be mapped to several values, they are found by probing from the key's home slot until a free slot.
+ * The file grows by rehashing to a new file moved over the old one. The header has room for a few longs the owner
+ * uses for its own state.</p>
+ * <p>The map is not thread safe, callers are expected to guard it with their own lock.</p>
+ */
+final class MappedLongMultimap implements AutoCloseable {
+
+    private static final int MAGIC = 0x5741494D;
+    private static final int VERSION = 1;
+    // magic, version, capacity, size, fields
+    private static final int HEADER = 64;
+    private static final int CAPACITY = 8;
+    private static final int SIZE = 12;
+    private static final int FIELDS = 16;
+    static final int FIELD_COUNT = 6;
+    private static final int SLOT = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final Path file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+
+    /**
+     * @param file opened if it exists, created otherwise
+     */
+    MappedLongMultimap(Path file) {
+        this.file = file;
+        try {
+            if (Files.exists(file) && Files.size(file) > 0) {
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                channel.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    channel.close();
+                    throw new IllegalStateException(file + " is not an index file");
+                }
+                capacity = header.getInt(CAPACITY);
+                size = header.getInt(SIZE);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+            } else {
+                channel = create(file, INITIAL_CAPACITY);
+                capacity = INITIAL_CAPACITY;
+                buffer = map(channel, capacity);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map " + file, e);
+        }
+    }
+
+    /**
+     * @return the first value of the key, 0 if there is none
+     */
+    long get(long key) {
+        int mask = capacity - 1;
+        for (int slot = home(key, mask); value(slot) != 0; slot = (slot + 1) & mask) {
+            if (key(slot) == key) {
+                return value(slot);
+            }
+        }
+        return 0;
+    }
+
+    void forEach(long key, LongConsumer action) {
+        int mask = capacity - 1;
+        for (int slot = home(key, mask); value(slot) != 0; slot = (slot + 1) & mask) {
+            if (key(slot) == key) {
+                action.accept(value(slot));
+            }
+        }
+    }
+
+    void add(long key, long value) {
+        if (value == 0) {
+            throw new IllegalArgumentException("value should not be 0");
+        }
+        if ((size + 1) * 2 > capacity) {
+            resize(capacity * 2);
+        }
+        int mask = capacity - 1;
+        int slot = home(key, mask);
+        while (value(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        buffer.putLong(offset(slot), key);
+        buffer.putLong(offset(slot) + 8, value);
+        buffer.putInt(SIZE, ++size);
+    }
+
+    /**
+     * Backward shift deletion, so lookups never need tombstones
+     *
+     * @return true if the key was mapped to the value
+     */
+    boolean remove(long key, long value) {
+        int mask = capacity - 1;
+        for (int slot = home(key, mask); value(slot) != 0; slot = (slot + 1) & mask) {
+            if (key(slot) == key && value(slot) == value) {
+                int hole = slot;
+                int next = (hole + 1) & mask;
+                while (value(next) != 0) {
+                    int home = home(key(next), mask);
+                    // move the entry back if the hole lies between its home slot and its current slot
+                    if (((next - home) & mask) >= ((next - hole) & mask)) {
+                        buffer.putLong(offset(hole), key(next));
+                        buffer.putLong(offset(hole) + 8, value(next));
+                        hole = next;
+                    }
+                    next = (next + 1) & mask;
+                }
+                buffer.putLong(offset(hole) + 8, 0);
+                buffer.putInt(SIZE, --size);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grows the file for the expected number of entries at once, instead of doubling it on the way
+     */
+    void ensureCapacity(long entries) {
+        int newCapacity = capacity;
+        while (newCapacity < MAX_CAPACITY && entries * 2 > newCapacity) {
+            newCapacity <<= 1;
+        }
+        if (newCapacity > capacity) {
+            resize(newCapacity);
+        }
+    }
+
+    void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            buffer.putLong(offset(slot) + 8, 0);
+        }
+        size = 0;
+        buffer.putInt(SIZE, 0);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long field(int index) {
+        return buffer.getLong(FIELDS + index * 8);
+    }
+
+    void field(int index, long value) {
+        buffer.putLong(FIELDS + index * 8, value);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (channel.isOpen()) {
+                buffer.force();
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close " + file, e);
+        }
+    }
+
+    private void resize(int newCapacity) {
+        if (newCapacity > MAX_CAPACITY) {
+            throw new IllegalStateException(file + " can not hold more than " + MAX_CAPACITY / 2 + " entries");
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            FileChannel resizedChannel = create(tmp, newCapacity);
+            MappedByteBuffer resized = map(resizedChannel, newCapacity);
+            for (int index = 0; index < FIELD_COUNT; index++) {
+                resized.putLong(FIELDS + index * 8, field(index));
+            }
+            int mask = newCapacity - 1;
+            for (int slot = 0; slot < capacity; slot++) {
+                if (value(slot) != 0) {
+                    int target = home(key(slot), mask);
+                    while (resized.getLong(offset(target) + 8) != 0) {
+                        target = (target + 1) & mask;
+                    }
+                    resized.putLong(offset(target), key(slot));
+                    resized.putLong(offset(target) + 8, value(slot));
+                }
+            }
+            resized.putInt(SIZE, size);
+            resized.force();
+            // the mapping follows the file, it stays valid once moved
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel.close();
+            channel = resizedChannel;
+            buffer = resized;
+            capacity = newCapacity;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not resize " + file, e);
+        }
+    }
+
+    private static FileChannel create(Path file, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(CAPACITY, capacity);
+        channel.write(header, 0);
+        return channel;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int capacity) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+    }
+
+    private long key(int slot) {
+        return buffer.getLong(offset(slot));
+    }
+
+    private long value(int slot) {
+        return buffer.getLong(offset(slot) + 8);
+    }
+
+    private static int offset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    private static int home(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.webauthn.domain;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter of the existing usernames, answers "surely absent" without reaching the repository.
+ * <p>Each username increments {@code k} counters of 4 bits, packed 16 to a long and updated with compare and set.
+ * Removing it decrements them, so the filter follows renames and deletions. A counter reaching 15 saturates and is
+ * never decremented again, it may only cause false positives.</p>
+ * <p>The owner of the filter, like {@link FilteredWebAuthnUserRepository}, may add a username more often than it
+ * removes it, at the cost of false positives. A username removed more often than added could hide another one.</p>
+ */
+public final class UsernameFilter {
+
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final long COUNTER_MASK = 0xF;
+    private static final int MAX_COUNT = 15;
+    private static final int MAX_HASHES = 16;
+
+    private final AtomicLongArray words;
+    private final int mask;
+    private final int hashes;
+
+    /**
+     * @param expectedUsernames number of usernames the filter is sized for, more can be added at the cost of more
+     *                          false positives
+     * @param falsePositiveRate share of the absent usernames reported as maybe present, between 0 and 1
+     */
+    public UsernameFilter(long expectedUsernames, double falsePositiveRate) {
+        if (expectedUsernames <= 0) {
+            throw new IllegalArgumentException("expectedUsernames should be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate should be between 0 and 1");
+        }
+        double optimal = -expectedUsernames * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        int counters = COUNTERS_PER_WORD;
+        while (counters < optimal && counters < 1 << 30) {
+            counters <<= 1;
+        }
+        this.words = new AtomicLongArray(counters / COUNTERS_PER_WORD);
+        this.mask = counters - 1;
+        this.hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) counters / expectedUsernames * Math.log(2))));
+    }
+
+    /**
+     * @return false if the username was surely never added, or removed as often as added
+     */
+    public boolean mightContain(String username) {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            if (count(h1 + i * h2) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void add(String username) {
+        update(username, 1);
+    }
+
+    public void remove(String username) {
+        update(username, -1);
+    }
+
+    /**
+     * @return the number of counters, each one takes 4 bits
+     */
+    public int size() {
+        return mask + 1;
+    }
+
+    private void update(String username, int delta) {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int counter = (h1 + i * h2) & mask;
+            int word = counter / COUNTERS_PER_WORD;
+            int shift = (counter % COUNTERS_PER_WORD) * 4;
+            while (true) {
+                long current = words.get(word);
+                long count = (current >>> shift) & COUNTER_MASK;
+                if (count == MAX_COUNT || (delta < 0 && count == 0)) {
+                    break;
+                }
+                long next = current + ((long) delta << shift);
+                if (words.compareAndSet(word, current, next)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int count(int index) {
+        int counter = index & mask;
+        return (int) (words.get(counter / COUNTERS_PER_WORD) >>> ((counter % COUNTERS_PER_WORD) * 4) & COUNTER_MASK);
+    }
+
+    /**
+     * 64 bits FNV-1a over the chars followed by a finalizer, so the two halves are independent enough for double hashing
+     */
+    private static long hash(String username) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < username.length(); i++) {
+            hash = (hash ^ username.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,654 @@
+package io.github.webauthn.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * In memory credentials packed in columns, for deployments with millions of passkeys.
+ * <p>Each credential is a row of primitive columns: id, user id and count are longs, the credential id and the
+ * COSE key are copied next to each other in shared 1MB byte pages and the user agents are deduplicated.
+ * Lookups by id, user and credential id go through primitive indexes, and the repository hands out flyweight views
+ * reading the columns, so a credential costs little more than its key bytes.</p>
+ * <p>The setters of a view write to the columns directly. The bytes of deleted or modified rows are reclaimed once
+ * they outweigh the live ones, by copying the live rows to new pages.</p>
+ */
+public class WebAuthnCredentialsColumnarRepository implements WebAuthnCredentialsRepository<WebAuthnCredentials> {
+    private static final Logger log = LoggerFactory.getLogger(WebAuthnCredentialsColumnarRepository.class);
+    static final int PAGE_SIZE = 1 << 20;
+    private static final int INITIAL_ROWS = 1024;
+    private static final long NO_COUNT = Long.MIN_VALUE;
+    private static final int BATCH_SIZE = 4096;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong COUNTER = new AtomicLong();
+
+    private long[] ids = new long[INITIAL_ROWS];
+    private long[] userIds = new long[INITIAL_ROWS];
+    private long[] counts = new long[INITIAL_ROWS];
+    // page index in the high int, offset in the low one
+    private long[] positions = new long[INITIAL_ROWS];
+    // -1 marks a free row
+    private int[] credentialIdLengths = new int[INITIAL_ROWS];
+    // -1 for a null key
+    private int[] coseLengths = new int[INITIAL_ROWS];
+    // -1 for a null user agent
+    private int[] userAgents = new int[INITIAL_ROWS];
+    // rows of the same user, and of the same credential id hash, are chained through these
+    private int[] nextOfUser = new int[INITIAL_ROWS];
+    private int[] nextWithHash = new int[INITIAL_ROWS];
+    private int rows;
+    private int[] freeRows = new int[16];
+    private int freeCount;
+
+    private final LongIntMap rowsById = new LongIntMap();
+    private final LongIntMap firstRowByUser = new LongIntMap();
+    private final LongIntMap firstRowByHash = new LongIntMap();
+
+    // user agents are a handful of distinct strings, they are never removed
+    private final Map<String, Integer> userAgentIndexes = new HashMap<>();
+    private final List<String> userAgentValues = new ArrayList<>();
+
+    private final List<byte[]> pages = new ArrayList<>();
+    private int pageOffset = PAGE_SIZE;
+    private long liveBytes;
+    private long wastedBytes;
+
+    @Override
+    public List<WebAuthnCredentials> findAllByAppUserId(Long userId) {
+        if (userId == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<WebAuthnCredentials> credentials = new ArrayList<>();
+            for (int row = firstRowByUser.get(userId); row >= 0; row = nextOfUser[row]) {
+                credentials.add(new Row(ids[row], row));
+            }
+            // the newest row is chained first
+            Collections.reverse(credentials);
+            return credentials;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<WebAuthnCredentials> findByCredentialIdAndAppUserId(byte[] credentialId, Long userId) {
+        return findByCredentialId(credentialId).stream()
+                .filter(c -> c.getAppUserId().equals(userId))
+                .findFirst();
+    }
+
+    @Override
+    public List<WebAuthnCredentials> findByCredentialId(byte[] credentialId) {
+        if (credentialId == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<WebAuthnCredentials> credentials = new ArrayList<>(1);
+            for (int row = firstRowByHash.get(hash(credentialId)); row >= 0; row = nextWithHash[row]) {
+                if (Arrays.equals(credentialId, credentialId(row))) {
+                    credentials.add(new Row(ids[row], row));
+                }
+            }
+            return credentials;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the credentials to the columns, a view of this repository is already up to date and returned as is
+     *
+     * @return a view of the saved row
+     */
+    @Override
+    public WebAuthnCredentials save(WebAuthnCredentials credentials) {
+        log.debug("save - {}", credentials);
+        if (credentials instanceof Row view && view.owner() == this) {
+            return view;
+        }
+        lock.writeLock().lock();
+        try {
+            return store(credentials);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sizes the columns and indexes for the credentials the stream expects once, and takes the lock per batch
+     */
+    @Override
+    public void saveAll(Stream<WebAuthnCredentials> credentials) {
+        Spliterator<WebAuthnCredentials> spliterator = credentials.spliterator();
+        long expected = WebAuthnExport.expectedSize(spliterator);
+        if (expected != Long.MAX_VALUE) {
+            lock.writeLock().lock();
+            try {
+                ensureCapacity((int) Math.min(rowsById.size() + expected, Integer.MAX_VALUE - 8));
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        List<WebAuthnCredentials> batch = new ArrayList<>(BATCH_SIZE);
+        spliterator.forEachRemaining(c -> {
+            batch.add(c);
+            if (batch.size() == BATCH_SIZE) {
+                saveBatch(batch);
+            }
+        });
+        saveBatch(batch);
+    }
+
+    /**
+     * Copies the rows to the export in batches, the lock is only held while a batch is copied
+     */
+    @Override
+    public void exportAll(OutputStream out) throws IOException {
+        WebAuthnExport.writeCredentials(out, size(), () -> new Iterator<>() {
+            private final List<WebAuthnCredentials> batch = new ArrayList<>(BATCH_SIZE);
+            private int next;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                if (index == batch.size()) {
+                    batch.clear();
+                    index = 0;
+                    lock.readLock().lock();
+                    try {
+                        for (; next < rows && batch.size() < BATCH_SIZE; next++) {
+                            if (credentialIdLengths[next] >= 0) {
+                                batch.add(copy(next));
+                            }
+                        }
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return index < batch.size();
+            }
+
+            @Override
+            public WebAuthnCredentials next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(index++);
+            }
+        });
+    }
+
+    @Override
+    public void deleteByAppUserId(Long appUserId) {
+        log.debug("deleteByAppUserId - {}", appUserId);
+        if (appUserId == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int row = firstRowByUser.get(appUserId);
+            while (row >= 0) {
+                int next = nextOfUser[row];
+                free(row);
+                row = next;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        log.debug("deleteById - {}", id);
+        if (id == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.get(id);
+            if (row >= 0) {
+                free(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Frees the rows under a single write lock
+     */
+    @Override
+    public void deleteAllById(Collection<Long> ids) {
+        log.debug("deleteAllById - {} credentials", ids.size());
+        lock.writeLock().lock();
+        try {
+            for (Long id : ids) {
+                int row = id == null ? -1 : rowsById.get(id);
+                if (row >= 0) {
+                    free(row);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WebAuthnCredentials save(byte[] credentialId, Long appUserId, Long count, byte[] publicKeyCose, String userAgent) {
+        return save(new DefaultWebAuthnCredentials(credentialId,
+                appUserId, count, publicKeyCose, userAgent));
+    }
+
+    /**
+     * @return the number of credentials
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rowsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the bytes reserved for the credential ids and keys, live or not yet reclaimed
+     */
+    public long getArenaBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) pages.size() * PAGE_SIZE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void saveBatch(List<WebAuthnCredentials> batch) {
+        lock.writeLock().lock();
+        try {
+            for (WebAuthnCredentials credentials : batch) {
+                if (!(credentials instanceof Row view && view.owner() == this)) {
+                    store(credentials);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        batch.clear();
+    }
+
+    // called with the write lock held
+    private Row store(WebAuthnCredentials credentials) {
+        if (credentials.getCredentialId() == null || credentials.getAppUserId() == null) {
+            throw new IllegalArgumentException("credentialId and appUserId are required");
+        }
+        if (credentials.getId() == null) {
+            credentials.setId(COUNTER.incrementAndGet());
+        } else {
+            COUNTER.accumulateAndGet(credentials.getId(), Math::max);
+        }
+        int row = rowsById.get(credentials.getId());
+        if (row >= 0) {
+            unlink(row);
+        } else {
+            row = allocate();
+        }
+        write(row, credentials);
+        return new Row(credentials.getId(), row);
+    }
+
+    private void ensureCapacity(int capacity) {
+        growColumns(capacity);
+        rowsById.ensureCapacity(capacity);
+        firstRowByUser.ensureCapacity(capacity);
+        firstRowByHash.ensureCapacity(capacity);
+    }
+
+    private void growColumns(int capacity) {
+        if (capacity > ids.length) {
+            ids = Arrays.copyOf(ids, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            credentialIdLengths = Arrays.copyOf(credentialIdLengths, capacity);
+            coseLengths = Arrays.copyOf(coseLengths, capacity);
+            userAgents = Arrays.copyOf(userAgents, capacity);
+            nextOfUser = Arrays.copyOf(nextOfUser, capacity);
+            nextWithHash = Arrays.copyOf(nextWithHash, capacity);
+        }
+    }
+
+    private DefaultWebAuthnCredentials copy(int row) {
+        DefaultWebAuthnCredentials copy = new DefaultWebAuthnCredentials(credentialId(row), userIds[row],
+                counts[row] == NO_COUNT ? null : counts[row], cose(row),
+                userAgents[row] < 0 ? null : userAgentValues.get(userAgents[row]));
+        copy.setId(ids[row]);
+        return copy;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeRows[--freeCount];
+        }
+        if (rows == ids.length) {
+            growColumns(ids.length * 2);
+        }
+        credentialIdLengths[rows] = -1;
+        return rows++;
+    }
+
+    private void free(int row) {
+        unlink(row);
+        credentialIdLengths[row] = -1;
+        if (freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        }
+        freeRows[freeCount++] = row;
+    }
+
+    private void write(int row, WebAuthnCredentials credentials) {
+        byte[] credentialId = credentials.getCredentialId();
+        byte[] cose = credentials.getPublicKeyCose();
+        int coseLength = cose == null ? 0 : cose.length;
+        positions[row] = append(credentialId, cose);
+        credentialIdLengths[row] = credentialId.length;
+        coseLengths[row] = cose == null ? -1 : cose.length;
+        liveBytes += credentialId.length + coseLength;
+
+        ids[row] = credentials.getId();
+        userIds[row] = credentials.getAppUserId();
+        counts[row] = credentials.getCount() == null ? NO_COUNT : credentials.getCount();
+        userAgents[row] = userAgentIndex(credentials.getUserAgent());
+
+        rowsById.put(ids[row], row);
+        nextOfUser[row] = firstRowByUser.get(userIds[row]);
+        firstRowByUser.put(userIds[row], row);
+        long hash = hash(credentialId);
+        nextWithHash[row] = firstRowByHash.get(hash);
+        firstRowByHash.put(hash, row);
+    }
+
+    /**
+     * Removes the row from the indexes, its bytes are left for the next compaction
+     */
+    private void unlink(int row) {
+        if (rowsById.get(ids[row]) == row) {
+            rowsById.remove(ids[row]);
+        }
+        unchain(firstRowByUser, nextOfUser, userIds[row], row);
+        unchain(firstRowByHash, nextWithHash, hash(credentialId(row)), row);
+        int bytes = credentialIdLengths[row] + Math.max(coseLengths[row], 0);
+        liveBytes -= bytes;
+        wastedBytes += bytes;
+    }
+
+    private static void unchain(LongIntMap heads, int[] next, long key, int row) {
+        int current = heads.get(key);
+        if (current == row) {
+            if (next[row] >= 0) {
+                heads.put(key, next[row]);
+            } else {
+                heads.remove(key);
+            }
+            return;
+        }
+        while (current >= 0) {
+            if (next[current] == row) {
+                next[current] = next[row];
+                return;
+            }
+            current = next[current];
+        }
+    }
+
+    private long append(byte[] credentialId, byte[] cose) {
+        int length = credentialId.length + (cose == null ? 0 : cose.length);
+        if (length > PAGE_SIZE) {
+            throw new IllegalArgumentException("Credential larger than " + PAGE_SIZE + " bytes");
+        }
+        if (wastedBytes > PAGE_SIZE && wastedBytes > liveBytes) {
+            compact();
+        }
+        if (pageOffset + length > PAGE_SIZE) {
+            pages.add(new byte[PAGE_SIZE]);
+            pageOffset = 0;
+        }
+        byte[] page = pages.get(pages.size() - 1);
+        System.arraycopy(credentialId, 0, page, pageOffset, credentialId.length);
+        if (cose != null) {
+            System.arraycopy(cose, 0, page, pageOffset + credentialId.length, cose.length);
+        }
+        long position = ((long) (pages.size() - 1) << 32) | pageOffset;
+        pageOffset += length;
+        return position;
+    }
+
+    /**
+     * Copies the bytes of the live rows to new pages, the pages of the deleted ones are dropped
+     */
+    private void compact() {
+        log.debug("compact - live: {} bytes, wasted: {} bytes", liveBytes, wastedBytes);
+        List<byte[]> old = new ArrayList<>(pages);
+        pages.clear();
+        pageOffset = PAGE_SIZE;
+        for (int row = 0; row < rows; row++) {
+            if (credentialIdLengths[row] < 0) {
+                continue;
+            }
+            int length = credentialIdLengths[row] + Math.max(coseLengths[row], 0);
+            if (pageOffset + length > PAGE_SIZE) {
+                pages.add(new byte[PAGE_SIZE]);
+                pageOffset = 0;
+            }
+            byte[] page = old.get((int) (positions[row] >>> 32));
+            System.arraycopy(page, (int) positions[row], pages.get(pages.size() - 1), pageOffset, length);
+            positions[row] = ((long) (pages.size() - 1) << 32) | pageOffset;
+            pageOffset += length;
+        }
+        wastedBytes = 0;
+    }
+
+    private byte[] credentialId(int row) {
+        byte[] page = pages.get((int) (positions[row] >>> 32));
+        int offset = (int) positions[row];
+        return Arrays.copyOfRange(page, offset, offset + credentialIdLengths[row]);
+    }
+
+    private byte[] cose(int row) {
+        if (coseLengths[row] < 0) {
+            return null;
+        }
+        byte[] page = pages.get((int) (positions[row] >>> 32));
+        int offset = (int) positions[row] + credentialIdLengths[row];
+        return Arrays.copyOfRange(page, offset, offset + coseLengths[row]);
+    }
+
+    private int userAgentIndex(String userAgent) {
+        if (userAgent == null) {
+            return -1;
+        }
+        return userAgentIndexes.computeIfAbsent(userAgent, value -> {
+            userAgentValues.add(value);
+            return userAgentValues.size() - 1;
+        });
+    }
+
+    private static long hash(byte[] bytes) {
+        long hash = 1125899906842597L;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    /**
+     * Flyweight view of a row, it only keeps the credential id and finds the row again if it moved
+     */
+    private final class Row implements WebAuthnCredentials {
+        private long id;
+        private int row;
+
+        private Row(long id, int row) {
+            this.id = id;
+            this.row = row;
+        }
+
+        private WebAuthnCredentialsColumnarRepository owner() {
+            return WebAuthnCredentialsColumnarRepository.this;
+        }
+
+        // called with the lock held
+        private int row() {
+            if (row < rows && credentialIdLengths[row] >= 0 && ids[row] == id) {
+                return row;
+            }
+            row = rowsById.get(id);
+            if (row < 0) {
+                throw new IllegalStateException("Credentials " + id + " were deleted");
+            }
+            return row;
+        }
+
+        private <R> R read(IntFunction<R> column) {
+            lock.readLock().lock();
+            try {
+                return column.apply(row());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Rewrites the whole row, the credential id and the user are indexed
+         */
+        private void update(Consumer<WebAuthnCredentials> change) {
+            lock.writeLock().lock();
+            try {
+                int current = row();
+                DefaultWebAuthnCredentials copy = copy(current);
+                change.accept(copy);
+                if (copy.getId() == null || copy.getCredentialId() == null || copy.getAppUserId() == null) {
+                    throw new IllegalArgumentException("id, credentialId and appUserId are required");
+                }
+                unlink(current);
+                write(current, copy);
+                id = copy.getId();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public byte[] getCredentialId() {
+            return read(WebAuthnCredentialsColumnarRepository.this::credentialId);
+        }
+
+        @Override
+        public void setCredentialId(byte[] credentialId) {
+            update(c -> c.setCredentialId(credentialId));
+        }
+
+        @Override
+        public Long getAppUserId() {
+            return read(r -> userIds[r]);
+        }
+
+        @Override
+        public void setAppUserId(Long appUserId) {
+            update(c -> c.setAppUserId(appUserId));
+        }
+
+        @Override
+        public Long getCount() {
+            return read(r -> counts[r] == NO_COUNT ? null : counts[r]);
+        }
+
+        @Override
+        public void setCount(Long count) {
+            lock.writeLock().lock();
+            try {
+                counts[row()] = count == null ? NO_COUNT : count;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public byte[] getPublicKeyCose() {
+            return read(WebAuthnCredentialsColumnarRepository.this::cose);
+        }
+
+        @Override
+        public void setPublicKeyCose(byte[] publicKeyCose) {
+            update(c -> c.setPublicKeyCose(publicKeyCose));
+        }
+
+        @Override
+        public String getUserAgent() {
+            return read(r -> userAgents[r] < 0 ? null : userAgentValues.get(userAgents[r]));
+        }
+
+        @Override
+        public void setUserAgent(String userAgent) {
+            lock.writeLock().lock();
+            try {
+                userAgents[row()] = userAgentIndex(userAgent);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            update(c -> c.setId(id));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Row that)) return false;
+            return owner() == that.owner() && id == that.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id);
+        }
+
+        @Override
+        public String toString() {
+            return "WebAuthnCredentials{" +
+                    "id=" + id +
+                    '}';
+        }
+    }
+}
@@ -1,81 +1,188 @@
 package io.github.webauthn.domain;
 
 
-import io.github.webauthn.config.InMemoryOperation;
-import io.github.webauthn.config.WebAuthnOperation;
+import com.yubico.webauthn.data.ByteArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.Collections.emptyList;
 
+/**
+ * Each user's credentials are an immutable array replaced under the write lock of the user's entry, reads never wait
+ * and concurrent registrations of the same user can not lose each other's credentials. The changes are queued in the
+ * journal under that lock too, so they are replayed in the order they were applied.
+ */
 public class WebAuthnCredentialsInMemoryRepository implements WebAuthnCredentialsRepository<DefaultWebAuthnCredentials> {
     private static final Logger log = LoggerFactory.getLogger(WebAuthnCredentialsInMemoryRepository.class);
-    private final WebAuthnOperation<List<DefaultWebAuthnCredentials>, Long> credentialsByUserId = new InMemoryOperation<>();
+    private static final int BATCH_SIZE = 4096;
+    private static final DefaultWebAuthnCredentials[] EMPTY = new DefaultWebAuthnCredentials[0];
+    // a user without credentials has no entry
+    private final ConcurrentLongMap<DefaultWebAuthnCredentials[]> credentialsByUserId = new ConcurrentLongMap<>();
+    // usernameless logins look credentials up by id only, the lists are replaced rather than modified
+    private final Map<ByteArray, List<DefaultWebAuthnCredentials>> credentialsByCredentialId = new ConcurrentHashMap<>();
+    // revocations find the owner of a credential from its id, instead of walking every user
+    private final ConcurrentLongMap<DefaultWebAuthnCredentials> credentialsById = new ConcurrentLongMap<>();
     private final AtomicLong COUNTER = new AtomicLong();
+    private volatile WebAuthnJournal journal;
 
     @Override
     public List<DefaultWebAuthnCredentials> findAllByAppUserId(Long userId) {
-        return Optional.ofNullable(credentialsByUserId.get(userId))
-                .orElse(emptyList());
+        DefaultWebAuthnCredentials[] credentials = userId == null ? null : credentialsByUserId.get(userId);
+        return credentials == null ? emptyList() : List.of(credentials);
     }
 
     @Override
     public Optional<DefaultWebAuthnCredentials> findByCredentialIdAndAppUserId(byte[] credentialId, Long userId) {
-        return credentialsByUserId.list()
-                .flatMap(l -> l.stream().filter(c -> c.getAppUserId().equals(userId) &&
-                        Arrays.equals(c.getCredentialId(), credentialId)))
+        return findByCredentialId(credentialId).stream()
+                .filter(c -> c.getAppUserId().equals(userId))
                 .findFirst();
     }
 
     @Override
     public List<DefaultWebAuthnCredentials> findByCredentialId(byte[] credentialId) {
-        return credentialsByUserId.list()
-                .flatMap(l -> l.stream().filter(c -> Arrays.equals(c.getCredentialId(), credentialId)))
-                .collect(Collectors.toList());
+        if (credentialId == null) {
+            return emptyList();
+        }
+        List<DefaultWebAuthnCredentials> credentials = credentialsByCredentialId.getOrDefault(new ByteArray(credentialId), emptyList());
+        // the index is not updated at once with the users' arrays, a credential deleted meanwhile is skipped
+        return credentials.stream()
+                .filter(c -> indexOf(findAllByAppUserId(c.getAppUserId()), c) >= 0)
+                .toList();
     }
 
     @Override
     public DefaultWebAuthnCredentials save(DefaultWebAuthnCredentials credentials) {
         log.debug("save - {}", credentials);
+        List<CompletableFuture<Object>> journaled = new ArrayList<>(1);
+        store(credentials, journaled);
+        WebAuthnJournal.await(journaled);
+        return credentials;
+    }
 
+    /**
+     * Sizes the map for the users the stream may hold once, and waits for the journal once per batch
+     */
+    @Override
+    public void saveAll(Stream<DefaultWebAuthnCredentials> credentials) {
+        Spliterator<DefaultWebAuthnCredentials> spliterator = credentials.spliterator();
+        long expected = WebAuthnExport.expectedSize(spliterator);
+        if (expected != Long.MAX_VALUE) {
+            credentialsByUserId.ensureCapacity(credentialsByUserId.size() + expected);
+            credentialsById.ensureCapacity(credentialsById.size() + expected);
+        }
+        List<CompletableFuture<Object>> batch = new ArrayList<>(BATCH_SIZE);
+        spliterator.forEachRemaining(c -> {
+            store(c, batch);
+            if (batch.size() == BATCH_SIZE) {
+                WebAuthnJournal.await(batch);
+            }
+        });
+        WebAuthnJournal.await(batch);
+    }
+
+    @Override
+    public void exportAll(OutputStream out) throws IOException {
+        List<DefaultWebAuthnCredentials> all = findAll();
+        WebAuthnExport.writeCredentials(out, all.size(), all);
+    }
+
+    /**
+     * @param journaled receives the pending append, to wait for outside of the lock
+     */
+    private void store(DefaultWebAuthnCredentials credentials, List<CompletableFuture<Object>> journaled) {
         if (credentials.getId() == null) {
             credentials.setId(COUNTER.incrementAndGet());
+        } else {
+            COUNTER.accumulateAndGet(credentials.getId(), Math::max);
         }
+        WebAuthnJournal journal = this.journal;
+        credentialsByUserId.compute(credentials.getAppUserId(), current -> {
+            DefaultWebAuthnCredentials[] next = add(current == null ? EMPTY : current, credentials);
+            if (journal != null) {
+                journaled.add(journal.credentialsSaved(credentials));
+            }
+            return next;
+        });
+    }
 
-        List<DefaultWebAuthnCredentials> list = credentialsByUserId.get(credentials.getAppUserId());
-        if (list == null) {
-            list = new ArrayList<>();
-            credentialsByUserId.put(credentials.getAppUserId(), list);
+    /**
+     * @return the user's credentials with this one added
+     */
+    private DefaultWebAuthnCredentials[] add(DefaultWebAuthnCredentials[] current, DefaultWebAuthnCredentials credentials) {
+        int existing = indexOf(List.of(current), credentials);
+        if (existing >= 0 && current[existing] == credentials) {
+            return current;
         }
-        if (!list.contains(credentials)) {
-            list.add(credentials);
+        DefaultWebAuthnCredentials[] next;
+        if (existing >= 0) {
+            // another instance with the same id, like the ones replayed from a journal, replaces the stored one
+            next = current.clone();
+            next[existing] = credentials;
+            unindex(current[existing]);
+        } else {
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = credentials;
         }
-        return credentials;
+        index(credentials);
+        return next;
     }
 
     @Override
     public void deleteByAppUserId(Long appUserId) {
         log.debug("deleteByAppUserId - {}", appUserId);
-        credentialsByUserId.remove(appUserId);
+        if (appUserId == null) {
+            return;
+        }
+        WebAuthnJournal journal = this.journal;
+        List<CompletableFuture<Object>> journaled = new ArrayList<>(1);
+        credentialsByUserId.compute(appUserId, current -> {
+            if (current != null) {
+                Arrays.stream(current).forEach(this::unindex);
+                if (journal != null) {
+                    journaled.add(journal.credentialsOfUserDeleted(appUserId));
+                }
+            }
+            return null;
+        });
+        WebAuthnJournal.await(journaled);
     }
 
     @Override
     public void deleteById(Long id) {
         log.debug("deleteById - {}", id);
-        credentialsByUserId.list()
-                .filter(list -> {
-                    Optional<DefaultWebAuthnCredentials> any = list.stream()
-                            .filter(c -> Objects.equals(c.getId(), id))
-                            .findAny();
-                    any
-                            .ifPresent(c -> list.remove(c));
-                    return any.isPresent();
-                })
-                .findFirst();
+        DefaultWebAuthnCredentials credentials = id == null ? null : credentialsById.get(id);
+        if (credentials == null) {
+            return;
+        }
+        List<CompletableFuture<Object>> journaled = new ArrayList<>(1);
+        remove(credentials.getAppUserId(), Set.of(id), journaled);
+        WebAuthnJournal.await(journaled);
+    }
+
+    /**
+     * The ids are grouped by owner, each user's array is replaced once whatever the number of its revoked credentials
+     */
+    @Override
+    public void deleteAllById(Collection<Long> ids) {
+        log.debug("deleteAllById - {} credentials", ids.size());
+        Map<Long, Set<Long>> idsByUserId = new HashMap<>();
+        for (Long id : ids) {
+            DefaultWebAuthnCredentials credentials = id == null ? null : credentialsById.get(id);
+            if (credentials != null) {
+                idsByUserId.computeIfAbsent(credentials.getAppUserId(), userId -> new HashSet<>()).add(id);
+            }
+        }
+        List<CompletableFuture<Object>> journaled = new ArrayList<>();
+        idsByUserId.forEach((userId, userIds) -> remove(userId, userIds, journaled));
+        WebAuthnJournal.await(journaled);
     }
 
     @Override
@@ -85,4 +192,84 @@ public class WebAuthnCredentialsInMemoryRepository implements WebAuthnCredential
         ));
     }
 
+    /**
+     * @param journal receives every change from now on, null to stop
+     */
+    void setJournal(WebAuthnJournal journal) {
+        this.journal = journal;
+    }
+
+    List<DefaultWebAuthnCredentials> findAll() {
+        List<DefaultWebAuthnCredentials> all = new ArrayList<>();
+        for (DefaultWebAuthnCredentials[] credentials : credentialsByUserId.values()) {
+            all.addAll(Arrays.asList(credentials));
+        }
+        return all;
+    }
+
+    /**
+     * Removes the credentials of this user that have one of the ids, each one is journaled under the user's lock
+     *
+     * @param journaled receives the pending appends, to wait for outside of the lock
+     */
+    private void remove(long appUserId, Set<Long> ids, List<CompletableFuture<Object>> journaled) {
+        WebAuthnJournal journal = this.journal;
+        credentialsByUserId.compute(appUserId, current -> {
+            if (current == null) {
+                return null;
+            }
+            List<DefaultWebAuthnCredentials> kept = new ArrayList<>(current.length);
+            for (DefaultWebAuthnCredentials credentials : current) {
+                if (!ids.contains(credentials.getId())) {
+                    kept.add(credentials);
+                    continue;
+                }
+                unindex(credentials);
+                if (journal != null) {
+                    journaled.add(journal.credentialsDeleted(credentials.getId()));
+                }
+            }
+            if (kept.size() == current.length) {
+                return current;
+            }
+            return kept.isEmpty() ? null : kept.toArray(EMPTY);
+        });
+    }
+
+    private static int indexOf(List<DefaultWebAuthnCredentials> credentials, DefaultWebAuthnCredentials credential) {
+        for (int i = 0; i < credentials.size(); i++) {
+            if (credentials.get(i) == credential || credentials.get(i).equals(credential)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void index(DefaultWebAuthnCredentials credentials) {
+        credentialsById.put(credentials.getId(), credentials);
+        if (credentials.getCredentialId() == null) {
+            return;
+        }
+        credentialsByCredentialId.compute(new ByteArray(credentials.getCredentialId()), (id, list) -> {
+            if (list == null) {
+                return List.of(credentials);
+            }
+            List<DefaultWebAuthnCredentials> copy = new ArrayList<>(list);
+            copy.add(credentials);
+            return List.copyOf(copy);
+        });
+    }
+
+    private void unindex(DefaultWebAuthnCredentials credentials) {
+        // a replacing instance with the same id may already be indexed
+        credentialsById.remove(credentials.getId(), credentials);
+        if (credentials.getCredentialId() == null) {
+            return;
+        }
+        credentialsByCredentialId.computeIfPresent(new ByteArray(credentials.getCredentialId()), (id, list) -> {
+            List<DefaultWebAuthnCredentials> copy = new ArrayList<>(list);
+            copy.remove(credentials);
+            return copy.isEmpty() ? null : List.copyOf(copy);
+        });
+    }
 }
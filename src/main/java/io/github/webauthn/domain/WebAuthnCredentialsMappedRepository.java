@@ -0,0 +1,756 @@
+package io.github.webauthn.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+
+/**
+ * Credentials kept in memory mapped segment files, for deployments with more passkeys than they want on the heap.
+ * <p>Each credential is a record appended to the last segment. Three hash indexes, also memory mapped, find the
+ * records by id, by user and by credential id. Nothing is loaded when the repository is opened after a clean
+ * shutdown, the records are paged in by the operating system as they are read. After a crash the indexes are rebuilt
+ * from the segments.</p>
+ * <p>The repository hands out flyweight views: a getter reads its field from the mapping, so a login only copies the
+ * public key out of the file. Setting the count overwrites it in place, the other setters append a new version of
+ * the record. The space of deleted or replaced records is not reused. The directory is locked while the repository is
+ * open, a second process opening it fails instead of appending to the same segments.</p>
+ */
+public class WebAuthnCredentialsMappedRepository implements WebAuthnCredentialsRepository<WebAuthnCredentials>, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WebAuthnCredentialsMappedRepository.class);
+
+    private static final int MAGIC = 0x57414352;
+    private static final int VERSION = 1;
+    // magic, version, segment size, position
+    private static final int SEGMENT_HEADER = 64;
+    private static final int POSITION = 12;
+
+    private static final byte FREE = 0;
+    private static final byte LIVE = 1;
+    private static final byte TOMBSTONE = 2;
+    // state, padding, length, id, user id, count, credential id, key and user agent lengths, padding
+    static final int RECORD_HEADER = 48;
+    private static final long NO_COUNT = Long.MIN_VALUE;
+    private static final int BATCH_SIZE = 4096;
+
+    // fields of the ids index header
+    private static final int CLEAN = 0;
+    private static final int LAST_ID = 1;
+    private static final int LAST_APP_USER_ID = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong COUNTER = new AtomicLong();
+    private final AtomicLong lastAppUserId = new AtomicLong();
+    private final Path directory;
+    private final DirectoryLock directoryLock;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final MappedLongMultimap byId;
+    private final MappedLongMultimap byUser;
+    private final MappedLongMultimap byCredentialId;
+    private boolean closed;
+
+    /**
+     * @param segmentSize size of the segment files created from now on, the existing ones keep their size
+     */
+    public WebAuthnCredentialsMappedRepository(Path directory, int segmentSize) {
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("segmentSize should be larger than " + (SEGMENT_HEADER + RECORD_HEADER) + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the credentials in " + directory, e);
+        }
+        this.directoryLock = new DirectoryLock(directory, "credentials.lock");
+        try {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.filter(f -> f.getFileName().toString().matches("segment-\\d{6}\\.dat")).sorted().toList()) {
+                    segments.add(openSegment(file));
+                }
+            }
+        } catch (IOException e) {
+            segments.forEach(Segment::close);
+            directoryLock.close();
+            throw new UncheckedIOException("Could not open the credentials in " + directory, e);
+        }
+        this.byId = new MappedLongMultimap(directory.resolve("ids.idx"));
+        this.byUser = new MappedLongMultimap(directory.resolve("users.idx"));
+        this.byCredentialId = new MappedLongMultimap(directory.resolve("credential-ids.idx"));
+        // the indexes written before the owners were tracked do not know the last one
+        if (byId.field(CLEAN) != 1 || byId.size() > 0 && byId.field(LAST_APP_USER_ID) == 0) {
+            rebuild();
+        }
+        COUNTER.set(byId.field(LAST_ID));
+        lastAppUserId.set(byId.field(LAST_APP_USER_ID));
+        // cleared until close, a crash meanwhile leaves indexes that may not match the segments
+        byId.field(CLEAN, 0);
+        byId.force();
+    }
+
+    @Override
+    public List<WebAuthnCredentials> findAllByAppUserId(Long userId) {
+        if (userId == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<Record> credentials = new ArrayList<>();
+            byUser.forEach(userId, location -> credentials.add(new Record(id(location), location)));
+            credentials.sort(Comparator.comparingLong(r -> r.id));
+            return Collections.unmodifiableList(credentials);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<WebAuthnCredentials> findByCredentialIdAndAppUserId(byte[] credentialId, Long userId) {
+        return findByCredentialId(credentialId).stream()
+                .filter(c -> c.getAppUserId().equals(userId))
+                .findFirst();
+    }
+
+    @Override
+    public List<WebAuthnCredentials> findByCredentialId(byte[] credentialId) {
+        if (credentialId == null) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<WebAuthnCredentials> credentials = new ArrayList<>(1);
+            byCredentialId.forEach(hash(credentialId), location -> {
+                if (Arrays.equals(credentialId, credentialId(location))) {
+                    credentials.add(new Record(id(location), location));
+                }
+            });
+            return credentials;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the credentials to the segments, a view of this repository is already up to date and returned as is
+     *
+     * @return a view of the saved record
+     */
+    @Override
+    public WebAuthnCredentials save(WebAuthnCredentials credentials) {
+        log.debug("save - {}", credentials);
+        if (credentials instanceof Record view && view.owner() == this) {
+            return view;
+        }
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            return store(credentials);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Grows the index files for the credentials the stream expects once, and takes the lock per batch
+     */
+    @Override
+    public void saveAll(Stream<WebAuthnCredentials> credentials) {
+        Spliterator<WebAuthnCredentials> spliterator = credentials.spliterator();
+        long expected = WebAuthnExport.expectedSize(spliterator);
+        if (expected != Long.MAX_VALUE) {
+            lock.writeLock().lock();
+            try {
+                checkOpen();
+                long entries = byId.size() + expected;
+                byId.ensureCapacity(entries);
+                byUser.ensureCapacity(entries);
+                byCredentialId.ensureCapacity(entries);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        List<WebAuthnCredentials> batch = new ArrayList<>(BATCH_SIZE);
+        spliterator.forEachRemaining(c -> {
+            batch.add(c);
+            if (batch.size() == BATCH_SIZE) {
+                saveBatch(batch);
+            }
+        });
+        saveBatch(batch);
+    }
+
+    /**
+     * Copies the live records to the export one segment at a time, the lock is only held while a segment is read
+     */
+    @Override
+    public void exportAll(OutputStream out) throws IOException {
+        WebAuthnExport.writeCredentials(out, size(), () -> new Iterator<>() {
+            private final List<WebAuthnCredentials> batch = new ArrayList<>();
+            private int segment;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                while (index == batch.size()) {
+                    batch.clear();
+                    index = 0;
+                    lock.readLock().lock();
+                    try {
+                        checkOpen();
+                        if (segment == segments.size()) {
+                            return false;
+                        }
+                        MappedByteBuffer buffer = segments.get(segment).buffer();
+                        int end = buffer.getInt(POSITION);
+                        for (int offset = SEGMENT_HEADER; offset < end; offset += buffer.getInt(offset + 4)) {
+                            if (buffer.get(offset) == LIVE) {
+                                batch.add(copy(location(segment, offset)));
+                            }
+                        }
+                        segment++;
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public WebAuthnCredentials next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(index++);
+            }
+        });
+    }
+
+    @Override
+    public void deleteByAppUserId(Long appUserId) {
+        log.debug("deleteByAppUserId - {}", appUserId);
+        if (appUserId == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            List<Long> locations = new ArrayList<>();
+            byUser.forEach(appUserId, locations::add);
+            locations.forEach(this::unlink);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        log.debug("deleteById - {}", id);
+        if (id == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long location = byId.get(id);
+            if (location != 0) {
+                unlink(location);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unlinks the records under a single write lock
+     */
+    @Override
+    public void deleteAllById(Collection<Long> ids) {
+        log.debug("deleteAllById - {} credentials", ids.size());
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (Long id : ids) {
+                long location = id == null ? 0 : byId.get(id);
+                if (location != 0) {
+                    unlink(location);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WebAuthnCredentials save(byte[] credentialId, Long appUserId, Long count, byte[] publicKeyCose, String userAgent) {
+        return save(new DefaultWebAuthnCredentials(credentialId,
+                appUserId, count, publicKeyCose, userAgent));
+    }
+
+    /**
+     * @return the number of credentials
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The owners outlive their credentials here, a user repository that does not keep its users should not hand out
+     * these ids again, or the new users would get the credentials left by the former ones
+     *
+     * @return the highest user id a credential was ever saved for, deleted credentials included
+     */
+    public long lastAppUserId() {
+        return lastAppUserId.get();
+    }
+
+    /**
+     * Flushes the segments and indexes to the files, the next open trusts the indexes instead of rebuilding them
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segments.forEach(Segment::close);
+            byUser.close();
+            byCredentialId.close();
+            byId.field(LAST_ID, COUNTER.get());
+            byId.field(LAST_APP_USER_ID, lastAppUserId.get());
+            byId.force();
+            byId.field(CLEAN, 1);
+            byId.close();
+            directoryLock.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void saveBatch(List<WebAuthnCredentials> batch) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (WebAuthnCredentials credentials : batch) {
+                if (!(credentials instanceof Record view && view.owner() == this)) {
+                    store(credentials);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        batch.clear();
+    }
+
+    // called with the write lock held
+    private Record store(WebAuthnCredentials credentials) {
+        if (credentials.getCredentialId() == null || credentials.getAppUserId() == null) {
+            throw new IllegalArgumentException("credentialId and appUserId are required");
+        }
+        if (credentials.getId() == null) {
+            credentials.setId(COUNTER.incrementAndGet());
+        } else {
+            COUNTER.accumulateAndGet(credentials.getId(), Math::max);
+        }
+        long previous = byId.get(credentials.getId());
+        long location = write(credentials);
+        if (previous != 0) {
+            unlink(previous);
+        }
+        return new Record(credentials.getId(), location);
+    }
+
+    private DefaultWebAuthnCredentials copy(long location) {
+        DefaultWebAuthnCredentials copy = new DefaultWebAuthnCredentials(credentialId(location), appUserId(location),
+                count(location), cose(location), userAgent(location));
+        copy.setId(id(location));
+        return copy;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The credentials in " + directory + " are closed");
+        }
+    }
+
+    /**
+     * Indexes the live records of the segments, a record replaced right before a crash is dropped
+     */
+    private void rebuild() {
+        byId.clear();
+        byUser.clear();
+        byCredentialId.clear();
+        long lastId = 0;
+        long lastUserId = 0;
+        int records = 0;
+        for (int index = 0; index < segments.size(); index++) {
+            MappedByteBuffer buffer = segments.get(index).buffer();
+            int end = buffer.getInt(POSITION);
+            for (int offset = SEGMENT_HEADER; offset < end; offset += buffer.getInt(offset + 4)) {
+                // the deleted credentials count too, their owners may be gone as well
+                lastUserId = Math.max(lastUserId, buffer.getLong(offset + 16));
+                if (buffer.get(offset) != LIVE) {
+                    continue;
+                }
+                long location = location(index, offset);
+                long id = id(location);
+                long previous = byId.get(id);
+                if (previous != 0) {
+                    unlink(previous);
+                }
+                link(location);
+                lastId = Math.max(lastId, id);
+                records++;
+            }
+        }
+        byId.field(LAST_ID, lastId);
+        byId.field(LAST_APP_USER_ID, lastUserId);
+        log.debug("rebuild - {} credentials in {}", records, directory);
+    }
+
+    private long write(WebAuthnCredentials credentials) {
+        byte[] credentialId = credentials.getCredentialId();
+        byte[] cose = credentials.getPublicKeyCose();
+        byte[] userAgent = credentials.getUserAgent() == null ? null : credentials.getUserAgent().getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER + credentialId.length + (cose == null ? 0 : cose.length) + (userAgent == null ? 0 : userAgent.length);
+        length = (length + 7) & ~7;
+
+        int index = segments.size() - 1;
+        if (index < 0 || segments.get(index).buffer().getInt(POSITION) + length > segments.get(index).buffer().capacity()) {
+            if (length > segmentSize - SEGMENT_HEADER) {
+                throw new IllegalArgumentException("Credentials of " + length + " bytes do not fit in a segment");
+            }
+            segments.add(createSegment(directory.resolve(String.format("segment-%06d.dat", segments.size()))));
+            index++;
+        }
+        MappedByteBuffer buffer = segments.get(index).buffer();
+        int offset = buffer.getInt(POSITION);
+        buffer.put(offset, FREE);
+        buffer.putInt(offset + 4, length);
+        buffer.putLong(offset + 8, credentials.getId());
+        buffer.putLong(offset + 16, credentials.getAppUserId());
+        buffer.putLong(offset + 24, credentials.getCount() == null ? NO_COUNT : credentials.getCount());
+        buffer.putInt(offset + 32, credentialId.length);
+        buffer.putInt(offset + 36, cose == null ? -1 : cose.length);
+        buffer.putInt(offset + 40, userAgent == null ? -1 : userAgent.length);
+        int data = offset + RECORD_HEADER;
+        buffer.put(data, credentialId);
+        data += credentialId.length;
+        if (cose != null) {
+            buffer.put(data, cose);
+            data += cose.length;
+        }
+        if (userAgent != null) {
+            buffer.put(data, userAgent);
+        }
+        buffer.putInt(POSITION, offset + length);
+        lastAppUserId.accumulateAndGet(credentials.getAppUserId(), Math::max);
+        // the state is written last, a record cut by a crash is never read back as live
+        buffer.put(offset, LIVE);
+
+        long location = location(index, offset);
+        link(location);
+        return location;
+    }
+
+    private void link(long location) {
+        byId.add(id(location), location);
+        byUser.add(appUserId(location), location);
+        byCredentialId.add(hash(credentialId(location)), location);
+    }
+
+    private void unlink(long location) {
+        byId.remove(id(location), location);
+        byUser.remove(appUserId(location), location);
+        byCredentialId.remove(hash(credentialId(location)), location);
+        buffer(location).put(offset(location), TOMBSTONE);
+    }
+
+    private boolean isLive(long location, long id) {
+        return buffer(location).get(offset(location)) == LIVE && id(location) == id;
+    }
+
+    private long id(long location) {
+        return buffer(location).getLong(offset(location) + 8);
+    }
+
+    private long appUserId(long location) {
+        return buffer(location).getLong(offset(location) + 16);
+    }
+
+    private Long count(long location) {
+        long count = buffer(location).getLong(offset(location) + 24);
+        return count == NO_COUNT ? null : count;
+    }
+
+    private byte[] credentialId(long location) {
+        return bytes(location, RECORD_HEADER, buffer(location).getInt(offset(location) + 32));
+    }
+
+    private byte[] cose(long location) {
+        int offset = offset(location);
+        MappedByteBuffer buffer = buffer(location);
+        return bytes(location, RECORD_HEADER + buffer.getInt(offset + 32), buffer.getInt(offset + 36));
+    }
+
+    private String userAgent(long location) {
+        int offset = offset(location);
+        MappedByteBuffer buffer = buffer(location);
+        byte[] userAgent = bytes(location, RECORD_HEADER + buffer.getInt(offset + 32) + Math.max(buffer.getInt(offset + 36), 0),
+                buffer.getInt(offset + 40));
+        return userAgent == null ? null : new String(userAgent, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the bytes straight from the mapping, this is the only copy a read makes
+     */
+    private byte[] bytes(long location, int start, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer(location).get(offset(location) + start, bytes);
+        return bytes;
+    }
+
+    private MappedByteBuffer buffer(long location) {
+        return segments.get((int) (location >>> 32)).buffer();
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static long hash(byte[] bytes) {
+        long hash = 1125899906842597L;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    private Segment createSegment(Path file) {
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, segmentSize);
+            buffer.putInt(POSITION, SEGMENT_HEADER);
+            buffer.putInt(0, MAGIC);
+            return new Segment(channel, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create " + file, e);
+        }
+    }
+
+    private static Segment openSegment(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IllegalStateException(file + " is not a credentials segment");
+        }
+        return new Segment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, header.getInt(8)));
+    }
+
+    private record Segment(FileChannel channel, MappedByteBuffer buffer) {
+        void close() {
+            try {
+                if (channel.isOpen()) {
+                    buffer.force();
+                    channel.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not close a credentials segment", e);
+            }
+        }
+    }
+
+    /**
+     * Flyweight view of a record, it keeps the credential id and finds the record again if it was replaced
+     */
+    private final class Record implements WebAuthnCredentials {
+        private long id;
+        private long location;
+
+        private Record(long id, long location) {
+            this.id = id;
+            this.location = location;
+        }
+
+        private WebAuthnCredentialsMappedRepository owner() {
+            return WebAuthnCredentialsMappedRepository.this;
+        }
+
+        // called with the lock held
+        private long location() {
+            if (isLive(location, id)) {
+                return location;
+            }
+            location = byId.get(id);
+            if (location == 0) {
+                throw new IllegalStateException("Credentials " + id + " were deleted");
+            }
+            return location;
+        }
+
+        private <R> R read(LongFunction<R> field) {
+            lock.readLock().lock();
+            try {
+                return field.apply(location());
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Appends a new version of the whole record
+         */
+        private void update(Consumer<WebAuthnCredentials> change) {
+            lock.writeLock().lock();
+            try {
+                checkOpen();
+                long current = location();
+                DefaultWebAuthnCredentials copy = copy(current);
+                change.accept(copy);
+                if (copy.getId() == null || copy.getCredentialId() == null || copy.getAppUserId() == null) {
+                    throw new IllegalArgumentException("id, credentialId and appUserId are required");
+                }
+                long replaced = byId.get(copy.getId());
+                location = write(copy);
+                unlink(current);
+                if (replaced != 0 && replaced != current) {
+                    unlink(replaced);
+                }
+                id = copy.getId();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public byte[] getCredentialId() {
+            return read(WebAuthnCredentialsMappedRepository.this::credentialId);
+        }
+
+        @Override
+        public void setCredentialId(byte[] credentialId) {
+            update(c -> c.setCredentialId(credentialId));
+        }
+
+        @Override
+        public Long getAppUserId() {
+            return read(WebAuthnCredentialsMappedRepository.this::appUserId);
+        }
+
+        @Override
+        public void setAppUserId(Long appUserId) {
+            update(c -> c.setAppUserId(appUserId));
+        }
+
+        @Override
+        public Long getCount() {
+            return read(WebAuthnCredentialsMappedRepository.this::count);
+        }
+
+        @Override
+        public void setCount(Long count) {
+            lock.writeLock().lock();
+            try {
+                checkOpen();
+                long current = location();
+                buffer(current).putLong(offset(current) + 24, count == null ? NO_COUNT : count);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        @Override
+        public byte[] getPublicKeyCose() {
+            return read(WebAuthnCredentialsMappedRepository.this::cose);
+        }
+
+        @Override
+        public void setPublicKeyCose(byte[] publicKeyCose) {
+            update(c -> c.setPublicKeyCose(publicKeyCose));
+        }
+
+        @Override
+        public String getUserAgent() {
+            return read(WebAuthnCredentialsMappedRepository.this::userAgent);
+        }
+
+        @Override
+        public void setUserAgent(String userAgent) {
+            update(c -> c.setUserAgent(userAgent));
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public void setId(Long id) {
+            update(c -> c.setId(id));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Record that)) return false;
+            return owner() == that.owner() && id == that.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id);
+        }
+
+        @Override
+        public String toString() {
+            return "WebAuthnCredentials{" +
+                    "id=" + id +
+                    '}';
+        }
+    }
+}
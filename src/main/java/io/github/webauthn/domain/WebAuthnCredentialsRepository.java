@@ -3,8 +3,12 @@ package io.github.webauthn.domain;
 
 import io.github.webauthn.dto.RegistrationStartRequest;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface WebAuthnCredentialsRepository<T extends WebAuthnCredentials> {
 
@@ -20,5 +24,30 @@ public interface WebAuthnCredentialsRepository<T extends WebAuthnCredentials> {
 
     void deleteById(Long id);
 
+    /**
+     * Revokes several credentials at once, the ids that are not found are ignored.
+     * Implementations may group the deletions, the default deletes them one by one.
+     */
+    default void deleteAllById(Collection<Long> ids) {
+        ids.forEach(this::deleteById);
+    }
+
     T save(byte[] credentialId, Long appUserId, Long count, byte[] publicKeyCose, String userAgent);
+
+    /**
+     * Saves the credentials of a bulk import, like the ones read with {@link WebAuthnExport#readCredentials}.
+     * Implementations may batch the writes, the default saves them one by one.
+     */
+    default void saveAll(Stream<T> credentials) {
+        credentials.forEach(this::save);
+    }
+
+    /**
+     * Writes every credential in the {@link WebAuthnExport} format, the stream is not closed
+     *
+     * @throws UnsupportedOperationException if the repository can not list its credentials
+     */
+    default void exportAll(OutputStream out) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support exporting its credentials");
+    }
 }
@@ -0,0 +1,144 @@
+package io.github.webauthn.domain;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static io.github.webauthn.domain.WebAuthnRecords.CREDENTIALS_SAVED;
+import static io.github.webauthn.domain.WebAuthnRecords.USER_SAVED;
+import static io.github.webauthn.domain.WebAuthnRecords.encode;
+import static io.github.webauthn.domain.WebAuthnRecords.readFrame;
+import static io.github.webauthn.domain.WebAuthnRecords.writeFrame;
+
+/**
+ * Binary format used to move users and credentials between repositories, see
+ * {@link WebAuthnUserRepository#exportAll(OutputStream)} and {@link WebAuthnCredentialsRepository#exportAll(OutputStream)}.
+ * <p>A file holds either users or credentials. Its header gives the number of records the exporting repository
+ * expected to write, so the importing one can size its structures once, followed by a length prefixed frame per
+ * record and an empty frame. The records are read back as {@link DefaultWebAuthnUser} and
+ * {@link DefaultWebAuthnCredentials}, one at a time.</p>
+ */
+public final class WebAuthnExport {
+
+    private static final int MAGIC = 0x57414558;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private WebAuthnExport() {
+    }
+
+    /**
+     * @param expected number of users about to be written, only a hint for the importing side
+     * @return the number of users written
+     */
+    public static long writeUsers(OutputStream out, long expected, Iterable<? extends WebAuthnUser> users) throws IOException {
+        DataOutputStream data = start(out, USER_SAVED, expected);
+        long written = 0;
+        for (WebAuthnUser user : users) {
+            writeFrame(data, encode(user));
+            written++;
+        }
+        return end(data, written);
+    }
+
+    /**
+     * @param expected number of credentials about to be written, only a hint for the importing side
+     * @return the number of credentials written
+     */
+    public static long writeCredentials(OutputStream out, long expected, Iterable<? extends WebAuthnCredentials> credentials) throws IOException {
+        DataOutputStream data = start(out, CREDENTIALS_SAVED, expected);
+        long written = 0;
+        for (WebAuthnCredentials credential : credentials) {
+            writeFrame(data, encode(credential));
+            written++;
+        }
+        return end(data, written);
+    }
+
+    /**
+     * Decodes the users lazily, the stream estimates its size with the count of the header.
+     * Reading errors are thrown as {@link UncheckedIOException}, the input stream is left open.
+     */
+    public static Stream<DefaultWebAuthnUser> readUsers(InputStream in) throws IOException {
+        return read(in, USER_SAVED, WebAuthnRecords::decodeUser);
+    }
+
+    /**
+     * Decodes the credentials lazily, the stream estimates its size with the count of the header.
+     * Reading errors are thrown as {@link UncheckedIOException}, the input stream is left open.
+     */
+    public static Stream<DefaultWebAuthnCredentials> readCredentials(InputStream in) throws IOException {
+        return read(in, CREDENTIALS_SAVED, WebAuthnRecords::decodeCredentials);
+    }
+
+    /**
+     * @return the number of elements the stream expects, {@link Long#MAX_VALUE} if it is unknown
+     */
+    static long expectedSize(Spliterator<?> spliterator) {
+        long size = spliterator.estimateSize();
+        return size < 0 ? Long.MAX_VALUE : size;
+    }
+
+    private static DataOutputStream start(OutputStream out, byte type, long expected) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeByte(type);
+        data.writeLong(expected);
+        return data;
+    }
+
+    private static long end(DataOutputStream data, long written) throws IOException {
+        data.writeInt(0);
+        data.flush();
+        return written;
+    }
+
+    private static <T> Stream<T> read(InputStream in, byte type, Decoder<T> decoder) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IllegalArgumentException("Not an export of this version");
+        }
+        byte actual = data.readByte();
+        if (actual != type) {
+            throw new IllegalArgumentException("The export holds " + (actual == USER_SAVED ? "users" : "credentials"));
+        }
+        long expected = data.readLong();
+        Spliterator<T> records = new Spliterators.AbstractSpliterator<>(expected < 0 ? Long.MAX_VALUE : expected,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    byte[] record = readFrame(data);
+                    if (record == null) {
+                        return false;
+                    }
+                    DataInputStream recordData = new DataInputStream(new ByteArrayInputStream(record));
+                    if (recordData.readByte() != type) {
+                        throw new IllegalStateException("Unexpected record in the export");
+                    }
+                    action.accept(decoder.decode(recordData));
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not read the export", e);
+                }
+            }
+        };
+        return StreamSupport.stream(records, false);
+    }
+
+    private interface Decoder<T> {
+        T decode(DataInputStream in) throws IOException;
+    }
+}
@@ -0,0 +1,433 @@
+package io.github.webauthn.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static io.github.webauthn.domain.WebAuthnRecords.CREDENTIALS_DELETED;
+import static io.github.webauthn.domain.WebAuthnRecords.CREDENTIALS_OF_USER_DELETED;
+import static io.github.webauthn.domain.WebAuthnRecords.CREDENTIALS_SAVED;
+import static io.github.webauthn.domain.WebAuthnRecords.USER_DELETED;
+import static io.github.webauthn.domain.WebAuthnRecords.USER_SAVED;
+import static io.github.webauthn.domain.WebAuthnRecords.decodeCredentials;
+import static io.github.webauthn.domain.WebAuthnRecords.decodeUser;
+import static io.github.webauthn.domain.WebAuthnRecords.encode;
+import static io.github.webauthn.domain.WebAuthnRecords.readFrame;
+import static io.github.webauthn.domain.WebAuthnRecords.writeFrame;
+
+/**
+ * Persists the in-memory repositories in a directory, so the users and their credentials survive a restart.
+ * <p>Every change is appended to a journal before the repository call returns. Its record is queued while the
+ * repository still holds the lock of the changed id, a later change of that id can not be written before it. The
+ * appends of concurrent callers are written together by a single thread and share one fsync. A snapshot of both repositories is written periodically:
+ * the journal is first rotated to a new file, the snapshot names that file as the one to replay from and the older
+ * journals are deleted once it is in place.</p>
+ * <p>The records hold the whole user or credential, replaying one twice gives the same result, so the snapshot can be
+ * taken while the repositories keep changing. When the journal is opened the snapshot is loaded and the journals
+ * written after it are replayed, a record torn by a crash ends the replay of its file. The directory is locked until
+ * the journal is closed, a second process opening it fails instead of appending to the same journal and deleting the
+ * ones the first still needs.</p>
+ */
+public class WebAuthnJournal implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WebAuthnJournal.class);
+    private static final int MAGIC = 0x5741534E;
+    private static final int VERSION = 1;
+    private static final Pattern JOURNAL_FILE = Pattern.compile("journal-(\\d{16})\\.log");
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final int MAX_BATCH = 1024;
+
+
+    private final Path directory;
+    private final DirectoryLock directoryLock;
+    private final WebAuthnUserInMemoryRepository users;
+    private final WebAuthnCredentialsInMemoryRepository credentials;
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final ScheduledExecutorService snapshots;
+    private final Object snapshotLock = new Object();
+    private FileChannel journal;
+    private long generation;
+    private volatile boolean closed;
+
+    /**
+     * Loads the directory into the repositories and records their changes from now on
+     *
+     * @param snapshotInterval how often a snapshot is written, null to only write them with {@link #snapshot()}
+     * @param credentials null when the credentials are kept elsewhere, like in {@link WebAuthnCredentialsMappedRepository},
+     *                    only the users are journaled then
+     */
+    public WebAuthnJournal(Path directory, Duration snapshotInterval, WebAuthnUserInMemoryRepository users,
+                           WebAuthnCredentialsInMemoryRepository credentials) {
+        this.directory = directory;
+        this.users = users;
+        this.credentials = credentials;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the journal in " + directory, e);
+        }
+        this.directoryLock = new DirectoryLock(directory, "journal.lock");
+        try {
+            this.generation = load();
+            this.journal = open(generation);
+        } catch (IOException | RuntimeException e) {
+            directoryLock.close();
+            if (e instanceof IOException io) {
+                throw new UncheckedIOException("Could not open the journal in " + directory, io);
+            }
+            throw (RuntimeException) e;
+        }
+        users.setJournal(this);
+        if (credentials != null) {
+            credentials.setJournal(this);
+        }
+
+        this.writer = new Thread(this::write, "webauthn-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        if (snapshotInterval != null) {
+            this.snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "webauthn-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = snapshotInterval.toMillis();
+            this.snapshots.scheduleWithFixedDelay(this::snapshotQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.snapshots = null;
+        }
+    }
+
+    /**
+     * Writes both repositories to a new snapshot and deletes the journals it replaces
+     */
+    public void snapshot() {
+        synchronized (snapshotLock) {
+            long from = rotate();
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            int records = 0;
+            try {
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(from);
+                    for (DefaultWebAuthnUser user : users.findAll()) {
+                        writeFrame(out, encode(user));
+                        records++;
+                    }
+                    List<DefaultWebAuthnCredentials> all = credentials == null ? List.of() : credentials.findAll();
+                    for (DefaultWebAuthnCredentials credential : all) {
+                        writeFrame(out, encode(credential));
+                        records++;
+                    }
+                    // an empty frame ends the snapshot
+                    out.writeInt(0);
+                    out.flush();
+                    channel.force(true);
+                }
+                Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                for (Path file : journals()) {
+                    if (generation(file) < from) {
+                        Files.delete(file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write the snapshot in " + directory, e);
+            }
+            log.debug("snapshot - {} records, replaying from journal {}", records, from);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        users.setJournal(null);
+        if (credentials != null) {
+            credentials.setJournal(null);
+        }
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+        }
+        Append stop = new Append(null, new CompletableFuture<>(), Kind.STOP);
+        appends.add(stop);
+        stop.done().join();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        directoryLock.close();
+    }
+
+    /**
+     * Queues the record without waiting for it. The repositories call this, and the methods below, under the lock that
+     * applies the change, so the records of an id are queued in the order their changes were applied, then
+     * {@link #await} the record once the lock is released.
+     */
+    CompletableFuture<Object> userSaved(DefaultWebAuthnUser user) {
+        return enqueue(encode(user));
+    }
+
+    CompletableFuture<Object> userDeleted(Long id) {
+        return enqueue(encode(USER_DELETED, id));
+    }
+
+    CompletableFuture<Object> credentialsSaved(DefaultWebAuthnCredentials credentials) {
+        return enqueue(encode(credentials));
+    }
+
+    CompletableFuture<Object> credentialsDeleted(Long id) {
+        return enqueue(encode(CREDENTIALS_DELETED, id));
+    }
+
+    CompletableFuture<Object> credentialsOfUserDeleted(Long appUserId) {
+        return enqueue(encode(CREDENTIALS_OF_USER_DELETED, appUserId));
+    }
+
+    /**
+     * Waits until the queued records are written and empties the list, the records queued together share as few
+     * fsyncs as the batches allow
+     */
+    static void await(List<CompletableFuture<Object>> done) {
+        done.forEach(WebAuthnJournal::await);
+        done.clear();
+    }
+
+    private CompletableFuture<Object> enqueue(byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+        Append append = new Append(record, new CompletableFuture<>(), Kind.RECORD);
+        appends.add(append);
+        return append.done();
+    }
+
+    /**
+     * @return the generation of the new journal, the records appended before this call are in the previous ones
+     */
+    private long rotate() {
+        Append rotate = new Append(null, new CompletableFuture<>(), Kind.ROTATE);
+        appends.add(rotate);
+        await(rotate.done());
+        return (Long) rotate.done().join();
+    }
+
+    private static void await(CompletableFuture<Object> done) {
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw new UncheckedIOException("Could not write the journal", io);
+            }
+            throw e;
+        }
+    }
+
+    private void write() {
+        List<Append> batch = new ArrayList<>();
+        List<Append> written = new ArrayList<>();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        while (true) {
+            try {
+                batch.add(appends.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            appends.drainTo(batch, MAX_BATCH);
+            for (Append append : batch) {
+                try {
+                    switch (append.kind()) {
+                        case RECORD -> {
+                            writeFrame(out, append.record());
+                            written.add(append);
+                        }
+                        case ROTATE -> {
+                            flush(buffer, written);
+                            journal.close();
+                            journal = open(++generation);
+                            append.done().complete(generation);
+                        }
+                        case STOP -> {
+                            flush(buffer, written);
+                            journal.close();
+                            append.done().complete(null);
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    log.error("write - could not write the journal", e);
+                    written.forEach(w -> w.done().completeExceptionally(e));
+                    written.clear();
+                    buffer.reset();
+                    append.done().completeExceptionally(e);
+                }
+            }
+            try {
+                flush(buffer, written);
+            } catch (IOException e) {
+                log.error("write - could not write the journal", e);
+                written.forEach(w -> w.done().completeExceptionally(e));
+                written.clear();
+                buffer.reset();
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the buffered records with one fsync and releases their callers
+     */
+    private void flush(ByteArrayOutputStream buffer, List<Append> written) throws IOException {
+        if (buffer.size() > 0) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+            journal.force(false);
+            buffer.reset();
+        }
+        written.forEach(w -> w.done().complete(null));
+        written.clear();
+    }
+
+    private FileChannel open(long generation) throws IOException {
+        return FileChannel.open(directory.resolve(String.format("journal-%016d.log", generation)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the generation of the next journal
+     */
+    private long load() throws IOException {
+        long from = 0;
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        int records = 0;
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IllegalStateException(snapshot + " is not a snapshot of this version");
+                }
+                from = in.readLong();
+                byte[] record;
+                while ((record = readFrame(in)) != null) {
+                    apply(record);
+                    records++;
+                }
+            }
+        }
+        long next = Math.max(from, 1);
+        for (Path file : journals()) {
+            long fileGeneration = generation(file);
+            if (fileGeneration >= from) {
+                records += replay(file);
+            }
+            next = Math.max(next, fileGeneration + 1);
+        }
+        log.debug("load - {} records from {}", records, directory);
+        return next;
+    }
+
+    private int replay(Path file) throws IOException {
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] record;
+                try {
+                    record = readFrame(in);
+                } catch (EOFException | IllegalStateException e) {
+                    log.warn("replay - {} ends with a torn record, ignoring it", file);
+                    break;
+                }
+                if (record == null) {
+                    break;
+                }
+                apply(record);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private List<Path> journals() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> JOURNAL_FILE.matcher(file.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long generation(Path file) {
+        Matcher matcher = JOURNAL_FILE.matcher(file.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(file + " is not a journal");
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        if (type != USER_SAVED && type != USER_DELETED && credentials == null) {
+            throw new IllegalStateException(directory + " holds credentials, they need an in-memory credentials repository");
+        }
+        switch (type) {
+            case USER_SAVED -> users.restore(decodeUser(in));
+            case USER_DELETED -> users.deleteById(in.readLong());
+            case CREDENTIALS_SAVED -> credentials.save(decodeCredentials(in));
+            case CREDENTIALS_DELETED -> credentials.deleteById(in.readLong());
+            case CREDENTIALS_OF_USER_DELETED -> credentials.deleteByAppUserId(in.readLong());
+            default -> throw new IllegalStateException("Unknown journal record " + type);
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            log.error("snapshotQuietly - could not write the snapshot", e);
+        }
+    }
+
+    private enum Kind {
+        RECORD, ROTATE, STOP
+    }
+
+    private record Append(byte[] record, CompletableFuture<Object> done, Kind kind) {
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.webauthn.domain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of the users and credentials shared by the {@link WebAuthnJournal} and {@link WebAuthnExport}.
+ * <p>A record starts with its type and is written in a frame: its length, a CRC32 of its bytes and the bytes.</p>
+ */
+final class WebAuthnRecords {
+
+    static final byte USER_SAVED = 1;
+    static final byte USER_DELETED = 2;
+    static final byte CREDENTIALS_SAVED = 3;
+    static final byte CREDENTIALS_DELETED = 4;
+    static final byte CREDENTIALS_OF_USER_DELETED = 5;
+
+    private WebAuthnRecords() {
+    }
+
+    static byte[] encode(byte type, Long id) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeLong(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] encode(WebAuthnUser user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(USER_SAVED);
+            out.writeLong(user.getId());
+            writeString(out, user.getUsername());
+            writeString(out, user.getFirstName());
+            writeString(out, user.getLastName());
+            out.writeBoolean(user.isEnabled());
+            writeBytes(out, user.getRecoveryToken());
+            writeBytes(out, user.getAddToken());
+            LocalDateTime start = user.getRegistrationAddStart();
+            out.writeBoolean(start != null);
+            if (start != null) {
+                out.writeLong(start.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(start.getNano());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param in positioned after the type
+     */
+    static DefaultWebAuthnUser decodeUser(DataInputStream in) throws IOException {
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setId(in.readLong());
+        user.setUsername(readString(in));
+        user.setFirstName(readString(in));
+        user.setLastName(readString(in));
+        user.setEnabled(in.readBoolean());
+        user.setRecoveryToken(readBytes(in));
+        user.setAddToken(readBytes(in));
+        if (in.readBoolean()) {
+            user.setRegistrationAddStart(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC));
+        }
+        return user;
+    }
+
+    static byte[] encode(WebAuthnCredentials credentials) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(CREDENTIALS_SAVED);
+            out.writeLong(credentials.getId());
+            out.writeLong(credentials.getAppUserId());
+            Long count = credentials.getCount();
+            out.writeBoolean(count != null);
+            if (count != null) {
+                out.writeLong(count);
+            }
+            writeBytes(out, credentials.getCredentialId());
+            writeBytes(out, credentials.getPublicKeyCose());
+            writeString(out, credentials.getUserAgent());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param in positioned after the type
+     */
+    static DefaultWebAuthnCredentials decodeCredentials(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        long appUserId = in.readLong();
+        Long count = in.readBoolean() ? in.readLong() : null;
+        DefaultWebAuthnCredentials credentials = new DefaultWebAuthnCredentials(readBytes(in), appUserId, count,
+                readBytes(in), readString(in));
+        credentials.setId(id);
+        return credentials;
+    }
+
+    static void writeFrame(DataOutputStream out, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    /**
+     * @return the record, null at the end of the file or at an empty frame
+     * @throws EOFException          if the file ends in the middle of a frame
+     * @throws IllegalStateException if the frame does not match its checksum
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalStateException("Invalid frame length " + length);
+        }
+        int checksum = in.readInt();
+        byte[] record = in.readNBytes(length);
+        if (record.length < length) {
+            throw new EOFException();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum) {
+            throw new IllegalStateException("Invalid frame checksum");
+        }
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value == null ? -1 : value.length);
+        if (value != null) {
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = in.readNBytes(length);
+        if (value.length < length) {
+            throw new EOFException();
+        }
+        return value;
+    }
+}
@@ -1,65 +1,269 @@
 package io.github.webauthn.domain;
 
-import io.github.webauthn.config.InMemoryOperation;
-import io.github.webauthn.config.WebAuthnOperation;
+import com.yubico.webauthn.data.ByteArray;
 import io.github.webauthn.dto.RegistrationStartRequest;
+import io.github.webauthn.flows.UsernameAlreadyExistsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Clock;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongPredicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 public class WebAuthnUserInMemoryRepository implements WebAuthnUserRepository<DefaultWebAuthnUser> {
     private static final Logger log = LoggerFactory.getLogger(WebAuthnUserInMemoryRepository.class);
-    private final WebAuthnOperation<DefaultWebAuthnUser, Long> users = new InMemoryOperation<>();
+    private static final int BATCH_SIZE = 4096;
+    // how long a signup waits for a concurrent one to store the user it reserved the username for
+    static final long RESERVATION_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long RESERVATION_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private final ConcurrentLongMap<DefaultWebAuthnUser> users = new ConcurrentLongMap<>();
+    // username lookups run on every assertion and registration start, the users are indexed by username
+    private final Index<String> usernames = new Index<>(new ConcurrentHashMap<>());
+    private final Index<ByteArray> addTokens = new Index<>(new ConcurrentHashMap<>());
+    private final Index<ByteArray> recoveryTokens = new Index<>(new ConcurrentHashMap<>());
+    // add tokens ordered by the start of their registration, so the expired ones are dropped together
+    private final ConcurrentNavigableMap<AddTokenStart, Long> addTokensByStart = new ConcurrentSkipListMap<>();
+    private final Index<AddTokenStart> addTokenStarts = new Index<>(addTokensByStart);
+    // users of the signups not finished yet, ordered by the time they were saved, see deleteNeverEnabledCreatedBefore
+    private final ConcurrentNavigableMap<NeverEnabled, Long> neverEnabledByCreation = new ConcurrentSkipListMap<>();
+    private final Index<NeverEnabled> neverEnabled = new Index<>(neverEnabledByCreation);
     private final AtomicLong COUNTER = new AtomicLong();
+    private final Clock clock;
+    private volatile WebAuthnJournal journal;
+
+    public WebAuthnUserInMemoryRepository() {
+        this(Clock.systemDefaultZone());
+    }
+
+    /**
+     * @param clock gives the creation time of the users that are not enabled yet
+     */
+    public WebAuthnUserInMemoryRepository(Clock clock) {
+        this.clock = clock;
+    }
 
     @Override
     public DefaultWebAuthnUser save(DefaultWebAuthnUser user) {
         log.debug("save - {}", user);
+        List<CompletableFuture<Object>> journaled = new ArrayList<>(1);
+        store(user, journaled, false);
+        WebAuthnJournal.await(journaled);
+        return user;
+    }
 
-        if (user.getId() == null) {
-            user.setId(COUNTER.incrementAndGet());
+    /**
+     * The username is reserved with a compare and swap on the username index before the user is stored, so the users
+     * that lose a race are never visible nor journaled. The winner may still be publishing its user, the others wait
+     * for it instead of taking its username over, and report the username taken once {@link #RESERVATION_WAIT_NANOS}
+     * has passed. A reservation whose user cannot be stored is released.
+     */
+    @Override
+    public DefaultWebAuthnUser saveIfAbsent(DefaultWebAuthnUser user) {
+        if (user.getId() != null) {
+            throw new IllegalArgumentException("saveIfAbsent only saves new users");
+        }
+        String username = user.getUsername();
+        if (username == null) {
+            return saveNewUser(user);
+        }
+        long id = COUNTER.incrementAndGet();
+        long deadline = System.nanoTime() + RESERVATION_WAIT_NANOS;
+        while (true) {
+            Long owner = usernames.reserve(id, username);
+            if (owner == null) {
+                break;
+            }
+            DefaultWebAuthnUser existing = users.get(owner);
+            if (existing != null && username.equals(existing.getUsername())) {
+                // a retried signup, the reaper waits for a whole grace period again
+                NeverEnabled created = neverEnabled.key(owner);
+                if (created == null || neverEnabled.replace(owner, created, new NeverEnabled(LocalDateTime.now(clock), owner))) {
+                    return existing;
+                }
+                continue;
+            }
+            if (existing == null && username.equals(usernames.key(owner))) {
+                // reserved but not stored yet
+                if (System.nanoTime() - deadline > 0) {
+                    throw new UsernameAlreadyExistsException("Username taken");
+                }
+                LockSupport.parkNanos(RESERVATION_PARK_NANOS);
+                continue;
+            }
+            // the owner is being deleted or renamed, its entry is taken over
+            if (usernames.replace(username, owner, id)) {
+                break;
+            }
+        }
+        user.setId(id);
+        try {
+            return saveNewUser(user);
+        } catch (RuntimeException | Error e) {
+            // the others would wait on a user that never comes, a user stored before the journal failed keeps it
+            if (users.get(id) == null) {
+                usernames.remove(id, username);
+                user.setId(null);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Only the users saved this way, or with {@link #saveIfAbsent}, are considered by
+     * {@link #deleteNeverEnabledCreatedBefore}, the users saved or imported otherwise are never reaped.
+     * The signups are not journaled as such, the ones pending when the journal is replayed are no longer reaped.
+     */
+    @Override
+    public DefaultWebAuthnUser saveNewUser(DefaultWebAuthnUser user) {
+        save(user);
+        if (!user.isEnabled()) {
+            long id = user.getId();
+            neverEnabled.compute(id, created -> created != null ? created : new NeverEnabled(LocalDateTime.now(clock), id));
         }
-        users.put(user.getId(), user);
         return user;
     }
 
+    /**
+     * Sizes the maps for the users the stream expects once, and waits for the journal once per batch
+     */
+    @Override
+    public void saveAll(Stream<DefaultWebAuthnUser> users) {
+        Spliterator<DefaultWebAuthnUser> spliterator = users.spliterator();
+        long expected = WebAuthnExport.expectedSize(spliterator);
+        if (expected != Long.MAX_VALUE) {
+            this.users.ensureCapacity(this.users.size() + expected);
+            usernames.ensureCapacity(this.users.size() + expected);
+        }
+        List<CompletableFuture<Object>> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            spliterator.forEachRemaining(user -> {
+                store(user, batch, false);
+                if (batch.size() == BATCH_SIZE) {
+                    WebAuthnJournal.await(batch);
+                }
+            });
+        } finally {
+            WebAuthnJournal.await(batch);
+        }
+    }
+
+    @Override
+    public void exportAll(OutputStream out) throws IOException {
+        List<DefaultWebAuthnUser> all = users.values();
+        WebAuthnExport.writeUsers(out, all.size(), all);
+    }
+
     @Override
     public Optional<DefaultWebAuthnUser> findById(Long id) {
-        return Optional.ofNullable(users.get(id));
+        return Optional.ofNullable(userById(id));
+    }
+
+    @Override
+    public Stream<String> findAllUsernames() {
+        return users.values().stream().map(DefaultWebAuthnUser::getUsername);
     }
 
     @Override
     public Optional<DefaultWebAuthnUser> findByUsername(String username) {
-        return users.list()
-                .filter(u -> Objects.equals(u.getUsername(), username))
-                .findFirst();
+        if (username == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(userById(usernames.get(username)))
+                .filter(u -> Objects.equals(u.getUsername(), username));
     }
 
+    /**
+     * Add tokens whose registration started before {@code after} are dropped from the index on the way,
+     * they can no longer be redeemed. The users themselves are left as they were saved.
+     */
     @Override
     public Optional<DefaultWebAuthnUser> findByAddTokenAndRegistrationAddStartAfter(byte[] token, LocalDateTime after) {
-        return users.list()
+        dropAddTokensStartedBefore(after);
+        if (token == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(userById(addTokens.get(new ByteArray(token))))
                 .filter(u -> Arrays.equals(u.getAddToken(), token) &&
-                        (u.getRegistrationAddStart() != null && u.getRegistrationAddStart().isAfter(after)))
-                .findFirst();
+                        (u.getRegistrationAddStart() != null && u.getRegistrationAddStart().isAfter(after)));
     }
 
     @Override
     public Optional<DefaultWebAuthnUser> findByRecoveryToken(byte[] token) {
         log.debug("findByRecoveryToken - {}", token);
-        return users.list()
-                .filter(u -> Arrays.equals(u.getRecoveryToken(), token))
-                .findFirst();
+        if (token == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(userById(recoveryTokens.get(new ByteArray(token))))
+                .filter(u -> Arrays.equals(u.getRecoveryToken(), token));
     }
 
     @Override
     public void deleteById(Long id) {
         log.debug("deleteById - {}", id);
-        users.remove(id);
+        if (id == null) {
+            return;
+        }
+        WebAuthnJournal journal = this.journal;
+        List<CompletableFuture<Object>> journaled = new ArrayList<>(1);
+        users.compute(id, previous -> {
+            if (journal != null) {
+                journaled.add(journal.userDeleted(id));
+            }
+            return null;
+        });
+        usernames.put(id, null);
+        addTokens.put(id, null);
+        addTokenStarts.put(id, null);
+        recoveryTokens.put(id, null);
+        neverEnabled.put(id, null);
+        WebAuthnJournal.await(journaled);
+    }
+
+    /**
+     * Walks the users of the signups from the oldest one, see {@link #saveNewUser}. A user kept by {@code abandoned}
+     * is not offered again until its signup is retried.
+     */
+    @Override
+    public List<Long> deleteNeverEnabledCreatedBefore(LocalDateTime before, int limit, LongPredicate abandoned) {
+        List<Long> deleted = new ArrayList<>();
+        int examined = 0;
+        for (NeverEnabled candidate : neverEnabledByCreation.headMap(new NeverEnabled(before, Long.MAX_VALUE)).keySet()) {
+            if (examined++ == limit) {
+                break;
+            }
+            long id = candidate.id();
+            DefaultWebAuthnUser user = users.get(id);
+            if (user == null || user.isEnabled() || !abandoned.test(id)) {
+                neverEnabled.remove(id, candidate);
+                continue;
+            }
+            // a signup retried meanwhile moved the creation time forward
+            if (!neverEnabled.remove(id, candidate)) {
+                continue;
+            }
+            deleteById(id);
+            deleted.add(id);
+        }
+        log.debug("deleteNeverEnabledCreatedBefore - {} users deleted", deleted.size());
+        return deleted;
     }
 
     @Override
@@ -70,4 +274,269 @@ public class WebAuthnUserInMemoryRepository implements WebAuthnUserRepository<De
         u.setLastName(startRequest.getLastName());
         return u;
     }
+
+    /**
+     * The new users get ids above this one, for the ids still referenced outside of this repository, like the owners
+     * of the credentials kept by {@link WebAuthnCredentialsMappedRepository}
+     */
+    public void reserveIdsUpTo(long id) {
+        COUNTER.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * @param journal receives every change from now on, null to stop
+     */
+    void setJournal(WebAuthnJournal journal) {
+        this.journal = journal;
+    }
+
+    List<DefaultWebAuthnUser> findAll() {
+        return users.values();
+    }
+
+    /**
+     * Stores a user replayed from the journal, which may take its username over from a user whose own later change
+     * is replayed next, the replay ends with the usernames of the last changes
+     */
+    void restore(DefaultWebAuthnUser user) {
+        store(user, new ArrayList<>(0), true);
+    }
+
+    /**
+     * The user is queued in the journal under the write lock of its entry, a concurrent save of the same user can not
+     * be journaled before an older one
+     *
+     * be journaled before an older one. Its username is claimed first, a user never takes the username of another one
+     * over, and the former username of a renamed user is only released once the rename is journaled.
+     *
+     * @param journaled receives the pending append, to wait for outside of the lock
+     * @param restore   true when replaying the journal, the username is taken over from its current owner
+     * @throws UsernameAlreadyExistsException when the username belongs to another user
+     */
+    private void store(DefaultWebAuthnUser user, List<CompletableFuture<Object>> journaled, boolean restore) {
+        boolean assigned = user.getId() == null;
+        if (assigned) {
+            user.setId(COUNTER.incrementAndGet());
+        } else {
+            COUNTER.accumulateAndGet(user.getId(), Math::max);
+        }
+        long id = user.getId();
+        String username = user.getUsername();
+        if (username != null) {
+            if (restore) {
+                usernames.take(id, username);
+            } else if (usernames.claim(id, username) != null) {
+                if (assigned) {
+                    user.setId(null);
+                }
+                throw new UsernameAlreadyExistsException("Username taken");
+            }
+        }
+        WebAuthnJournal journal = this.journal;
+        try {
+            users.compute(id, previous -> {
+                if (journal != null) {
+                    journaled.add(journal.userSaved(user));
+                }
+                return user;
+            });
+        } catch (RuntimeException | Error e) {
+            if (username != null) {
+                usernames.release(id, username);
+            }
+            throw e;
+        }
+        index(user);
+    }
+
+    private DefaultWebAuthnUser userById(Long id) {
+        return id == null ? null : users.get(id);
+    }
+
+    private void index(DefaultWebAuthnUser user) {
+        long id = user.getId();
+        usernames.put(id, user.getUsername());
+        ByteArray addToken = user.getAddToken() != null && user.getRegistrationAddStart() != null
+                ? new ByteArray(user.getAddToken()) : null;
+        addTokens.put(id, addToken);
+        addTokenStarts.put(id, addToken != null ? new AddTokenStart(user.getRegistrationAddStart(), id, addToken) : null);
+        recoveryTokens.put(id, user.getRecoveryToken() == null ? null : new ByteArray(user.getRecoveryToken()));
+        if (user.isEnabled()) {
+            neverEnabled.put(id, null);
+        }
+    }
+
+    private void dropAddTokensStartedBefore(LocalDateTime after) {
+        for (AddTokenStart expired : addTokensByStart.headMap(new AddTokenStart(after, Long.MAX_VALUE, null), true).keySet()) {
+            // a user saved meanwhile with a new token keeps it
+            if (addTokenStarts.remove(expired.id(), expired)) {
+                addTokens.remove(expired.id(), expired.token());
+            }
+        }
+    }
+
+    /**
+     * Ordered by start and id only, the token is kept so the expired one can be dropped without touching a newer one
+     */
+    private record AddTokenStart(LocalDateTime start, long id, ByteArray token) implements Comparable<AddTokenStart> {
+
+        @Override
+        public int compareTo(AddTokenStart other) {
+            int byStart = start.compareTo(other.start);
+            return byStart != 0 ? byStart : Long.compare(id, other.id);
+        }
+    }
+
+    private record NeverEnabled(LocalDateTime created, long id) implements Comparable<NeverEnabled> {
+
+        @Override
+        public int compareTo(NeverEnabled other) {
+            int byCreation = created.compareTo(other.created);
+            return byCreation != 0 ? byCreation : Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * Secondary index from a key to the user id, which also remembers the key each user was indexed with
+     * because users are often modified in place before being saved.
+     * <p>The key of a user changes inside a compute on its entry, so two changes of the same user never interleave.</p>
+     */
+    private static final class Index<K> {
+        private final Map<K, Long> ids;
+        private final ConcurrentLongMap<K> keys = new ConcurrentLongMap<>();
+
+        private Index(Map<K, Long> ids) {
+            this.ids = ids;
+        }
+
+        Long get(K key) {
+            return ids.get(key);
+        }
+
+        K key(long id) {
+            return keys.get(id);
+        }
+
+        void ensureCapacity(long entries) {
+            keys.ensureCapacity(entries);
+        }
+
+        /**
+         * @return null if the key was free and is now indexed to the user, the id of its owner otherwise
+         */
+        Long reserve(long id, K key) {
+            Long[] owner = new Long[1];
+            keys.compute(id, previous -> {
+                owner[0] = ids.putIfAbsent(key, id);
+                return owner[0] == null ? rekey(id, previous, key) : previous;
+            });
+            return owner[0];
+        }
+
+        /**
+         * Indexes the key to the user before the user itself is changed to it, the user keeps its current key until
+         * {@link #put} moves it
+         *
+         * @return null if the key was free or already the user's, the id of its owner otherwise
+         */
+        Long claim(long id, K key) {
+            Long[] owner = new Long[1];
+            keys.compute(id, previous -> {
+                Long current = ids.putIfAbsent(key, id);
+                owner[0] = current == null || current == id ? null : current;
+                return previous;
+            });
+            return owner[0];
+        }
+
+        /**
+         * Indexes the key to the user whoever owns it now, the user keeps its current key until {@link #put} moves it
+         */
+        void take(long id, K key) {
+            keys.compute(id, previous -> {
+                ids.put(key, id);
+                return previous;
+            });
+        }
+
+        /**
+         * Undoes a {@link #claim} of a key the user was not changed to
+         */
+        void release(long id, K key) {
+            keys.compute(id, previous -> {
+                if (!key.equals(previous)) {
+                    ids.remove(key, id);
+                }
+                return previous;
+            });
+        }
+
+        /**
+         * @return true if the key was still indexed to {@code owner} and is now indexed to the user
+         */
+        boolean replace(K key, long owner, long id) {
+            boolean[] replaced = new boolean[1];
+            keys.compute(id, previous -> {
+                replaced[0] = ids.replace(key, owner, id);
+                return replaced[0] ? rekey(id, previous, key) : previous;
+            });
+            return replaced[0];
+        }
+
+        /**
+         * Changes the key of the user only while it is still indexed with {@code expected}
+         *
+         * @return true if it was changed
+         */
+        boolean replace(long id, K expected, K key) {
+            boolean[] replaced = new boolean[1];
+            keys.compute(id, previous -> {
+                replaced[0] = expected.equals(previous);
+                return replaced[0] ? rekey(id, previous, key) : previous;
+            });
+            return replaced[0];
+        }
+
+        /**
+         * Removes the user from the index only while it is still indexed with this key
+         *
+         * @return true if it was removed
+         */
+        boolean remove(long id, K key) {
+            boolean[] removed = new boolean[1];
+            keys.compute(id, previous -> {
+                removed[0] = key.equals(previous);
+                return removed[0] ? rekey(id, previous, null) : previous;
+            });
+            return removed[0];
+        }
+
+        /**
+         * Changes the key of the user to the one {@code rekey} gives for its current key
+         */
+        void compute(long id, UnaryOperator<K> rekey) {
+            keys.compute(id, previous -> rekey(id, previous, rekey.apply(previous)));
+        }
+
+        /**
+         * @param key the new key of the user, null to remove it from the index, a key indexed to another user is not
+         *            taken over and the user keeps its current key
+         */
+        void put(long id, K key) {
+            keys.compute(id, previous -> rekey(id, previous, key));
+        }
+
+        private K rekey(long id, K previous, K key) {
+            if (key != null) {
+                Long owner = ids.putIfAbsent(key, id);
+                if (owner != null && owner != id) {
+                    return previous;
+                }
+            }
+            if (previous != null && !previous.equals(key)) {
+                ids.remove(previous, id);
+            }
+            return key;
+        }
+    }
 }
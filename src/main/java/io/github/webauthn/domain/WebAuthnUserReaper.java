@@ -0,0 +1,99 @@
+package io.github.webauthn.domain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the users created by registrations that were never finished.
+ * <p>A registration of a new user saves it, not enabled, before the authenticator is invoked. Every abandoned signup
+ * leaves such a user behind, and so do the bots starting registrations with random usernames. The reaper periodically
+ * deletes, in batches, the users that are still not enabled and have no credentials once the grace period is over,
+ * see {@link WebAuthnUserRepository#deleteNeverEnabledCreatedBefore}. Only the users saved by the registration
+ * of a new user are candidates, the pre-provisioned, imported and migrating users are never deleted.</p>
+ * <p>The grace period should be longer than the ceremony timeout, so the registration of a reaped user can no longer
+ * be finished.</p>
+ */
+public class WebAuthnUserReaper implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(WebAuthnUserReaper.class);
+
+    private final WebAuthnUserRepository<?> userRepository;
+    private final WebAuthnCredentialsRepository<?> credentialsRepository;
+    private final Duration gracePeriod;
+    private final int batchSize;
+    private final Clock clock;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param interval delay between two runs, null to only reap with {@link #reap()}
+     */
+    public WebAuthnUserReaper(WebAuthnUserRepository<?> userRepository, WebAuthnCredentialsRepository<?> credentialsRepository,
+                              Duration gracePeriod, Duration interval, int batchSize, Clock clock) {
+        if (gracePeriod.isNegative() || gracePeriod.isZero()) {
+            throw new IllegalArgumentException("gracePeriod should be positive");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize should be positive");
+        }
+        this.userRepository = userRepository;
+        this.credentialsRepository = credentialsRepository;
+        this.gracePeriod = gracePeriod;
+        this.batchSize = batchSize;
+        this.clock = clock;
+        if (interval != null) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "webauthn-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = interval.toMillis();
+            this.executor.scheduleWithFixedDelay(this::reapQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Deletes the abandoned users batch after batch, until a batch deletes none
+     *
+     * @return the number of deleted users
+     */
+    public int reap() {
+        LocalDateTime before = LocalDateTime.now(clock).minus(gracePeriod);
+        int deleted = 0;
+        while (true) {
+            List<Long> batch = userRepository.deleteNeverEnabledCreatedBefore(before, batchSize,
+                    id -> credentialsRepository.findAllByAppUserId(id).isEmpty());
+            deleted += batch.size();
+            if (batch.isEmpty()) {
+                break;
+            }
+        }
+        if (deleted > 0) {
+            log.info("reap - {} users never enabled since {} deleted", deleted, before);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void reapQuietly() {
+        try {
+            reap();
+        } catch (RuntimeException e) {
+            log.error("reapQuietly - could not delete the abandoned users", e);
+        }
+    }
+}
@@ -2,8 +2,19 @@ package io.github.webauthn.domain;
 
 import io.github.webauthn.dto.RegistrationStartRequest;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
 
 public interface WebAuthnUserRepository<T extends WebAuthnUser> {
 
@@ -13,6 +24,16 @@ public interface WebAuthnUserRepository<T extends WebAuthnUser> {
 
     Optional<T> findByUsername(String username);
 
+    /**
+     * Lets the callers reject unknown usernames, like the ones sent by credential stuffing bots, without a lookup.
+     * A repository can be wrapped in a {@link FilteredWebAuthnUserRepository} for that, the default answers true.
+     *
+     * @return false if no user has the username, true if one may have it
+     */
+    default boolean mightContainUsername(String username) {
+        return true;
+    }
+
     Optional<T> findByAddTokenAndRegistrationAddStartAfter(byte[] token, LocalDateTime after);
 
     Optional<T> findByRecoveryToken(byte[] token);
@@ -20,4 +41,89 @@ public interface WebAuthnUserRepository<T extends WebAuthnUser> {
     void deleteById(Long id);
 
     T newUser(RegistrationStartRequest startRequest);
+
+    /**
+     * Saves the user created by the registration of a new user unless its username is already taken, concurrent
+     * registrations of the same username end up
+     * with the same user. Implementations should reserve the username atomically, the default only checks it before
+     * saving. A user that is not enabled yet is handed back to a retried signup, implementations reaping the abandoned
+     * users should start its grace period over.
+     *
+     * @return the saved user, or the user that already has the username
+     */
+    default T saveIfAbsent(T user) {
+        return findByUsername(user.getUsername()).orElseGet(() -> save(user));
+    }
+
+    /**
+     * Saves the user created by the registration of a new user without a username. Implementations reaping the
+     * abandoned users should only consider the users saved with this method or {@link #saveIfAbsent}, the default
+     * saves it like any other user.
+     */
+    default T saveNewUser(T user) {
+        return save(user);
+    }
+
+    /**
+     * Deletes the oldest users created by registrations of new users before {@code before} and never enabled since,
+     * like the ones left by abandoned signups, see {@link WebAuthnUserReaper}. The users saved otherwise, pre-provisioned,
+     * imported or waiting for their migration, are never deleted.
+     *
+     * @param limit     maximum number of users examined
+     * @param abandoned tells if a candidate can be deleted, the users it keeps are not offered again
+     * @return the ids of the deleted users, the default deletes none
+     */
+    default List<Long> deleteNeverEnabledCreatedBefore(LocalDateTime before, int limit, LongPredicate abandoned) {
+        return List.of();
+    }
+
+    /**
+     * Saves the users of a bulk import, like the ones read with {@link WebAuthnExport#readUsers}.
+     * Implementations may batch the writes, the default saves them one by one.
+     */
+    default void saveAll(Stream<T> users) {
+        users.forEach(this::save);
+    }
+
+    /**
+     * Streams the username of every user, to be closed once read. The default reads them back from a temporary
+     * file written by {@link #exportAll}.
+     *
+     * @throws UnsupportedOperationException if the repository can not list its users
+     */
+    default Stream<String> findAllUsernames() {
+        try {
+            Path file = Files.createTempFile("webauthn-users", ".bin");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    exportAll(out);
+                }
+                InputStream in = new BufferedInputStream(Files.newInputStream(file));
+                return WebAuthnExport.readUsers(in)
+                        .map(DefaultWebAuthnUser::getUsername)
+                        .onClose(() -> {
+                            try {
+                                in.close();
+                                Files.deleteIfExists(file);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list the usernames", e);
+        }
+    }
+
+    /**
+     * Writes every user in the {@link WebAuthnExport} format, the stream is not closed
+     *
+     * @throws UnsupportedOperationException if the repository can not list its users
+     */
+    default void exportAll(OutputStream out) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support exporting its users");
+    }
 }
@@ -13,11 +13,19 @@ public class AssertionStartResponse {
   @JsonIgnore
   private final AssertionRequest assertionRequest;
 
+  @JsonIgnore
+  private final long startedAt;
+
   public AssertionStartResponse(String assertionId, AssertionRequest assertionRequest) {
+    this(assertionId, assertionRequest, System.currentTimeMillis());
+  }
+
+  public AssertionStartResponse(String assertionId, AssertionRequest assertionRequest, long startedAt) {
     this.assertionId = assertionId;
     this.publicKeyCredentialRequestOptions = assertionRequest
         .getPublicKeyCredentialRequestOptions();
     this.assertionRequest = assertionRequest;
+    this.startedAt = startedAt;
   }
 
   public String getAssertionId() {
@@ -32,4 +40,11 @@ public class AssertionStartResponse {
     return this.assertionRequest;
   }
 
+  /**
+   * @return the epoch millis when the ceremony was started
+   */
+  public long getStartedAt() {
+    return this.startedAt;
+  }
+
 }
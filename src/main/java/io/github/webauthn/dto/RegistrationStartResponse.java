@@ -37,12 +37,21 @@ public class RegistrationStartResponse {
 
   private final PublicKeyCredentialCreationOptions publicKeyCredentialCreationOptions;
 
+  @JsonIgnore
+  private final long startedAt;
+
   public RegistrationStartResponse(Mode mode, String registrationId,
       PublicKeyCredentialCreationOptions publicKeyCredentialCreationOptions) {
+    this(mode, registrationId, publicKeyCredentialCreationOptions, System.currentTimeMillis());
+  }
+
+  public RegistrationStartResponse(Mode mode, String registrationId,
+      PublicKeyCredentialCreationOptions publicKeyCredentialCreationOptions, long startedAt) {
     this.mode = mode;
     this.status = Status.OK;
     this.registrationId = registrationId;
     this.publicKeyCredentialCreationOptions = publicKeyCredentialCreationOptions;
+    this.startedAt = startedAt;
   }
 
   public RegistrationStartResponse(Status status) {
@@ -50,6 +59,7 @@ public class RegistrationStartResponse {
     this.status = status;
     this.registrationId = null;
     this.publicKeyCredentialCreationOptions = null;
+    this.startedAt = System.currentTimeMillis();
   }
 
   public Status getStatus() {
@@ -68,4 +78,11 @@ public class RegistrationStartResponse {
     return this.mode;
   }
 
+  /**
+   * @return the epoch millis when the ceremony was started
+   */
+  public long getStartedAt() {
+    return this.startedAt;
+  }
+
 }
@@ -0,0 +1,42 @@
+package io.github.webauthn.flows;
+
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
+import io.github.webauthn.dto.AssertionFinishRequest;
+import io.github.webauthn.dto.AssertionStartResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Optional;
+
+/**
+ * {@link WebAuthnAssertionFinishStrategy} taking its ceremonies from a {@link ReactiveWebAuthnOperation}.
+ * <p>The verification, which reads and updates the repositories, runs on the scheduler.</p>
+ */
+public class ReactiveWebAuthnAssertionFinishStrategy {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveWebAuthnAssertionFinishStrategy.class);
+    private final WebAuthnAssertionFinishStrategy strategy;
+    private final ReactiveWebAuthnOperation<AssertionStartResponse, String> operation;
+    private final Scheduler scheduler;
+
+    public ReactiveWebAuthnAssertionFinishStrategy(WebAuthnAssertionFinishStrategy strategy,
+                                                   ReactiveWebAuthnOperation<AssertionStartResponse, String> operation,
+                                                   Scheduler scheduler) {
+        this.strategy = strategy;
+        this.operation = operation;
+        this.scheduler = scheduler;
+    }
+
+    public Mono<Optional<WebAuthnAssertionFinishStrategy.AssertionSuccessResponse>> finish(AssertionFinishRequest finishRequest) {
+        log.debug("finish - {}", finishRequest);
+        if (strategy.isStateless()) {
+            return Mono.fromCallable(() -> strategy.finish(finishRequest)).subscribeOn(scheduler);
+        }
+
+        return operation.take(finishRequest.getAssertionId())
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("call start before this")))
+                .publishOn(scheduler)
+                .map(startResponse -> strategy.finish(finishRequest, startResponse));
+    }
+}
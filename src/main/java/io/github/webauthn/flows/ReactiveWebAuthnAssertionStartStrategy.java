@@ -0,0 +1,61 @@
+package io.github.webauthn.flows;
+
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
+import io.github.webauthn.dto.AssertionStartRequest;
+import io.github.webauthn.dto.AssertionStartResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * {@link WebAuthnAssertionStartStrategy} storing its ceremonies in a {@link ReactiveWebAuthnOperation}.
+ * <p>Only the relying party call, which reads the credentials repository, runs on the scheduler.</p>
+ */
+public class ReactiveWebAuthnAssertionStartStrategy {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveWebAuthnAssertionStartStrategy.class);
+    private final WebAuthnAssertionStartStrategy strategy;
+    private final ReactiveWebAuthnOperation<AssertionStartResponse, String> operation;
+    private final CeremonyQuota quota;
+    private final Scheduler scheduler;
+
+    public ReactiveWebAuthnAssertionStartStrategy(WebAuthnAssertionStartStrategy strategy,
+                                                  ReactiveWebAuthnOperation<AssertionStartResponse, String> operation,
+                                                  CeremonyQuota quota, Scheduler scheduler) {
+        this.strategy = strategy;
+        this.operation = operation;
+        this.quota = quota;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param clientKey who started the ceremony, checked against the {@link CeremonyQuota} when there is one
+     */
+    public Mono<AssertionStartResponse> start(AssertionStartRequest request, String clientKey) {
+        log.debug("start - {}", request);
+        Mono<AssertionStartResponse> ceremony = Mono.fromCallable(() -> strategy.newCeremony(request))
+                .subscribeOn(scheduler);
+        if (strategy.isStateless()) {
+            return ceremony;
+        }
+
+        return operation.isFull()
+                .flatMap(full -> full ? Mono.error(new TooManyCeremoniesException("Too many assertions in progress")) : ceremony)
+                .flatMap(response -> operation.put(response.getAssertionId(), response)
+                        .then(evict(clientKey, response.getAssertionId()))
+                        .thenReturn(response));
+    }
+
+    private Mono<Void> evict(String clientKey, String assertionId) {
+        if (quota == null || clientKey == null) {
+            return Mono.empty();
+        }
+        String evicted = quota.acquire(clientKey, assertionId);
+        if (evicted == null) {
+            return Mono.empty();
+        }
+        log.debug("start - client {} has too many assertions in progress, removing {}", clientKey, evicted);
+        return operation.remove(evicted);
+    }
+}
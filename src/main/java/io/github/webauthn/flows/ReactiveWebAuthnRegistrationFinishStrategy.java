@@ -0,0 +1,42 @@
+package io.github.webauthn.flows;
+
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
+import io.github.webauthn.dto.RegistrationFinishRequest;
+import io.github.webauthn.dto.RegistrationStartResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Map;
+
+/**
+ * {@link WebAuthnRegistrationFinishStrategy} taking its ceremonies from a {@link ReactiveWebAuthnOperation}.
+ * <p>The verification, which updates the repositories, runs on the scheduler.</p>
+ */
+public class ReactiveWebAuthnRegistrationFinishStrategy {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveWebAuthnRegistrationFinishStrategy.class);
+    private final WebAuthnRegistrationFinishStrategy strategy;
+    private final ReactiveWebAuthnOperation<RegistrationStartResponse, String> operation;
+    private final Scheduler scheduler;
+
+    public ReactiveWebAuthnRegistrationFinishStrategy(WebAuthnRegistrationFinishStrategy strategy,
+                                                      ReactiveWebAuthnOperation<RegistrationStartResponse, String> operation,
+                                                      Scheduler scheduler) {
+        this.strategy = strategy;
+        this.operation = operation;
+        this.scheduler = scheduler;
+    }
+
+    public Mono<Map<String, String>> registrationFinish(RegistrationFinishRequest finishRequest) {
+        log.debug("registrationFinish - {}", finishRequest);
+        if (strategy.isStateless()) {
+            return Mono.fromCallable(() -> strategy.registrationFinish(finishRequest)).subscribeOn(scheduler);
+        }
+
+        return operation.take(finishRequest.getRegistrationId())
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("call start before this")))
+                .publishOn(scheduler)
+                .map(startResponse -> strategy.registrationFinish(finishRequest, startResponse));
+    }
+}
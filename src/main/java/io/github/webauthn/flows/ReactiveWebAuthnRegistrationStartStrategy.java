@@ -0,0 +1,65 @@
+package io.github.webauthn.flows;
+
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
+import io.github.webauthn.domain.WebAuthnUser;
+import io.github.webauthn.dto.RegistrationStartRequest;
+import io.github.webauthn.dto.RegistrationStartResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Optional;
+
+/**
+ * {@link WebAuthnRegistrationStartStrategy} storing its ceremonies in a {@link ReactiveWebAuthnOperation}.
+ * <p>Resolving the user, which reads and may update the repositories, runs on the scheduler.</p>
+ */
+public class ReactiveWebAuthnRegistrationStartStrategy {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveWebAuthnRegistrationStartStrategy.class);
+    private final WebAuthnRegistrationStartStrategy strategy;
+    private final ReactiveWebAuthnOperation<RegistrationStartResponse, String> operation;
+    private final CeremonyQuota quota;
+    private final Scheduler scheduler;
+
+    public ReactiveWebAuthnRegistrationStartStrategy(WebAuthnRegistrationStartStrategy strategy,
+                                                     ReactiveWebAuthnOperation<RegistrationStartResponse, String> operation,
+                                                     CeremonyQuota quota, Scheduler scheduler) {
+        this.strategy = strategy;
+        this.operation = operation;
+        this.quota = quota;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param clientKey who started the ceremony, checked against the {@link CeremonyQuota} when there is one
+     */
+    public Mono<RegistrationStartResponse> registrationStart(RegistrationStartRequest request, Optional<? extends WebAuthnUser> currentUser,
+                                                             String clientKey) {
+        log.debug("registrationStart - {}", request);
+        Mono<RegistrationStartResponse> ceremony = Mono.fromCallable(() -> strategy.newCeremony(request, currentUser))
+                .subscribeOn(scheduler);
+        if (strategy.isStateless()) {
+            return ceremony;
+        }
+
+        return operation.isFull()
+                .flatMap(full -> full ? Mono.error(new TooManyCeremoniesException("Too many registrations in progress")) : ceremony)
+                .flatMap(response -> operation.put(response.getRegistrationId(), response)
+                        .then(evict(clientKey, response.getRegistrationId()))
+                        .thenReturn(response));
+    }
+
+    private Mono<Void> evict(String clientKey, String registrationId) {
+        if (quota == null || clientKey == null) {
+            return Mono.empty();
+        }
+        String evicted = quota.acquire(clientKey, registrationId);
+        if (evicted == null) {
+            return Mono.empty();
+        }
+        log.debug("registrationStart - client {} has too many registrations in progress, removing {}", clientKey, evicted);
+        return operation.remove(evicted);
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.webauthn.flows;
+
+/**
+ * Thrown when the {@link io.github.webauthn.config.WebAuthnOperation} cannot hold another started ceremony.
+ * The stack trace is not filled in, this is expected to be thrown a lot when the start endpoints are flooded.
+ */
+public class TooManyCeremoniesException extends RuntimeException {
+
+    public TooManyCeremoniesException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.webauthn.flows;
+
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+/**
+ * Thrown when an assertion starts with a username no user has.
+ * The stack trace is not filled in, credential stuffing bots make this the most common failure of the start endpoint.
+ */
+public class UnknownUsernameException extends UsernameNotFoundException {
+
+    public UnknownUsernameException(String message) {
+        super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -5,6 +5,8 @@ import com.yubico.webauthn.FinishAssertionOptions;
 import com.yubico.webauthn.RelyingParty;
 import com.yubico.webauthn.exception.AssertionFailedException;
 import io.github.webauthn.BytesUtil;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.*;
 import io.github.webauthn.dto.AssertionFinishRequest;
@@ -23,25 +25,59 @@ public class WebAuthnAssertionFinishStrategy {
     private final WebAuthnCredentialsRepository<WebAuthnCredentials> webAuthnCredentialsRepository;
     private final RelyingParty relyingParty;
     private final WebAuthnOperation<AssertionStartResponse, String> operation;
+    private final CeremonySealer sealer;
+    private final CeremonyQuota quota;
 
+    /**
+     * Takes the ceremonies from the operation, without a quota
+     */
     public WebAuthnAssertionFinishStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository webAuthnCredentialsRepository, RelyingParty relyingParty, WebAuthnOperation<AssertionStartResponse, String> operation) {
+        this(webAuthnUserRepository, webAuthnCredentialsRepository, relyingParty, operation, null, null);
+    }
+
+    /**
+     * @param sealer null to take the ceremonies from the operation
+     */
+    public WebAuthnAssertionFinishStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository webAuthnCredentialsRepository, RelyingParty relyingParty, WebAuthnOperation<AssertionStartResponse, String> operation,
+                                           CeremonySealer sealer) {
+        this(webAuthnUserRepository, webAuthnCredentialsRepository, relyingParty, operation, sealer, null);
+    }
+
+    public WebAuthnAssertionFinishStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository webAuthnCredentialsRepository, RelyingParty relyingParty, WebAuthnOperation<AssertionStartResponse, String> operation,
+                                           CeremonySealer sealer, CeremonyQuota quota) {
         this.webAuthnUserRepository = webAuthnUserRepository;
         this.webAuthnCredentialsRepository = webAuthnCredentialsRepository;
         this.relyingParty = relyingParty;
         this.operation = operation;
+        this.sealer = sealer;
+        this.quota = quota;
     }
 
     public Optional<AssertionSuccessResponse> finish(AssertionFinishRequest finishRequest) {
         log.debug("finish - {}", finishRequest);
 
-        AssertionStartResponse startResponse = this.operation
-                .get(finishRequest.getAssertionId());
-        this.operation.remove(finishRequest.getAssertionId());
+        AssertionStartResponse startResponse;
+        if (sealer != null) {
+            startResponse = sealer.openAssertion(finishRequest.getAssertionId());
+        } else {
+            startResponse = this.operation.take(finishRequest.getAssertionId());
+        }
+
+        return finish(finishRequest, startResponse);
+    }
 
+    /**
+     * Verifies the assertion against a start response already taken from the store, its slot in the
+     * {@link CeremonyQuota} is freed
+     */
+    public Optional<AssertionSuccessResponse> finish(AssertionFinishRequest finishRequest, AssertionStartResponse startResponse) {
         if (startResponse == null) {
             throw new IllegalStateException("call start before this");
 
         }
+        if (quota != null && sealer == null) {
+            quota.release(finishRequest.getAssertionId());
+        }
         try {
             AssertionResult result = this.relyingParty.finishAssertion(
                     FinishAssertionOptions.builder().request(startResponse.getAssertionRequest())
@@ -76,6 +112,13 @@ public class WebAuthnAssertionFinishStrategy {
     }
 
 
+    /**
+     * @return true if the ceremonies are sealed in their id and nothing has to be taken from the store
+     */
+    public boolean isStateless() {
+        return sealer != null;
+    }
+
     public record AssertionSuccessResponse(WebAuthnUser user, WebAuthnCredentials credentials) {
 
         public static AssertionSuccessResponse of(WebAuthnUser user, WebAuthnCredentials credentials) {
@@ -2,6 +2,9 @@ package io.github.webauthn.flows;
 
 import com.yubico.webauthn.data.ByteArray;
 import io.github.webauthn.BytesUtil;
+import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.dto.AssertionStartRequest;
 import io.github.webauthn.dto.AssertionStartResponse;
@@ -21,28 +24,88 @@ public class WebAuthnAssertionStartStrategy {
     private final SecureRandom random = new SecureRandom();
     private final RelyingParty relyingParty;
     private final WebAuthnOperation<AssertionStartResponse, String> operation;
+    private final WebAuthnProperties properties;
+    private final CeremonySealer sealer;
+    private final CeremonyQuota quota;
 
+    /**
+     * Keeps the ceremonies in the operation, with the default properties and without a quota
+     */
     public WebAuthnAssertionStartStrategy(RelyingParty relyingParty, WebAuthnOperation<AssertionStartResponse, String> operation) {
+        this(relyingParty, operation, new WebAuthnProperties(), null, null);
+    }
+
+    /**
+     * @param sealer null to keep the ceremonies in the operation
+     */
+    public WebAuthnAssertionStartStrategy(RelyingParty relyingParty, WebAuthnOperation<AssertionStartResponse, String> operation,
+                                          WebAuthnProperties properties, CeremonySealer sealer) {
+        this(relyingParty, operation, properties, sealer, null);
+    }
+
+    public WebAuthnAssertionStartStrategy(RelyingParty relyingParty, WebAuthnOperation<AssertionStartResponse, String> operation,
+                                          WebAuthnProperties properties, CeremonySealer sealer, CeremonyQuota quota) {
         this.relyingParty = relyingParty;
         this.operation = operation;
+        this.properties = properties;
+        this.sealer = sealer;
+        this.quota = quota;
     }
 
     public AssertionStartResponse start(AssertionStartRequest request) {
+        return start(request, null);
+    }
+
+    /**
+     * @param clientKey who started the ceremony, checked against the {@link CeremonyQuota} when there is one
+     */
+    public AssertionStartResponse start(AssertionStartRequest request, String clientKey) {
         log.debug("start - {}", request);
-        byte[] assertionId = new byte[16];
-        this.random.nextBytes(assertionId);
+        if (sealer == null && operation.isFull()) {
+            throw new TooManyCeremoniesException("Too many assertions in progress");
+        }
+        AssertionStartResponse response = newCeremony(request);
+        if (sealer != null) {
+            return response;
+        }
 
-        String assertionIdBase64 = Base64.getEncoder().encodeToString(assertionId);
+        this.operation.put(response.getAssertionId(), response);
+        if (quota != null && clientKey != null) {
+            String evicted = quota.acquire(clientKey, response.getAssertionId());
+            if (evicted != null) {
+                log.debug("start - client {} has too many assertions in progress, removing {}", clientKey, evicted);
+                operation.remove(evicted);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Creates the assertion request without storing it, the id is sealed when the ceremonies are stateless
+     */
+    public AssertionStartResponse newCeremony(AssertionStartRequest request) {
         AssertionRequest assertionRequest = this.relyingParty
                 .startAssertion(StartAssertionOptions.builder()
                         .username(StringUtils.hasLength(request.getUsername()) ? request.getUsername(): null)
                         .userHandle(Optional.ofNullable(request.getUserId()))
+                        .timeout(properties.getCeremony().getTimeout().toMillis())
                         .build());
 
-        AssertionStartResponse response = new AssertionStartResponse(assertionIdBase64,
-                assertionRequest);
+        if (sealer != null) {
+            return new AssertionStartResponse(sealer.sealAssertion(assertionRequest), assertionRequest);
+        }
 
-        this.operation.put(response.getAssertionId(), response);
-        return response;
+        byte[] assertionId = new byte[16];
+        this.random.nextBytes(assertionId);
+
+        String assertionIdBase64 = Base64.getEncoder().encodeToString(assertionId);
+        return new AssertionStartResponse(assertionIdBase64, assertionRequest);
+    }
+
+    /**
+     * @return true if the ceremonies are sealed in their id and nothing has to be stored
+     */
+    public boolean isStateless() {
+        return sealer != null;
     }
 }
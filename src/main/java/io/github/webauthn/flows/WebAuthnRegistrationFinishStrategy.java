@@ -6,6 +6,8 @@ import com.yubico.webauthn.RelyingParty;
 import com.yubico.webauthn.data.UserIdentity;
 import com.yubico.webauthn.exception.RegistrationFailedException;
 import io.github.webauthn.BytesUtil;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.WebAuthnCredentials;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
@@ -32,28 +34,64 @@ public class WebAuthnRegistrationFinishStrategy {
     private final RelyingParty relyingParty;
     private final WebAuthnOperation<RegistrationStartResponse, String> registrationOperation;
     private final WebAuthnEventPublisher publisher;
+    private final CeremonySealer sealer;
+    private final CeremonyQuota quota;
 
+    /**
+     * Takes the ceremonies from the operation, without a quota
+     */
     public WebAuthnRegistrationFinishStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository credentialRepository,
                                               RelyingParty relyingParty, WebAuthnOperation registrationOperation,
                                               WebAuthnEventPublisher publisher) {
+        this(webAuthnUserRepository, credentialRepository, relyingParty, registrationOperation, publisher, null, null);
+    }
+
+    /**
+     * @param sealer null to take the ceremonies from the operation
+     */
+    public WebAuthnRegistrationFinishStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository credentialRepository,
+                                              RelyingParty relyingParty, WebAuthnOperation registrationOperation,
+                                              WebAuthnEventPublisher publisher, CeremonySealer sealer) {
+        this(webAuthnUserRepository, credentialRepository, relyingParty, registrationOperation, publisher, sealer, null);
+    }
+
+    public WebAuthnRegistrationFinishStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository credentialRepository,
+                                              RelyingParty relyingParty, WebAuthnOperation registrationOperation,
+                                              WebAuthnEventPublisher publisher, CeremonySealer sealer, CeremonyQuota quota) {
         this.webAuthnUserRepository = webAuthnUserRepository;
         this.credentialRepository = credentialRepository;
         this.relyingParty = relyingParty;
         this.registrationOperation = registrationOperation;
         this.publisher = publisher;
+        this.sealer = sealer;
+        this.quota = quota;
     }
 
     public Map<String, String> registrationFinish(RegistrationFinishRequest finishRequest) {
         log.debug("registrationFinish - {}", finishRequest);
 
-        RegistrationStartResponse startResponse = this.registrationOperation
-                .get(finishRequest.getRegistrationId());
-        this.registrationOperation.remove(finishRequest.getRegistrationId());
+        RegistrationStartResponse startResponse;
+        if (sealer != null) {
+            startResponse = sealer.openRegistration(finishRequest.getRegistrationId());
+        } else {
+            startResponse = this.registrationOperation.take(finishRequest.getRegistrationId());
+        }
+
+        return registrationFinish(finishRequest, startResponse);
+    }
 
+    /**
+     * Verifies the new credential against a start response already taken from the store, its slot in the
+     * {@link CeremonyQuota} is freed
+     */
+    public Map<String, String> registrationFinish(RegistrationFinishRequest finishRequest, RegistrationStartResponse startResponse) {
         if (startResponse == null) {
             throw new IllegalStateException("call start before this");
 
         }
+        if (quota != null && sealer == null) {
+            quota.release(finishRequest.getRegistrationId());
+        }
         try {
             RegistrationResult registrationResult = this.relyingParty
                     .finishRegistration(FinishRegistrationOptions.builder()
@@ -103,4 +141,11 @@ public class WebAuthnRegistrationFinishStrategy {
         }
 
     }
+
+    /**
+     * @return true if the ceremonies are sealed in their id and nothing has to be taken from the store
+     */
+    public boolean isStateless() {
+        return sealer != null;
+    }
 }
@@ -5,6 +5,8 @@ import com.yubico.webauthn.StartRegistrationOptions;
 import com.yubico.webauthn.data.*;
 import io.github.webauthn.BytesUtil;
 import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.*;
 import io.github.webauthn.dto.RegistrationStartRequest;
@@ -30,18 +32,70 @@ public class WebAuthnRegistrationStartStrategy {
     private final RelyingParty relyingParty;
     private final WebAuthnOperation registrationOperation;
     private final WebAuthnProperties properties;
+    private final CeremonySealer sealer;
+    private final CeremonyQuota quota;
 
+    /**
+     * Keeps the ceremonies in the operation, without a quota
+     */
     public WebAuthnRegistrationStartStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository webAuthnCredentialRepository, RelyingParty relyingParty, WebAuthnOperation registrationOperation, WebAuthnProperties properties) {
+        this(webAuthnUserRepository, webAuthnCredentialRepository, relyingParty, registrationOperation, properties, null, null);
+    }
+
+    /**
+     * @param sealer null to keep the ceremonies in the operation
+     */
+    public WebAuthnRegistrationStartStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository webAuthnCredentialRepository, RelyingParty relyingParty, WebAuthnOperation registrationOperation, WebAuthnProperties properties,
+                                             CeremonySealer sealer) {
+        this(webAuthnUserRepository, webAuthnCredentialRepository, relyingParty, registrationOperation, properties, sealer, null);
+    }
+
+    public WebAuthnRegistrationStartStrategy(WebAuthnUserRepository webAuthnUserRepository, WebAuthnCredentialsRepository webAuthnCredentialRepository, RelyingParty relyingParty, WebAuthnOperation registrationOperation, WebAuthnProperties properties,
+                                             CeremonySealer sealer, CeremonyQuota quota) {
         this.webAuthnUserRepository = webAuthnUserRepository;
         this.webAuthnCredentialRepository = webAuthnCredentialRepository;
         this.relyingParty = relyingParty;
         this.registrationOperation = registrationOperation;
         this.properties = properties;
+        this.sealer = sealer;
+        this.quota = quota;
     }
 
     public RegistrationStartResponse registrationStart(RegistrationStartRequest request, Optional<? extends WebAuthnUser> currentUser) {
+        return registrationStart(request, currentUser, null);
+    }
+
+    /**
+     * @param clientKey who started the ceremony, checked against the {@link CeremonyQuota} when there is one
+     */
+    public RegistrationStartResponse registrationStart(RegistrationStartRequest request, Optional<? extends WebAuthnUser> currentUser,
+                                                       String clientKey) {
         log.debug("registrationStart - {}", request);
+        if (sealer == null && registrationOperation.isFull()) {
+            throw new TooManyCeremoniesException("Too many registrations in progress");
+        }
+        RegistrationStartResponse startResponse = newCeremony(request, currentUser);
+        if (sealer != null) {
+            return startResponse;
+        }
+
+        registrationOperation.put(startResponse.getRegistrationId(), startResponse);
+        if (quota != null && clientKey != null) {
+            String evicted = quota.acquire(clientKey, startResponse.getRegistrationId());
+            if (evicted != null) {
+                log.debug("registrationStart - client {} has too many registrations in progress, removing {}", clientKey, evicted);
+                registrationOperation.remove(evicted);
+            }
+        }
+
+        return startResponse;
+    }
 
+    /**
+     * Resolves the user and creates the registration request without storing it,
+     * the id is sealed when the ceremonies are stateless
+     */
+    public RegistrationStartResponse newCeremony(RegistrationStartRequest request, Optional<? extends WebAuthnUser> currentUser) {
         RegistrationStartResponse.Mode mode = null;
 
         WebAuthnUser user = null;
@@ -85,18 +139,15 @@ public class WebAuthnRegistrationStartStrategy {
             }
 
             if (usernameFound) {
-                user = this.webAuthnUserRepository.findByUsername(request.getUsername())
-                        .map(u -> {
-                            if (u.isEnabled())
-                                throw new UsernameAlreadyExistsException("Username taken");
-                            // FIXME address race condition
-                            return u;
-                        })
-                        .orElseGet(() -> this.webAuthnUserRepository.save(webAuthnUserRepository.newUser(request)));
+                WebAuthnUser requestUser = webAuthnUserRepository.newUser(request);
+                user = this.webAuthnUserRepository.saveIfAbsent(requestUser);
+                if (user != requestUser && user.isEnabled()) {
+                    throw new UsernameAlreadyExistsException("Username taken");
+                }
             } else {
                 request.setUsername(UUID.randomUUID().toString());
                 WebAuthnUser requestUser = webAuthnUserRepository.newUser(request);
-                user = this.webAuthnUserRepository.save(requestUser);
+                user = this.webAuthnUserRepository.saveNewUser(requestUser);
             }
         }
 
@@ -118,16 +169,24 @@ public class WebAuthnRegistrationStartStrategy {
                                                 properties.isUsernameRequired()
                                                         ? ResidentKeyRequirement.DISCOURAGED : ResidentKeyRequirement.PREFERRED)
                                         .build())
+                        .timeout(properties.getCeremony().getTimeout().toMillis())
                         .build());
 
+        if (sealer != null) {
+            return new RegistrationStartResponse(mode, sealer.sealRegistration(mode, credentialCreation), credentialCreation);
+        }
+
         byte[] registrationId = new byte[16];
         this.random.nextBytes(registrationId);
-        RegistrationStartResponse startResponse = new RegistrationStartResponse(mode,
+        return new RegistrationStartResponse(mode,
                 Base64.getEncoder().encodeToString(registrationId), credentialCreation);
+    }
 
-        registrationOperation.put(startResponse.getRegistrationId(), startResponse);
-
-        return startResponse;
+    /**
+     * @return true if the ceremonies are sealed in their id and nothing has to be stored
+     */
+    public boolean isStateless() {
+        return sealer != null;
     }
 
     private String getDisplayName(WebAuthnUser user) {
@@ -9,9 +9,9 @@ import io.github.webauthn.domain.WebAuthnCredentials;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
 import io.github.webauthn.domain.WebAuthnUser;
 import io.github.webauthn.domain.WebAuthnUserRepository;
+import io.github.webauthn.flows.UnknownUsernameException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
 import java.util.Optional;
 import java.util.Set;
@@ -32,6 +32,9 @@ public class DefaultCredentialService implements CredentialRepository {
     @Override
     public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
         log.debug("getCredentialIdsForUsername - username: {}", username);
+        if (!webAuthnUserRepository.mightContainUsername(username)) {
+            throw new UnknownUsernameException("Username not found: " + username);
+        }
 
         return webAuthnUserRepository.findByUsername(username)
                 .map(user -> webAuthnCredentialsRepository.findAllByAppUserId(user.getId())
@@ -39,12 +42,15 @@ public class DefaultCredentialService implements CredentialRepository {
                         .map(credential -> PublicKeyCredentialDescriptor.builder()
                                 .id(new ByteArray(credential.getCredentialId())).build())
                         .collect(Collectors.toSet())
-                ).orElseThrow(() -> new UsernameNotFoundException("Username not found: " + username));
+                ).orElseThrow(() -> new UnknownUsernameException("Username not found: " + username));
     }
 
     @Override
     public Optional<ByteArray> getUserHandleForUsername(String username) {
         log.debug("getUserHandleForUsername - username: {}", username);
+        if (!webAuthnUserRepository.mightContainUsername(username)) {
+            return Optional.empty();
+        }
         return webAuthnUserRepository.findByUsername(username)
                 .map(user -> Optional.of(new ByteArray(BytesUtil.longToBytes(user.getId()))))
                 .orElse(Optional.empty());
@@ -67,8 +73,9 @@ public class DefaultCredentialService implements CredentialRepository {
 
         return webAuthnUserRepository.findById(id)
                 .map(user -> webAuthnCredentialsRepository.findByCredentialIdAndAppUserId(credentialId.getBytes(), id)
+                        // the ids are already known, only the key and count are read from the credentials
                         .map(credential -> RegisteredCredential.builder()
-                                .credentialId(new ByteArray(credential.getCredentialId()))
+                                .credentialId(credentialId)
                                 .userHandle(userHandle)
                                 .publicKeyCose(new ByteArray(credential.getPublicKeyCose()))
                                 .signatureCount(credential.getCount()).build()))
@@ -82,7 +89,7 @@ public class DefaultCredentialService implements CredentialRepository {
         return webAuthnCredentialsRepository.findByCredentialId(credentialId.getBytes())
                 .stream()
                 .map(credential -> RegisteredCredential.builder()
-                        .credentialId(new ByteArray(credential.getCredentialId()))
+                        .credentialId(credentialId)
                         .userHandle(new ByteArray(BytesUtil.longToBytes(credential.getAppUserId())))
                         .publicKeyCose(new ByteArray(credential.getPublicKeyCose()))
                         .signatureCount(credential.getCount()).build())
@@ -1,6 +1,7 @@
 package io.github.webauthn.webflux;
 
 import io.github.webauthn.flows.InvalidTokenException;
+import io.github.webauthn.flows.TooManyCeremoniesException;
 import io.github.webauthn.flows.WebAuthnAssertionFailedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +16,11 @@ public class WebAuthnErrorWebExceptionHandler implements ErrorWebExceptionHandle
 
     @Override
     public Mono<Void> handle(ServerWebExchange serverWebExchange, Throwable throwable) {
+        if (throwable instanceof TooManyCeremoniesException) {
+            log.debug("handle - rejected: {}", throwable.getMessage());
+            serverWebExchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            return serverWebExchange.getResponse().setComplete();
+        }
         log.error("handle - error: ", throwable);
         if (throwable instanceof UsernameNotFoundException ||
                 throwable instanceof WebAuthnAssertionFailedException) {
@@ -3,6 +3,10 @@ package io.github.webauthn.webflux;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.RelyingParty;
 import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.BlockingReactiveWebAuthnOperation;
+import io.github.webauthn.config.CeremonySealer;
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.config.WebAuthnUsernameAuthenticationToken;
 import io.github.webauthn.domain.DefaultWebAuthnUser;
@@ -17,6 +21,10 @@ import io.github.webauthn.dto.RegistrationFinishRequest;
 import io.github.webauthn.dto.RegistrationStartRequest;
 import io.github.webauthn.dto.RegistrationStartResponse;
 import io.github.webauthn.events.WebAuthnEventPublisher;
+import io.github.webauthn.flows.ReactiveWebAuthnAssertionFinishStrategy;
+import io.github.webauthn.flows.ReactiveWebAuthnAssertionStartStrategy;
+import io.github.webauthn.flows.ReactiveWebAuthnRegistrationFinishStrategy;
+import io.github.webauthn.flows.ReactiveWebAuthnRegistrationStartStrategy;
 import io.github.webauthn.flows.WebAuthnAssertionFinishStrategy;
 import io.github.webauthn.flows.WebAuthnAssertionStartStrategy;
 import io.github.webauthn.flows.WebAuthnRegistrationAddStrategy;
@@ -43,16 +51,18 @@ import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.server.context.ServerSecurityContextRepository;
 import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.util.StringUtils;
 import org.springframework.web.server.ServerWebExchange;
 import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 
+import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.function.BiFunction;
@@ -68,13 +78,15 @@ public class WebAuthnWebFilter implements WebFilter {
     private final ServerWebExchangeMatcher registrationAddPath;
     private final ServerWebExchangeMatcher assertionStartPath;
     private final ServerWebExchangeMatcher assertionFinishPath;
-    private final WebAuthnRegistrationStartStrategy startStrategy;
+    private final ReactiveWebAuthnRegistrationStartStrategy startStrategy;
     private final WebAuthnRegistrationAddStrategy addStrategy;
-    private final WebAuthnRegistrationFinishStrategy finishStrategy;
-    private final WebAuthnAssertionStartStrategy assertionStartStrategy;
-    private final WebAuthnAssertionFinishStrategy assertionFinishStrategy;
+    private final ReactiveWebAuthnRegistrationFinishStrategy finishStrategy;
+    private final ReactiveWebAuthnAssertionStartStrategy assertionStartStrategy;
+    private final ReactiveWebAuthnAssertionFinishStrategy assertionFinishStrategy;
     private final ServerSecurityContextRepository serverSecurityContextRepository;
     private final WebAuthnEventPublisher publisher;
+    private final WebAuthnProperties.Quota.ClientKey clientKey;
+    private Function<ServerWebExchange, String> clientKeyResolver;
 
     private BiFunction<WebAuthnUser, WebAuthnCredentials, Mono<Authentication>> successHandler = (user, credentials) ->
             Mono.just(new WebAuthnUsernameAuthenticationToken(user, credentials, Collections.emptyList()));
@@ -99,12 +111,51 @@ public class WebAuthnWebFilter implements WebFilter {
     private final Jackson2JsonEncoder encoder;
     private final Jackson2JsonDecoder decoder = new Jackson2JsonDecoder();
     private final Executor executor = Executors.newFixedThreadPool(100);
+    // only the repositories and the relying party block, the ceremony store is reached through its reactive operation
+    private final Scheduler scheduler = Schedulers.fromExecutor(executor);
 
+    /**
+     * Keeps the ceremonies in the operations, without a quota
+     */
     public WebAuthnWebFilter(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
                              WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
                              WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
                              WebAuthnOperation<AssertionStartResponse, String> assertionOperation, ServerSecurityContextRepository serverSecurityContextRepository,
                              WebAuthnEventPublisher publisher) {
+        this(properties, appUserRepository, credentialRepository, relyingParty, mapper, registrationOperation, assertionOperation,
+                serverSecurityContextRepository, publisher, null, null);
+    }
+
+    /**
+     * @param sealer null to keep the ceremonies in the operations
+     */
+    public WebAuthnWebFilter(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
+                             WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
+                             WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
+                             WebAuthnOperation<AssertionStartResponse, String> assertionOperation, ServerSecurityContextRepository serverSecurityContextRepository,
+                             WebAuthnEventPublisher publisher, CeremonySealer sealer) {
+        this(properties, appUserRepository, credentialRepository, relyingParty, mapper, registrationOperation, assertionOperation,
+                serverSecurityContextRepository, publisher, sealer, null);
+    }
+
+    public WebAuthnWebFilter(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
+                             WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
+                             WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
+                             WebAuthnOperation<AssertionStartResponse, String> assertionOperation, ServerSecurityContextRepository serverSecurityContextRepository,
+                             WebAuthnEventPublisher publisher, CeremonySealer sealer, CeremonyQuota quota) {
+        this(properties, appUserRepository, credentialRepository, relyingParty, mapper, registrationOperation, assertionOperation,
+                BlockingReactiveWebAuthnOperation.of(registrationOperation), BlockingReactiveWebAuthnOperation.of(assertionOperation),
+                serverSecurityContextRepository, publisher, sealer, quota);
+    }
+
+    public WebAuthnWebFilter(WebAuthnProperties properties, WebAuthnUserRepository appUserRepository,
+                             WebAuthnCredentialsRepository credentialRepository, RelyingParty relyingParty, ObjectMapper mapper,
+                             WebAuthnOperation<RegistrationStartResponse, String> registrationOperation,
+                             WebAuthnOperation<AssertionStartResponse, String> assertionOperation,
+                             ReactiveWebAuthnOperation<RegistrationStartResponse, String> reactiveRegistrationOperation,
+                             ReactiveWebAuthnOperation<AssertionStartResponse, String> reactiveAssertionOperation,
+                             ServerSecurityContextRepository serverSecurityContextRepository,
+                             WebAuthnEventPublisher publisher, CeremonySealer sealer, CeremonyQuota quota) {
         this.registrationStartPath = properties.getEndpoints().getRegistrationStartPathWebFlux();
         this.registrationAddPath = properties.getEndpoints().getRegistrationAddPathWebFlux();
         this.registrationFinishPath = properties.getEndpoints().getRegistrationFinishPathWebFlux();
@@ -113,16 +164,22 @@ public class WebAuthnWebFilter implements WebFilter {
         this.encoder = new Jackson2JsonEncoder(mapper);
         this.serverSecurityContextRepository = serverSecurityContextRepository;
         this.publisher = publisher;
+        this.clientKey = properties.getCeremony().getQuota().getKey();
 
-        this.startStrategy = new WebAuthnRegistrationStartStrategy(appUserRepository,
-                credentialRepository, relyingParty, registrationOperation, properties);
+        this.startStrategy = new ReactiveWebAuthnRegistrationStartStrategy(new WebAuthnRegistrationStartStrategy(appUserRepository,
+                credentialRepository, relyingParty, registrationOperation, properties, sealer, quota),
+                reactiveRegistrationOperation, quota, scheduler);
         this.addStrategy = new WebAuthnRegistrationAddStrategy(appUserRepository, publisher);
-        this.finishStrategy = new WebAuthnRegistrationFinishStrategy(appUserRepository,
-                credentialRepository, relyingParty, registrationOperation, publisher);
+        this.finishStrategy = new ReactiveWebAuthnRegistrationFinishStrategy(new WebAuthnRegistrationFinishStrategy(appUserRepository,
+                credentialRepository, relyingParty, registrationOperation, publisher, sealer, quota),
+                reactiveRegistrationOperation, scheduler);
 
-        this.assertionStartStrategy = new WebAuthnAssertionStartStrategy(relyingParty, assertionOperation);
-        this.assertionFinishStrategy = new WebAuthnAssertionFinishStrategy(appUserRepository,
-                credentialRepository, relyingParty, assertionOperation);
+        this.assertionStartStrategy = new ReactiveWebAuthnAssertionStartStrategy(
+                new WebAuthnAssertionStartStrategy(relyingParty, assertionOperation, properties, sealer, quota),
+                reactiveAssertionOperation, quota, scheduler);
+        this.assertionFinishStrategy = new ReactiveWebAuthnAssertionFinishStrategy(new WebAuthnAssertionFinishStrategy(appUserRepository,
+                credentialRepository, relyingParty, assertionOperation, sealer, quota),
+                reactiveAssertionOperation, scheduler);
     }
 
     public WebAuthnWebFilter withUser(Mono<? extends WebAuthnUser> userSupplier) {
@@ -140,6 +197,14 @@ public class WebAuthnWebFilter implements WebFilter {
         return this;
     }
 
+    /**
+     * Overrides the {@link WebAuthnProperties.Quota#getKey()} used to count the pending ceremonies of a client
+     */
+    public WebAuthnWebFilter withClientKeyResolver(Function<ServerWebExchange, String> clientKeyResolver) {
+        this.clientKeyResolver = clientKeyResolver;
+        return this;
+    }
+
     @Override
     public Mono<Void> filter(ServerWebExchange serverWebExchange,
                              WebFilterChain webFilterChain) {
@@ -150,9 +215,9 @@ public class WebAuthnWebFilter implements WebFilter {
                 .switchIfEmpty(route(registrationStartPath, this::handleRegistrationStart, serverWebExchange))
                 .switchIfEmpty(route(registrationFinishPath, this::handleRegistrationFinish, serverWebExchange))
                 .switchIfEmpty(route(registrationAddPath, this::handleRegistrationAdd, serverWebExchange))
-                .switchIfEmpty(webFilterChain.filter(serverWebExchange))
-                .flatMap(res -> writeResponseBody(res, serverWebExchange))
-                .subscribeOn(Schedulers.boundedElastic());
+                // the other handlers keep running off the event loop, they may block
+                .switchIfEmpty(webFilterChain.filter(serverWebExchange).subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(res -> writeResponseBody(res, serverWebExchange));
 
     }
 
@@ -169,9 +234,7 @@ public class WebAuthnWebFilter implements WebFilter {
 
     private Mono<Object> handleAssertionFinish(ServerWebExchange serverWebExchange) {
         return decode(serverWebExchange, AssertionFinishRequest.class)
-                .flatMap(t -> Mono.fromFuture(CompletableFuture.supplyAsync(() ->
-                        assertionFinishStrategy.finish(t), executor))
-                )
+                .flatMap(assertionFinishStrategy::finish)
                 .flatMap(finish -> {
                     if (finish.isPresent()) {
                         log.debug("handleAssertionFinish - success {}" + finish.get());
@@ -192,29 +255,35 @@ public class WebAuthnWebFilter implements WebFilter {
     private Mono<Object> handleRegistrationStart(ServerWebExchange serverWebExchange) {
         return decode(serverWebExchange, RegistrationStartRequest.class)
                 .zipWith(userSupplier.map(Optional::of).defaultIfEmpty(Optional.empty()))
-                .flatMap(t -> Mono.fromFuture(CompletableFuture.supplyAsync(() ->
-                        startStrategy.registrationStart(t.getT1(), t.getT2()), executor))
-                );
+                .flatMap(t -> startStrategy.registrationStart(t.getT1(), t.getT2(),
+                        clientKey(serverWebExchange, t.getT1().getUsername())));
     }
 
     private Mono<Object> handleRegistrationFinish(ServerWebExchange serverWebExchange) {
         return decode(serverWebExchange, RegistrationFinishRequest.class)
-                .flatMap(req -> Mono.fromFuture(CompletableFuture.supplyAsync(() ->
-                        finishStrategy.registrationFinish(req), executor))
-                );
+                .flatMap(finishStrategy::registrationFinish);
     }
 
     private Mono<Object> handleRegistrationAdd(ServerWebExchange serverWebExchange) {
         return userSupplier
-                .map(user -> (Object) addStrategy.registrationAdd(user))
+                .flatMap(user -> Mono.fromCallable(() -> (Object) addStrategy.registrationAdd(user)).subscribeOn(scheduler))
                 .switchIfEmpty(Mono.error(new UsernameNotFoundException("no user found")));
     }
 
     private Mono<Object> handleAssertionStart(ServerWebExchange serverWebExchange) {
         return decode(serverWebExchange, AssertionStartRequest.class)
-                .flatMap(req -> Mono.fromFuture(CompletableFuture.supplyAsync(() ->
-                        assertionStartStrategy.start(req), executor))
-                );
+                .flatMap(req -> assertionStartStrategy.start(req, clientKey(serverWebExchange, req.getUsername())));
+    }
+
+    private String clientKey(ServerWebExchange serverWebExchange, String username) {
+        if (clientKeyResolver != null) {
+            return clientKeyResolver.apply(serverWebExchange);
+        }
+        if (clientKey == WebAuthnProperties.Quota.ClientKey.USERNAME && StringUtils.hasText(username)) {
+            return username;
+        }
+        InetSocketAddress remoteAddress = serverWebExchange.getRequest().getRemoteAddress();
+        return remoteAddress == null ? null : remoteAddress.getHostString();
     }
 
     <T> Mono<T> decode(ServerWebExchange serverWebExchange, Class<T> clasz) {
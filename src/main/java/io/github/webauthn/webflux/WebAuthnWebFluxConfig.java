@@ -3,13 +3,22 @@ package io.github.webauthn.webflux;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.RelyingParty;
+import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.config.BlockingReactiveWebAuthnOperation;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.config.CeremonySealer;
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.WebAuthnCredentials;
 import io.github.webauthn.domain.WebAuthnCredentialsRepository;
 import io.github.webauthn.domain.WebAuthnUser;
 import io.github.webauthn.domain.WebAuthnUserRepository;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
 import io.github.webauthn.events.WebAuthnEventPublisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -27,6 +36,9 @@ import java.util.function.Supplier;
 @ConditionalOnProperty(value = "spring.main.web-application-type", havingValue = "reactive")
 public class WebAuthnWebFluxConfig {
 
+    public static final String REACTIVE_REGISTRATION_CACHE = "reactiveRegistrationCache";
+    public static final String REACTIVE_ASSERTION_CACHE = "reactiveAssertionCache";
+
     @Bean
     @ConditionalOnMissingBean
     public WebSessionServerSecurityContextRepository serverSecurityContextRepository() {
@@ -39,6 +51,26 @@ public class WebAuthnWebFluxConfig {
         return new WebAuthnErrorWebExceptionHandler();
     }
 
+    /**
+     * The registration ceremonies of the WebFlux endpoints, declare one to reach a remote store without blocking
+     */
+    @Bean(REACTIVE_REGISTRATION_CACHE)
+    @ConditionalOnMissingBean(name = REACTIVE_REGISTRATION_CACHE)
+    public ReactiveWebAuthnOperation<RegistrationStartResponse, String> reactiveRegistrationCache(
+            @Qualifier(WebAuthnConfig.REGISTRATION_CACHE) WebAuthnOperation<RegistrationStartResponse, String> operation) {
+        return BlockingReactiveWebAuthnOperation.of(operation);
+    }
+
+    /**
+     * The assertion ceremonies of the WebFlux endpoints, declare one to reach a remote store without blocking
+     */
+    @Bean(REACTIVE_ASSERTION_CACHE)
+    @ConditionalOnMissingBean(name = REACTIVE_ASSERTION_CACHE)
+    public ReactiveWebAuthnOperation<AssertionStartResponse, String> reactiveAssertionCache(
+            @Qualifier(WebAuthnConfig.ASSERTION_CACHE) WebAuthnOperation<AssertionStartResponse, String> operation) {
+        return BlockingReactiveWebAuthnOperation.of(operation);
+    }
+
     @Bean
     @ConditionalOnMissingBean
     public Supplier<WebAuthnWebFilter> webAuthnWebFilterSupplier(WebAuthnProperties properties,
@@ -46,16 +78,20 @@ public class WebAuthnWebFluxConfig {
                                                                  WebAuthnCredentialsRepository<WebAuthnCredentials> credentialsRepository,
                                                                  RelyingParty rp,
                                                                  ObjectMapper mapper,
-                                                                 WebAuthnOperation registration,
-                                                                 WebAuthnOperation assertion,
+                                                                 @Qualifier(WebAuthnConfig.REGISTRATION_CACHE) WebAuthnOperation<RegistrationStartResponse, String> registration,
+                                                                 @Qualifier(WebAuthnConfig.ASSERTION_CACHE) WebAuthnOperation<AssertionStartResponse, String> assertion,
+                                                                 @Qualifier(REACTIVE_REGISTRATION_CACHE) ReactiveWebAuthnOperation<RegistrationStartResponse, String> reactiveRegistration,
+                                                                 @Qualifier(REACTIVE_ASSERTION_CACHE) ReactiveWebAuthnOperation<AssertionStartResponse, String> reactiveAssertion,
                                                                  ServerSecurityContextRepository serverSecurityContextRepository,
-                                                                 WebAuthnEventPublisher publisher) {
+                                                                 WebAuthnEventPublisher publisher,
+                                                                 ObjectProvider<CeremonySealer> sealer,
+                                                                 ObjectProvider<CeremonyQuota> quota) {
         return () -> new WebAuthnWebFilter(properties,
                 webAuthnUserRepository,
                 credentialsRepository,
                 rp,
-                mapper, registration, assertion, serverSecurityContextRepository,
-                publisher);
+                mapper, registration, assertion, reactiveRegistration, reactiveAssertion, serverSecurityContextRepository,
+                publisher, sealer.getIfAvailable(), quota.getIfAvailable());
     }
 
 }
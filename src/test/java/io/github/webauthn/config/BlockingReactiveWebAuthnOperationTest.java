@@ -0,0 +1,46 @@
+package io.github.webauthn.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class BlockingReactiveWebAuthnOperationTest {
+
+    ExpiringInMemoryOperation<String, String> store = new ExpiringInMemoryOperation<>(Duration.ofMinutes(5));
+    ReactiveWebAuthnOperation<String, String> operation = BlockingReactiveWebAuthnOperation.of(store);
+
+    @Test
+    public void testDelegatesToTheBlockingStore() {
+        operation.put("a", "data").block();
+        assertEquals("data", store.get("a"));
+        assertEquals("data", operation.get("a").block());
+
+        assertEquals("data", operation.take("a").block());
+        assertNull(operation.take("a").block());
+        assertNull(operation.get("a").block());
+        assertFalse(operation.isFull().block());
+    }
+
+    @Test
+    public void testOnlyInProcessStoresAreNotBlocking() {
+        assertFalse(BlockingReactiveWebAuthnOperation.isBlocking(store));
+        assertFalse(BlockingReactiveWebAuthnOperation.isBlocking(new InstrumentedWebAuthnOperation<>(store)));
+        assertFalse(BlockingReactiveWebAuthnOperation.isBlocking(
+                new EncodedCeremonyOperation<>(null, new CeremonyTable<>(Duration.ofMinutes(5), 10))));
+        // the stores of the application may do I/O
+        assertTrue(BlockingReactiveWebAuthnOperation.isBlocking(mock(WebAuthnOperation.class)));
+        assertTrue(BlockingReactiveWebAuthnOperation.isBlocking(new ExpiringInMemoryOperation<>(Duration.ofMinutes(5)) {
+        }));
+
+        JdbcCeremonyOperation jdbc = mock(JdbcCeremonyOperation.class);
+        assertTrue(BlockingReactiveWebAuthnOperation.isBlocking(jdbc));
+        assertTrue(BlockingReactiveWebAuthnOperation.isBlocking(
+                new InstrumentedWebAuthnOperation<>(new EncodedCeremonyOperation<>(null, jdbc))));
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.flows.TooManyCeremoniesException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedInMemoryOperationTest {
+
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+
+    @Test
+    public void testReject() {
+        BoundedInMemoryOperation<String, String> operation = new BoundedInMemoryOperation<>(Duration.ofMinutes(5), 2, Long.MAX_VALUE,
+                String::length, BoundedInMemoryOperation.OverflowPolicy.REJECT, clock);
+        operation.put("a", "value");
+        operation.put("b", "value");
+
+        assertTrue(operation.isFull());
+        assertThrows(TooManyCeremoniesException.class, () -> operation.put("c", "value"));
+        assertEquals(1, operation.getRejectedCount());
+
+        operation.remove("a");
+        assertFalse(operation.isFull());
+        operation.put("c", "value");
+        assertEquals("value", operation.get("c"));
+    }
+
+    @Test
+    public void testEvictOldest() {
+        BoundedInMemoryOperation<String, String> operation = new BoundedInMemoryOperation<>(Duration.ofMinutes(5), 2, Long.MAX_VALUE,
+                String::length, BoundedInMemoryOperation.OverflowPolicy.EVICT_OLDEST, clock);
+        operation.put("a", "value");
+        operation.put("b", "value");
+        operation.put("c", "value");
+
+        assertFalse(operation.isFull());
+        assertNull(operation.get("a"));
+        assertEquals("value", operation.get("b"));
+        assertEquals("value", operation.get("c"));
+        assertEquals(1, operation.getEvictedCount());
+    }
+
+    @Test
+    public void testByteBudget() {
+        BoundedInMemoryOperation<String, String> operation = new BoundedInMemoryOperation<>(Duration.ofMinutes(5), 100, 10,
+                String::length, BoundedInMemoryOperation.OverflowPolicy.EVICT_OLDEST, clock);
+        operation.put("a", "12345");
+        operation.put("b", "1234");
+        assertEquals(9, operation.getBytes());
+
+        operation.put("c", "12");
+        assertNull(operation.get("a"));
+        assertEquals(6, operation.getBytes());
+
+        assertThrows(TooManyCeremoniesException.class, () -> operation.put("d", "12345678901"));
+    }
+
+    @Test
+    public void testExpiredEntriesFreeCapacity() {
+        BoundedInMemoryOperation<String, String> operation = new BoundedInMemoryOperation<>(Duration.ofMinutes(5), 1, Long.MAX_VALUE,
+                String::length, BoundedInMemoryOperation.OverflowPolicy.REJECT, clock);
+        operation.put("a", "value");
+        clock.advance(Duration.ofMinutes(6));
+
+        operation.put("b", "value");
+        assertEquals(1, operation.getExpiredCount());
+        assertEquals(0, operation.getRejectedCount());
+    }
+
+    @Test
+    public void testConcurrentPutsStayWithinTheLimit() throws Exception {
+        BoundedInMemoryOperation<String, String> operation = new BoundedInMemoryOperation<>(Duration.ofMinutes(5), 100, Long.MAX_VALUE,
+                String::length, BoundedInMemoryOperation.OverflowPolicy.REJECT, clock);
+        LongAdder added = new LongAdder();
+        Runnable task = () -> {
+            for (int i = 0; i < 1000; i++) {
+                try {
+                    operation.put(Thread.currentThread().getName() + i, "value");
+                    added.increment();
+                } catch (TooManyCeremoniesException e) {
+                    // full
+                }
+            }
+        };
+        Thread first = new Thread(task, "first");
+        Thread second = new Thread(task, "second");
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertEquals(100, added.sum());
+        assertEquals(100, operation.size());
+        assertEquals(1900, operation.getRejectedCount());
+        assertTrue(operation.isFull());
+    }
+}
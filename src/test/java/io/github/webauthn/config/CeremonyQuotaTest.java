@@ -0,0 +1,133 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.dto.AssertionStartRequest;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.flows.WebAuthnAssertionStartStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+class CeremonyQuotaTest {
+
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+    CeremonyQuota quota = new CeremonyQuota(3, Duration.ofMinutes(5), clock);
+
+    @Test
+    public void testOldestPendingCeremonyIsEvicted() {
+        for (String id : List.of("a", "b", "c")) {
+            assertNull(quota.acquire("10.0.0.1", id));
+        }
+
+        assertEquals("a", quota.acquire("10.0.0.1", "d"));
+        assertEquals("b", quota.acquire("10.0.0.1", "e"));
+        // other clients have their own quota
+        assertNull(quota.acquire("10.0.0.2", "f"));
+        assertEquals(2, quota.getEvictions());
+    }
+
+    @Test
+    public void testFinishedCeremoniesFreeTheirSlot() {
+        for (String id : List.of("a", "b", "c")) {
+            quota.acquire("junit", id);
+        }
+        // b was finished, a is still pending and should survive
+        quota.release("b");
+        quota.release("unknown");
+
+        assertNull(quota.acquire("junit", "d"));
+        assertEquals("a", quota.acquire("junit", "e"));
+    }
+
+    @Test
+    public void testTimedOutCeremoniesFreeTheirSlot() {
+        quota.acquire("junit", "a");
+        clock.advance(Duration.ofMinutes(3));
+        quota.acquire("junit", "b");
+        quota.acquire("junit", "c");
+        clock.advance(Duration.ofMinutes(2));
+
+        // a timed out, b is now the oldest pending one
+        assertNull(quota.acquire("junit", "d"));
+        assertEquals("b", quota.acquire("junit", "e"));
+        assertEquals(1, quota.getEvictions());
+    }
+
+    @Test
+    public void testIdleClientsAreForgotten() {
+        quota.acquire("10.0.0.1", "a");
+        quota.acquire("10.0.0.2", "b");
+        assertEquals(2, quota.getClients());
+
+        clock.advance(Duration.ofMinutes(6));
+        quota.acquire("10.0.0.3", "c");
+        assertEquals(1, quota.getClients());
+    }
+
+    @Test
+    public void testConcurrentStartsOfTheSameClient() throws Exception {
+        CeremonyQuota single = new CeremonyQuota(1, Duration.ZERO, clock);
+        int threads = 4;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    barrier.await();
+                    // the previous ceremonies timed out right away, every start races for the same free slot
+                    for (int i = 0; i < 20_000; i++) {
+                        single.acquire("junit", thread + "-" + i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, single.getEvictions());
+    }
+
+    @Test
+    public void testStartStrategyRemovesTheEvictedCeremony() {
+        WebAuthnProperties properties = new WebAuthnProperties();
+        RelyingParty relyingParty = RelyingParty.builder()
+                .identity(RelyingPartyIdentity.builder().id("localhost").name("test").build())
+                .credentialRepository(mock(CredentialRepository.class))
+                .build();
+        ExpiringInMemoryOperation<AssertionStartResponse, String> operation = new ExpiringInMemoryOperation<>(Duration.ofMinutes(5));
+        WebAuthnAssertionStartStrategy strategy = new WebAuthnAssertionStartStrategy(relyingParty, operation, properties, null,
+                new CeremonyQuota(2, Duration.ofMinutes(5)));
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(strategy.start(new AssertionStartRequest(), "10.0.0.1").getAssertionId());
+        }
+        strategy.start(new AssertionStartRequest(), "10.0.0.2");
+
+        assertEquals(3, operation.size());
+        assertNull(operation.get(ids.get(2)));
+        assertNotNull(operation.get(ids.get(3)));
+        assertNotNull(operation.get(ids.get(4)));
+        assertEquals(5, new HashSet<>(ids).size());
+    }
+}
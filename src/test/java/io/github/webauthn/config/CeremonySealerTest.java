@@ -0,0 +1,140 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.StartAssertionOptions;
+import com.yubico.webauthn.StartRegistrationOptions;
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.ResidentKeyRequirement;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubico.webauthn.data.UserVerificationRequirement;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CeremonySealerTest {
+
+    static final ByteArray USER_HANDLE = new ByteArray(new byte[]{0, 0, 0, 0, 0, 0, 0, 7});
+    static final ByteArray CREDENTIAL_ID = new ByteArray(new byte[]{1, 2, 3, 4});
+
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+    byte[] key = CeremonySealer.generateKey();
+    RelyingParty relyingParty;
+    CeremonyCodec codec;
+    CeremonySealer sealer;
+
+    @BeforeEach
+    void setUp() {
+        CredentialRepository credentialRepository = mock(CredentialRepository.class);
+        when(credentialRepository.getCredentialIdsForUsername(anyString()))
+                .thenReturn(Set.of(PublicKeyCredentialDescriptor.builder().id(CREDENTIAL_ID).build()));
+        when(credentialRepository.getUserHandleForUsername(anyString())).thenReturn(Optional.of(USER_HANDLE));
+        relyingParty = RelyingParty.builder()
+                .identity(RelyingPartyIdentity.builder().id("localhost").name("test").build())
+                .credentialRepository(credentialRepository)
+                .build();
+        codec = new CeremonyCodec(relyingParty);
+        sealer = new CeremonySealer(codec, List.of(key), Duration.ofMinutes(5), clock);
+    }
+
+    @Test
+    public void testAssertionRoundTrip() {
+        AssertionRequest request = relyingParty.startAssertion(StartAssertionOptions.builder()
+                .username("junit")
+                .build());
+
+        String assertionId = sealer.sealAssertion(request);
+        AssertionStartResponse opened = sealer.openAssertion(assertionId);
+
+        assertNotNull(opened);
+        assertEquals(assertionId, opened.getAssertionId());
+        assertEquals(request, opened.getAssertionRequest());
+    }
+
+    @Test
+    public void testRegistrationRoundTrip() {
+        PublicKeyCredentialCreationOptions options = relyingParty.startRegistration(StartRegistrationOptions.builder()
+                .user(UserIdentity.builder().name("junit").displayName("Junit").id(USER_HANDLE).build())
+                .authenticatorSelection(AuthenticatorSelectionCriteria.builder()
+                        .userVerification(UserVerificationRequirement.PREFERRED)
+                        .residentKey(ResidentKeyRequirement.DISCOURAGED)
+                        .build())
+                .build());
+
+        String registrationId = sealer.sealRegistration(RegistrationStartResponse.Mode.NEW, options);
+        RegistrationStartResponse opened = sealer.openRegistration(registrationId);
+
+        assertNotNull(opened);
+        assertEquals(RegistrationStartResponse.Mode.NEW, opened.getMode());
+        assertEquals(options.toBuilder().excludeCredentials(Optional.empty()).build(),
+                opened.getPublicKeyCredentialCreationOptions());
+    }
+
+    @Test
+    public void testIdCanOnlyBeUsedOnce() {
+        String assertionId = sealer.sealAssertion(relyingParty.startAssertion(StartAssertionOptions.builder().build()));
+
+        assertNotNull(sealer.openAssertion(assertionId));
+        assertNull(sealer.openAssertion(assertionId));
+    }
+
+    @Test
+    public void testExpiredId() {
+        String assertionId = sealer.sealAssertion(relyingParty.startAssertion(StartAssertionOptions.builder().build()));
+        clock.advance(Duration.ofMinutes(5));
+
+        assertNull(sealer.openAssertion(assertionId));
+    }
+
+    @Test
+    public void testTamperedId() {
+        String assertionId = sealer.sealAssertion(relyingParty.startAssertion(StartAssertionOptions.builder().build()));
+        byte[] sealed = Base64.getDecoder().decode(assertionId);
+        sealed[sealed.length - 1] ^= 1;
+
+        assertNull(sealer.openAssertion(Base64.getEncoder().encodeToString(sealed)));
+        assertNull(sealer.openAssertion("not base64 !"));
+    }
+
+    @Test
+    public void testRegistrationIdIsNotAnAssertionId() {
+        PublicKeyCredentialCreationOptions options = relyingParty.startRegistration(StartRegistrationOptions.builder()
+                .user(UserIdentity.builder().name("junit").displayName("Junit").id(USER_HANDLE).build())
+                .build());
+
+        String registrationId = sealer.sealRegistration(RegistrationStartResponse.Mode.ADD, options);
+        assertNull(sealer.openAssertion(registrationId));
+        // presenting it to the wrong endpoint does not burn it
+        assertNotNull(sealer.openRegistration(registrationId));
+    }
+
+    @Test
+    public void testKeyRotation() {
+        String assertionId = sealer.sealAssertion(relyingParty.startAssertion(StartAssertionOptions.builder().build()));
+
+        CeremonySealer rotated = new CeremonySealer(codec, List.of(CeremonySealer.generateKey(), key), Duration.ofMinutes(5), clock);
+        assertNotNull(rotated.openAssertion(assertionId));
+
+        String newAssertionId = rotated.sealAssertion(relyingParty.startAssertion(StartAssertionOptions.builder().build()));
+        assertNull(sealer.openAssertion(newAssertionId));
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.WebAuthnConfig;
+import io.github.webauthn.flows.TooManyCeremoniesException;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CeremonyTableTest {
+
+    Random random = new Random(42);
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+    CeremonyTable<String> table = new CeremonyTable<>(Duration.ofMinutes(5), 100_000, clock);
+
+    @Test
+    public void testIdIsReadAsTwoLongs() {
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            String id = Base64.getEncoder().encodeToString(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+            assertTrue(CeremonyTable.isValidId(id));
+            assertEquals(buffer.getLong(), CeremonyTable.high(id));
+            assertEquals(buffer.getLong(), CeremonyTable.low(id));
+        }
+    }
+
+    @Test
+    public void testInvalidIds() {
+        assertFalse(CeremonyTable.isValidId("short"));
+        assertFalse(CeremonyTable.isValidId(Base64.getEncoder().encodeToString(new byte[17])));
+        assertFalse(CeremonyTable.isValidId("AAAAAAAAAAAAAAAAAAAAA$=="));
+        assertFalse(CeremonyTable.isValidId("AAAAAAAAAAAAAAAAAAAAAB=="));
+        assertNull(table.get("short"));
+        assertThrows(IllegalArgumentException.class, () -> table.put("short", "value"));
+    }
+
+    @Test
+    public void testPutGetTakeRemove() {
+        List<String> ids = newIds(5000);
+        for (String id : ids) {
+            table.put(id, id);
+        }
+        assertEquals(5000, table.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            assertEquals(id, table.get(id));
+            if (i % 2 == 0) {
+                assertEquals(id, table.take(id));
+            } else {
+                table.remove(id);
+            }
+            assertNull(table.get(id));
+            // the entries shifted back by the deletions can still be found
+            if (i + 1 < ids.size()) {
+                assertEquals(ids.get(i + 1), table.get(ids.get(i + 1)));
+            }
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testExpiredEntriesAreSweptBeforeGrowing() {
+        List<String> ids = newIds(2000);
+        for (String id : ids) {
+            table.put(id, id);
+        }
+        clock.advance(Duration.ofMinutes(5));
+        assertNull(table.get(ids.get(0)));
+        assertNull(table.take(ids.get(1)));
+        assertEquals(0, table.list().count());
+
+        List<String> newIds = newIds(2000);
+        for (String id : newIds) {
+            table.put(id, id);
+        }
+        assertTrue(table.size() < 3000, "size " + table.size());
+        for (String id : newIds) {
+            assertEquals(id, table.get(id));
+        }
+    }
+
+    @Test
+    public void testMaxEntries() {
+        CeremonyTable<String> small = new CeremonyTable<>(Duration.ofMinutes(5), 10, clock);
+        List<String> ids = newIds(11);
+        for (int i = 0; i < 10; i++) {
+            small.put(ids.get(i), "value");
+        }
+
+        assertTrue(small.isFull());
+        assertThrows(TooManyCeremoniesException.class, () -> small.put(ids.get(10), "value"));
+
+        clock.advance(Duration.ofMinutes(6));
+        small.put(ids.get(10), "value");
+        assertEquals("value", small.get(ids.get(10)));
+    }
+
+    @Test
+    public void testFullTableIsSweptOncePerInterval() {
+        CeremonyTable<String> small = new CeremonyTable<>(Duration.ofMinutes(5), 10, clock);
+        List<String> ids = newIds(10);
+        for (int i = 0; i < 5; i++) {
+            small.put(ids.get(i), "value");
+        }
+        clock.advance(Duration.ofMinutes(5).minusMillis(500));
+        for (int i = 5; i < 10; i++) {
+            small.put(ids.get(i), "value");
+        }
+        assertTrue(small.isFull());
+
+        // the first ones expired, the table is not swept again so soon
+        clock.advance(Duration.ofMillis(600));
+        assertTrue(small.isFull());
+        assertEquals(10, small.size());
+
+        clock.advance(Duration.ofMillis(CeremonyTable.SWEEP_INTERVAL_MILLIS));
+        assertFalse(small.isFull());
+        assertEquals(5, small.size());
+    }
+
+    @Test
+    public void testUnsupportedLimitsFailTheStartup() {
+        ApplicationContextRunner runner = new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080", "webauthn.ceremony.store=TABLE");
+        runner.run(context -> assertNull(context.getStartupFailure()));
+        runner.withPropertyValues("webauthn.ceremony.overflow-policy=EVICT_OLDEST")
+                .run(context -> assertTrue(rootCause(context.getStartupFailure()).getMessage().contains("store=TABLE")));
+        runner.withPropertyValues("webauthn.ceremony.max-size=1MB")
+                .run(context -> assertTrue(rootCause(context.getStartupFailure()).getMessage().contains("store=TABLE")));
+    }
+
+    private static Throwable rootCause(Throwable failure) {
+        while (failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    private List<String> newIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            ids.add(Base64.getEncoder().encodeToString(bytes));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.StartAssertionOptions;
+import com.yubico.webauthn.StartRegistrationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.UserIdentity;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.dto.RegistrationStartResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Set;
+
+import static io.github.webauthn.config.CeremonySealerTest.CREDENTIAL_ID;
+import static io.github.webauthn.config.CeremonySealerTest.USER_HANDLE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EncodedCeremonyOperationTest {
+
+    InMemoryOperation<byte[], String> store = new InMemoryOperation<>();
+    RelyingParty relyingParty;
+    EncodedCeremonyOperation<Object> operation;
+
+    @BeforeEach
+    void setUp() {
+        CredentialRepository credentialRepository = mock(CredentialRepository.class);
+        when(credentialRepository.getCredentialIdsForUsername(anyString()))
+                .thenReturn(Set.of(PublicKeyCredentialDescriptor.builder().id(CREDENTIAL_ID).build()));
+        when(credentialRepository.getUserHandleForUsername(anyString())).thenReturn(Optional.of(USER_HANDLE));
+        relyingParty = RelyingParty.builder()
+                .identity(RelyingPartyIdentity.builder().id("localhost").name("test").build())
+                .credentialRepository(credentialRepository)
+                .build();
+        operation = new EncodedCeremonyOperation<>(new CeremonyCodec(relyingParty), store);
+    }
+
+    @Test
+    public void testAssertion() {
+        AssertionRequest request = relyingParty.startAssertion(StartAssertionOptions.builder()
+                .username("junit")
+                .timeout(300_000)
+                .build());
+        AssertionStartResponse response = new AssertionStartResponse("assertion-1", request);
+
+        operation.put(response.getAssertionId(), response);
+        byte[] encoded = store.get("assertion-1");
+        assertTrue(encoded.length < 100, "encoded in " + encoded.length + " bytes");
+
+        AssertionStartResponse taken = (AssertionStartResponse) operation.take("assertion-1");
+        assertEquals("assertion-1", taken.getAssertionId());
+        assertEquals(request.toBuilder()
+                        .publicKeyCredentialRequestOptions(request.getPublicKeyCredentialRequestOptions().toBuilder()
+                                .timeout(Optional.empty())
+                                .build())
+                        .build(),
+                taken.getAssertionRequest());
+        assertNull(operation.take("assertion-1"));
+    }
+
+    @Test
+    public void testRegistration() {
+        PublicKeyCredentialCreationOptions options = relyingParty.startRegistration(StartRegistrationOptions.builder()
+                .user(UserIdentity.builder().name("junit").displayName("Junit").id(USER_HANDLE).build())
+                .build());
+        RegistrationStartResponse response = new RegistrationStartResponse(RegistrationStartResponse.Mode.RECOVERY, "registration-1", options);
+
+        operation.put(response.getRegistrationId(), response);
+
+        RegistrationStartResponse found = (RegistrationStartResponse) operation.get("registration-1");
+        assertEquals(RegistrationStartResponse.Mode.RECOVERY, found.getMode());
+        assertEquals("registration-1", found.getRegistrationId());
+        assertEquals(options.toBuilder().excludeCredentials(Optional.empty()).build(),
+                found.getPublicKeyCredentialCreationOptions());
+        assertEquals(1, operation.list().count());
+    }
+
+    @Test
+    public void testEnumsAreStoredByName() {
+        PublicKeyCredentialCreationOptions options = relyingParty.startRegistration(StartRegistrationOptions.builder()
+                .user(UserIdentity.builder().name("junit").displayName("Junit").id(USER_HANDLE).build())
+                .build());
+        operation.put("registration-1", new RegistrationStartResponse(RegistrationStartResponse.Mode.RECOVERY, "registration-1", options));
+
+        String encoded = new String(store.get("registration-1"), StandardCharsets.ISO_8859_1);
+        assertTrue(encoded.contains("RECOVERY"));
+    }
+
+    @Test
+    public void testOtherFormatVersionsAreTreatedAsAbsent() {
+        AssertionRequest request = relyingParty.startAssertion(StartAssertionOptions.builder().username("junit").build());
+        operation.put("assertion-1", new AssertionStartResponse("assertion-1", request));
+        store.get("assertion-1")[0] = 1;
+
+        assertNull(operation.get("assertion-1"));
+        assertEquals(0, operation.list().count());
+        assertNull(operation.take("assertion-1"));
+    }
+}
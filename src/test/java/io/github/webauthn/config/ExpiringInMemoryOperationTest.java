@@ -0,0 +1,162 @@
+package io.github.webauthn.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ExpiringInMemoryOperationTest {
+
+    MutableClock clock = new MutableClock();
+    ExpiringInMemoryOperation<String, String> operation = new ExpiringInMemoryOperation<>(Duration.ofMinutes(5), clock);
+
+    @Test
+    public void testGetBeforeExpiry() {
+        operation.put("a", "value");
+        clock.advance(Duration.ofMinutes(4));
+
+        assertEquals("value", operation.get("a"));
+        assertEquals(0, operation.expire());
+    }
+
+    @Test
+    public void testExpire() {
+        operation.put("a", "value");
+        clock.advance(Duration.ofMinutes(2));
+        operation.put("b", "value");
+        clock.advance(Duration.ofMinutes(3).plusSeconds(1));
+
+        assertNull(operation.get("a"));
+        assertEquals("value", operation.get("b"));
+        assertEquals(1, operation.getExpiredCount());
+        assertEquals(1, operation.size());
+
+        clock.advance(Duration.ofMinutes(3));
+        assertEquals(1, operation.expire());
+        assertEquals(0, operation.size());
+        assertEquals(2, operation.getExpiredCount());
+    }
+
+    @Test
+    public void testRemovedEntriesAreNotExpired() {
+        operation.put("a", "value");
+        operation.remove("a");
+        clock.advance(Duration.ofMinutes(6));
+
+        assertEquals(0, operation.expire());
+        assertEquals(0, operation.getExpiredCount());
+    }
+
+    @Test
+    public void testPutAgainResetsTtl() {
+        operation.put("a", "first");
+        clock.advance(Duration.ofMinutes(4));
+        operation.put("a", "second");
+        clock.advance(Duration.ofMinutes(4));
+
+        assertEquals("second", operation.get("a"));
+        assertEquals(0, operation.getExpiredCount());
+    }
+
+    @Test
+    public void testTake() {
+        operation.put("a", "value");
+        clock.advance(Duration.ofMinutes(3));
+        operation.put("b", "value");
+        operation.put("c", "value");
+
+        assertEquals("value", operation.take("c"));
+        assertNull(operation.take("c"));
+        assertEquals(2, operation.size());
+
+        clock.advance(Duration.ofMinutes(2));
+        assertNull(operation.take("a"));
+        assertEquals(1, operation.size());
+    }
+
+    @Test
+    public void testTakeAndRemoveExpireTheOtherEntries() {
+        operation.put("a", "value");
+        operation.put("b", "value");
+        operation.put("c", "value");
+        clock.advance(Duration.ofMinutes(5).plusSeconds(1));
+
+        assertNull(operation.take("a"));
+        assertEquals(3, operation.getExpiredCount());
+        assertEquals(0, operation.size());
+
+        operation.put("d", "value");
+        clock.advance(Duration.ofMinutes(5).plusSeconds(1));
+        operation.remove("e");
+        assertEquals(0, operation.size());
+    }
+
+    @Test
+    public void testTakeIsAtomic() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            operation.put("key-" + i, "value");
+        }
+        LongAdder taken = new LongAdder();
+        Runnable task = () -> {
+            for (int i = 0; i < 1000; i++) {
+                if (operation.take("key-" + i) != null) {
+                    taken.increment();
+                }
+            }
+        };
+        Thread first = new Thread(task);
+        Thread second = new Thread(task);
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertEquals(1000, taken.sum());
+        assertEquals(0, operation.size());
+    }
+
+    @Test
+    public void testLongTtlIsCascaded() {
+        ExpiringInMemoryOperation<String, String> longLived = new ExpiringInMemoryOperation<>(Duration.ofDays(3), clock);
+        for (int i = 0; i < 1000; i++) {
+            longLived.put("key-" + i, "value");
+            clock.advance(Duration.ofSeconds(7));
+        }
+        clock.advance(Duration.ofDays(3).minusSeconds(7 * 1000));
+        assertEquals(1, longLived.expire());
+
+        clock.advance(Duration.ofDays(1));
+        assertEquals(999, longLived.expire());
+        assertEquals(1000, longLived.getExpiredCount());
+    }
+
+    static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2023-11-01T10:15:30.00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.webauthn.config;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import io.github.webauthn.WebAuthnConfig;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.flows.TooManyCeremoniesException;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.FilteredClassLoader;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InstrumentedWebAuthnOperationTest {
+
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+    BoundedInMemoryOperation<AssertionStartResponse, String> store = new BoundedInMemoryOperation<>(Duration.ofMinutes(5),
+            3, Long.MAX_VALUE, data -> 1, BoundedInMemoryOperation.OverflowPolicy.REJECT, clock);
+    InstrumentedWebAuthnOperation<AssertionStartResponse, String> operation = new InstrumentedWebAuthnOperation<>(store,
+            InstrumentedWebAuthnOperation::startedAt, clock);
+
+    @Test
+    public void testCounters() {
+        operation.put("a", response("a"));
+        operation.put("b", response("b"));
+        operation.put("c", response("c"));
+        assertThrows(TooManyCeremoniesException.class, () -> operation.put("d", response("d")));
+
+        clock.advance(Duration.ofSeconds(30));
+        assertEquals("a", operation.take("a").getAssertionId());
+        clock.advance(Duration.ofSeconds(30));
+        assertEquals("b", operation.take("b").getAssertionId());
+        assertNull(operation.take("b"));
+
+        assertEquals(3, operation.getPuts());
+        assertEquals(1, operation.getRejected());
+        assertEquals(2, operation.getTakeHits());
+        assertEquals(1, operation.getTakeMisses());
+        assertEquals(1, operation.size());
+        assertEquals(0, operation.getExpiredCount());
+        assertEquals(90_000, operation.getTakeAgeTotalMillis());
+        assertEquals(60_000, operation.getTakeAgeMaxMillis());
+    }
+
+    @Test
+    public void testExpiredAreCountedByTheStore() {
+        operation.put("a", response("a"));
+        operation.put("b", response("b"));
+        operation.remove("b");
+        clock.advance(Duration.ofMinutes(5));
+        store.expire();
+
+        assertNull(operation.take("a"));
+        assertEquals(1, operation.getRemoves());
+        assertEquals(1, operation.getExpiredCount());
+        assertSame(store, operation.getDelegate());
+    }
+
+    @Test
+    public void testEvictedAreNotExpired() {
+        InstrumentedWebAuthnOperation<AssertionStartResponse, String> evicting = new InstrumentedWebAuthnOperation<>(
+                new BoundedInMemoryOperation<>(Duration.ofMinutes(5), 1, Long.MAX_VALUE, data -> 1,
+                        BoundedInMemoryOperation.OverflowPolicy.EVICT_OLDEST, clock),
+                InstrumentedWebAuthnOperation::startedAt, clock);
+        evicting.put("a", response("a"));
+        evicting.put("b", response("b"));
+
+        assertNull(evicting.take("a"));
+        assertEquals(0, evicting.getExpiredCount());
+        assertEquals(-1, new InstrumentedWebAuthnOperation<>(new InMemoryOperation<>()).getExpiredCount());
+    }
+
+    @Test
+    public void testMetersAreBoundWhenMicrometerIsPresent() {
+        ApplicationContextRunner runner = new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080", "webauthn.ceremony.metrics=true");
+        runner.run(context -> {
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            context.getBean(CeremonyMeterBinder.class).bindTo(registry);
+
+            for (String store : List.of(WebAuthnConfig.REGISTRATION_CACHE, WebAuthnConfig.ASSERTION_CACHE)) {
+                assertNotNull(registry.find("webauthn.ceremonies.started").tag("store", store).functionCounter());
+                assertNotNull(registry.find("webauthn.ceremonies.expired").tag("store", store).functionCounter());
+                assertNotNull(registry.find("webauthn.ceremonies.age").tag("store", store).functionTimer());
+            }
+        });
+        runner.withClassLoader(new FilteredClassLoader(MeterBinder.class))
+                .run(context -> assertFalse(context.containsBean("webAuthnCeremonyMeterBinder")));
+    }
+
+    private AssertionStartResponse response(String id) {
+        AssertionRequest request = AssertionRequest.builder()
+                .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+                        .challenge(new ByteArray(new byte[32]))
+                        .build())
+                .build();
+        return new AssertionStartResponse(id, request, clock.millis());
+    }
+}
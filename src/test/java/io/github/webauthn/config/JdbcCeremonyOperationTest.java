@@ -0,0 +1,164 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.WebAuthnConfig;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.ApplicationContext;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcCeremonyOperationTest {
+
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+    JdbcCeremonyOperation operation = new JdbcCeremonyOperation(dataSource(), "webauthn_ceremony", Duration.ofMinutes(5),
+            null, 2, true, clock);
+
+    @AfterEach
+    void tearDown() {
+        operation.close();
+    }
+
+    @Test
+    public void testDialect() {
+        assertEquals(JdbcCeremonyOperation.Dialect.H2, operation.getDialect());
+    }
+
+    @Test
+    public void testPutGetTake() {
+        operation.put("a", new byte[]{1, 2, 3});
+        operation.put("a", new byte[]{4, 5});
+
+        assertArrayEquals(new byte[]{4, 5}, operation.get("a"));
+        assertArrayEquals(new byte[]{4, 5}, operation.take("a"));
+        assertNull(operation.take("a"));
+        assertNull(operation.get("a"));
+    }
+
+    @Test
+    public void testExpiredRowsAreIgnoredAndPurged() {
+        for (int i = 0; i < 5; i++) {
+            operation.put("old-" + i, new byte[]{1});
+        }
+        clock.advance(Duration.ofMinutes(3));
+        operation.put("new", new byte[]{2});
+        clock.advance(Duration.ofMinutes(2));
+
+        assertNull(operation.get("old-0"));
+        assertFalse(operation.contains("old-0"));
+        assertTrue(operation.contains("new"));
+        assertNull(operation.take("old-1"));
+        assertEquals(1, operation.list().count());
+
+        assertEquals(4, operation.purge());
+        assertArrayEquals(new byte[]{2}, operation.take("new"));
+    }
+
+    @Test
+    public void testTakeIsAtomic() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            operation.put("key-" + i, new byte[]{1});
+        }
+        LongAdder taken = new LongAdder();
+        Runnable task = () -> {
+            for (int i = 0; i < 200; i++) {
+                if (operation.take("key-" + i) != null) {
+                    taken.increment();
+                }
+            }
+        };
+        Thread first = new Thread(task);
+        Thread second = new Thread(task);
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+
+        assertEquals(200, taken.sum());
+        assertEquals(0, operation.list().count());
+    }
+
+    @Test
+    public void testMaxEntriesCountsLiveRows() {
+        JdbcCeremonyOperation bounded = new JdbcCeremonyOperation(dataSource(), "webauthn_ceremony", Duration.ofMinutes(5),
+                null, 2, true, 2, clock);
+        bounded.put("a", new byte[]{1});
+        assertFalse(bounded.isFull());
+        bounded.put("b", new byte[]{1});
+        // the count is cached for a second
+        assertFalse(bounded.isFull());
+        clock.advance(Duration.ofSeconds(1));
+        assertTrue(bounded.isFull());
+
+        clock.advance(Duration.ofMinutes(5));
+        assertFalse(bounded.isFull());
+        bounded.close();
+    }
+
+    @Test
+    public void testNotUsedUnlessEnabled() {
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withBean(DataSource.class, JdbcCeremonyOperationTest::dataSource)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080")
+                .run(context -> assertInstanceOf(ExpiringInMemoryOperation.class,
+                        ((InstrumentedWebAuthnOperation<?, ?>) context.getBean(WebAuthnConfig.REGISTRATION_CACHE, WebAuthnOperation.class)).getDelegate()));
+    }
+
+    @Test
+    public void testUsedWhenEnabled() {
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withBean(DataSource.class, JdbcCeremonyOperationTest::dataSource)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080", "webauthn.ceremony.jdbc.enabled=true",
+                        "webauthn.ceremony.jdbc.initialize-schema=true")
+                .run(context -> {
+                    WebAuthnOperation<?, ?> ceremonies = ((InstrumentedWebAuthnOperation<?, ?>) context.getBean(WebAuthnConfig.REGISTRATION_CACHE, WebAuthnOperation.class)).getDelegate();
+                    assertInstanceOf(EncodedCeremonyOperation.class, ceremonies);
+                    assertInstanceOf(JdbcCeremonyOperation.class, ((EncodedCeremonyOperation<?>) ceremonies).getDelegate());
+                });
+    }
+
+    @Test
+    public void testEachCacheHasItsOwnTable() {
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withBean(DataSource.class, JdbcCeremonyOperationTest::dataSource)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080", "webauthn.ceremony.jdbc.enabled=true",
+                        "webauthn.ceremony.jdbc.initialize-schema=true", "webauthn.ceremony.max-entries=1")
+                .run(context -> {
+                    WebAuthnOperation<byte[], String> registrations = jdbc(context, WebAuthnConfig.REGISTRATION_CACHE);
+                    WebAuthnOperation<byte[], String> assertions = jdbc(context, WebAuthnConfig.ASSERTION_CACHE);
+                    registrations.put("a", new byte[]{1});
+
+                    assertTrue(registrations.isFull());
+                    assertFalse(assertions.isFull());
+                    assertEquals(0, assertions.size());
+                    assertNull(assertions.get("a"));
+                });
+    }
+
+    private static WebAuthnOperation<byte[], String> jdbc(ApplicationContext context, String cache) {
+        WebAuthnOperation<?, ?> operation = context.getBean(cache, WebAuthnOperation.class);
+        return ((EncodedCeremonyOperation<?>) ((InstrumentedWebAuthnOperation<?, ?>) operation).getDelegate()).getDelegate();
+    }
+
+    private static JdbcDataSource dataSource() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:ceremony-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+}
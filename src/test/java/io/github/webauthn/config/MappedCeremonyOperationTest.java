@@ -0,0 +1,180 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.WebAuthnConfig;
+import io.github.webauthn.flows.TooManyCeremoniesException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.ApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedCeremonyOperationTest {
+
+    @TempDir
+    Path directory;
+    Random random = new Random(42);
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+
+    @Test
+    public void testPutGetTake() {
+        try (MappedCeremonyOperation operation = open(10)) {
+            List<String> ids = newIds(5);
+            for (int i = 0; i < ids.size(); i++) {
+                operation.put(ids.get(i), data(i));
+            }
+            operation.put(ids.get(0), new byte[]{1, 2, 3});
+
+            assertEquals(5, operation.size());
+            assertArrayEquals(new byte[]{1, 2, 3}, operation.take(ids.get(0)));
+            assertArrayEquals(data(1), operation.get(ids.get(1)));
+            assertArrayEquals(data(1), operation.take(ids.get(1)));
+            assertNull(operation.take(ids.get(1)));
+            assertEquals(3, operation.list().count());
+            assertThrows(IllegalArgumentException.class, () -> operation.put(ids.get(0), new byte[200]));
+        }
+    }
+
+    @Test
+    public void testPendingCeremoniesSurviveARestart() {
+        List<String> ids = newIds(6);
+        try (MappedCeremonyOperation operation = open(10)) {
+            for (int i = 0; i < ids.size(); i++) {
+                if (i > 0) {
+                    clock.advance(Duration.ofMinutes(1));
+                }
+                operation.put(ids.get(i), data(i));
+            }
+            operation.take(ids.get(5));
+        }
+
+        try (MappedCeremonyOperation operation = open(10)) {
+            // the first one expired, the last one was taken
+            assertEquals(4, operation.size());
+            assertNull(operation.get(ids.get(0)));
+            assertNull(operation.get(ids.get(5)));
+            for (int i = 1; i < 5; i++) {
+                assertArrayEquals(data(i), operation.take(ids.get(i)));
+            }
+            operation.put(ids.get(0), data(0));
+        }
+
+        try (MappedCeremonyOperation operation = open(10)) {
+            assertEquals(1, operation.size());
+            assertArrayEquals(data(0), operation.get(ids.get(0)));
+        }
+    }
+
+    @Test
+    public void testTheOldestPendingRecordBlocksTheRing() {
+        try (MappedCeremonyOperation operation = open(4)) {
+            List<String> ids = newIds(8);
+            for (int i = 0; i < 4; i++) {
+                operation.put(ids.get(i), data(i));
+            }
+            assertTrue(operation.isFull());
+            assertThrows(TooManyCeremoniesException.class, () -> operation.put(ids.get(4), data(4)));
+
+            operation.take(ids.get(0));
+            assertFalse(operation.isFull());
+            operation.put(ids.get(4), data(4));
+
+            clock.advance(Duration.ofMinutes(5));
+            for (int i = 5; i < 8; i++) {
+                operation.put(ids.get(i), data(i));
+            }
+            assertNull(operation.get(ids.get(1)));
+            assertArrayEquals(data(7), operation.get(ids.get(7)));
+        }
+    }
+
+    @Test
+    public void testAnotherLayoutIsRejected() {
+        open(10).close();
+
+        assertThrows(IllegalStateException.class, () -> open(20));
+    }
+
+    @Test
+    public void testASecondOpenOfTheFileIsRefused() {
+        List<String> ids = newIds(1);
+        try (MappedCeremonyOperation operation = open(10)) {
+            operation.put(ids.get(0), data(0));
+
+            IllegalStateException refused = assertThrows(IllegalStateException.class, () -> open(10));
+            assertTrue(refused.getMessage().contains("already mapped"));
+            assertArrayEquals(data(0), operation.get(ids.get(0)));
+        }
+
+        try (MappedCeremonyOperation operation = open(10)) {
+            assertArrayEquals(data(0), operation.get(ids.get(0)));
+        }
+    }
+
+    @Test
+    public void testEachCacheMapsItsOwnFile() {
+        List<String> ids = newIds(2);
+        ApplicationContextRunner runner = new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080", "webauthn.ceremony.store=MAPPED",
+                        "webauthn.ceremony.mapped.path=" + directory.resolve("ceremonies.dat"));
+        runner.run(context -> {
+            mapped(context, WebAuthnConfig.REGISTRATION_CACHE).put(ids.get(0), data(0));
+            mapped(context, WebAuthnConfig.ASSERTION_CACHE).put(ids.get(1), data(1));
+        });
+
+        assertTrue(Files.exists(directory.resolve("ceremonies-registration.dat")));
+        assertTrue(Files.exists(directory.resolve("ceremonies-assertion.dat")));
+        runner.run(context -> {
+            MappedCeremonyOperation registrations = mapped(context, WebAuthnConfig.REGISTRATION_CACHE);
+            MappedCeremonyOperation assertions = mapped(context, WebAuthnConfig.ASSERTION_CACHE);
+            assertEquals(1, registrations.size());
+            assertEquals(1, assertions.size());
+            assertArrayEquals(data(0), registrations.get(ids.get(0)));
+            assertArrayEquals(data(1), assertions.get(ids.get(1)));
+        });
+    }
+
+    private static MappedCeremonyOperation mapped(ApplicationContext context, String cache) {
+        WebAuthnOperation<?, ?> operation = context.getBean(cache, WebAuthnOperation.class);
+        if (operation instanceof InstrumentedWebAuthnOperation<?, ?> instrumented) {
+            operation = instrumented.getDelegate();
+        }
+        return (MappedCeremonyOperation) ((EncodedCeremonyOperation<?>) operation).getDelegate();
+    }
+
+    private MappedCeremonyOperation open(int capacity) {
+        return new MappedCeremonyOperation(directory.resolve("ceremonies.dat"), Duration.ofMinutes(5), 128, capacity, clock);
+    }
+
+    private byte[] data(int i) {
+        byte[] data = new byte[50];
+        data[0] = (byte) i;
+        data[49] = (byte) -i;
+        return data;
+    }
+
+    private List<String> newIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            ids.add(Base64.getEncoder().encodeToString(bytes));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.webauthn.config;
+
+import io.github.webauthn.WebAuthnConfig;
+import io.github.webauthn.flows.TooManyCeremoniesException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapCeremonyOperationTest {
+
+    Random random = new Random(42);
+    ExpiringInMemoryOperationTest.MutableClock clock = new ExpiringInMemoryOperationTest.MutableClock();
+    // 10 records of 100 bytes per slab
+    OffHeapCeremonyOperation operation = new OffHeapCeremonyOperation(Duration.ofMinutes(5),
+            10 * (OffHeapCeremonyOperation.HEADER + 100), 4, clock);
+
+    @AfterEach
+    void tearDown() {
+        operation.close();
+    }
+
+    @Test
+    public void testPutGetTake() {
+        List<String> ids = newIds(30);
+        for (int i = 0; i < ids.size(); i++) {
+            operation.put(ids.get(i), data(i));
+        }
+        operation.put(ids.get(0), new byte[]{1, 2, 3});
+
+        assertEquals(30, operation.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, operation.get(ids.get(0)));
+        for (int i = 1; i < ids.size(); i++) {
+            assertArrayEquals(data(i), operation.get(ids.get(i)));
+            assertArrayEquals(data(i), operation.take(ids.get(i)));
+            assertNull(operation.take(ids.get(i)));
+        }
+        assertEquals(1, operation.list().count());
+        assertNull(operation.get("not-an-id"));
+        assertThrows(IllegalArgumentException.class, () -> operation.put("not-an-id", new byte[1]));
+    }
+
+    @Test
+    public void testSlabsAreRecycledOnceEmpty() {
+        for (int round = 0; round < 20; round++) {
+            List<String> ids = newIds(10);
+            for (int i = 0; i < ids.size(); i++) {
+                operation.put(ids.get(i), data(i));
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                assertArrayEquals(data(i), operation.take(ids.get(i)));
+            }
+        }
+
+        assertEquals(0, operation.size());
+        assertEquals(1, operation.getAllocatedSlabs());
+    }
+
+    @Test
+    public void testExpiredSlabsAreRecycled() {
+        List<String> old = newIds(40);
+        for (int i = 0; i < old.size(); i++) {
+            operation.put(old.get(i), data(i));
+        }
+        assertTrue(operation.isFull());
+        assertThrows(TooManyCeremoniesException.class, () -> operation.put(newIds(1).get(0), data(0)));
+
+        clock.advance(Duration.ofMinutes(5));
+        assertNull(operation.get(old.get(0)));
+        assertFalse(operation.isFull());
+
+        List<String> ids = newIds(30);
+        for (int i = 0; i < ids.size(); i++) {
+            operation.put(ids.get(i), data(i));
+        }
+        assertEquals(4, operation.getAllocatedSlabs());
+        assertTrue(operation.size() <= 40, "size " + operation.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertArrayEquals(data(i), operation.get(ids.get(i)));
+        }
+        assertNull(operation.take(old.get(39)));
+    }
+
+    @Test
+    public void testUsedWhenConfigured() {
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnConfig.class)
+                .withPropertyValues("webauthn.relyingPartyId=localhost", "webauthn.relyingPartyName=test",
+                        "webauthn.relyingPartyOrigins=http://localhost:8080", "webauthn.ceremony.store=OFF_HEAP")
+                .run(context -> {
+                    WebAuthnOperation<?, ?> ceremonies = ((InstrumentedWebAuthnOperation<?, ?>) context.getBean(WebAuthnConfig.REGISTRATION_CACHE, WebAuthnOperation.class)).getDelegate();
+                    assertInstanceOf(EncodedCeremonyOperation.class, ceremonies);
+                    assertInstanceOf(OffHeapCeremonyOperation.class, ((EncodedCeremonyOperation<?>) ceremonies).getDelegate());
+                });
+    }
+
+    private byte[] data(int i) {
+        byte[] data = new byte[100];
+        data[0] = (byte) i;
+        data[99] = (byte) -i;
+        return data;
+    }
+
+    private List<String> newIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[16];
+            random.nextBytes(bytes);
+            ids.add(Base64.getEncoder().encodeToString(bytes));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.webauthn.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentLongMapTest {
+
+    ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+
+    @Test
+    public void testPutGetRemove() {
+        for (long key = 0; key < 10_000; key++) {
+            assertNull(map.put(key, "v" + key));
+        }
+        assertEquals("v42", map.put(42, "replaced"));
+        assertEquals(10_000, map.size());
+
+        // removing every other key shifts the collisions back
+        for (long key = 0; key < 10_000; key += 2) {
+            assertEquals(key == 42 ? "replaced" : "v" + key, map.remove(key));
+        }
+        for (long key = 0; key < 10_000; key++) {
+            assertEquals(key % 2 == 0 ? null : "v" + key, map.get(key));
+        }
+        assertEquals(5_000, map.size());
+        assertEquals(5_000, map.values().size());
+    }
+
+    @Test
+    public void testConditionalOperations() {
+        String value = map.computeIfAbsent(-1, key -> "created");
+        assertSame(value, map.computeIfAbsent(-1, key -> "other"));
+
+        assertFalse(map.remove(-1, "other"));
+        assertTrue(map.remove(-1, "created"));
+        assertNull(map.get(-1));
+
+        assertEquals("computed", map.compute(-1, previous -> previous == null ? "computed" : "again"));
+        assertEquals("again", map.compute(-1, previous -> previous == null ? "computed" : "again"));
+        assertNull(map.compute(-1, previous -> null));
+        assertNull(map.get(-1));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testConcurrentWriters() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<Void>> writers = new ArrayList<>();
+            for (int writer = 0; writer < 8; writer++) {
+                long offset = writer * 100_000L;
+                writers.add(CompletableFuture.runAsync(() -> {
+                    for (long key = offset; key < offset + 10_000; key++) {
+                        map.put(key, "v");
+                        if (map.get(key) == null) {
+                            throw new IllegalStateException("lost " + key);
+                        }
+                    }
+                }, executor));
+            }
+            writers.forEach(CompletableFuture::join);
+            assertEquals(80_000, map.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
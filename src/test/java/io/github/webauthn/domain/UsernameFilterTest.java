@@ -0,0 +1,109 @@
+package io.github.webauthn.domain;
+
+import io.github.webauthn.flows.UnknownUsernameException;
+import io.github.webauthn.service.DefaultCredentialService;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UsernameFilterTest {
+
+    @Test
+    public void testAddedUsernamesAreAlwaysFound() {
+        UsernameFilter filter = new UsernameFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.add("user" + i));
+
+        assertTrue(IntStream.range(0, 10_000).allMatch(i -> filter.mightContain("user" + i)));
+        long falsePositives = IntStream.range(0, 100_000).filter(i -> filter.mightContain("bot" + i)).count();
+        assertTrue(falsePositives < 2_000, falsePositives + " false positives");
+    }
+
+    @Test
+    public void testRemovedUsernamesAreNoLongerFound() {
+        UsernameFilter filter = new UsernameFilter(1_000, 0.01);
+        filter.add("junit");
+        filter.add("other");
+        filter.remove("junit");
+
+        assertFalse(filter.mightContain("junit"));
+        assertTrue(filter.mightContain("other"));
+    }
+
+    @Test
+    public void testRepositoryFollowsSavesAndDeletes() {
+        FilteredWebAuthnUserRepository<DefaultWebAuthnUser> repository = new FilteredWebAuthnUserRepository<>(
+                new WebAuthnUserInMemoryRepository(), new UsernameFilter(1_000, 0.01));
+        DefaultWebAuthnUser user = newUser("junit");
+        repository.saveIfAbsent(user);
+        repository.save(user);
+        repository.saveAll(Stream.of(newUser("imported")));
+        assertTrue(repository.mightContainUsername("junit"));
+        assertTrue(repository.mightContainUsername("imported"));
+
+        repository.deleteById(user.getId());
+        repository.deleteById(repository.findByUsername("imported").orElseThrow().getId());
+        // saved twice, only removed once
+        assertTrue(repository.mightContainUsername("junit"));
+        assertFalse(repository.mightContainUsername("imported"));
+        assertFalse(repository.mightContainUsername(null));
+    }
+
+    @Test
+    public void testLoadAddsTheExistingUsernames() {
+        WebAuthnUserInMemoryRepository users = new WebAuthnUserInMemoryRepository();
+        IntStream.range(0, 100).forEach(i -> users.save(newUser("user" + i)));
+        FilteredWebAuthnUserRepository<DefaultWebAuthnUser> repository = new FilteredWebAuthnUserRepository<>(
+                users, new UsernameFilter(1_000, 0.01));
+        assertFalse(repository.mightContainUsername("user0"));
+
+        repository.load();
+        assertTrue(IntStream.range(0, 100).allMatch(i -> repository.mightContainUsername("user" + i)));
+    }
+
+    @Test
+    public void testUnknownUsernamesDoNotReachTheRepository() {
+        AtomicInteger lookups = new AtomicInteger();
+        WebAuthnUserInMemoryRepository users = new WebAuthnUserInMemoryRepository() {
+            @Override
+            public Optional<DefaultWebAuthnUser> findByUsername(String username) {
+                lookups.incrementAndGet();
+                return super.findByUsername(username);
+            }
+        };
+        FilteredWebAuthnUserRepository<DefaultWebAuthnUser> repository = new FilteredWebAuthnUserRepository<>(
+                users, new UsernameFilter(1_000, 0.01));
+        repository.save(newUser("junit"));
+        DefaultCredentialService service = new DefaultCredentialService(new WebAuthnCredentialsInMemoryRepository(), repository);
+
+        assertFalse(service.getUserHandleForUsername("bot").isPresent());
+        assertEquals(0, lookups.get());
+        assertTrue(service.getUserHandleForUsername("junit").isPresent());
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testUnknownUsernamesFailWithoutStackTrace() {
+        FilteredWebAuthnUserRepository<DefaultWebAuthnUser> repository = new FilteredWebAuthnUserRepository<>(
+                new WebAuthnUserInMemoryRepository(), new UsernameFilter(1_000, 0.01));
+        DefaultCredentialService service = new DefaultCredentialService(new WebAuthnCredentialsInMemoryRepository(), repository);
+
+        UnknownUsernameException e = assertThrows(UnknownUsernameException.class,
+                () -> service.getCredentialIdsForUsername("bot"));
+        assertEquals(0, e.getStackTrace().length);
+        assertFalse(service.getUserHandleForUsername("bot").isPresent());
+    }
+
+    private static DefaultWebAuthnUser newUser(String username) {
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername(username);
+        return user;
+    }
+}
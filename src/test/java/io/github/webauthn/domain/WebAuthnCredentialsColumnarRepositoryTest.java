@@ -0,0 +1,90 @@
+package io.github.webauthn.domain;
+
+import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebAuthnCredentialsColumnarRepositoryTest {
+
+    WebAuthnCredentialsColumnarRepository repository = new WebAuthnCredentialsColumnarRepository();
+
+    @Test
+    public void testViewsReadTheColumns() {
+        WebAuthnCredentials saved = repository.save(new byte[]{1, 2}, 7L, 3L, new byte[]{9, 9, 9}, "firefox");
+        repository.save(new byte[]{3, 4}, 7L, null, null, "firefox");
+
+        WebAuthnCredentials found = repository.findByCredentialIdAndAppUserId(new byte[]{1, 2}, 7L).orElseThrow();
+        assertEquals(saved, found);
+        assertArrayEquals(new byte[]{1, 2}, found.getCredentialId());
+        assertArrayEquals(new byte[]{9, 9, 9}, found.getPublicKeyCose());
+        assertEquals(7L, found.getAppUserId());
+        assertEquals(3L, found.getCount());
+        assertEquals("firefox", found.getUserAgent());
+
+        List<WebAuthnCredentials> credentials = repository.findAllByAppUserId(7L);
+        assertEquals(2, credentials.size());
+        assertArrayEquals(new byte[]{3, 4}, credentials.get(1).getCredentialId());
+        assertNull(credentials.get(1).getCount());
+        assertNull(credentials.get(1).getPublicKeyCose());
+    }
+
+    @Test
+    public void testSettersWriteThrough() {
+        WebAuthnCredentials saved = repository.save(new byte[]{1, 2}, 7L, 0L, new byte[]{9}, "firefox");
+
+        saved.setCount(42L);
+        assertSame(saved, repository.save(saved));
+        saved.setCredentialId(new byte[]{5, 6});
+        saved.setAppUserId(8L);
+
+        WebAuthnCredentials found = repository.findByCredentialId(new byte[]{5, 6}).get(0);
+        assertEquals(42L, found.getCount());
+        assertEquals(8L, found.getAppUserId());
+        assertTrue(repository.findByCredentialId(new byte[]{1, 2}).isEmpty());
+        assertTrue(repository.findAllByAppUserId(7L).isEmpty());
+    }
+
+    @Test
+    public void testDeletedRowsAreReusedAndTheirBytesReclaimed() {
+        byte[] cose = new byte[1000];
+        for (int round = 0; round < 5; round++) {
+            for (long user = 0; user < 1000; user++) {
+                repository.save(new byte[]{(byte) round, (byte) (user >> 8), (byte) user}, user, 0L, cose, "chrome");
+            }
+            for (long user = 0; user < 1000; user++) {
+                repository.deleteByAppUserId(user);
+            }
+        }
+        WebAuthnCredentials last = repository.save(new byte[]{1}, 1L, 0L, cose, "chrome");
+
+        assertEquals(1, repository.size());
+        assertArrayEquals(cose, last.getPublicKeyCose());
+        assertTrue(repository.getArenaBytes() <= 3L * WebAuthnCredentialsColumnarRepository.PAGE_SIZE);
+
+        repository.deleteById(last.getId());
+        assertThrows(IllegalStateException.class, last::getCount);
+    }
+
+    @Test
+    public void testSelectedByProperty() {
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnInMemoryAutoConfiguration.class)
+                .withPropertyValues("webauthn.credentials.store=COLUMNAR")
+                .run(context -> assertInstanceOf(WebAuthnCredentialsColumnarRepository.class,
+                        context.getBean(WebAuthnCredentialsRepository.class)));
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnInMemoryAutoConfiguration.class)
+                .run(context -> assertInstanceOf(WebAuthnCredentialsInMemoryRepository.class,
+                        context.getBean(WebAuthnCredentialsRepository.class)));
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.webauthn.domain;
+
+import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
+import io.github.webauthn.WebAuthnProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebAuthnCredentialsMappedRepositoryTest {
+
+    @TempDir
+    Path directory;
+
+    WebAuthnCredentialsMappedRepository repository;
+
+    @AfterEach
+    public void close() {
+        if (repository != null) {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testViewsReadTheMapping() {
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        WebAuthnCredentials saved = repository.save(new byte[]{1, 2}, 7L, 3L, new byte[]{9, 9, 9}, "firefox");
+        repository.save(new byte[]{3, 4}, 7L, null, null, null);
+
+        WebAuthnCredentials found = repository.findByCredentialIdAndAppUserId(new byte[]{1, 2}, 7L).orElseThrow();
+        assertEquals(saved, found);
+        assertArrayEquals(new byte[]{1, 2}, found.getCredentialId());
+        assertArrayEquals(new byte[]{9, 9, 9}, found.getPublicKeyCose());
+        assertEquals(7L, found.getAppUserId());
+        assertEquals(3L, found.getCount());
+        assertEquals("firefox", found.getUserAgent());
+
+        List<WebAuthnCredentials> credentials = repository.findAllByAppUserId(7L);
+        assertEquals(2, credentials.size());
+        assertArrayEquals(new byte[]{3, 4}, credentials.get(1).getCredentialId());
+        assertNull(credentials.get(1).getCount());
+        assertNull(credentials.get(1).getPublicKeyCose());
+        assertNull(credentials.get(1).getUserAgent());
+    }
+
+    @Test
+    public void testSettersWriteThrough() {
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        WebAuthnCredentials saved = repository.save(new byte[]{1, 2}, 7L, 0L, new byte[]{9}, "firefox");
+
+        saved.setCount(42L);
+        assertSame(saved, repository.save(saved));
+        saved.setCredentialId(new byte[]{5, 6});
+        saved.setAppUserId(8L);
+
+        WebAuthnCredentials found = repository.findByCredentialId(new byte[]{5, 6}).get(0);
+        assertEquals(42L, found.getCount());
+        assertEquals(8L, found.getAppUserId());
+        assertTrue(repository.findByCredentialId(new byte[]{1, 2}).isEmpty());
+        assertTrue(repository.findAllByAppUserId(7L).isEmpty());
+        assertEquals(1, repository.size());
+
+        repository.deleteById(saved.getId());
+        assertThrows(IllegalStateException.class, saved::getCount);
+    }
+
+    @Test
+    public void testCredentialsSurviveAReopen() {
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        byte[] cose = new byte[500];
+        cose[0] = 1;
+        // more than fit in a segment and in the initial indexes
+        for (long user = 1; user <= 1000; user++) {
+            repository.save(new byte[]{(byte) user, (byte) (user >> 8)}, user, user, cose, "chrome");
+        }
+        repository.deleteByAppUserId(2L);
+        repository.findAllByAppUserId(3L).get(0).setCount(33L);
+        repository.close();
+
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        assertEquals(999, repository.size());
+        assertTrue(repository.findAllByAppUserId(2L).isEmpty());
+        assertEquals(33L, repository.findAllByAppUserId(3L).get(0).getCount());
+        WebAuthnCredentials last = repository.findByCredentialId(new byte[]{(byte) 1000, (byte) (1000 >> 8)}).get(0);
+        assertEquals(1000L, last.getAppUserId());
+        assertArrayEquals(cose, last.getPublicKeyCose());
+        // the ids keep increasing after a reopen
+        assertEquals(1001L, repository.save(new byte[]{0}, 1L, null, null, null).getId());
+    }
+
+    @Test
+    public void testIndexesAreRebuiltAfterACrash() throws IOException {
+        WebAuthnCredentials saved;
+        try (WebAuthnCredentialsMappedRepository crashed = new WebAuthnCredentialsMappedRepository(directory, 4096)) {
+            saved = crashed.save(new byte[]{1}, 7L, 1L, new byte[]{2}, null);
+            saved.setUserAgent("safari");
+            crashed.save(new byte[]{3}, 8L, 1L, new byte[]{4}, null);
+            crashed.deleteByAppUserId(8L);
+            crashImage();
+        }
+
+        repository = new WebAuthnCredentialsMappedRepository(image(), 4096);
+        assertEquals(1, repository.size());
+        WebAuthnCredentials found = repository.findAllByAppUserId(7L).get(0);
+        assertEquals(saved.getId(), found.getId());
+        assertEquals("safari", found.getUserAgent());
+        assertTrue(repository.findByCredentialId(new byte[]{3}).isEmpty());
+    }
+
+    @Test
+    public void testASecondOpenOfTheDirectoryIsRefused() {
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        repository.save(new byte[]{1}, 7L, 1L, new byte[]{2}, null);
+
+        IllegalStateException refused = assertThrows(IllegalStateException.class,
+                () -> new WebAuthnCredentialsMappedRepository(directory, 4096));
+        assertTrue(refused.getMessage().contains("already used by another process"));
+        assertEquals(1, repository.findAllByAppUserId(7L).size());
+
+        repository.close();
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        assertEquals(1, repository.findAllByAppUserId(7L).size());
+    }
+
+    @Test
+    public void testLastAppUserIdSurvivesAReopenAndACrash() throws IOException {
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        repository.save(new byte[]{1}, 3L, null, null, null);
+        repository.save(new byte[]{2}, 9L, null, null, null);
+        // the owner is gone with its credentials, its id is still taken
+        repository.deleteByAppUserId(9L);
+        assertEquals(9L, repository.lastAppUserId());
+        repository.close();
+
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        assertEquals(9L, repository.lastAppUserId());
+        repository.save(new byte[]{3}, 12L, null, null, null);
+        crashImage();
+        repository.close();
+
+        repository = new WebAuthnCredentialsMappedRepository(image(), 4096);
+        assertEquals(12L, repository.lastAppUserId());
+    }
+
+    @Test
+    public void testNewUsersDoNotGetTheCredentialsOfLostUsers() {
+        WebAuthnUserInMemoryRepository users = new WebAuthnUserInMemoryRepository();
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        DefaultWebAuthnUser lost = users.save(user("lost"));
+        repository.save(new byte[]{1}, lost.getId(), 1L, new byte[]{2}, null);
+        repository.close();
+
+        // the users were not kept, like the in-memory ones after a restart
+        WebAuthnUserInMemoryRepository restarted = new WebAuthnUserInMemoryRepository();
+        repository = new WebAuthnCredentialsMappedRepository(directory, 4096);
+        restarted.reserveIdsUpTo(repository.lastAppUserId());
+        DefaultWebAuthnUser user = restarted.save(user("new"));
+
+        assertTrue(user.getId() > lost.getId());
+        assertTrue(repository.findAllByAppUserId(user.getId()).isEmpty());
+        assertEquals(1, repository.findAllByAppUserId(lost.getId()).size());
+    }
+
+    @Test
+    public void testSelectedByProperty() {
+        WebAuthnProperties properties = new WebAuthnProperties();
+        properties.getCredentials().setDirectory(directory.resolve("credentials"));
+        properties.getPersistence().setEnabled(true);
+        properties.getPersistence().setDirectory(directory.resolve("data"));
+        properties.getPersistence().setSnapshotInterval(null);
+        ApplicationContextRunner runner = new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnInMemoryAutoConfiguration.class)
+                .withBean(WebAuthnProperties.class, () -> properties)
+                .withPropertyValues("webauthn.credentials.store=MAPPED", "webauthn.persistence.enabled=true");
+        long[] deleted = new long[1];
+        runner.run(context -> {
+            assertInstanceOf(WebAuthnCredentialsMappedRepository.class, context.getBean(WebAuthnCredentialsRepository.class));
+            WebAuthnUserInMemoryRepository users = context.getBean(WebAuthnUserInMemoryRepository.class);
+            DefaultWebAuthnUser user = users.save(user("deleted"));
+            context.getBean(WebAuthnCredentialsRepository.class).save(new byte[]{1}, user.getId(), 1L, new byte[]{2}, null);
+            users.deleteById(user.getId());
+            // the snapshot no longer has the user, nor its id
+            context.getBean(WebAuthnJournal.class).snapshot();
+            deleted[0] = user.getId();
+        });
+
+        runner.run(context -> {
+            DefaultWebAuthnUser user = context.getBean(WebAuthnUserInMemoryRepository.class).save(user("new"));
+            assertTrue(user.getId() > deleted[0]);
+            assertTrue(context.getBean(WebAuthnCredentialsRepository.class).findAllByAppUserId(user.getId()).isEmpty());
+        });
+    }
+
+    @Test
+    public void testInMemoryUsersRequirePersistence() {
+        WebAuthnProperties properties = new WebAuthnProperties();
+        properties.getCredentials().setDirectory(directory);
+        new ApplicationContextRunner()
+                .withUserConfiguration(WebAuthnInMemoryAutoConfiguration.class)
+                .withBean(WebAuthnProperties.class, () -> properties)
+                .withPropertyValues("webauthn.credentials.store=MAPPED")
+                .run(context -> assertInstanceOf(IllegalStateException.class, rootCause(context.getStartupFailure())));
+    }
+
+    /**
+     * Copies the files of the open repository, as a crash would leave them
+     */
+    private void crashImage() throws IOException {
+        Path image = Files.createDirectories(image());
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                if (!file.getFileName().toString().endsWith(".lock")) {
+                    Files.copy(file, image.resolve(file.getFileName()));
+                }
+            }
+        }
+    }
+
+    private Path image() {
+        return directory.resolve("crashed");
+    }
+
+    private static Throwable rootCause(Throwable failure) {
+        while (failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    private static DefaultWebAuthnUser user(String username) {
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername(username);
+        return user;
+    }
+}
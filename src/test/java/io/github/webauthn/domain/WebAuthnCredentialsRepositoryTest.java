@@ -0,0 +1,90 @@
+package io.github.webauthn.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebAuthnCredentialsRepositoryTest {
+
+    WebAuthnCredentialsInMemoryRepository repository = new WebAuthnCredentialsInMemoryRepository();
+
+    @Test
+    public void testFindByCredentialId() {
+        DefaultWebAuthnCredentials first = repository.save(new byte[]{1, 2}, 1L, 0L, new byte[]{9}, "junit");
+        repository.save(new byte[]{3, 4}, 1L, 0L, new byte[]{9}, "junit");
+        repository.save(new byte[]{5, 6}, 2L, 0L, new byte[]{9}, "junit");
+
+        assertEquals(first.getId(), repository.findByCredentialId(new byte[]{1, 2}).get(0).getId());
+        assertEquals(first.getId(), repository.findByCredentialIdAndAppUserId(new byte[]{1, 2}, 1L).orElseThrow().getId());
+        assertFalse(repository.findByCredentialIdAndAppUserId(new byte[]{1, 2}, 2L).isPresent());
+        assertTrue(repository.findByCredentialId(new byte[]{7}).isEmpty());
+    }
+
+    @Test
+    public void testDeletedCredentialsAreNoLongerFound() {
+        DefaultWebAuthnCredentials first = repository.save(new byte[]{1, 2}, 1L, 0L, new byte[]{9}, "junit");
+        repository.save(new byte[]{3, 4}, 2L, 0L, new byte[]{9}, "junit");
+
+        repository.deleteById(first.getId());
+        repository.deleteByAppUserId(2L);
+
+        assertTrue(repository.findByCredentialId(new byte[]{1, 2}).isEmpty());
+        assertTrue(repository.findByCredentialId(new byte[]{3, 4}).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentSavesOfOneUserAreAllKept() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<DefaultWebAuthnCredentials>> saves = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] credentialId = {(byte) (i >> 8), (byte) i};
+                saves.add(CompletableFuture.supplyAsync(() ->
+                        repository.save(credentialId, 1L, 0L, new byte[]{9}, "junit"), executor));
+            }
+            List<DefaultWebAuthnCredentials> saved = saves.stream().map(CompletableFuture::join).toList();
+            assertEquals(1000, repository.findAllByAppUserId(1L).size());
+
+            List<CompletableFuture<Void>> deletes = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                Long id = saved.get(i).getId();
+                deletes.add(CompletableFuture.runAsync(() -> repository.deleteById(id), executor));
+            }
+            deletes.forEach(CompletableFuture::join);
+            assertEquals(500, repository.findAllByAppUserId(1L).size());
+            assertTrue(repository.findByCredentialId(new byte[]{0, 1}).isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeleteAllByIdRevokesAcrossUsers() {
+        List<Long> revoked = new ArrayList<>();
+        for (long user = 1; user <= 3; user++) {
+            for (int i = 0; i < 3; i++) {
+                DefaultWebAuthnCredentials saved = repository.save(new byte[]{(byte) user, (byte) i}, user, 0L, new byte[]{9}, "junit");
+                if (i > 0 || user == 3) {
+                    revoked.add(saved.getId());
+                }
+            }
+        }
+        revoked.add(-1L);
+
+        repository.deleteAllById(revoked);
+
+        assertEquals(1, repository.findAllByAppUserId(1L).size());
+        assertEquals(1, repository.findAllByAppUserId(2L).size());
+        assertTrue(repository.findAllByAppUserId(3L).isEmpty());
+        assertTrue(repository.findByCredentialId(new byte[]{1, 1}).isEmpty());
+        assertFalse(repository.findByCredentialId(new byte[]{2, 0}).isEmpty());
+    }
+}
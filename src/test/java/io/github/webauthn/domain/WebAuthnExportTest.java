@@ -0,0 +1,145 @@
+package io.github.webauthn.domain;
+
+import io.github.webauthn.WebAuthnBulkRunner;
+import io.github.webauthn.WebAuthnProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebAuthnExportTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testUsersRoundTrip() throws IOException {
+        WebAuthnUserInMemoryRepository users = new WebAuthnUserInMemoryRepository();
+        for (int i = 0; i < 10_000; i++) {
+            DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+            user.setUsername("user" + i);
+            user.setEnabled(i % 2 == 0);
+            user.setAddToken(new byte[]{(byte) i});
+            user.setRegistrationAddStart(LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(i));
+            users.save(user);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        users.exportAll(out);
+
+        WebAuthnUserInMemoryRepository imported = new WebAuthnUserInMemoryRepository();
+        try (Stream<DefaultWebAuthnUser> read = WebAuthnExport.readUsers(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals(10_000, read.spliterator().estimateSize());
+        }
+        imported.saveAll(WebAuthnExport.readUsers(new ByteArrayInputStream(out.toByteArray())));
+
+        DefaultWebAuthnUser user = imported.findByUsername("user42").orElseThrow();
+        assertEquals(users.findByUsername("user42").orElseThrow().getId(), user.getId());
+        assertTrue(user.isEnabled());
+        assertArrayEquals(new byte[]{42}, user.getAddToken());
+        assertEquals(LocalDateTime.of(2024, 1, 1, 0, 0, 42), user.getRegistrationAddStart());
+        assertEquals(10_000, imported.findAll().size());
+        // the ids keep increasing after an import
+        assertEquals(10_001L, imported.save(new DefaultWebAuthnUser()).getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCredentialsMoveBetweenRepositories() throws IOException {
+        WebAuthnCredentialsInMemoryRepository memory = new WebAuthnCredentialsInMemoryRepository();
+        for (long user = 1; user <= 5_000; user++) {
+            memory.save(new byte[]{(byte) user, (byte) (user >> 8)}, user, user, new byte[]{1, 2, 3}, user % 2 == 0 ? "firefox" : null);
+        }
+        WebAuthnCredentialsColumnarRepository columnar = new WebAuthnCredentialsColumnarRepository();
+        WebAuthnCredentialsRepository<?>[] repositories = {columnar, new WebAuthnCredentialsMappedRepository(directory, 1 << 16),
+                new WebAuthnCredentialsInMemoryRepository()};
+
+        WebAuthnCredentialsRepository<?> source = memory;
+        for (WebAuthnCredentialsRepository<?> target : repositories) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            source.exportAll(out);
+            ((WebAuthnCredentialsRepository) target).saveAll(WebAuthnExport.readCredentials(new ByteArrayInputStream(out.toByteArray())));
+
+            List<? extends WebAuthnCredentials> found = target.findByCredentialId(new byte[]{(byte) 4000, (byte) (4000 >> 8)});
+            assertEquals(1, found.size());
+            assertEquals(4000L, found.get(0).getAppUserId());
+            assertEquals(4000L, found.get(0).getCount());
+            assertEquals("firefox", found.get(0).getUserAgent());
+            assertArrayEquals(new byte[]{1, 2, 3}, found.get(0).getPublicKeyCose());
+            assertNull(target.findAllByAppUserId(4001L).get(0).getUserAgent());
+            assertEquals(memory.findAllByAppUserId(4001L).get(0).getId(), target.findAllByAppUserId(4001L).get(0).getId());
+            source = target;
+        }
+        assertEquals(5_000, columnar.size());
+        ((WebAuthnCredentialsMappedRepository) repositories[1]).close();
+    }
+
+    @Test
+    public void testReadingTheWrongKindIsRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new WebAuthnUserInMemoryRepository().exportAll(out);
+        assertThrows(IllegalArgumentException.class,
+                () -> WebAuthnExport.readCredentials(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void testImportIsJournaledInBatches() throws IOException {
+        WebAuthnCredentialsInMemoryRepository source = new WebAuthnCredentialsInMemoryRepository();
+        for (long i = 1; i <= 10_000; i++) {
+            source.save(new byte[]{(byte) i, (byte) (i >> 8)}, i % 100, 0L, null, null);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.exportAll(out);
+
+        WebAuthnCredentialsInMemoryRepository credentials = new WebAuthnCredentialsInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, new WebAuthnUserInMemoryRepository(), credentials)) {
+            credentials.saveAll(WebAuthnExport.readCredentials(new ByteArrayInputStream(out.toByteArray())));
+        }
+        WebAuthnCredentialsInMemoryRepository restored = new WebAuthnCredentialsInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, new WebAuthnUserInMemoryRepository(), restored)) {
+            assertEquals(10_000, restored.findAll().size());
+            assertEquals(100, restored.findAllByAppUserId(42L).size());
+        }
+    }
+
+    @Test
+    public void testRunnerImportsThenExports() throws Exception {
+        WebAuthnUserInMemoryRepository source = new WebAuthnUserInMemoryRepository();
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername("junit");
+        source.save(user);
+        Path users = directory.resolve("users.bin");
+        try (OutputStream out = Files.newOutputStream(users)) {
+            source.exportAll(out);
+        }
+
+        WebAuthnProperties.Bulk bulk = new WebAuthnProperties.Bulk();
+        bulk.setImportUsers(users);
+        bulk.setExportUsers(directory.resolve("export/users.bin"));
+        bulk.setExportCredentials(directory.resolve("export/credentials.bin"));
+        WebAuthnUserInMemoryRepository imported = new WebAuthnUserInMemoryRepository();
+        new WebAuthnBulkRunner(bulk, imported, new WebAuthnCredentialsInMemoryRepository()).run(null);
+
+        assertTrue(imported.findByUsername("junit").isPresent());
+        try (InputStream in = Files.newInputStream(bulk.getExportUsers())) {
+            assertEquals(List.of("junit"), WebAuthnExport.readUsers(in).map(DefaultWebAuthnUser::getUsername).toList());
+        }
+        try (InputStream in = Files.newInputStream(bulk.getExportCredentials())) {
+            assertEquals(0, WebAuthnExport.readCredentials(in).count());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package io.github.webauthn.domain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebAuthnJournalTest {
+
+    @TempDir
+    Path directory;
+
+    WebAuthnUserInMemoryRepository users = new WebAuthnUserInMemoryRepository();
+    WebAuthnCredentialsInMemoryRepository credentials = new WebAuthnCredentialsInMemoryRepository();
+
+    @Test
+    public void testChangesAreReplayedAfterARestart() {
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, users, credentials)) {
+            DefaultWebAuthnUser user = user("junit");
+            user.setAddToken(new byte[]{1, 2, 3});
+            user.setRegistrationAddStart(LocalDateTime.of(2024, 1, 2, 3, 4, 5, 6));
+            users.save(user);
+            credentials.save(new byte[]{4}, user.getId(), 1L, new byte[]{5, 6}, "firefox");
+            DefaultWebAuthnCredentials deleted = credentials.save(new byte[]{7}, user.getId(), 1L, new byte[]{8}, null);
+            credentials.deleteById(deleted.getId());
+            users.deleteById(users.save(user("deleted")).getId());
+        }
+
+        WebAuthnUserInMemoryRepository restoredUsers = new WebAuthnUserInMemoryRepository();
+        WebAuthnCredentialsInMemoryRepository restoredCredentials = new WebAuthnCredentialsInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, restoredUsers, restoredCredentials)) {
+            DefaultWebAuthnUser user = restoredUsers.findByUsername("junit").orElseThrow();
+            assertArrayEquals(new byte[]{1, 2, 3}, user.getAddToken());
+            assertEquals(LocalDateTime.of(2024, 1, 2, 3, 4, 5, 6), user.getRegistrationAddStart());
+            assertNull(user.getRecoveryToken());
+            assertFalse(restoredUsers.findByUsername("deleted").isPresent());
+
+            List<DefaultWebAuthnCredentials> found = restoredCredentials.findAllByAppUserId(user.getId());
+            assertEquals(1, found.size());
+            assertArrayEquals(new byte[]{5, 6}, found.get(0).getPublicKeyCose());
+            assertEquals("firefox", found.get(0).getUserAgent());
+            assertEquals(1, restoredCredentials.findByCredentialId(new byte[]{4}).size());
+
+            // the ids keep increasing after a restart
+            assertTrue(restoredUsers.save(user("new")).getId() > user.getId());
+        }
+    }
+
+    @Test
+    public void testConcurrentSavesAreReplayedInTheOrderTheyWereApplied() {
+        long userId;
+        long credentialsId;
+        long count;
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, users, credentials)) {
+            DefaultWebAuthnUser user = users.save(user("junit"));
+            userId = user.getId();
+            credentialsId = credentials.save(new byte[]{1}, userId, 0L, new byte[]{1}, null).getId();
+            // each thread saves its own instances, like the assertions do with the credentials
+            List<CompletableFuture<Void>> logins = IntStream.range(0, 8)
+                    .mapToObj(thread -> CompletableFuture.runAsync(() -> {
+                        for (int i = 0; i < 200; i++) {
+                            DefaultWebAuthnCredentials saved = new DefaultWebAuthnCredentials(new byte[]{1}, userId,
+                                    (long) thread * 1000 + i, new byte[]{1}, null);
+                            saved.setId(credentialsId);
+                            credentials.save(saved);
+                            DefaultWebAuthnUser renamed = user("junit");
+                            renamed.setId(userId);
+                            renamed.setFirstName("junit" + thread + "-" + i);
+                            users.save(renamed);
+                        }
+                    }))
+                    .toList();
+            logins.forEach(CompletableFuture::join);
+            count = credentials.findAllByAppUserId(userId).get(0).getCount();
+        }
+
+        WebAuthnUserInMemoryRepository restoredUsers = new WebAuthnUserInMemoryRepository();
+        WebAuthnCredentialsInMemoryRepository restoredCredentials = new WebAuthnCredentialsInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, restoredUsers, restoredCredentials)) {
+            List<DefaultWebAuthnCredentials> found = restoredCredentials.findAllByAppUserId(userId);
+            assertEquals(1, found.size());
+            assertEquals(credentialsId, found.get(0).getId());
+            assertEquals(count, found.get(0).getCount());
+            assertEquals(users.findById(userId).orElseThrow().getFirstName(),
+                    restoredUsers.findById(userId).orElseThrow().getFirstName());
+        }
+    }
+
+    @Test
+    public void testSnapshotReplacesTheOlderJournals() throws IOException {
+        try (WebAuthnJournal journal = new WebAuthnJournal(directory, null, users, credentials)) {
+            DefaultWebAuthnUser user = users.save(user("junit"));
+            credentials.save(new byte[]{1}, user.getId(), 1L, new byte[]{1}, null);
+            journal.snapshot();
+            credentials.save(new byte[]{2}, user.getId(), 1L, new byte[]{2}, null);
+            credentials.deleteByAppUserId(user.getId());
+            credentials.save(new byte[]{3}, user.getId(), 1L, new byte[]{3}, null);
+        }
+        assertEquals(1, journals().size());
+
+        WebAuthnUserInMemoryRepository restoredUsers = new WebAuthnUserInMemoryRepository();
+        WebAuthnCredentialsInMemoryRepository restoredCredentials = new WebAuthnCredentialsInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, restoredUsers, restoredCredentials)) {
+            DefaultWebAuthnUser user = restoredUsers.findByUsername("junit").orElseThrow();
+            List<DefaultWebAuthnCredentials> found = restoredCredentials.findAllByAppUserId(user.getId());
+            assertEquals(1, found.size());
+            assertArrayEquals(new byte[]{3}, found.get(0).getCredentialId());
+        }
+    }
+
+    @Test
+    public void testASecondJournalOnTheDirectoryIsRefused() {
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, users, credentials)) {
+            users.save(user("junit"));
+
+            WebAuthnUserInMemoryRepository otherUsers = new WebAuthnUserInMemoryRepository();
+            IllegalStateException refused = assertThrows(IllegalStateException.class, () -> new WebAuthnJournal(directory,
+                    null, otherUsers, new WebAuthnCredentialsInMemoryRepository()));
+            assertTrue(refused.getMessage().contains("already used by another process"));
+            users.save(user("after"));
+        }
+
+        WebAuthnUserInMemoryRepository restoredUsers = new WebAuthnUserInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, restoredUsers, new WebAuthnCredentialsInMemoryRepository())) {
+            assertTrue(restoredUsers.findByUsername("junit").isPresent());
+            assertTrue(restoredUsers.findByUsername("after").isPresent());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, users, credentials)) {
+            users.save(user("junit"));
+        }
+        // a crash in the middle of an append leaves half a record at the end of the journal
+        Files.write(journals().get(0), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        WebAuthnUserInMemoryRepository restoredUsers = new WebAuthnUserInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, restoredUsers, credentials)) {
+            assertTrue(restoredUsers.findByUsername("junit").isPresent());
+            restoredUsers.save(user("after"));
+        }
+
+        WebAuthnUserInMemoryRepository again = new WebAuthnUserInMemoryRepository();
+        try (WebAuthnJournal ignored = new WebAuthnJournal(directory, null, again, new WebAuthnCredentialsInMemoryRepository())) {
+            assertTrue(again.findByUsername("junit").isPresent());
+            assertTrue(again.findByUsername("after").isPresent());
+        }
+    }
+
+    private List<Path> journals() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-")).sorted().toList();
+        }
+    }
+
+    private static DefaultWebAuthnUser user(String username) {
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername(username);
+        user.setEnabled(true);
+        return user;
+    }
+}
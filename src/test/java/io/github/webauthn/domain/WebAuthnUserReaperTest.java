@@ -0,0 +1,122 @@
+package io.github.webauthn.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebAuthnUserReaperTest {
+
+    MutableClock clock = new MutableClock();
+    WebAuthnUserInMemoryRepository users = new WebAuthnUserInMemoryRepository(clock);
+    WebAuthnCredentialsInMemoryRepository credentials = new WebAuthnCredentialsInMemoryRepository();
+    WebAuthnUserReaper reaper = new WebAuthnUserReaper(users, credentials, Duration.ofHours(1), null, 2, clock);
+
+    @Test
+    public void testAbandonedUsersAreDeletedAfterTheGracePeriod() {
+        users.saveIfAbsent(user("abandoned1", false));
+        users.saveIfAbsent(user("abandoned2", false));
+        users.saveNewUser(user(null, false));
+        users.saveIfAbsent(user("enabled", true));
+        DefaultWebAuthnUser finished = users.saveIfAbsent(user("finished", false));
+        DefaultWebAuthnUser withCredentials = users.saveIfAbsent(user("withCredentials", false));
+        credentials.save(new byte[]{1}, withCredentials.getId(), 0L, null, null);
+        clock.advance(Duration.ofMinutes(30));
+        users.saveIfAbsent(user("recent", false));
+        finished.setEnabled(true);
+        users.save(finished);
+
+        assertEquals(0, reaper.reap());
+        clock.advance(Duration.ofMinutes(31));
+        // the batches hold 2 users, they are repeated until nothing is left to delete
+        assertEquals(3, reaper.reap());
+
+        assertFalse(users.findByUsername("abandoned1").isPresent());
+        assertFalse(users.findByUsername("abandoned2").isPresent());
+        assertTrue(users.findByUsername("enabled").isPresent());
+        assertTrue(users.findByUsername("finished").isPresent());
+        assertTrue(users.findByUsername("withCredentials").isPresent());
+        assertTrue(users.findByUsername("recent").isPresent());
+
+        clock.advance(Duration.ofMinutes(30));
+        assertEquals(1, reaper.reap());
+        assertFalse(users.findByUsername("recent").isPresent());
+        assertTrue(users.findByUsername("withCredentials").isPresent());
+    }
+
+    @Test
+    public void testUsersSavedOutsideOfSignupsAreKept() {
+        DefaultWebAuthnUser provisioned = users.save(user("provisioned", false));
+        users.saveAll(Stream.of(user("imported", false)));
+        clock.advance(Duration.ofHours(2));
+
+        assertEquals(0, reaper.reap());
+        assertTrue(users.findById(provisioned.getId()).isPresent());
+        assertTrue(users.findByUsername("imported").isPresent());
+    }
+
+    @Test
+    public void testCreationTimeIsKeptAcrossSaves() {
+        DefaultWebAuthnUser user = users.saveIfAbsent(user("junit", false));
+        clock.advance(Duration.ofMinutes(50));
+        user.setFirstName("changed");
+        users.save(user);
+        clock.advance(Duration.ofMinutes(11));
+
+        assertEquals(1, reaper.reap());
+        assertFalse(users.findById(user.getId()).isPresent());
+    }
+
+    @Test
+    public void testRetriedSignupStartsTheGracePeriodOver() {
+        DefaultWebAuthnUser user = users.saveIfAbsent(user("junit", false));
+        clock.advance(Duration.ofHours(2));
+
+        assertSame(user, users.saveIfAbsent(user("junit", false)));
+        assertEquals(0, reaper.reap());
+        assertTrue(users.findById(user.getId()).isPresent());
+
+        clock.advance(Duration.ofMinutes(61));
+        assertEquals(1, reaper.reap());
+        assertFalse(users.findById(user.getId()).isPresent());
+    }
+
+    private static DefaultWebAuthnUser user(String username, boolean enabled) {
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername(username);
+        user.setEnabled(enabled);
+        return user;
+    }
+
+    static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2023-11-01T10:15:30.00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package io.github.webauthn.domain;
 
 import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
+import io.github.webauthn.flows.UsernameAlreadyExistsException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,9 +11,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 @SpringBootTest(classes = {WebAuthnInMemoryAutoConfiguration.class, WebAuthnConfig.class})
@@ -21,6 +35,16 @@ class WebAuthnUserRepositoryTest {
     @Autowired
     WebAuthnUserRepository userRepository;
 
+    @BeforeEach
+    void renameJunitUser() {
+        // the context is shared by the tests, each one saves its own junit user and usernames are unique
+        Optional<DefaultWebAuthnUser> user = userRepository.findByUsername("junit");
+        user.ifPresent(u -> {
+            u.setUsername("junit-" + u.getId());
+            userRepository.save(u);
+        });
+    }
+
     @Test
     public void test() {
         DefaultWebAuthnUser user = new DefaultWebAuthnUser();
@@ -66,4 +90,218 @@ class WebAuthnUserRepositoryTest {
 
         assertNotNull(user.getId());
     }
+
+    @Test
+    public void testFindByRecoveryToken() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        DefaultWebAuthnUser user = newUser("junit");
+        user.setRecoveryToken(new byte[]{1, 2, 3});
+        repository.save(user);
+
+        assertSame(user, repository.findByRecoveryToken(new byte[]{1, 2, 3}).orElseThrow());
+        assertFalse(repository.findByRecoveryToken(new byte[]{4, 5, 6}).isPresent());
+        assertFalse(repository.findByRecoveryToken(null).isPresent());
+
+        user.setRecoveryToken(new byte[]{4, 5, 6});
+        repository.save(user);
+        assertFalse(repository.findByRecoveryToken(new byte[]{1, 2, 3}).isPresent());
+        assertSame(user, repository.findByRecoveryToken(new byte[]{4, 5, 6}).orElseThrow());
+    }
+
+    @Test
+    public void testFindByAddTokenAfterSavingANewToken() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        LocalDateTime now = LocalDateTime.now();
+        DefaultWebAuthnUser user = newUser("junit");
+        user.setAddToken(new byte[]{1});
+        user.setRegistrationAddStart(now);
+        repository.save(user);
+
+        user.setAddToken(new byte[]{2});
+        user.setRegistrationAddStart(now.plusSeconds(1));
+        repository.save(user);
+
+        assertFalse(repository.findByAddTokenAndRegistrationAddStartAfter(new byte[]{1}, now.minusMinutes(10)).isPresent());
+        assertSame(user, repository.findByAddTokenAndRegistrationAddStartAfter(new byte[]{2}, now.minusMinutes(10)).orElseThrow());
+    }
+
+    @Test
+    public void testExpiredAddTokensAreDroppedTogether() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        LocalDateTime now = LocalDateTime.now();
+        List<DefaultWebAuthnUser> expired = IntStream.range(0, 10)
+                .mapToObj(i -> {
+                    DefaultWebAuthnUser user = newUser("expired" + i);
+                    user.setAddToken(new byte[]{(byte) i});
+                    user.setRegistrationAddStart(now.minusMinutes(20 + i));
+                    return repository.save(user);
+                })
+                .toList();
+        DefaultWebAuthnUser fresh = newUser("fresh");
+        fresh.setAddToken(new byte[]{42});
+        fresh.setRegistrationAddStart(now);
+        repository.save(fresh);
+
+        assertSame(fresh, repository.findByAddTokenAndRegistrationAddStartAfter(new byte[]{42}, now.minusMinutes(10)).orElseThrow());
+        for (int i = 0; i < expired.size(); i++) {
+            assertFalse(repository.findByAddTokenAndRegistrationAddStartAfter(new byte[]{(byte) i}, now.minusMinutes(30)).isPresent());
+            // only the index entries are dropped, the saved users are left alone
+            assertNotNull(expired.get(i).getAddToken());
+            assertNotNull(expired.get(i).getRegistrationAddStart());
+        }
+    }
+
+    @Test
+    public void testFindByUsernameFollowsRenamesAndDeletes() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername("before");
+        repository.save(user);
+
+        user.setUsername("after");
+        repository.save(user);
+        assertFalse(repository.findByUsername("before").isPresent());
+        assertEquals(user.getId(), repository.findByUsername("after").orElseThrow().getId());
+
+        repository.deleteById(user.getId());
+        assertFalse(repository.findByUsername("after").isPresent());
+        assertFalse(repository.findByUsername(null).isPresent());
+    }
+
+    @Test
+    public void testSaveDoesNotTakeTheUsernameOfAnotherUserOver() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        DefaultWebAuthnUser owner = newUser("junit");
+        repository.save(owner);
+
+        DefaultWebAuthnUser user = newUser("junit");
+        assertThrows(UsernameAlreadyExistsException.class, () -> repository.save(user));
+        assertNull(user.getId());
+        assertThrows(UsernameAlreadyExistsException.class, () -> repository.saveAll(Stream.of(newUser("junit"))));
+
+        DefaultWebAuthnUser other = newUser("other");
+        repository.save(other);
+        DefaultWebAuthnUser renamed = newUser("junit");
+        renamed.setId(other.getId());
+        assertThrows(UsernameAlreadyExistsException.class, () -> repository.save(renamed));
+
+        assertSame(owner, repository.findByUsername("junit").orElseThrow());
+        assertSame(other, repository.findByUsername("other").orElseThrow());
+        assertEquals(2, repository.findAll().size());
+
+        // the username is free again once its owner is renamed
+        owner.setUsername("former");
+        repository.save(owner);
+        repository.save(renamed);
+        assertEquals(renamed.getId(), repository.findByUsername("junit").orElseThrow().getId());
+        assertFalse(repository.findByUsername("other").isPresent());
+    }
+
+    @Test
+    public void testConcurrentSignupsOfAUsernameCreateOneUser() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<DefaultWebAuthnUser>> signups = IntStream.range(0, 8)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+                    DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+                    user.setUsername("junit");
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return repository.saveIfAbsent(user);
+                }))
+                .toList();
+        // the users that lose the race are never stored, not even for a moment
+        CompletableFuture<Integer> mostSeen = CompletableFuture.supplyAsync(() -> {
+            int most = 0;
+            while (!signups.stream().allMatch(CompletableFuture::isDone)) {
+                most = Math.max(most, repository.findAll().size());
+            }
+            return most;
+        });
+        start.countDown();
+
+        DefaultWebAuthnUser owner = signups.get(0).join();
+        signups.forEach(signup -> assertSame(owner, signup.join()));
+        assertEquals(1, repository.findAll().size());
+        assertTrue(mostSeen.join() <= 1);
+        assertEquals(owner.getId(), repository.findByUsername("junit").orElseThrow().getId());
+    }
+
+    @Test
+    public void testSaveIfAbsentTakesOverADeletedUsername() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository();
+        DefaultWebAuthnUser deleted = new DefaultWebAuthnUser();
+        deleted.setUsername("junit");
+        repository.saveIfAbsent(deleted);
+        repository.deleteById(deleted.getId());
+
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername("junit");
+        assertSame(user, repository.saveIfAbsent(user));
+        assertSame(user, repository.saveIfAbsent(newUser("junit")));
+        assertEquals(user.getId(), repository.findByUsername("junit").orElseThrow().getId());
+    }
+
+    @Test
+    public void testSaveIfAbsentReleasesTheUsernameOfAFailedSave() {
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository() {
+            private boolean failed;
+
+            @Override
+            public DefaultWebAuthnUser save(DefaultWebAuthnUser user) {
+                if (!failed) {
+                    failed = true;
+                    throw new IllegalStateException("junit");
+                }
+                return super.save(user);
+            }
+        };
+        DefaultWebAuthnUser failed = newUser("junit");
+        assertThrows(IllegalStateException.class, () -> repository.saveIfAbsent(failed));
+        assertNull(failed.getId());
+
+        DefaultWebAuthnUser user = newUser("junit");
+        assertSame(user, repository.saveIfAbsent(user));
+        assertEquals(user.getId(), repository.findByUsername("junit").orElseThrow().getId());
+    }
+
+    @Test
+    public void testSaveIfAbsentStopsWaitingForAStalledSignup() throws Exception {
+        CountDownLatch reserved = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        WebAuthnUserInMemoryRepository repository = new WebAuthnUserInMemoryRepository() {
+            @Override
+            public DefaultWebAuthnUser save(DefaultWebAuthnUser user) {
+                if (reserved.getCount() > 0) {
+                    reserved.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.save(user);
+            }
+        };
+        DefaultWebAuthnUser stalled = newUser("junit");
+        CompletableFuture<DefaultWebAuthnUser> signup = CompletableFuture.supplyAsync(() -> repository.saveIfAbsent(stalled));
+        reserved.await();
+
+        long started = System.nanoTime();
+        assertThrows(UsernameAlreadyExistsException.class, () -> repository.saveIfAbsent(newUser("junit")));
+        assertTrue(System.nanoTime() - started >= WebAuthnUserInMemoryRepository.RESERVATION_WAIT_NANOS);
+
+        resume.countDown();
+        assertSame(stalled, signup.join());
+        assertSame(stalled, repository.saveIfAbsent(newUser("junit")));
+    }
+
+    private static DefaultWebAuthnUser newUser(String username) {
+        DefaultWebAuthnUser user = new DefaultWebAuthnUser();
+        user.setUsername(username);
+        return user;
+    }
 }
@@ -0,0 +1,105 @@
+package io.github.webauthn.flows;
+
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.config.BoundedInMemoryOperation;
+import io.github.webauthn.config.CeremonyCodec;
+import io.github.webauthn.config.CeremonyTable;
+import io.github.webauthn.config.CeremonyWeigher;
+import io.github.webauthn.config.EncodedCeremonyOperation;
+import io.github.webauthn.config.OffHeapCeremonyOperation;
+import io.github.webauthn.config.WebAuthnOperation;
+import io.github.webauthn.domain.WebAuthnCredentialsInMemoryRepository;
+import io.github.webauthn.domain.WebAuthnUserInMemoryRepository;
+import io.github.webauthn.dto.AssertionStartRequest;
+import io.github.webauthn.dto.AssertionStartResponse;
+import io.github.webauthn.service.DefaultCredentialService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * A flood of ceremonies that are never finished fills the stores, the starts are turned down
+ * only until the ceremonies time out.
+ */
+class CeremonyStoreExpiryTest {
+
+    static final int MAX_ENTRIES = 10;
+
+    MutableClock clock = new MutableClock();
+    WebAuthnProperties properties = new WebAuthnProperties();
+
+    @Test
+    public void testBoundedStoreAcceptsStartsAgainAfterTheTimeout() {
+        assertFloodExpires(new BoundedInMemoryOperation<>(properties.getCeremony().getTimeout(), MAX_ENTRIES, Long.MAX_VALUE,
+                CeremonyWeigher::weigh, BoundedInMemoryOperation.OverflowPolicy.REJECT, clock));
+    }
+
+    @Test
+    public void testTableAcceptsStartsAgainAfterTheTimeout() {
+        assertFloodExpires(new CeremonyTable<>(properties.getCeremony().getTimeout(), MAX_ENTRIES, clock));
+    }
+
+    @Test
+    public void testOffHeapStoreAcceptsStartsAgainAfterTheTimeout() {
+        // a single slab, the current one is reused once its ceremonies timed out
+        try (OffHeapCeremonyOperation slabs = new OffHeapCeremonyOperation(properties.getCeremony().getTimeout(), 4096, 1, clock)) {
+            assertFloodExpires(new EncodedCeremonyOperation<>(new CeremonyCodec(relyingParty()), slabs, clock));
+        }
+    }
+
+    void assertFloodExpires(WebAuthnOperation<AssertionStartResponse, String> operation) {
+        WebAuthnAssertionStartStrategy strategy = new WebAuthnAssertionStartStrategy(relyingParty(), operation, properties,
+                null, null);
+        assertThrows(TooManyCeremoniesException.class, () -> {
+            for (int i = 0; i < 1000; i++) {
+                strategy.start(new AssertionStartRequest());
+            }
+        });
+        assertThrows(TooManyCeremoniesException.class, () -> strategy.start(new AssertionStartRequest()));
+
+        clock.advance(properties.getCeremony().getTimeout().plusSeconds(5));
+        assertNotNull(strategy.start(new AssertionStartRequest()).getAssertionId());
+    }
+
+    static RelyingParty relyingParty() {
+        return RelyingParty.builder()
+                .identity(RelyingPartyIdentity.builder().id("localhost").name("localhost").build())
+                .credentialRepository(new DefaultCredentialService(new WebAuthnCredentialsInMemoryRepository(),
+                        new WebAuthnUserInMemoryRepository()))
+                .origins(Set.of("http://localhost:8080"))
+                .build();
+    }
+
+    static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2023-11-01T10:15:30.00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
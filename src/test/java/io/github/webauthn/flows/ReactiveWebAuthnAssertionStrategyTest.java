@@ -0,0 +1,78 @@
+package io.github.webauthn.flows;
+
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import io.github.webauthn.WebAuthnProperties;
+import io.github.webauthn.config.BlockingReactiveWebAuthnOperation;
+import io.github.webauthn.config.BoundedInMemoryOperation;
+import io.github.webauthn.config.CeremonyQuota;
+import io.github.webauthn.dto.AssertionFinishRequest;
+import io.github.webauthn.dto.AssertionStartRequest;
+import io.github.webauthn.dto.AssertionStartResponse;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class ReactiveWebAuthnAssertionStrategyTest {
+
+    WebAuthnProperties properties = new WebAuthnProperties();
+    RelyingParty relyingParty = RelyingParty.builder()
+            .identity(RelyingPartyIdentity.builder().id("localhost").name("test").build())
+            .credentialRepository(mock(CredentialRepository.class))
+            .build();
+    BoundedInMemoryOperation<AssertionStartResponse, String> store = new BoundedInMemoryOperation<>(Duration.ofMinutes(5),
+            3, Long.MAX_VALUE, data -> 1, BoundedInMemoryOperation.OverflowPolicy.REJECT);
+    ReactiveWebAuthnAssertionStartStrategy startStrategy = new ReactiveWebAuthnAssertionStartStrategy(
+            new WebAuthnAssertionStartStrategy(relyingParty, store, properties, null),
+            BlockingReactiveWebAuthnOperation.of(store), new CeremonyQuota(2, Duration.ofMinutes(5)), Schedulers.immediate());
+
+    @Test
+    public void testStartStoresTheCeremony() {
+        AssertionStartResponse response = startStrategy.start(new AssertionStartRequest(), null).block();
+
+        assertNotNull(response);
+        assertEquals(response.getAssertionId(), store.get(response.getAssertionId()).getAssertionId());
+    }
+
+    @Test
+    public void testClientKeepsItsMostRecentCeremonies() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(startStrategy.start(new AssertionStartRequest(), "10.0.0.1").block().getAssertionId());
+        }
+
+        assertNull(store.get(ids.get(0)));
+        assertNotNull(store.get(ids.get(1)));
+        assertNotNull(store.get(ids.get(2)));
+    }
+
+    @Test
+    public void testFullStoreRejectsTheStart() {
+        for (int i = 0; i < 3; i++) {
+            startStrategy.start(new AssertionStartRequest(), null).block();
+        }
+
+        assertThrows(TooManyCeremoniesException.class, () -> startStrategy.start(new AssertionStartRequest(), null).block());
+    }
+
+    @Test
+    public void testFinishWithoutStartFails() {
+        ReactiveWebAuthnAssertionFinishStrategy finishStrategy = new ReactiveWebAuthnAssertionFinishStrategy(
+                new WebAuthnAssertionFinishStrategy(null, null, relyingParty, store),
+                BlockingReactiveWebAuthnOperation.of(store), Schedulers.immediate());
+        AssertionFinishRequest request = new AssertionFinishRequest("unknown", null);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> finishStrategy.finish(request).block());
+        assertEquals("call start before this", e.getMessage());
+    }
+}
@@ -4,6 +4,7 @@ package io.github.webauthn.flows;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.AssertionRequest;
 import io.github.webauthn.JsonConfig;
+import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.DefaultWebAuthnCredentials;
@@ -58,7 +59,7 @@ public class WebAuthnAssertionFinishStrategyTest {
     @Autowired
     WebAuthnCredentialsRepository credentialsRepository;
 
-    @MockBean
+    @MockBean(name = WebAuthnConfig.ASSERTION_CACHE)
     WebAuthnOperation assertionOperation;
     @MockBean
     WebAuthnEventPublisher eventPublisher;
@@ -79,7 +80,7 @@ public class WebAuthnAssertionFinishStrategyTest {
 
         AssertionRequest assertionRequest = mapper.readValue("{\"assertionId\":\"bWnC7+6A/fUcwjl048iPOQ==\",\"publicKeyCredentialRequestOptions\":{\"challenge\":\"UeBYkJu4cvNqx6FFi4qSIL8KIDox0pqyMS9W6bAbTH8\",\"rpId\":\"localhost\",\"allowCredentials\":[{\"type\":\"public-key\",\"id\":\"ARgxyHfw5N83gRMl2M7vHhqkQmtHwDJ8QCciM4uWlyGivpTf00b8TIvy6BEpBAZVCA9J5w\"}],\"userVerification\":\"preferred\",\"extensions\":{}}}", AssertionRequest.class);
         AssertionStartResponse startResponse = new AssertionStartResponse("obumqZhCl7CBKxpRjyMePA==", assertionRequest);
-        when(assertionOperation.get(anyString())).thenReturn(startResponse);
+        when(assertionOperation.take(anyString())).thenReturn(startResponse);
 
         this.mockMvc.perform(
                         post("/assertion/finish")
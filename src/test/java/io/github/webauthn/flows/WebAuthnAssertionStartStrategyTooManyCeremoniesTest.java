@@ -0,0 +1,97 @@
+package io.github.webauthn.flows;
+
+
+import io.github.webauthn.JsonConfig;
+import io.github.webauthn.WebAuthnConfig;
+import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
+import io.github.webauthn.config.CeremonyMeterBinder;
+import io.github.webauthn.events.WebAuthnEventPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = {SpringMvcTestConfig.class, JsonConfig.class, WebAuthnInMemoryAutoConfiguration.class,
+        WebAuthnAssertionStartStrategyTooManyCeremoniesTest.DownstreamController.class},
+        properties = {
+                "webauthn.relyingPartyId=localhost",
+                "webauthn.relyingPartyName=localhost",
+                "webauthn.relyingPartyOrigins=http://localhost:8080",
+                "webauthn.ceremony.maxEntries=1",
+                "webauthn.ceremony.metrics=true"
+        })
+@AutoConfigureMockMvc
+@AutoConfigureRestDocs
+public class WebAuthnAssertionStartStrategyTooManyCeremoniesTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    WebAuthnEventPublisher eventPublisher;
+
+    @Autowired
+    CeremonyMeterBinder meterBinder;
+
+    @Test
+    public void testTooManyCeremonies() throws Exception {
+
+        this.mockMvc.perform(
+                        post("/assertion/start")
+                                .accept(MediaType.APPLICATION_JSON)
+                                .content("{}")
+                                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        this.mockMvc.perform(
+                        post("/assertion/start")
+                                .accept(MediaType.APPLICATION_JSON)
+                                .content("{}")
+                                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(jsonPath("$.message").exists())
+                .andDo(document("assertion-start-too-many-ceremonies"));
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        meterBinder.bindTo(registry);
+        assertEquals(1, registry.get("webauthn.ceremonies.rejected").tag("store", WebAuthnConfig.ASSERTION_CACHE)
+                .functionCounter().count());
+    }
+
+    @Test
+    public void testTooManyCeremoniesDownstreamIsNotHandled() {
+
+        ServletException e = assertThrows(ServletException.class, () -> this.mockMvc.perform(
+                post("/downstream")
+                        .with(user("user"))
+                        .accept(MediaType.APPLICATION_JSON)));
+
+        assertInstanceOf(TooManyCeremoniesException.class, e.getCause());
+    }
+
+    @RestController
+    static class DownstreamController {
+
+        @PostMapping("/downstream")
+        public void downstream() {
+            throw new TooManyCeremoniesException("Too many ceremonies downstream");
+        }
+    }
+}
@@ -4,6 +4,7 @@ package io.github.webauthn.flows;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.RelyingParty;
 import io.github.webauthn.BytesUtil;
+import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.DefaultWebAuthnCredentials;
@@ -13,6 +14,7 @@ import io.github.webauthn.domain.WebAuthnUserRepository;
 import io.github.webauthn.events.NewDeviceAddedEvent;
 import io.github.webauthn.events.NewRequestToAddDeviceEvent;
 import io.github.webauthn.events.WebAuthnEventPublisher;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,6 +28,8 @@ import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Optional;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
@@ -51,7 +55,7 @@ public class WebAuthnRegistrationAddStrategyTest {
     @Autowired
     private MockMvc mockMvc;
 
-    @MockBean
+    @MockBean(name = WebAuthnConfig.REGISTRATION_CACHE)
     WebAuthnOperation registrationOperation;
 
     @MockBean
@@ -65,6 +69,16 @@ public class WebAuthnRegistrationAddStrategyTest {
     @MockBean
     WebAuthnEventPublisher eventPublisher;
 
+    @BeforeEach
+    void renameJunitUser() {
+        // the context is shared by the tests, each one saves its own junit user and usernames are unique
+        Optional<DefaultWebAuthnUser> user = webAuthnUserRepository.findByUsername("junit");
+        user.ifPresent(u -> {
+            u.setUsername("junit-" + u.getId());
+            webAuthnUserRepository.save(u);
+        });
+    }
+
     @Test
     @WithMockUser("junit")
     public void testAdd() throws Exception {
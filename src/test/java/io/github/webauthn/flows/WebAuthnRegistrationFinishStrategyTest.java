@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yubico.webauthn.RelyingParty;
 import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
 import io.github.webauthn.BytesUtil;
+import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.DefaultWebAuthnCredentials;
@@ -18,6 +19,7 @@ import io.github.webauthn.events.NewRequestToAddDeviceEvent;
 import io.github.webauthn.events.NewUserCreatedEvent;
 import io.github.webauthn.events.UserMigratedEvent;
 import io.github.webauthn.events.WebAuthnEventPublisher;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.restdocs.AutoConfigureRestDocs;
@@ -30,6 +32,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.LocalDateTime;
+import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -57,7 +60,7 @@ public class WebAuthnRegistrationFinishStrategyTest {
     @Autowired
     private MockMvc mockMvc;
 
-    @MockBean
+    @MockBean(name = WebAuthnConfig.REGISTRATION_CACHE)
     WebAuthnOperation registrationOperation;
 
     @MockBean
@@ -72,6 +75,16 @@ public class WebAuthnRegistrationFinishStrategyTest {
     @Autowired
     RelyingParty relyingParty;
 
+    @BeforeEach
+    void renameJunitUser() {
+        // the context is shared by the tests, each one saves its own junit user and usernames are unique
+        Optional<DefaultWebAuthnUser> user = webAuthnUserRepository.findByUsername("junit");
+        user.ifPresent(u -> {
+            u.setUsername("junit-" + u.getId());
+            webAuthnUserRepository.save(u);
+        });
+    }
+
     @Test
     public void testNewUserFinish() throws Exception {
 
@@ -117,7 +130,7 @@ public class WebAuthnRegistrationFinishStrategyTest {
                         "  }", PublicKeyCredentialCreationOptions.class);
         RegistrationStartResponse startResponse = new RegistrationStartResponse(RegistrationStartResponse.Mode.NEW,
                 "KukKik86leDlveDwJvGZVA==", credentialCreationOptions);
-        when(registrationOperation.get(anyString())).thenReturn(startResponse);
+        when(registrationOperation.take(anyString())).thenReturn(startResponse);
 
 
         this.mockMvc.perform(
@@ -190,7 +203,7 @@ public class WebAuthnRegistrationFinishStrategyTest {
                         "  }", PublicKeyCredentialCreationOptions.class);
         RegistrationStartResponse startResponse = new RegistrationStartResponse(RegistrationStartResponse.Mode.ADD,
                 "KukKik86leDlveDwJvGZVA==", credentialCreationOptions);
-        when(registrationOperation.get(anyString())).thenReturn(startResponse);
+        when(registrationOperation.take(anyString())).thenReturn(startResponse);
 
 
         this.mockMvc.perform(
@@ -264,7 +277,7 @@ public class WebAuthnRegistrationFinishStrategyTest {
                         "  }", PublicKeyCredentialCreationOptions.class);
         RegistrationStartResponse startResponse = new RegistrationStartResponse(RegistrationStartResponse.Mode.MIGRATE,
                 "KukKik86leDlveDwJvGZVA==", credentialCreationOptions);
-        when(registrationOperation.get(anyString())).thenReturn(startResponse);
+        when(registrationOperation.take(anyString())).thenReturn(startResponse);
 
 
         this.mockMvc.perform(
@@ -338,7 +351,7 @@ public class WebAuthnRegistrationFinishStrategyTest {
                         "  }", PublicKeyCredentialCreationOptions.class);
         RegistrationStartResponse startResponse = new RegistrationStartResponse(RegistrationStartResponse.Mode.RECOVERY,
                 "KukKik86leDlveDwJvGZVA==", credentialCreationOptions);
-        when(registrationOperation.get(anyString())).thenReturn(startResponse);
+        when(registrationOperation.take(anyString())).thenReturn(startResponse);
 
 
         this.mockMvc.perform(
@@ -14,6 +14,7 @@ import io.github.webauthn.dto.RegistrationStartRequest;
 import io.github.webauthn.events.NewRequestToAddDeviceEvent;
 import io.github.webauthn.events.NewUserCreatedEvent;
 import io.github.webauthn.events.WebAuthnEventPublisher;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,6 +29,7 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.LocalDateTime;
 import java.util.Base64;
+import java.util.Optional;
 
 import static org.mockito.Mockito.verify;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
@@ -61,6 +63,16 @@ public class WebAuthnRegistrationStartStrategyTest {
     @MockBean
     WebAuthnEventPublisher eventPublisher;
 
+    @BeforeEach
+    void renameJunitUser() {
+        // the context is shared by the tests, each one saves its own junit user and usernames are unique
+        Optional<DefaultWebAuthnUser> user = webAuthnUserRepository.findByUsername("junit");
+        user.ifPresent(u -> {
+            u.setUsername("junit-" + u.getId());
+            webAuthnUserRepository.save(u);
+        });
+    }
+
     @Test
     public void testNewUser() throws Exception {
 
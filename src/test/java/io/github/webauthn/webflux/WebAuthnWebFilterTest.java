@@ -6,6 +6,7 @@ import com.yubico.webauthn.AssertionRequest;
 import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
 import io.github.webauthn.BytesUtil;
 import io.github.webauthn.JsonConfig;
+import io.github.webauthn.WebAuthnConfig;
 import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
 import io.github.webauthn.config.WebAuthnOperation;
 import io.github.webauthn.domain.DefaultWebAuthnCredentials;
@@ -20,6 +21,7 @@ import io.github.webauthn.dto.RegistrationStartRequest;
 import io.github.webauthn.dto.RegistrationStartResponse;
 import io.github.webauthn.events.NewRecoveryTokenCreated;
 import io.github.webauthn.events.WebAuthnEventPublisher;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +43,7 @@ import reactor.core.publisher.Mono;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Base64;
+import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -76,11 +79,23 @@ class WebAuthnWebFilterTest {
     @Autowired
     ObjectMapper mapper;
 
-    @MockBean
+    @MockBean(name = WebAuthnConfig.ASSERTION_CACHE)
     WebAuthnOperation assertionOperation;
+    @MockBean(name = WebAuthnConfig.REGISTRATION_CACHE)
+    WebAuthnOperation registrationOperation;
     @MockBean
     WebAuthnEventPublisher eventPublisher;
 
+    @BeforeEach
+    void renameJunitUser() {
+        // the context is shared by the tests, each one saves its own junit user and usernames are unique
+        Optional<DefaultWebAuthnUser> user = webAuthnUserRepository.findByUsername("junit");
+        user.ifPresent(u -> {
+            u.setUsername("junit-" + u.getId());
+            webAuthnUserRepository.save(u);
+        });
+    }
+
     @Test
     public void testUnauthorized() {
 
@@ -143,7 +158,7 @@ class WebAuthnWebFilterTest {
 
         AssertionRequest assertionRequest = mapper.readValue("{\"assertionId\":\"bWnC7+6A/fUcwjl048iPOQ==\",\"publicKeyCredentialRequestOptions\":{\"challenge\":\"UeBYkJu4cvNqx6FFi4qSIL8KIDox0pqyMS9W6bAbTH8\",\"rpId\":\"localhost\",\"allowCredentials\":[{\"type\":\"public-key\",\"id\":\"ARgxyHfw5N83gRMl2M7vHhqkQmtHwDJ8QCciM4uWlyGivpTf00b8TIvy6BEpBAZVCA9J5w\"}],\"userVerification\":\"preferred\",\"extensions\":{}}}", AssertionRequest.class);
         AssertionStartResponse startResponse = new AssertionStartResponse("obumqZhCl7CBKxpRjyMePA==", assertionRequest);
-        when(assertionOperation.get(anyString())).thenReturn(startResponse);
+        when(assertionOperation.take(anyString())).thenReturn(startResponse);
 
         AssertionStartRequest request = new AssertionStartRequest();
         request.setUsername("junit");
@@ -414,7 +429,7 @@ class WebAuthnWebFilterTest {
                         "  }", PublicKeyCredentialCreationOptions.class);
         RegistrationStartResponse startResponse = new RegistrationStartResponse(RegistrationStartResponse.Mode.RECOVERY,
                 "KukKik86leDlveDwJvGZVA==", credentialCreationOptions);
-        when(assertionOperation.get(anyString())).thenReturn(startResponse);
+        when(registrationOperation.take(anyString())).thenReturn(startResponse);
 
         client
                 .post()
@@ -2,6 +2,7 @@ package io.github.webauthn.webflux;
 
 import io.github.webauthn.BytesUtil;
 import io.github.webauthn.WebAuthnInMemoryAutoConfiguration;
+import io.github.webauthn.config.ReactiveWebAuthnOperation;
 import io.github.webauthn.domain.*;
 import io.github.webauthn.dto.AssertionStartRequest;
 import org.junit.jupiter.api.Test;
@@ -10,11 +11,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Mono;
 
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
 @SpringBootTest(classes = {SpringWebFluxTestConfig.class, WebAuthnWebFluxConfig.class, WebAuthnInMemoryAutoConfiguration.class},
         properties = "spring.main.web-application-type=reactive")
 @AutoConfigureWebTestClient
@@ -28,6 +32,8 @@ class WebAuthnWebFluxConfigTest {
     WebAuthnUserRepository<WebAuthnUser> webAuthnUserRepository;
     @Autowired
     WebAuthnCredentialsRepository<WebAuthnCredentials> credentialsRepository;
+    @Autowired
+    ApplicationContext context;
 
     @Test
     public void testStart() {
@@ -75,4 +81,12 @@ class WebAuthnWebFluxConfigTest {
 
     }
 
+    @Test
+    public void testEachCacheHasItsOwnReactiveOperation() {
+        ReactiveWebAuthnOperation<?, ?> registrations = context.getBean(WebAuthnWebFluxConfig.REACTIVE_REGISTRATION_CACHE,
+                ReactiveWebAuthnOperation.class);
+        ReactiveWebAuthnOperation<?, ?> assertions = context.getBean(WebAuthnWebFluxConfig.REACTIVE_ASSERTION_CACHE,
+                ReactiveWebAuthnOperation.class);
+        assertNotSame(registrations, assertions);
+    }
 }